@@ -1,4 +0,0 @@
-from .version import __VERSION__, VERSION
-from _jep import *
-from .java_import_hook import *
-from .shared_modules_hook import *
@@ -1,2 +0,0 @@
-__VERSION__ = '3.6.1'
-VERSION = __VERSION__
@@ -0,0 +1,108 @@
+package org.cryptocoinpartners.bin;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+import org.cryptocoinpartners.module.ConfigurationError;
+import org.cryptocoinpartners.schema.DiscreteAmount;
+import org.cryptocoinpartners.schema.Exchange;
+import org.cryptocoinpartners.schema.Listing;
+import org.cryptocoinpartners.schema.Market;
+import org.cryptocoinpartners.util.TickFile;
+
+import au.com.bytecode.opencsv.CSVReader;
+
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.Parameters;
+
+/**
+ Converts a csv file of the layout ReadTicksCsv reads (listing, exchange, base, quote, prompt, time in millis, last, vol, bidprice1, bidvol1,
+ askprice1, askvol1) into a TickFile per market, which ReadTicksBinary replays. The csv is read a row at a time, so files of any size can be
+ converted, and rows are appended to the tick files already in the directory.
+ */
+@SuppressWarnings("UnusedDeclaration")
+@Parameters(commandNames = "convert-ticks", commandDescription = "convert a csv file of ticks into binary tick files")
+public class ConvertTicksRunMode extends RunMode {
+
+    @Override
+    public void run(Semaphore semaphore) {
+        File dir = new File(dirname);
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new ConfigurationError("Could not create directory " + dirname);
+        Map<String, TickFile.Writer> writers = new HashMap<>();
+        long rows = 0;
+        CSVReader reader = null;
+        try {
+            reader = new CSVReader(new FileReader(filenames.get(0)), ',', '\"', 1);
+            String[] row;
+            while ((row = reader.readNext()) != null) {
+                if (row.length < 12)
+                    continue;
+                String exchange = row[1];
+                String listing = row[4].isEmpty() ? row[2] + '.' + row[3] : row[2] + '.' + row[3] + '.' + row[4];
+                String symbol = exchange + ':' + listing;
+                TickFile.Writer writer = writers.get(symbol);
+                Market market = markets.get(symbol);
+                if (writer == null) {
+                    market = Market.findOrCreate(Exchange.forSymbolOrCreate(exchange), Listing.forSymbol(listing));
+                    writer = new TickFile.Writer(TickFile.fileFor(dir, exchange, listing), exchange, listing, market.getPriceBasis(),
+                            market.getVolumeBasis(), 1 << 16);
+                    writers.put(symbol, writer);
+                    markets.put(symbol, market);
+                }
+                double priceBasis = market.getPriceBasis();
+                double volumeBasis = market.getVolumeBasis();
+                // asks are held with negative volumes, as Book.addAsk() holds them
+                writer.append(Long.parseLong(row[5]), count(row[6], priceBasis, 0), count(row[7], volumeBasis, 0),
+                        count(row[8], priceBasis, TickFile.NONE), count(row[9], volumeBasis, 0), count(row[10], priceBasis, TickFile.NONE),
+                        -count(row[11], volumeBasis, 0));
+                rows++;
+            }
+        } catch (IOException e) {
+            throw new ConfigurationError("Could not convert " + filenames.get(0) + ": " + e.getMessage());
+        } finally {
+            try {
+                if (reader != null)
+                    reader.close();
+            } catch (IOException e) {
+                log.warn(e.getMessage(), e);
+            }
+            for (TickFile.Writer writer : writers.values())
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    log.warn(e.getMessage(), e);
+                }
+        }
+        log.info("Converted " + rows + " rows of " + filenames.get(0) + " into " + writers.size() + " tick files in " + dirname);
+        if (semaphore != null)
+            semaphore.release();
+    }
+
+    private static long count(String value, double basis, long none) {
+        if (value == null || value.isEmpty())
+            return none;
+        return DiscreteAmount.roundedCountForBasis(new BigDecimal(value), basis);
+    }
+
+    @Parameter(names = { "-dir" }, description = "directory to write the tick files to")
+    public String dirname = "ticks";
+
+    @Parameter(required = true, arity = 1, description = "csv filename")
+    public List<String> filenames;
+
+    private final Map<String, Market> markets = new HashMap<>();
+
+    @Override
+    public void run() {
+        Semaphore semaphore = null;
+        run(semaphore);
+
+    }
+}
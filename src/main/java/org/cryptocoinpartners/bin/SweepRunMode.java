@@ -0,0 +1,223 @@
+package org.cryptocoinpartners.bin;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+
+import org.cryptocoinpartners.module.BasicPortfolioService;
+import org.cryptocoinpartners.module.BasicQuoteService;
+import org.cryptocoinpartners.module.Context;
+import org.cryptocoinpartners.module.MockOrderService;
+import org.cryptocoinpartners.module.xchange.XchangeAccountService;
+import org.cryptocoinpartners.schema.ReplayFactory;
+import org.cryptocoinpartners.schema.StrategyInstance;
+import org.cryptocoinpartners.service.OrderService;
+import org.cryptocoinpartners.util.Replay;
+import org.cryptocoinpartners.util.ThreadUsage;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Instant;
+
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.Parameters;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Backtests a strategy once for every combination of the swept parameters, several backtests at a time. Each backtest has a Replay, Context and
+ * Esper engine of its own, and its parameters are set as the strategy's configuration, e.g.
+ * <p>
+ * sweep -p fast.period=5,10,20 -p slow.period=50,100 --threads 4 MyStrategy
+ * <p>
+ * runs six backtests, four at once. For each it logs the wall time, the events replayed per second, and the CPU time and memory allocated by the
+ * threads of the backtest: the one which ran it, where the strategy's statements run, and its Replay's database reader and partition threads.
+ * Backtests run at once share the process, so these are counted per thread rather than read from process-wide counters, which would mix the
+ * backtests together; work done on threads shared by every backtest, such as the JVM's garbage collector, is not counted.
+ */
+@SuppressWarnings("UnusedDeclaration")
+@Parameters(commandNames = "sweep", commandDescription = "backtest a strategy for every combination of the given parameters, in parallel")
+public class SweepRunMode extends RunMode {
+
+  @Inject
+  protected transient ReplayFactory replayFactory;
+
+  @Parameter(description = "Strategy name to load", arity = 1, required = true)
+  public List<String> strategyNames;
+
+  @Parameter(names = { "-p", "--param" }, description = "a strategy parameter and the values to sweep it over, as {key}={value},{value}...")
+  public List<String> params = new ArrayList<>();
+
+  @Parameter(names = { "-t", "--threads" }, description = "number of backtests run at once")
+  public int threads = Runtime.getRuntime().availableProcessors();
+
+  @Parameter(names = "--start", description = "start of the replay, as an ISO date or time in UTC")
+  public String start = "2014-01-01";
+
+  @Parameter(names = "--end", description = "end of the replay, as an ISO date or time in UTC")
+  public String end = "2015-11-01";
+
+  /** the measurements of one backtest */
+  public static class Result {
+
+    Result(Map<String, String> params, long wallNanos, long cpuNanos, long allocatedBytes, long events) {
+      this.params = params;
+      this.wallNanos = wallNanos;
+      this.cpuNanos = cpuNanos;
+      this.allocatedBytes = allocatedBytes;
+      this.events = events;
+    }
+
+    public Map<String, String> getParams() {
+      return params;
+    }
+
+    public long getWallNanos() {
+      return wallNanos;
+    }
+
+    /** @return the CPU time of the backtest's threads, or -1 if the JVM does not measure it */
+    public long getCpuNanos() {
+      return cpuNanos;
+    }
+
+    /** @return the bytes allocated by the backtest's threads, or -1 if the JVM does not measure them */
+    public long getAllocatedBytes() {
+      return allocatedBytes;
+    }
+
+    public long getEvents() {
+      return events;
+    }
+
+    public double getEventsPerSecond() {
+      return wallNanos == 0 ? 0 : events * 1e9 / wallNanos;
+    }
+
+    @Override
+    public String toString() {
+      return params + " wall=" + TimeUnit.NANOSECONDS.toMillis(wallNanos) + "ms cpu="
+          + (cpuNanos < 0 ? "n/a" : TimeUnit.NANOSECONDS.toMillis(cpuNanos) + "ms") + " allocated="
+          + (allocatedBytes < 0 ? "n/a" : allocatedBytes / (1024 * 1024) + "MB") + " events=" + events + " events/s="
+          + String.format("%.0f", getEventsPerSecond());
+    }
+
+    private final Map<String, String> params;
+    private final long wallNanos;
+    private final long cpuNanos;
+    private final long allocatedBytes;
+    private final long events;
+  }
+
+  /**
+   * @param params each a key and the comma separated values to sweep it over, e.g. "period=5,10,20"
+   * @return every combination of one value per key, varying the last key fastest
+   */
+  public static List<Map<String, String>> combinations(List<String> params) {
+    List<Map<String, String>> combinations = new ArrayList<>();
+    combinations.add(new LinkedHashMap<String, String>());
+    for (String param : params) {
+      int equals = param.indexOf('=');
+      if (equals <= 0)
+        throw new IllegalArgumentException("swept parameters are given as {key}={value},{value}..., not " + param);
+      String key = param.substring(0, equals).trim();
+      List<String> values = Arrays.asList(param.substring(equals + 1).split(","));
+      List<Map<String, String>> expanded = new ArrayList<>(combinations.size() * values.size());
+      for (Map<String, String> combination : combinations)
+        for (String value : values) {
+          Map<String, String> next = new LinkedHashMap<>(combination);
+          next.put(key, value.trim());
+          expanded.add(next);
+        }
+      combinations = expanded;
+    }
+    return combinations;
+  }
+
+  @Override
+  public void run(Semaphore semaphore) {
+    final Instant startTime = new DateTime(start, DateTimeZone.UTC).toInstant();
+    final Instant endTime = new DateTime(end, DateTimeZone.UTC).toInstant();
+    List<Map<String, String>> runs = combinations(params);
+    log.info("Sweep: cpu and allocated count the thread running each backtest and its replay's reader and partition threads, not the threads "
+        + "shared by every backtest such as the garbage collector's");
+    ExecutorService backtests = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactoryBuilder().setNameFormat("sweep-%d").build());
+    List<Future<Result>> results = new ArrayList<>();
+    for (final Map<String, String> run : runs)
+      results.add(backtests.submit(new Callable<Result>() {
+        @Override
+        public Result call() {
+          return backtest(run, startTime, endTime);
+        }
+      }));
+    backtests.shutdown();
+    try {
+      for (int i = 0; i < results.size(); i++) {
+        try {
+          log.info("Sweep: " + results.get(i).get());
+        } catch (ExecutionException e) {
+          log.error("Sweep: backtest " + runs.get(i) + " failed, full stack trace follows:", e.getCause());
+        }
+      }
+    } catch (InterruptedException e) {
+      backtests.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
+    log.info("Sweep completed " + runs.size() + " backtests");
+    if (semaphore != null)
+      semaphore.release();
+  }
+
+  private Result backtest(Map<String, String> params, Instant startTime, Instant endTime) {
+    com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long thread = Thread.currentThread().getId();
+    boolean measureCpu = ThreadUsage.measuresCpu();
+    boolean measureAllocation = ThreadUsage.measuresAllocation();
+    long startCpu = measureCpu ? threadBean.getThreadCpuTime(thread) : 0;
+    long startAllocated = measureAllocation ? threadBean.getThreadAllocatedBytes(thread) : 0;
+    long startWall = System.nanoTime();
+
+    Replay replay = replayFactory.between(startTime, endTime, false, new Semaphore(0), false);
+    Context context = replay.getContext();
+    try {
+      context.attach(XchangeAccountService.class);
+      context.attach(BasicQuoteService.class);
+      context.attach(BasicPortfolioService.class);
+      context.attach(MockOrderService.class);
+      context.getInjector().getInstance(OrderService.class).setTradingEnabled(true);
+      for (String strategyName : strategyNames) {
+        StrategyInstance strategyInstance = new StrategyInstance(strategyName, params);
+        context.attachInstance(strategyInstance);
+        strategyInstance.getStrategy().init();
+      }
+      replay.run();
+
+      long wall = System.nanoTime() - startWall;
+      // the backtest's own thread, plus the threads its Replay read and partitioned the events on
+      ThreadUsage replayThreads = replay.getThreadUsage();
+      long cpu = measureCpu ? threadBean.getThreadCpuTime(thread) - startCpu + replayThreads.getCpuNanos() : -1;
+      long allocated = measureAllocation ? threadBean.getThreadAllocatedBytes(thread) - startAllocated + replayThreads.getAllocatedBytes() : -1;
+      return new Result(params, wall, cpu, allocated, replay.getEventsPublished());
+    } finally {
+      // releases the run's Esper engine before the next backtest starts on this thread
+      context.destroy();
+    }
+  }
+
+  @Override
+  public void run() {
+    Semaphore semaphore = null;
+    run(semaphore);
+
+  }
+}
@@ -0,0 +1,260 @@
+package org.cryptocoinpartners.esper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+import org.cryptocoinpartners.schema.Bar;
+import org.cryptocoinpartners.schema.Tradeable;
+
+/**
+ * Builds OHLC bars of several kinds and sizes from a single pass over a stream of trades. Each market has one slot of primitive state per bar
+ * spec, so a trade only updates doubles and longs in place; a Bar object is made only when a bar closes.
+ * <p>
+ * Time bars are aligned by arithmetic on the epoch milliseconds: a bar of n seconds starts at a multiple of n seconds since the epoch, so
+ * minute, hour and day bars start on the UTC minute, hour and day. A time bar closes when a trade for a later bar arrives, or when flush is
+ * called for a time past its end. Trades older than the last closed bar are dropped.
+ * <p>
+ * Tick, volume and dollar bars close on the trade which brings their count, absolute volume or absolute price times volume to their size. They
+ * have no fixed length, so they are published with an interval of 0 and start at the time of their first trade.
+ * <p>
+ * Not thread safe; the view calls it from the statement's thread.
+ */
+public class BarAggregator {
+
+  public enum Kind {
+    TIME, TICK, VOLUME, DOLLAR
+  }
+
+  /** what closes a bar: a length in seconds for time bars, or a count, volume or notional for the others */
+  public static class Spec {
+
+    public Spec(Kind kind, double size) {
+      if (!(size > 0))
+        throw new IllegalArgumentException("bar size must be positive, not " + size);
+      if (kind == Kind.TIME && size * 1000 != Math.rint(size * 1000))
+        throw new IllegalArgumentException("time bars must be a whole number of milliseconds, not " + size + " seconds");
+      this.kind = kind;
+      this.size = size;
+    }
+
+    /**
+     * @param spec a Number of seconds for a time bar, or a String of seconds, or of the kind and size, e.g. "ticks:500", "volume:100" or
+     *          "dollars:1000000"
+     */
+    public static Spec parse(Object spec) {
+      if (spec instanceof Number)
+        return new Spec(Kind.TIME, ((Number) spec).doubleValue());
+      String text = String.valueOf(spec).trim().toLowerCase(Locale.ENGLISH);
+      int colon = text.indexOf(':');
+      if (colon < 0)
+        return new Spec(Kind.TIME, Double.parseDouble(text));
+      String kind = text.substring(0, colon).trim();
+      double size = Double.parseDouble(text.substring(colon + 1).trim());
+      switch (kind) {
+        case "seconds":
+          return new Spec(Kind.TIME, size);
+        case "ticks":
+          return new Spec(Kind.TICK, size);
+        case "volume":
+          return new Spec(Kind.VOLUME, size);
+        case "dollars":
+          return new Spec(Kind.DOLLAR, size);
+        default:
+          throw new IllegalArgumentException("unknown bar kind " + kind + " in " + spec);
+      }
+    }
+
+    public Kind getKind() {
+      return kind;
+    }
+
+    public double getSize() {
+      return size;
+    }
+
+    /** @return the interval the bars are published with */
+    public double getInterval() {
+      return kind == Kind.TIME ? size : 0;
+    }
+
+    @Override
+    public String toString() {
+      return kind.name().toLowerCase(Locale.ENGLISH) + ":" + size;
+    }
+
+    private final Kind kind;
+    private final double size;
+  }
+
+  /** receives each bar as it closes, with the index of its spec */
+  public interface Sink {
+    void onBar(Bar bar, int spec);
+  }
+
+  public BarAggregator(List<Spec> specs) {
+    if (specs.isEmpty())
+      throw new IllegalArgumentException("at least one bar spec is needed");
+    this.specs = specs.toArray(new Spec[specs.size()]);
+    this.lengths = new long[this.specs.length];
+    for (int i = 0; i < this.specs.length; i++)
+      lengths[i] = this.specs[i].getKind() == Kind.TIME ? Math.round(this.specs[i].getSize() * 1000) : 0;
+  }
+
+  public BarAggregator(Spec... specs) {
+    this(Arrays.asList(specs));
+  }
+
+  public List<Spec> getSpecs() {
+    return Arrays.asList(specs);
+  }
+
+  /** adds a trade to every bar of its market, passing the bars it closes to the sink */
+  public void update(Tradeable market, long timestamp, double price, double volume, Sink sink) {
+    Slot[] slots = slots(market);
+    for (int i = 0; i < slots.length; i++) {
+      Slot slot = slots[i];
+      long length = lengths[i];
+      if (length > 0) {
+        long start = timestamp - floorMod(timestamp, length);
+        // too late for a bar which has been closed, or for one before the open bar
+        if (start <= slot.cutoff || (slot.count > 0 && start < slot.start))
+          continue;
+        if (slot.count > 0 && start != slot.start)
+          close(market, slot, i, sink);
+        if (slot.count == 0) {
+          slot.start = start;
+          if (start + length < nextEnd)
+            nextEnd = start + length;
+        }
+        slot.add(price, volume);
+      } else {
+        if (slot.count == 0)
+          slot.start = timestamp;
+        slot.add(price, volume);
+        if (slot.progress(specs[i].getKind()) >= specs[i].getSize())
+          close(market, slot, i, sink);
+      }
+    }
+  }
+
+  /** closes the time bars of every market which end at or before the time */
+  public void flush(long time, Sink sink) {
+    for (int m = 0; m < markets.size(); m++) {
+      Tradeable market = markets.get(m);
+      Slot[] slots = marketSlots.get(market);
+      for (int i = 0; i < slots.length; i++)
+        if (lengths[i] > 0 && slots[i].count > 0 && slots[i].start + lengths[i] <= time)
+          close(market, slots[i], i, sink);
+    }
+  }
+
+  /** @return the earliest end of an open time bar, or Long.MAX_VALUE if none is open */
+  public long getNextEnd() {
+    // only rescanned after the earliest bar closes, which is at most once per bar
+    if (nextEndStale) {
+      nextEnd = Long.MAX_VALUE;
+      for (Slot[] slots : marketSlots.values())
+        for (int i = 0; i < slots.length; i++)
+          if (lengths[i] > 0 && slots[i].count > 0)
+            nextEnd = Math.min(nextEnd, slots[i].start + lengths[i]);
+      nextEndStale = false;
+    }
+    return nextEnd;
+  }
+
+  private Slot[] slots(Tradeable market) {
+    // trades usually come in runs for the same market
+    if (market == lastMarket && lastSlots != null)
+      return lastSlots;
+    Slot[] slots = marketSlots.get(market);
+    if (slots == null) {
+      slots = new Slot[specs.length];
+      for (int i = 0; i < slots.length; i++)
+        slots[i] = new Slot();
+      marketSlots.put(market, slots);
+      markets.add(market);
+    }
+    lastMarket = market;
+    lastSlots = slots;
+    return slots;
+  }
+
+  private void close(Tradeable market, Slot slot, int spec, Sink sink) {
+    Bar bar = new Bar(slot.start, specs[spec].getInterval(), slot.open, slot.close, slot.high, slot.low, slot.volume, market);
+    if (lengths[spec] > 0) {
+      slot.cutoff = slot.start;
+      if (slot.start + lengths[spec] == nextEnd)
+        nextEndStale = true;
+    }
+    slot.reset();
+    sink.onBar(bar, spec);
+  }
+
+  private static long floorMod(long x, long y) {
+    long mod = x % y;
+    return mod < 0 ? mod + y : mod;
+  }
+
+  /** the open bar of one market and spec */
+  private static class Slot {
+
+    void add(double price, double size) {
+      if (count == 0) {
+        open = price;
+        high = price;
+        low = price;
+      } else if (price > high)
+        high = price;
+      else if (price < low)
+        low = price;
+      close = price;
+      volume += size;
+      absoluteVolume += Math.abs(size);
+      notional += Math.abs(price * size);
+      count++;
+    }
+
+    double progress(Kind kind) {
+      switch (kind) {
+        case TICK:
+          return count;
+        case VOLUME:
+          return absoluteVolume;
+        default:
+          return notional;
+      }
+    }
+
+    void reset() {
+      count = 0;
+      volume = 0;
+      absoluteVolume = 0;
+      notional = 0;
+    }
+
+    long start;
+    // the start of the last closed time bar
+    long cutoff = Long.MIN_VALUE;
+    long count;
+    double open;
+    double high;
+    double low;
+    double close;
+    double volume;
+    double absoluteVolume;
+    double notional;
+  }
+
+  private final Spec[] specs;
+  // the length of each time bar in milliseconds, 0 for the others
+  private final long[] lengths;
+  private final HashMap<Tradeable, Slot[]> marketSlots = new HashMap<Tradeable, Slot[]>();
+  private final List<Tradeable> markets = new ArrayList<Tradeable>();
+  private Tradeable lastMarket;
+  private Slot[] lastSlots;
+  private long nextEnd = Long.MAX_VALUE;
+  private boolean nextEndStale;
+}
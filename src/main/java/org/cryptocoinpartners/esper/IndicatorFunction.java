@@ -0,0 +1,188 @@
+package org.cryptocoinpartners.esper;
+
+import java.util.Locale;
+
+import org.cryptocoinpartners.esper.indicator.AverageTrueRange;
+import org.cryptocoinpartners.esper.indicator.BollingerBands;
+import org.cryptocoinpartners.esper.indicator.ExponentialMovingAverage;
+import org.cryptocoinpartners.esper.indicator.Indicator;
+import org.cryptocoinpartners.esper.indicator.LinearRegression;
+import org.cryptocoinpartners.esper.indicator.MovingAverageConvergenceDivergence;
+import org.cryptocoinpartners.esper.indicator.RelativeStrengthIndex;
+import org.cryptocoinpartners.esper.indicator.SimpleMovingAverage;
+import org.cryptocoinpartners.esper.indicator.StandardDeviation;
+
+import com.espertech.esper.epl.agg.service.AggregationSupport;
+import com.espertech.esper.epl.agg.service.AggregationValidationContext;
+import com.espertech.esper.util.JavaClassHelper;
+
+/**
+ * An aggregation function over the streaming indicators, which are updated in constant time per event instead of recomputing a TA-Lib
+ * function over its whole lookback window like talib() does. The parameters are the indicator name, its inputs in the order TA-Lib takes them,
+ * then its options:
+ *
+ * <pre>
+ * indicator("sma", value, period)
+ * indicator("ema", value, period)
+ * indicator("stdDev", value, period, deviations)
+ * indicator("bbands", value, period, deviationsUp, deviationsDown)
+ * indicator("rsi", value, period)
+ * indicator("atr", high, low, close, period)
+ * indicator("macd", value, fastPeriod, slowPeriod, signalPeriod)
+ * indicator("linearReg", value, period)
+ * </pre>
+ *
+ * The value is a Double, a BollingerBands.Bands or a MovingAverageConvergenceDivergence.Lines, or null until the indicator has seen enough
+ * events. The window is the indicator's own period, so events leaving a data window in the statement do not change it; use it on an unwindowed
+ * stream, e.g.
+ *
+ * <pre>
+ * select indicator("rsi", askPriceAsDouble, 14) as value from Book
+ * </pre>
+ */
+public class IndicatorFunction extends AggregationSupport {
+
+    Indicator indicator;
+    Class<?> outputType;
+    double[] inputs;
+
+    // the index of the indicator name in the parameters
+    final int offset;
+
+    public IndicatorFunction() {
+        this(0);
+    }
+
+    IndicatorFunction(int offset) {
+        super();
+        this.offset = offset;
+    }
+
+    @Override
+    public void validate(AggregationValidationContext validationContext) {
+
+        Class<?>[] paramTypes = validationContext.getParameterTypes();
+        Object[] params = new Object[paramTypes.length];
+        for (int i = offset; i < paramTypes.length; i++)
+            if (validationContext.getIsConstantValue()[i])
+                params[i] = validationContext.getConstantValues()[i];
+            else if (i == offset)
+                params[i] = validationContext.getExpressions()[i].getExprEvaluator().evaluate(null, true, null);
+        if (!(params[offset] instanceof String)) {
+            throw new IllegalArgumentException("param " + offset + " has to be a constant indicator name");
+        }
+
+        // the inputs come from the events, the options have to be constants
+        Indicator prototype = create(params, offset);
+        for (int i = offset + 1; i < paramTypes.length; i++) {
+            if (i <= offset + prototype.getInputCount()) {
+                if (!JavaClassHelper.isNumeric(paramTypes[i])) {
+                    throw new IllegalArgumentException("param number " + i + " needs must be numeric");
+                }
+            } else if (params[i] == null) {
+                throw new IllegalArgumentException("param " + i + " has to be a constant");
+            }
+        }
+        this.outputType = prototype.getOutputType();
+    }
+
+    @Override
+    public void enter(Object obj) {
+
+        Object[] params = (Object[]) obj;
+
+        // a new aggregator made for a group has not been validated, so create the indicator on its first event
+        if (indicator == null) {
+            indicator = create(params, offset);
+        }
+        update(indicator, params);
+    }
+
+    /**
+     * The indicator keeps its own window, so an event leaving the statement's window is ignored.
+     */
+    @Override
+    public void leave(Object obj) {
+    }
+
+    @Override
+    public Class<?> getValueType() {
+        return outputType;
+    }
+
+    @Override
+    public Object getValue() {
+        return indicator == null ? null : indicator.getOutput();
+    }
+
+    @Override
+    public void clear() {
+        if (indicator != null) {
+            indicator.clear();
+        }
+    }
+
+    void update(Indicator indicator, Object[] params) {
+        if (inputs == null) {
+            inputs = new double[indicator.getInputCount()];
+        }
+        for (int i = 0; i < inputs.length; i++) {
+            Object value = params[offset + 1 + i];
+            // an event without all its inputs is not part of the series
+            if (value == null) {
+                return;
+            }
+            inputs[i] = ((Number) value).doubleValue();
+        }
+        indicator.update(inputs);
+    }
+
+    static Indicator create(Object[] params, int offset) {
+        String name = (String) params[offset];
+        switch (name.toLowerCase(Locale.ENGLISH)) {
+            case "sma":
+                expect(params, offset, 1, 1);
+                return new SimpleMovingAverage(intOption(params, offset + 2));
+            case "ema":
+                expect(params, offset, 1, 1);
+                return new ExponentialMovingAverage(intOption(params, offset + 2));
+            case "stddev":
+                expect(params, offset, 1, 2);
+                return new StandardDeviation(intOption(params, offset + 2), doubleOption(params, offset + 3));
+            case "bbands":
+                expect(params, offset, 1, 3);
+                return new BollingerBands(intOption(params, offset + 2), doubleOption(params, offset + 3), doubleOption(params, offset + 4));
+            case "rsi":
+                expect(params, offset, 1, 1);
+                return new RelativeStrengthIndex(intOption(params, offset + 2));
+            case "atr":
+                expect(params, offset, 3, 1);
+                return new AverageTrueRange(intOption(params, offset + 4));
+            case "macd":
+                expect(params, offset, 1, 3);
+                return new MovingAverageConvergenceDivergence(intOption(params, offset + 2), intOption(params, offset + 3), intOption(params,
+                        offset + 4));
+            case "linearreg":
+                expect(params, offset, 1, 1);
+                return new LinearRegression(intOption(params, offset + 2));
+            default:
+                throw new IllegalArgumentException("indicator " + name + " was not found");
+        }
+    }
+
+    private static void expect(Object[] params, int offset, int inputs, int options) {
+        int expected = offset + 1 + inputs + options;
+        if (params.length != expected) {
+            throw new IllegalArgumentException(params[offset] + " takes " + inputs + " inputs and " + options + " options, but " + params.length
+                    + " params have been specified, should be " + expected);
+        }
+    }
+
+    private static int intOption(Object[] params, int index) {
+        return params[index] == null ? 0 : ((Number) params[index]).intValue();
+    }
+
+    private static double doubleOption(Object[] params, int index) {
+        return params[index] == null ? 0 : ((Number) params[index]).doubleValue();
+    }
+}
@@ -0,0 +1,55 @@
+package org.cryptocoinpartners.esper;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.cryptocoinpartners.esper.indicator.Indicator;
+
+/**
+ * The grouped form of IndicatorFunction, like groupedTalib: the first parameter is a key, and each key has its own indicator. The value is a
+ * Map from each key to its indicator's value, e.g.
+ *
+ * <pre>
+ * select groupedIndicator(market, "ema", askPriceAsDouble, 20) as value from Book
+ * </pre>
+ */
+public class IndicatorGroupingFunction extends IndicatorFunction {
+
+    Map<Object, Indicator> groupedIndicators;
+
+    public IndicatorGroupingFunction() {
+        super(1);
+        groupedIndicators = new HashMap<Object, Indicator>();
+    }
+
+    @Override
+    public void enter(Object obj) {
+
+        Object[] params = (Object[]) obj;
+        Indicator indicator = groupedIndicators.get(params[0]);
+        if (indicator == null) {
+            indicator = create(params, offset);
+            groupedIndicators.put(params[0], indicator);
+        }
+        update(indicator, params);
+    }
+
+    @Override
+    public Class<?> getValueType() {
+        return Map.class;
+    }
+
+    @Override
+    public Object getValue() {
+        Map<Object, Object> values = new HashMap<Object, Object>();
+        for (Map.Entry<Object, Indicator> entry : groupedIndicators.entrySet())
+            values.put(entry.getKey(), entry.getValue().getOutput());
+        return values;
+    }
+
+    @Override
+    public void clear() {
+        for (Indicator indicator : groupedIndicators.values())
+            indicator.clear();
+    }
+}
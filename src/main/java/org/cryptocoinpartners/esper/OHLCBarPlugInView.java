@@ -1,9 +1,9 @@
 package org.cryptocoinpartners.esper;
 
-import java.util.Calendar;
-import java.util.GregorianCalendar;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 
 import org.cryptocoinpartners.schema.Bar;
 import org.cryptocoinpartners.schema.Tradeable;
@@ -24,13 +24,17 @@ import com.espertech.esper.view.View;
 import com.espertech.esper.view.ViewSupport;
 
 /**
- * Custom view to compute minute OHLC bars for double values and based on the event's timestamps.
+ * Custom view to compute OHLC bars for double values and based on the event's timestamps.
  * <p>
  * Assumes events arrive in the order of timestamps, i.e. event 1 timestamp is always less or equal event 2 timestamp.
  * <p>
  * Implemented as a custom plug-in view rather then a series of EPL statements for the following reasons: - Custom output result mixing aggregation
  * (min/max) and first/last values - No need for a data window retaining events if using a custom view - Unlimited number of groups (minute
  * timestamps) makes the group-by clause hard to use
+ * <p>
+ * The parameters are the timestamp, value, volume and market expressions followed by one or more bar specs, so one pass over the stream can
+ * produce several intervals, e.g. custom:ohlcbar(timestamp, priceAsDouble, volumeAsDouble, market, 60d, 3600d, "volume:100"). See
+ * BarAggregator.Spec for the forms a spec can take. The specs are read from the first event and then fixed for the life of the view.
  */
 public class OHLCBarPlugInView extends ViewSupport implements CloneableView {
   private final static int LATE_EVENT_SLACK_SECONDS = 5;
@@ -42,21 +46,23 @@ public class OHLCBarPlugInView extends ViewSupport implements CloneableView {
   private final ExprNode valueExpression;
   private ExprNode volumeExpression;
   private ExprNode marketExpression;
-  private ExprNode intervalExpression;
+  private ExprNode[] intervalExpressions = new ExprNode[0];
   private final EventBean[] eventsPerStream = new EventBean[1];
 
   private EPStatementHandleCallback handle;
-  private final HashMap<Tradeable, Long> cutoffTimestampMinute = new HashMap<Tradeable, Long>();
-  private final HashMap<Tradeable, Long> currentTimestampMinute = new HashMap<Tradeable, Long>();
-  private final HashMap<Tradeable, Double> first = new HashMap<Tradeable, Double>();
-  private final HashMap<Tradeable, Double> last = new HashMap<Tradeable, Double>();
-  private final HashMap<Tradeable, Double> max = new HashMap<Tradeable, Double>();
-  private final HashMap<Tradeable, Double> min = new HashMap<Tradeable, Double>();
-  private final HashMap<Tradeable, Double> vol = new HashMap<Tradeable, Double>();
+  // the time the callback is scheduled for
+  private long scheduledTime = Long.MAX_VALUE;
+  private BarAggregator aggregator;
+
+  // the last bar posted for each market and spec, which is replaced by the next one
+  private final HashMap<Tradeable, EventBean[]> lastEvent = new HashMap<Tradeable, EventBean[]>();
 
-  // private Market market;
-  //  private Double interval;
-  private final HashMap<Tradeable, EventBean> lastEvent = new HashMap<Tradeable, EventBean>();
+  private final BarAggregator.Sink sink = new BarAggregator.Sink() {
+    @Override
+    public void onBar(Bar bar, int spec) {
+      postData(bar, spec);
+    }
+  };
 
   public OHLCBarPlugInView(AgentInstanceViewFactoryChainContext agentInstanceViewFactoryContext, ExprNode timestampExpression,
       ExprNode valueExpression) {
@@ -67,13 +73,13 @@ public class OHLCBarPlugInView extends ViewSupport implements CloneableView {
   }
 
   public OHLCBarPlugInView(AgentInstanceViewFactoryChainContext agentInstanceViewFactoryContext, ExprNode timestampExpression,
-      ExprNode valueExpression, ExprNode volumeExpression, ExprNode marketExpression, ExprNode intervalExpression) {
+      ExprNode valueExpression, ExprNode volumeExpression, ExprNode marketExpression, ExprNode... intervalExpressions) {
     this.agentInstanceViewFactoryContext = agentInstanceViewFactoryContext;
     this.timestampExpression = timestampExpression;
     this.valueExpression = valueExpression;
     this.volumeExpression = volumeExpression;
     this.marketExpression = marketExpression;
-    this.intervalExpression = intervalExpression;
+    this.intervalExpressions = intervalExpressions;
     this.scheduleSlot = agentInstanceViewFactoryContext.getStatementContext().getScheduleBucket().allocateSlot();
   }
 
@@ -85,91 +91,26 @@ public class OHLCBarPlugInView extends ViewSupport implements CloneableView {
 
     for (EventBean theEvent : newData) {
       eventsPerStream[0] = theEvent;
-      log.trace(this.getClass().getSimpleName() + ":update recieved new event" + eventsPerStream[0].toString());
-
-      Double interval = (Double) intervalExpression.getExprEvaluator().evaluate(eventsPerStream, true, agentInstanceViewFactoryContext);
 
       Long timestamp = (Long) timestampExpression.getExprEvaluator().evaluate(eventsPerStream, true, agentInstanceViewFactoryContext);
-      Long timestampMinute = removeSeconds(timestamp, interval);
-      double value = (Double) valueExpression.getExprEvaluator().evaluate(eventsPerStream, true, agentInstanceViewFactoryContext);
-      double volume = (Double) volumeExpression.getExprEvaluator().evaluate(eventsPerStream, true, agentInstanceViewFactoryContext);
+      Double value = (Double) valueExpression.getExprEvaluator().evaluate(eventsPerStream, true, agentInstanceViewFactoryContext);
+      Double volume = volumeExpression == null ? Double.valueOf(0) : (Double) volumeExpression.getExprEvaluator().evaluate(eventsPerStream, true,
+          agentInstanceViewFactoryContext);
 
       Tradeable market = null;
       if (marketExpression != null)
         market = (Tradeable) marketExpression.getExprEvaluator().evaluate(eventsPerStream, true, agentInstanceViewFactoryContext);
 
-      // test if this minute has already been published, the event is too late
-      if (interval == null || interval == 0 || timestamp == null || timestamp == 0 || timestampMinute == null || timestampMinute == 0
-          || (marketExpression != null && market == null)) {
-        log.error(this.getClass().getSimpleName() + ":unable to create bar with interval: " + interval + " timestamp: " + timestamp
-            + " timestampMinute:" + timestampMinute + " market: " + market + " cutoffTimestampMinute: " + cutoffTimestampMinute);
-
-        return;
-      }
-      log.trace(this.getClass().getSimpleName() + ":update determing bar for interval: " + interval + " timestamp: " + timestamp
-          + " timestampMinute:" + timestampMinute + " value: " + value + " market: " + market + " cutoffTimestampMinute: " + cutoffTimestampMinute);
-
-      if ((cutoffTimestampMinute.get(market) != null) && (timestampMinute <= cutoffTimestampMinute.get(market))) {
+      if (timestamp == null || timestamp == 0 || value == null || volume == null || (marketExpression != null && market == null)) {
+        log.error(this.getClass().getSimpleName() + ":unable to create bar with timestamp: " + timestamp + " value: " + value + " volume: "
+            + volume + " market: " + market);
         continue;
       }
-
-      // if the same minute, aggregate
-      if (timestampMinute.equals(getCurrentTimestampMinute(market))) {
-        log.trace(this.getClass().getSimpleName() + ":update - apply value for " + value);
-        applyValue(market, value, volume);
+      if (aggregator == null) {
+        aggregator = new BarAggregator(getSpecs());
       }
-      // first time we see an event for this minute
-      else {
-        // there is data to post
-        if (getCurrentTimestampMinute(market) != null) {
-          log.trace(this.getClass().getSimpleName() + " update: posing data for bar for market: " + market + " with timestamp:"
-              + currentTimestampMinute + " first:" + first + " high: " + max + " low: " + min + " close: " + last);
-
-          postData(market, interval);
-        }
-        setCurrentTimestampMinute(market, timestampMinute);
-
-        // currentTimestampMinute = timestampMinute;
-        log.trace(this.getClass().getSimpleName() + ":update - apply value for " + value);
-
-        applyValue(market, value, volume);
-
-        // schedule a callback to fire in case no more events arrive
-        log.trace(this.getClass().getSimpleName() + ":update - scheduleCallback for interval: " + interval.longValue() + " slack "
-            + LATE_EVENT_SLACK_SECONDS);
-
-        scheduleCallback(market);
-      }
-    }
-  }
-
-  public Long getCurrentTimestampMinute(Tradeable market) {
-    return currentTimestampMinute.get(market);
-
-  }
-
-  protected void setCurrentTimestampMinute(Tradeable market, Long timestamp) {
-    if ((timestamp == null || currentTimestampMinute.get(market) == null) || (timestamp > 0 && timestamp > currentTimestampMinute.get(market))) {
-      currentTimestampMinute.put(market, timestamp);
-    } else {
-      log.error("setCurrentTimestampMinute: unable to set current time stamp minute as currnet currentTimestampMinute "
-          + currentTimestampMinute.get(market) + " is greater than new time stamp " + timestamp);
-
-    }
-  }
-
-  public Long getCutoffTimestampMinute(Tradeable market) {
-    return cutoffTimestampMinute.get(market);
-  }
-
-  protected void setCutoffTimestampMinute(Tradeable market, Long cutoff) {
-    if (cutoffTimestampMinute.get(market) == null || (cutoff != null && cutoff > cutoffTimestampMinute.get(market))) {
-      cutoffTimestampMinute.put(market, cutoff);
-
-    } else {
-      log.error("setCutoffTimestampMinute: unable to set cut off timestamp as currnet cutoffTimestampMinute " + cutoffTimestampMinute
-          + " is greater than new cut off time stamp " + cutoff);
-
+      aggregator.update(market, timestamp, value, volume, sink);
+      scheduleCallback();
     }
   }
 
@@ -186,164 +127,74 @@ public class OHLCBarPlugInView extends ViewSupport implements CloneableView {
   @Override
   public View cloneView() {
     return new OHLCBarPlugInView(agentInstanceViewFactoryContext, timestampExpression, valueExpression, volumeExpression, marketExpression,
-        intervalExpression);
-  }
-
-  private void applyValue(Tradeable market, double value, double volume) {
-    if (first.get(market) == null) {
-      first.put(market, value);
-
-    }
-    last.put(market, value);
-    if (min.get(market) == null) {
-      min.put(market, value);
-
-    } else if (min.get(market).compareTo(value) > 0) {
-      min.put(market, value);
-    }
-    if (max.get(market) == null) {
-      max.put(market, value);
-    } else if (max.get(market).compareTo(value) < 0) {
-      max.put(market, value);
-
-    }
-    if (vol.get(market) == null) {
-      vol.put(market, volume);
-    } else {
-      vol.put(market, volume + vol.get(market));
-
-    }
-
+        intervalExpressions);
   }
 
   protected static EventType getEventType(EventAdapterService eventAdapterService) {
     return eventAdapterService.addBeanType(Bar.class.getName(), Bar.class, false, false, false);
   }
 
-  private long removeSeconds(long timestamp, double interval) {
-    Calendar cal = GregorianCalendar.getInstance();
-    cal.setTimeInMillis(timestamp);
-    cal.set(Calendar.SECOND, 0);
-    cal.set(Calendar.MILLISECOND, 0);
-
-    //TODO: need to support bars for mulitiple days
-    if ((interval / 86400) > 1) {
-      int days = (int) Math.round(interval / 86400);
-      cal.set(Calendar.HOUR_OF_DAY, 0);
-      int modulo = cal.get(Calendar.DAY_OF_YEAR) % days;
-      if (modulo > 0) {
-
-        cal.add(Calendar.DAY_OF_YEAR, -modulo);
-      }
-      //cal.set(Calendar.DAY_OF_YEAR, 0);
-      // round interval to nearest day
-      interval = ((double) Math.round(interval / 86400)) * 86400;
-    }
-
-    if ((interval / 3600) > 1) {
-      int hours = (int) Math.round(interval / 3600);
-      cal.set(Calendar.MINUTE, 0);
-      int modulo = cal.get(Calendar.HOUR_OF_DAY) % hours;
-      if (modulo > 0) {
-
-        cal.add(Calendar.HOUR_OF_DAY, -modulo);
-      }
-
-      // cal.set(Calendar.HOUR_OF_DAY, 0);
-      // round interval to nearest hour
-      interval = ((double) Math.round(interval / 3600)) * 3600;
-    }
-
-    if ((interval / 60) > 1) {
-      int mins = (int) (Math.round(interval / 60));
-
-      int modulo = cal.get(Calendar.MINUTE) % mins;
-      if (modulo > 0) {
-
-        cal.add(Calendar.MINUTE, -modulo);
-      }
-      interval = ((double) Math.round(interval / 60)) * 60;
+  private List<BarAggregator.Spec> getSpecs() {
+    List<BarAggregator.Spec> specs = new ArrayList<BarAggregator.Spec>();
+    for (ExprNode intervalExpression : intervalExpressions) {
+      Object interval = intervalExpression.getExprEvaluator().evaluate(eventsPerStream, true, agentInstanceViewFactoryContext);
+      specs.add(BarAggregator.Spec.parse(interval));
     }
-    return cal.getTimeInMillis();
+    // minute bars without a spec
+    if (specs.isEmpty())
+      specs.add(new BarAggregator.Spec(BarAggregator.Kind.TIME, 60));
+    return specs;
   }
 
-  private void scheduleCallback(final Tradeable market) {
+  /** keeps one callback scheduled for just after the earliest open time bar ends, in case no more events arrive */
+  private void scheduleCallback() {
+    long nextEnd = aggregator.getNextEnd();
+    long targetTime = nextEnd == Long.MAX_VALUE ? Long.MAX_VALUE : nextEnd + LATE_EVENT_SLACK_SECONDS * 1000; // leave some seconds for late comers
+    if (targetTime == scheduledTime)
+      return;
     if (handle != null) {
       // remove old schedule
       agentInstanceViewFactoryContext.getStatementContext().getSchedulingService().remove(handle, scheduleSlot);
       handle = null;
     }
-    final double interval = (Double) intervalExpression.getExprEvaluator().evaluate(eventsPerStream, true, agentInstanceViewFactoryContext);
+    scheduledTime = targetTime;
+    if (targetTime == Long.MAX_VALUE)
+      return;
 
     long currentTime = agentInstanceViewFactoryContext.getStatementContext().getSchedulingService().getTime();
-    long currentRemoveSeconds = removeSeconds(currentTime, interval);
-    //long targetTime = currentRemoveSeconds + (86400 + LATE_EVENT_SLACK_SECONDS) * 1000; // leave some seconds for late comers
-
-    long targetTime = (long) (currentRemoveSeconds + ((interval + LATE_EVENT_SLACK_SECONDS) * 1000)); // leave some seconds for late comers
-
-    long scheduleAfterMSec = targetTime - currentTime;
-    log.trace(this.getClass().getSimpleName() + ":scheduling Callback after : " + scheduleAfterMSec + " for currentTime " + currentTime
-        + " targetTime " + targetTime);
+    long scheduleAfterMSec = Math.max(0, targetTime - currentTime);
+    if (log.isTraceEnabled())
+      log.trace(this.getClass().getSimpleName() + ":scheduling Callback after : " + scheduleAfterMSec + " for currentTime " + currentTime
+          + " targetTime " + targetTime);
 
     ScheduleHandleCallback callback = new ScheduleHandleCallback() {
       @Override
       public void scheduledTrigger(ExtensionServicesContext extensionServicesContext) {
-        //        if (extensionServicesContext == null)
-        //        return;
         handle = null; // clear out schedule handle
-        OHLCBarPlugInView.this.postData(market, interval);
+        scheduledTime = Long.MAX_VALUE;
+        long now = agentInstanceViewFactoryContext.getStatementContext().getSchedulingService().getTime();
+        aggregator.flush(now - LATE_EVENT_SLACK_SECONDS * 1000, sink);
+        scheduleCallback();
       }
     };
 
     handle = new EPStatementHandleCallback(agentInstanceViewFactoryContext.getEpStatementAgentInstanceHandle(), callback);
     agentInstanceViewFactoryContext.getStatementContext().getSchedulingService().add(scheduleAfterMSec, handle, scheduleSlot);
-    log.trace(this.getClass().getSimpleName() + ":scheduledCallback after : " + scheduleAfterMSec + " for handle " + handle + " scheduleSlot "
-        + scheduleSlot);
-
   }
 
-  private void postData(Tradeable market, double interval) {
-    Bar barValue;
-    if (currentTimestampMinute.get(market) != null && first.get(market) != null && last.get(market) != null && max.get(market) != null
-        && min.get(market) != null && market != null) {
-      try {
-        barValue = new Bar(currentTimestampMinute.get(market), interval, first.get(market), last.get(market), max.get(market), min.get(market),
-            vol.get(market), market);
-      } catch (Exception | Error ex) {
-        log.error("PostData: Unable to generate bar for market: " + market + " with timestamp:" + currentTimestampMinute.get(market) + " first:"
-            + first.get(market) + " high: " + max.get(market) + " low: " + min.get(market) + " close: " + last.get(market));
-        return;
-      }
-      EventBean outgoing = agentInstanceViewFactoryContext.getStatementContext().getEventAdapterService().adapterForBean(barValue);
-      if (lastEvent == null) {
-        log.trace(this.getClass().getSimpleName() + ": PostData -  updating child " + outgoing.getUnderlying().toString());
-
-        this.updateChildren(new EventBean[]{outgoing}, null);
-      } else {
-
-        log.trace(this.getClass().getSimpleName() + ": PostData - updating child outgoing event " + outgoing.getUnderlying().toString()
-            + " last event " + ((lastEvent != null && lastEvent.get(market) != null) ? (lastEvent.get(market).getUnderlying().toString()) : ""));
-
-        this.updateChildren(new EventBean[]{outgoing}, new EventBean[]{lastEvent.get(market)});
-      }
-
-      lastEvent.put(market, outgoing);
-
-      setCutoffTimestampMinute(market, currentTimestampMinute.get(market));
-      // cutoffTimestampMinute = currentTimestampMinute;
-
-      first.put(market, null);
-      last.put(market, null);
-      max.put(market, null);
-      min.put(market, null);
-      vol.put(market, null);
-
-      setCurrentTimestampMinute(market, null);
-
-      // currentTimestampMinute = null;
+  private void postData(Bar barValue, int spec) {
+    Tradeable market = barValue.getMarket();
+    EventBean[] marketEvents = lastEvent.get(market);
+    if (marketEvents == null) {
+      marketEvents = new EventBean[aggregator.getSpecs().size()];
+      lastEvent.put(market, marketEvents);
+    }
+    EventBean outgoing = agentInstanceViewFactoryContext.getStatementContext().getEventAdapterService().adapterForBean(barValue);
+    if (log.isTraceEnabled())
+      log.trace(this.getClass().getSimpleName() + ": PostData - updating child outgoing event " + barValue + " last event "
+          + (marketEvents[spec] != null ? marketEvents[spec].getUnderlying().toString() : ""));
 
-    } else
-      log.error("PostData: Unable to generate bar for market: " + market + " with timestamp:" + currentTimestampMinute + " first:" + first
-          + " high: " + max + " low: " + min + " close: " + last);
+    this.updateChildren(new EventBean[]{outgoing}, marketEvents[spec] == null ? null : new EventBean[]{marketEvents[spec]});
+    marketEvents[spec] = outgoing;
   }
 }
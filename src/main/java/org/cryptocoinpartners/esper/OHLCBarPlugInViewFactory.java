@@ -21,14 +21,14 @@ public class OHLCBarPlugInViewFactory extends ViewFactorySupport {
     private ExprNode valueExpression;
     private ExprNode volumeExpression;
     private ExprNode marketExpression;
-    private ExprNode intervalExpression;
+    private ExprNode[] intervalExpressions;
 
     @Override
     public void setViewParameters(ViewFactoryContext viewFactoryContext, List<ExprNode> viewParameters) throws ViewParameterException {
         this.viewFactoryContext = viewFactoryContext;
-        if (viewParameters.size() < 2) {
+        if (viewParameters.size() < 5) {
             throw new ViewParameterException(
-                    "View requires at least two parameters: the expression returning timestamps and the expression supplying OHLC data points");
+                    "View requires at least five parameters: the expressions returning timestamps, OHLC data points, volumes and markets, and one or more bar specs");
         }
         this.viewParameters = viewParameters;
     }
@@ -36,13 +36,14 @@ public class OHLCBarPlugInViewFactory extends ViewFactorySupport {
     @Override
     public void attach(EventType parentEventType, StatementContext statementContext, ViewFactory optionalParentFactory, List<ViewFactory> parentViewFactories)
             throws ViewParameterException {
-        ExprNode[] validatedNodes = ViewFactorySupport.validate("OHLC view", parentEventType, statementContext, viewParameters, false);
+        ExprNode[] validatedNodes = ViewFactorySupport.validate("OHLC view", parentEventType, statementContext, viewParameters, true);
 
         timestampExpression = validatedNodes[0];
         valueExpression = validatedNodes[1];
         volumeExpression = validatedNodes[2];
         marketExpression = validatedNodes[3];
-        intervalExpression = validatedNodes[4];
+        intervalExpressions = new ExprNode[validatedNodes.length - 4];
+        System.arraycopy(validatedNodes, 4, intervalExpressions, 0, intervalExpressions.length);
 
         if ((timestampExpression.getExprEvaluator().getType() != long.class) && (timestampExpression.getExprEvaluator().getType() != Long.class)) {
             throw new ViewParameterException("View requires long-typed timestamp values in parameter 1");
@@ -56,15 +57,18 @@ public class OHLCBarPlugInViewFactory extends ViewFactorySupport {
         if ((marketExpression.getExprEvaluator().getType() != Tradeable.class) && (marketExpression.getExprEvaluator().getType() != Tradeable.class)) {
             throw new ViewParameterException("View requires tradeable-typed values for in parameter 4");
         }
-        if ((intervalExpression.getExprEvaluator().getType() != double.class) && (intervalExpression.getExprEvaluator().getType() != Double.class)) {
-            throw new ViewParameterException("View requires double-typed values for in parameter 5");
+        for (int i = 0; i < intervalExpressions.length; i++) {
+            Class<?> type = intervalExpressions[i].getExprEvaluator().getType();
+            if (type != double.class && type != Double.class && type != String.class) {
+                throw new ViewParameterException("View requires double-typed intervals or String bar specs in parameter " + (i + 5));
+            }
         }
     }
 
     @Override
     public View makeView(AgentInstanceViewFactoryChainContext agentInstanceViewFactoryContext) {
         return new OHLCBarPlugInView(agentInstanceViewFactoryContext, timestampExpression, valueExpression, volumeExpression, marketExpression,
-                intervalExpression);
+                intervalExpressions);
     }
 
     @Override
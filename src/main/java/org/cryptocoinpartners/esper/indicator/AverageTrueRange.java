@@ -0,0 +1,82 @@
+package org.cryptocoinpartners.esper.indicator;
+
+/**
+ * Wilder's average true range of high, low and close series. The true range of a bar needs the previous close, so the first bar only seeds
+ * it; the average starts as the simple average of the next period true ranges and is then smoothed by 1 / period.
+ */
+public class AverageTrueRange implements Indicator {
+
+    public AverageTrueRange(int period) {
+        if (period < 1)
+            throw new IllegalArgumentException("period must be at least 1, not " + period);
+        this.period = period;
+    }
+
+    public void update(double high, double low, double close) {
+        if (ranges < 0) {
+            ranges = 0;
+            previousClose = close;
+            return;
+        }
+        double range = high - low;
+        double fromClose = Math.abs(previousClose - high);
+        if (fromClose > range)
+            range = fromClose;
+        fromClose = Math.abs(low - previousClose);
+        if (fromClose > range)
+            range = fromClose;
+        previousClose = close;
+        if (ranges < period) {
+            average += range;
+            if (++ranges == period)
+                average /= period;
+        } else {
+            average *= period - 1;
+            average += range;
+            average /= period;
+        }
+    }
+
+    @Override
+    public int getInputCount() {
+        return 3;
+    }
+
+    @Override
+    public void update(double[] inputs) {
+        update(inputs[0], inputs[1], inputs[2]);
+    }
+
+    @Override
+    public boolean isReady() {
+        return ranges == period;
+    }
+
+    @Override
+    public double getValue() {
+        return isReady() ? average : Double.NaN;
+    }
+
+    @Override
+    public Object getOutput() {
+        return isReady() ? average : null;
+    }
+
+    @Override
+    public Class<?> getOutputType() {
+        return Double.class;
+    }
+
+    @Override
+    public void clear() {
+        ranges = -1;
+        previousClose = 0;
+        average = 0;
+    }
+
+    private final int period;
+    // the number of true ranges seen, up to period, or -1 before the first bar
+    private int ranges = -1;
+    private double previousClose;
+    private double average;
+}
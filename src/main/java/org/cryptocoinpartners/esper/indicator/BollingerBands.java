@@ -0,0 +1,93 @@
+package org.cryptocoinpartners.esper.indicator;
+
+/**
+ * A simple moving average of the last period values, with bands the given numbers of population standard deviations above and below it.
+ */
+public class BollingerBands extends SingleInputIndicator {
+
+    /** the three lines at one point, as returned by getOutput */
+    public static class Bands {
+
+        Bands(double upper, double middle, double lower) {
+            this.upper = upper;
+            this.middle = middle;
+            this.lower = lower;
+        }
+
+        public double getUpper() {
+            return upper;
+        }
+
+        public double getMiddle() {
+            return middle;
+        }
+
+        public double getLower() {
+            return lower;
+        }
+
+        @Override
+        public String toString() {
+            return "Bands [upper=" + upper + ", middle=" + middle + ", lower=" + lower + "]";
+        }
+
+        private final double upper;
+        private final double middle;
+        private final double lower;
+    }
+
+    public BollingerBands(int period, double deviationsUp, double deviationsDown) {
+        this.window = new RunningWindow(period);
+        this.deviationsUp = deviationsUp;
+        this.deviationsDown = deviationsDown;
+    }
+
+    @Override
+    public void update(double value) {
+        window.add(value);
+    }
+
+    @Override
+    public boolean isReady() {
+        return window.isFull();
+    }
+
+    /**
+     * @return the middle band
+     */
+    @Override
+    public double getValue() {
+        return isReady() ? window.getSum() / window.capacity() : Double.NaN;
+    }
+
+    public double getUpper() {
+        return isReady() ? getValue() + deviationsUp * StandardDeviation.deviation(window) : Double.NaN;
+    }
+
+    public double getLower() {
+        return isReady() ? getValue() - deviationsDown * StandardDeviation.deviation(window) : Double.NaN;
+    }
+
+    @Override
+    public Object getOutput() {
+        if (!isReady())
+            return null;
+        double middle = getValue();
+        double deviation = StandardDeviation.deviation(window);
+        return new Bands(middle + deviationsUp * deviation, middle, middle - deviationsDown * deviation);
+    }
+
+    @Override
+    public Class<?> getOutputType() {
+        return Bands.class;
+    }
+
+    @Override
+    public void clear() {
+        window.clear();
+    }
+
+    private final RunningWindow window;
+    private final double deviationsUp;
+    private final double deviationsDown;
+}
@@ -0,0 +1,69 @@
+package org.cryptocoinpartners.esper.indicator;
+
+import java.util.Arrays;
+
+/**
+ * A fixed capacity FIFO of primitive doubles. Once full, each add evicts the oldest value, without allocating.
+ */
+public class DoubleRing {
+
+    public DoubleRing(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity must be at least 1, not " + capacity);
+        this.values = new double[capacity];
+    }
+
+    /**
+     * @return the value evicted to make room, or NaN if the ring was not full
+     */
+    public double add(double value) {
+        double evicted = Double.NaN;
+        if (size == values.length)
+            evicted = values[head];
+        else
+            size++;
+        values[head] = value;
+        head = head + 1 == values.length ? 0 : head + 1;
+        return evicted;
+    }
+
+    /**
+     * @return the value at the index, where 0 is the oldest value held
+     */
+    public double get(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("index " + index + " of " + size);
+        int position = head - size + index;
+        return values[position < 0 ? position + values.length : position];
+    }
+
+    /**
+     * @return the newest value
+     */
+    public double last() {
+        return get(size - 1);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return values.length;
+    }
+
+    public boolean isFull() {
+        return size == values.length;
+    }
+
+    public void clear() {
+        Arrays.fill(values, 0);
+        size = 0;
+        head = 0;
+    }
+
+    private final double[] values;
+    // the position the next value is written to
+    private int head;
+    private int size;
+}
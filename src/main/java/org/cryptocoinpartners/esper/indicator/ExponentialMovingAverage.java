@@ -0,0 +1,47 @@
+package org.cryptocoinpartners.esper.indicator;
+
+/**
+ * An exponential moving average with smoothing 2 / (period + 1), seeded with the simple average of the first period values as TA-Lib does.
+ */
+public class ExponentialMovingAverage extends SingleInputIndicator {
+
+    public ExponentialMovingAverage(int period) {
+        if (period < 1)
+            throw new IllegalArgumentException("period must be at least 1, not " + period);
+        this.period = period;
+        this.k = 2.0 / (period + 1);
+    }
+
+    @Override
+    public void update(double value) {
+        if (count < period) {
+            seed += value;
+            if (++count == period)
+                average = seed / period;
+        } else
+            average = ((value - average) * k) + average;
+    }
+
+    @Override
+    public boolean isReady() {
+        return count == period;
+    }
+
+    @Override
+    public double getValue() {
+        return isReady() ? average : Double.NaN;
+    }
+
+    @Override
+    public void clear() {
+        count = 0;
+        seed = 0;
+        average = 0;
+    }
+
+    private final int period;
+    private final double k;
+    private int count;
+    private double seed;
+    private double average;
+}
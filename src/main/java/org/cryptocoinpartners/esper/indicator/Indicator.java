@@ -0,0 +1,41 @@
+package org.cryptocoinpartners.esper.indicator;
+
+/**
+ * A technical indicator which is updated one event at a time in constant time and space, instead of being recomputed over its whole lookback
+ * window on every event. Each implementation gives the same values as the TA-Lib function of the same name, run over the full series with the
+ * default compatibility and no unstable period.
+ */
+public interface Indicator {
+
+    /**
+     * @return the number of input series, passed to update in the order the TA-Lib function takes them
+     */
+    int getInputCount();
+
+    /**
+     * adds the next value of each input series
+     */
+    void update(double[] inputs);
+
+    /**
+     * @return true once enough values have been added for getValue to be defined
+     */
+    boolean isReady();
+
+    /**
+     * @return the current value, or NaN until the indicator is ready. Indicators with several outputs return their main line.
+     */
+    double getValue();
+
+    /**
+     * @return the current output, either a Double or a value object for indicators with several outputs, or null until the indicator is ready
+     */
+    Object getOutput();
+
+    /**
+     * @return the class of the objects returned by getOutput
+     */
+    Class<?> getOutputType();
+
+    void clear();
+}
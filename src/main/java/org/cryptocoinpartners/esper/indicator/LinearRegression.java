@@ -0,0 +1,71 @@
+package org.cryptocoinpartners.esper.indicator;
+
+/**
+ * The value at the newest point of the least squares line through the last period values. The sums the line is fitted from are updated as
+ * the window slides: dropping the oldest value moves every other value one place back, which lowers the sum of index times value by the sum
+ * of the values left.
+ */
+public class LinearRegression extends SingleInputIndicator {
+
+    public LinearRegression(int period) {
+        if (period < 2)
+            throw new IllegalArgumentException("period must be at least 2, not " + period);
+        this.window = new RunningWindow(period);
+        double n = period;
+        this.sumOfIndices = n * (n - 1) * 0.5;
+        this.divisor = n * (n * (n - 1) * (2 * n - 1) / 6) - sumOfIndices * sumOfIndices;
+    }
+
+    @Override
+    public void update(double value) {
+        int index = window.size();
+        double sumBefore = window.getSum();
+        double evicted = window.add(value);
+        if (Double.isNaN(evicted))
+            sumOfIndexedValues += index * value;
+        else
+            sumOfIndexedValues += (index - 1) * value - (sumBefore - evicted);
+        if (++adds == (long) RunningWindow.RESYNC_WINDOWS * window.capacity()) {
+            adds = 0;
+            sumOfIndexedValues = 0;
+            for (int i = 0; i < window.size(); i++)
+                sumOfIndexedValues += i * window.get(i);
+        }
+    }
+
+    @Override
+    public boolean isReady() {
+        return window.isFull();
+    }
+
+    @Override
+    public double getValue() {
+        if (!isReady())
+            return Double.NaN;
+        double n = window.capacity();
+        return window.getSum() / n + getSlope() * (n - 1) * 0.5;
+    }
+
+    /**
+     * @return the slope of the line per value
+     */
+    public double getSlope() {
+        if (!isReady())
+            return Double.NaN;
+        return (window.capacity() * sumOfIndexedValues - sumOfIndices * window.getSum()) / divisor;
+    }
+
+    @Override
+    public void clear() {
+        window.clear();
+        sumOfIndexedValues = 0;
+        adds = 0;
+    }
+
+    private final RunningWindow window;
+    private final double sumOfIndices;
+    private final double divisor;
+    // the sum of each value times its index in the window, the oldest value being at index 0
+    private double sumOfIndexedValues;
+    private long adds;
+}
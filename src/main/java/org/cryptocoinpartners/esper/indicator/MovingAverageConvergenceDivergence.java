@@ -0,0 +1,111 @@
+package org.cryptocoinpartners.esper.indicator;
+
+/**
+ * The difference of a fast and a slow exponential moving average, with an exponential moving average of that difference as the signal line.
+ * As in TA-Lib, the fast average is seeded on the last fast values of the slow average's seed window, so both start on the same value.
+ */
+public class MovingAverageConvergenceDivergence extends SingleInputIndicator {
+
+    /** the three lines at one point, as returned by getOutput */
+    public static class Lines {
+
+        Lines(double macd, double signal, double histogram) {
+            this.macd = macd;
+            this.signal = signal;
+            this.histogram = histogram;
+        }
+
+        public double getMacd() {
+            return macd;
+        }
+
+        public double getSignal() {
+            return signal;
+        }
+
+        public double getHistogram() {
+            return histogram;
+        }
+
+        @Override
+        public String toString() {
+            return "Lines [macd=" + macd + ", signal=" + signal + ", histogram=" + histogram + "]";
+        }
+
+        private final double macd;
+        private final double signal;
+        private final double histogram;
+    }
+
+    public MovingAverageConvergenceDivergence(int fastPeriod, int slowPeriod, int signalPeriod) {
+        // TA-Lib swaps the periods if they are given the wrong way round
+        if (slowPeriod < fastPeriod) {
+            int swap = slowPeriod;
+            slowPeriod = fastPeriod;
+            fastPeriod = swap;
+        }
+        this.fast = new ExponentialMovingAverage(fastPeriod);
+        this.slow = new ExponentialMovingAverage(slowPeriod);
+        this.signal = new ExponentialMovingAverage(signalPeriod);
+        this.fastDelay = slowPeriod - fastPeriod;
+    }
+
+    @Override
+    public void update(double value) {
+        if (skipped < fastDelay)
+            skipped++;
+        else
+            fast.update(value);
+        slow.update(value);
+        if (slow.isReady())
+            signal.update(fast.getValue() - slow.getValue());
+    }
+
+    @Override
+    public boolean isReady() {
+        return signal.isReady();
+    }
+
+    /**
+     * @return the macd line
+     */
+    @Override
+    public double getValue() {
+        return isReady() ? fast.getValue() - slow.getValue() : Double.NaN;
+    }
+
+    public double getSignal() {
+        return signal.getValue();
+    }
+
+    public double getHistogram() {
+        return isReady() ? getValue() - signal.getValue() : Double.NaN;
+    }
+
+    @Override
+    public Object getOutput() {
+        if (!isReady())
+            return null;
+        double macd = getValue();
+        return new Lines(macd, signal.getValue(), macd - signal.getValue());
+    }
+
+    @Override
+    public Class<?> getOutputType() {
+        return Lines.class;
+    }
+
+    @Override
+    public void clear() {
+        fast.clear();
+        slow.clear();
+        signal.clear();
+        skipped = 0;
+    }
+
+    private final ExponentialMovingAverage fast;
+    private final ExponentialMovingAverage slow;
+    private final ExponentialMovingAverage signal;
+    private final int fastDelay;
+    private int skipped;
+}
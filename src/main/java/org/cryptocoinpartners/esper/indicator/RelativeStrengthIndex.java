@@ -0,0 +1,72 @@
+package org.cryptocoinpartners.esper.indicator;
+
+/**
+ * Wilder's relative strength index: the average gain as a percentage of the average gain plus the average loss, where the averages start as
+ * the simple averages of the first period changes and are then smoothed by 1 / period.
+ */
+public class RelativeStrengthIndex extends SingleInputIndicator {
+
+    public RelativeStrengthIndex(int period) {
+        if (period < 2)
+            throw new IllegalArgumentException("period must be at least 2, not " + period);
+        this.period = period;
+    }
+
+    @Override
+    public void update(double value) {
+        if (changes < 0) {
+            changes = 0;
+            previous = value;
+            return;
+        }
+        double change = value - previous;
+        previous = value;
+        if (changes < period) {
+            if (change < 0)
+                loss -= change;
+            else
+                gain += change;
+            if (++changes == period) {
+                loss /= period;
+                gain /= period;
+            }
+        } else {
+            loss *= period - 1;
+            gain *= period - 1;
+            if (change < 0)
+                loss -= change;
+            else
+                gain += change;
+            loss /= period;
+            gain /= period;
+        }
+    }
+
+    @Override
+    public boolean isReady() {
+        return changes == period;
+    }
+
+    @Override
+    public double getValue() {
+        if (!isReady())
+            return Double.NaN;
+        double total = gain + loss;
+        return total > -StandardDeviation.ZERO && total < StandardDeviation.ZERO ? 0 : 100 * (gain / total);
+    }
+
+    @Override
+    public void clear() {
+        changes = -1;
+        previous = 0;
+        gain = 0;
+        loss = 0;
+    }
+
+    private final int period;
+    // the number of changes seen, up to period, or -1 before the first value
+    private int changes = -1;
+    private double previous;
+    private double gain;
+    private double loss;
+}
@@ -0,0 +1,79 @@
+package org.cryptocoinpartners.esper.indicator;
+
+/**
+ * The last capacity values of a series with their running sum and sum of squares. Adding and removing from running sums accumulates rounding
+ * error over a long series, so the sums are recomputed from the values held every RESYNC_WINDOWS windows, which keeps the amortized cost of
+ * add constant.
+ */
+class RunningWindow {
+
+    static final int RESYNC_WINDOWS = 1024;
+
+    RunningWindow(int capacity) {
+        this.ring = new DoubleRing(capacity);
+    }
+
+    /**
+     * @return the value evicted to make room, or NaN if the window was not full
+     */
+    double add(double value) {
+        double evicted = ring.add(value);
+        if (!Double.isNaN(evicted)) {
+            sum -= evicted;
+            sumOfSquares -= evicted * evicted;
+        }
+        sum += value;
+        sumOfSquares += value * value;
+        if (++adds == (long) RESYNC_WINDOWS * ring.capacity()) {
+            adds = 0;
+            resync();
+        }
+        return evicted;
+    }
+
+    double getSum() {
+        return sum;
+    }
+
+    double getSumOfSquares() {
+        return sumOfSquares;
+    }
+
+    double get(int index) {
+        return ring.get(index);
+    }
+
+    int size() {
+        return ring.size();
+    }
+
+    int capacity() {
+        return ring.capacity();
+    }
+
+    boolean isFull() {
+        return ring.isFull();
+    }
+
+    void clear() {
+        ring.clear();
+        sum = 0;
+        sumOfSquares = 0;
+        adds = 0;
+    }
+
+    private void resync() {
+        sum = 0;
+        sumOfSquares = 0;
+        for (int i = 0; i < ring.size(); i++) {
+            double value = ring.get(i);
+            sum += value;
+            sumOfSquares += value * value;
+        }
+    }
+
+    private final DoubleRing ring;
+    private double sum;
+    private double sumOfSquares;
+    private long adds;
+}
@@ -0,0 +1,33 @@
+package org.cryptocoinpartners.esper.indicator;
+
+/**
+ * The mean of the last period values, kept as a running sum.
+ */
+public class SimpleMovingAverage extends SingleInputIndicator {
+
+    public SimpleMovingAverage(int period) {
+        this.window = new RunningWindow(period);
+    }
+
+    @Override
+    public void update(double value) {
+        window.add(value);
+    }
+
+    @Override
+    public boolean isReady() {
+        return window.isFull();
+    }
+
+    @Override
+    public double getValue() {
+        return isReady() ? window.getSum() / window.capacity() : Double.NaN;
+    }
+
+    @Override
+    public void clear() {
+        window.clear();
+    }
+
+    private final RunningWindow window;
+}
@@ -0,0 +1,32 @@
+package org.cryptocoinpartners.esper.indicator;
+
+/**
+ * Base for the indicators of a single series with a single output.
+ */
+public abstract class SingleInputIndicator implements Indicator {
+
+    /**
+     * adds the next value of the series
+     */
+    public abstract void update(double value);
+
+    @Override
+    public int getInputCount() {
+        return 1;
+    }
+
+    @Override
+    public void update(double[] inputs) {
+        update(inputs[0]);
+    }
+
+    @Override
+    public Object getOutput() {
+        return isReady() ? getValue() : null;
+    }
+
+    @Override
+    public Class<?> getOutputType() {
+        return Double.class;
+    }
+}
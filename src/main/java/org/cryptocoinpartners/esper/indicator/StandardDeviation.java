@@ -0,0 +1,45 @@
+package org.cryptocoinpartners.esper.indicator;
+
+/**
+ * The population standard deviation of the last period values, multiplied by deviations.
+ */
+public class StandardDeviation extends SingleInputIndicator {
+
+    public StandardDeviation(int period, double deviations) {
+        this.window = new RunningWindow(period);
+        this.deviations = deviations;
+    }
+
+    @Override
+    public void update(double value) {
+        window.add(value);
+    }
+
+    @Override
+    public boolean isReady() {
+        return window.isFull();
+    }
+
+    @Override
+    public double getValue() {
+        return isReady() ? deviation(window) * deviations : Double.NaN;
+    }
+
+    @Override
+    public void clear() {
+        window.clear();
+    }
+
+    static double deviation(RunningWindow window) {
+        double mean = window.getSum() / window.capacity();
+        double variance = window.getSumOfSquares() / window.capacity() - mean * mean;
+        // rounding can leave the variance of a flat window slightly negative
+        return variance < ZERO ? 0 : Math.sqrt(variance);
+    }
+
+    // TA-Lib's threshold for treating a variance as zero
+    static final double ZERO = 0.00000001;
+
+    private final RunningWindow window;
+    private final double deviations;
+}
@@ -1,313 +1,153 @@
 package org.cryptocoinpartners.module;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.inject.Singleton;
 import javax.persistence.ElementCollection;
 
+import org.apache.commons.configuration.Configuration;
 import org.cryptocoinpartners.schema.EntityBase;
 import org.cryptocoinpartners.util.ConfigUtil;
-import org.cryptocoinpartners.util.Injector;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.util.concurrent.ListenableFuture;
-import com.google.common.util.concurrent.ListeningExecutorService;
-import com.google.common.util.concurrent.MoreExecutors;
 import com.google.inject.Inject;
 import com.google.inject.persist.PersistService;
 
+/**
+ * Starts JPA and the write behind PersistenceLanes which DaoJpa queues entities on.
+ *
+ * The lanes are named by db.writer.lanes. Each lane lists the entity types it writes by simple name in db.writer.lane.<name>.entities,
+ * which also covers their subclasses, and sets its writer threads and aggregate key with db.writer.lane.<name>.threads and
+ * db.writer.lane.<name>.key. Types in no lane are written by the default lane, with db.writer.threads threads keyed by entity id.
+ */
 @Singleton
 public class ApplicationInitializer implements Context.AttachListener, Serializable {
   private Map<String, String> config;
   private static int persistanceThreadCount = ConfigUtil.combined().getInt("db.writer.threads", 1);
-  private static ListeningExecutorService insertPool = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(1));
+  private static int writerQueueSize = ConfigUtil.combined().getInt("db.writer.queue.size", 100000);
+  private static int writerBatchSize = ConfigUtil.combined().getInt("db.writer.batch.size", 200);
+  private static long writerBatchLatency = ConfigUtil.combined().getLong("db.writer.batch.latency", 50);
   protected static Logger log = LoggerFactory.getLogger("org.cryptocoinpartners.applicationInitalizer");
 
-  private static ExecutorService mergeService = Executors.newFixedThreadPool(persistanceThreadCount);
-  private static ExecutorService deleteService = mergeService;
-
-  private static ExecutorService insertService = mergeService;
-  //     ;;Executors.newFixedThreadPool(persistanceThreadCount);
-  //private static BlockingQueue insertQueue = new DelayQueue();
-  //private static BlockingQueue mergeQueue = new DelayQueue();
-  private static LinkedBlockingQueue<EntityBase> mergeQueue = new LinkedBlockingQueue<EntityBase>();
-
-  private static LinkedBlockingQueue<EntityBase> insertQueue = mergeQueue;
-  private static LinkedBlockingQueue<EntityBase> deleteQueue = mergeQueue;
-
-  //new LinkedBlockingDeque<EntityBase>();;
-  //new LinkedBlockingDeque<EntityBase>();;
-  //new LinkedBlockingDeque<EntityBase>();
-  //   private static LinkedBlockingDeque<EntityBase> mergeQueue = new LinkedBlockingDeque<EntityBase>();
-  // private static DelayQueue<Delayed> deleteQueue = mergeQueue;
-
-  //   LinkedBlockingQueue<EntityBase[]>();
+  private final List<PersistenceLane> lanes = new ArrayList<PersistenceLane>();
+  private final Map<PersistenceLane, Set<String>> laneEntities = new ConcurrentHashMap<PersistenceLane, Set<String>>();
+  private final Map<Class<?>, PersistenceLane> laneByType = new ConcurrentHashMap<Class<?>, PersistenceLane>();
+  private final PersistenceLane defaultLane;
 
   @Inject
   ApplicationInitializer(PersistService service) {
     service.start();
-    for (int i = 0; i < persistanceThreadCount; i++) {
-      //  insertService.submit(new persistRunnable(insertQueue));
-      mergeService.submit(new mergeRunnable(mergeQueue));
-      //   deleteService.submit(new deleteRunnable(deleteQueue));
-
+    Configuration configuration = ConfigUtil.combined();
+    for (String name : configuration.getStringArray("db.writer.lanes")) {
+      if (name.trim().isEmpty())
+        continue;
+      String prefix = "db.writer.lane." + name.trim() + ".";
+      PersistenceLane lane = new PersistenceLane(name.trim(), configuration.getInt(prefix + "threads", 1),
+          PersistenceLane.AggregateKey.valueOf(configuration.getString(prefix + "key", "id").trim().toUpperCase()), configuration.getInt(prefix
+              + "queue.size", writerQueueSize), writerBatchSize, writerBatchLatency);
+      Set<String> entities = new HashSet<String>();
+      for (String entity : configuration.getStringArray(prefix + "entities"))
+        entities.add(entity.trim());
+      lanes.add(lane);
+      laneEntities.put(lane, entities);
+    }
+    defaultLane = new PersistenceLane("default", persistanceThreadCount, PersistenceLane.AggregateKey.ID, writerQueueSize, writerBatchSize,
+        writerBatchLatency);
+    lanes.add(defaultLane);
+    for (PersistenceLane lane : lanes) {
+      lane.start();
+      log.info("Started " + lane + (laneEntities.containsKey(lane) ? " for " + laneEntities.get(lane) : ""));
     }
-    //Future insertFuture = insertService.submit(new persistRunnable(insertQueue));
-
-    // Future<Void> insertFuture = insertService.submit(new persistRunnable(insertQueue));
-    //  Future<Void> mergeFuture = mergeService.submit(new mergeRunnable(mergeQueue));
-    //Future<Void> deleteFuture = deleteService.submit(new deleteRunnable(deleteQueue));
-
-    //insertFuture.addListener(new insertMointorRunnable(insertFuture), MoreExecutors.sameThreadExecutor());
-
-    //    try {
-    //      insertFuture.get();
-    //} catch (InterruptedException e) {
-    //  Thread.currentThread().interrupt();
-    // } catch (ExecutionException e) {
-
-    // System.out.println("** RuntimeException from thread ");
-    //   e.getCause().printStackTrace(System.out);
-    // }
-
-    // insertService.submit(new persistRunnable(insertQueue));
-    // mergeService.submit(new mergeRunnable(mergeQueue));
-
-    //    DaoJpa.mergeRunnable
     // At this point JPA is started and ready.
-
-    // other application initializations if necessary
   }
 
-  protected void setInsertQueue(LinkedBlockingQueue<EntityBase> insertQueue) {
-    this.insertQueue = insertQueue;
+  /**
+   * Queues entity to be written by the writer threads of its lane. When the lane's queue is full the caller waits for the writers to catch
+   * up, rather than the queue growing without bound.
+   */
+  public void enqueue(EntityBase entity) {
+    laneFor(entity).enqueue(entity);
   }
 
-  protected void setMergeQueue(LinkedBlockingQueue<EntityBase> mergeQueue) {
-    this.mergeQueue = mergeQueue;
+  /** queues an entity the writers failed to write for another attempt, without blocking */
+  public void requeue(EntityBase entity) {
+    laneFor(entity).requeue(entity);
   }
 
-  protected void setDeleteQueue(LinkedBlockingQueue<EntityBase> deleteQueue) {
-    this.deleteQueue = deleteQueue;
+  public List<PersistenceLane> getLanes() {
+    return Collections.unmodifiableList(lanes);
   }
 
-  public LinkedBlockingQueue<EntityBase> getMergeQueue() {
-    return mergeQueue;
+  /** @return the number of entities waiting to be written */
+  public int getQueueDepth() {
+    int depth = 0;
+    for (PersistenceLane lane : lanes)
+      depth += lane.getQueueDepth();
+    return depth;
   }
 
-  public LinkedBlockingQueue<EntityBase> getInsertQueue() {
-    return insertQueue;
+  /** @return the number of times a caller waited for room in the queue */
+  public long getBackPressureWaits() {
+    long waits = 0;
+    for (PersistenceLane lane : lanes)
+      waits += lane.getBackPressureWaits();
+    return waits;
   }
 
-  public LinkedBlockingQueue<EntityBase> getDeleteQueue() {
-    return deleteQueue;
+  /** @return the number of transactions the writers have committed */
+  public long getCommitCount() {
+    long commits = 0;
+    for (PersistenceLane lane : lanes)
+      commits += lane.getCommitCount();
+    return commits;
   }
 
-  public class insertMointorRunnable implements Runnable {
-    private ListenableFuture<String> insertFuture;
-
-    public insertMointorRunnable(ListenableFuture<String> insertFuture) {
-      this.insertFuture = insertFuture;
-
-    }
-
-    @Override
-    public void run() {
-      while (true)
-        try {
-          insertFuture.get();
-          //...process web site contents
-        } catch (InterruptedException e) {
-          log.error(" " + this.getClass().getSimpleName() + ":run, full stack trace follows:", e);
-        } catch (ExecutionException e) {
-          insertFuture = insertPool.submit(new persistRunnable(insertQueue));
-          log.error(" " + this.getClass().getSimpleName() + ":run, full stack trace follows:", e);
-        }
-    }
+  public long getCommittedEntityCount() {
+    long entities = 0;
+    for (PersistenceLane lane : lanes)
+      entities += lane.getCommittedEntityCount();
+    return entities;
   }
 
-  public class persistRunnable implements Callable {
-
-    private final LinkedBlockingQueue peristQueue;
-
-    @Override
-    public Void call() {
-      while (true) {
-        try {
-          EntityBase entity = (EntityBase) peristQueue.take();
-          //   synchronized (entity) {
-          if (entity.getDao() == null)
-            Injector.root().getInjector().injectMembers(entity);
-
-          if (entity.getDao() == null) {
-            Injector.root().getInjector().injectMembers(entity);
-
-            log.error(this.getClass().getSimpleName() + ":persistRunnable - No DAO defined for " + entity.getClass().getSimpleName() + " "
-                + entity.getId());
-            // we should inject a DAO.
-            //      Injector.root().getInjector().
-            //                peristQueue.add(entity);
-            continue;
-          }
-          //  return;
-          if (entity.getPeristanceAction() != null) {
-            switch (entity.getPeristanceAction()) {
-            //  entity.getDao().persistEntities(entity);
-              case NEW:
-
-                entity.getDao().persistEntities(entity);
-
-                // TODO Auto-generated catch block
-                break;
-              case MERGE:
-                entity.getDao().mergeEntities(entity);
-                break;
-              case DELETE:
-                entity.getDao().deleteEntities(entity);
-                break;
-              default:
-                entity.getDao().persistEntities(entity);
-                break;
-            }
-          } else
-            entity.getDao().persistEntities(entity);
-          //  EntityBase[] entities = peristQueue.take();
-          // for (EntityBase entity : entities)
-
-          //  }
-
-        } catch (Throwable e) {
-
-          log.error(" " + this.getClass().getSimpleName() + ":call, full stack trace follows:", e);
-          //   Thread.currentThread().interrupt();
-          // return null; // supposing there is no cleanup or other stuff to be done
-
-        }
-      }
-
+  public double getMeanCommitLatencyMillis() {
+    long commits = 0;
+    long nanos = 0;
+    for (PersistenceLane lane : lanes) {
+      commits += lane.getCommitCount();
+      nanos += lane.getCommitNanos();
     }
-
-    public persistRunnable(LinkedBlockingQueue peristQueue) {
-      this.peristQueue = peristQueue;
-
-    }
-
+    return commits == 0 ? 0 : nanos / (commits * 1e6);
   }
 
-  public class mergeRunnable implements Callable {
-
-    private final LinkedBlockingQueue mergeQueue;
-
-    @Override
-    public Object call() {
-      EntityBase entity = null;
-      while (true)
-        // EntityBase entity;
-        try {
-          entity = (EntityBase) mergeQueue.take();
-          // synchronized (entity) {
-          if (entity.getDao() == null)
-            Injector.root().getInjector().injectMembers(entity);
-          if (entity.getDao() == null) {
-            log.error(this.getClass().getSimpleName() + ":mergeRunnable - No DAO defined for " + entity.getClass().getSimpleName() + " "
-                + entity.getId());
-
-            //    mergeQueue.add(entity);
-            continue;
-
-          }
-          //  continue;
-
-          if (entity.getPeristanceAction() != null) {
-            switch (entity.getPeristanceAction()) {
-              case NEW:
-
-                entity.getDao().persistEntities(entity);
-
-                // TODO Auto-generated catch block
-                break;
-              case MERGE:
-                entity.getDao().mergeEntities(entity);
-                break;
-              case DELETE:
-                entity.getDao().deleteEntities(entity);
-                break;
-              default:
-                entity.getDao().mergeEntities(entity);
-                break;
-            }
-          } else
-            entity.getDao().mergeEntities(entity);
-          //  }
-
-        } catch (Throwable e) {
-          log.error(" " + this.getClass().getSimpleName() + ":call, " + entity + " full stack trace follows:", e);
-
-        }
-
-    }
-
-    public mergeRunnable(LinkedBlockingQueue mergeQueue) {
-      this.mergeQueue = mergeQueue;
-
-    }
-
+  public double getMaxCommitLatencyMillis() {
+    long max = 0;
+    for (PersistenceLane lane : lanes)
+      max = Math.max(max, lane.getMaxCommitNanos());
+    return max / 1e6;
   }
 
-  public class deleteRunnable implements Callable {
-
-    private final BlockingQueue deleteQueue;
-
-    @Override
-    public Void call() {
-      while (true) {
-        try {
-
-          EntityBase entity = (EntityBase) deleteQueue.take();
-          synchronized (entity) {
-            if (entity.getPeristanceAction() != null) {
-              switch (entity.getPeristanceAction()) {
-                case NEW:
-                  entity.getDao().persistEntities(entity);
-                  break;
-                case MERGE:
-                  entity.getDao().mergeEntities(entity);
-                  break;
-                case DELETE:
-                  entity.getDao().deleteEntities(entity);
-                  break;
-                default:
-                  entity.getDao().deleteEntities(entity);
-                  break;
-              }
-            } else
-              entity.getDao().deleteEntities(entity);
-            // for (EntityBase entity : entities)
-
-            // dao.mergeEntities(entities);
-
-          }
-        } catch (Throwable e) {
-          log.error(" " + this.getClass().getSimpleName() + ":call, full stack trace follows:", e);
-
+  /** @return the lane listing the entity's class or its nearest superclass, or the default lane */
+  PersistenceLane laneFor(EntityBase entity) {
+    PersistenceLane lane = laneByType.get(entity.getClass());
+    if (lane != null)
+      return lane;
+    lane = defaultLane;
+    search: for (Class<?> type = entity.getClass(); type != null && type != Object.class; type = type.getSuperclass())
+      for (PersistenceLane candidate : lanes)
+        if (laneEntities.containsKey(candidate) && laneEntities.get(candidate).contains(type.getSimpleName())) {
+          lane = candidate;
+          break search;
         }
-      }
-
-    }
-
-    public deleteRunnable(BlockingQueue deleteQueue) {
-      this.deleteQueue = deleteQueue;
-
-    }
-
+    laneByType.put(entity.getClass(), lane);
+    return lane;
   }
 
   @ElementCollection
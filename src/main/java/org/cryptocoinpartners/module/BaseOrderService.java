@@ -15,9 +15,6 @@ import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -66,6 +63,7 @@ import org.cryptocoinpartners.service.OrderService;
 import org.cryptocoinpartners.service.PortfolioService;
 import org.cryptocoinpartners.service.QuoteService;
 import org.cryptocoinpartners.util.ConfigUtil;
+import org.cryptocoinpartners.util.Diagnostics;
 import org.cryptocoinpartners.util.EM;
 import org.cryptocoinpartners.util.Injector;
 import org.cryptocoinpartners.util.Remainder;
@@ -88,10 +86,6 @@ import com.google.common.collect.Table.Cell;
 //TODO syncronized on order objects, not on this class to improve performance
 @SuppressWarnings("UnusedDeclaration")
 public abstract class BaseOrderService implements OrderService {
-  static {
-    service = Executors.newFixedThreadPool(1);
-
-  }
 
   // ConcurrentHashMap<Listing, ConcurrentHashMap<TransactionType, ConcurrentLinkedQueue<Position>>> listingPosition = new ConcurrentHashMap<Listing, ConcurrentHashMap<TransactionType, ConcurrentLinkedQueue<Position>>>();
   // protected final Lock replacingOrderLock = new ReentrantLock();
@@ -101,8 +95,9 @@ public abstract class BaseOrderService implements OrderService {
   private transient ConcurrentHashMap<Asset, ConcurrentHashMap<Exchange, ConcurrentHashMap<Listing, ConcurrentHashMap<TransactionType, ConcurrentLinkedQueue<Position>>>>> positionsMap;
   private final int updateOrderAfter = 2;
 
-  private final static Map<Tradeable, ConcurrentHashMap<Double, ConcurrentHashMap<TransactionType, List<Order>>>> triggerOrders = new ConcurrentHashMap<Tradeable, ConcurrentHashMap<Double, ConcurrentHashMap<TransactionType, List<Order>>>>();
-  private final static Map<Tradeable, ConcurrentHashMap<Double, ConcurrentHashMap<TransactionType, List<Order>>>> trailingTriggerOrders = new ConcurrentHashMap<Tradeable, ConcurrentHashMap<Double, ConcurrentHashMap<TransactionType, List<Order>>>>();
+  // per order service, so each Context's triggers fire only on its own market data
+  private final Map<Tradeable, ConcurrentHashMap<Double, ConcurrentHashMap<TransactionType, List<Order>>>> triggerOrders = new ConcurrentHashMap<Tradeable, ConcurrentHashMap<Double, ConcurrentHashMap<TransactionType, List<Order>>>>();
+  private final Map<Tradeable, ConcurrentHashMap<Double, ConcurrentHashMap<TransactionType, List<Order>>>> trailingTriggerOrders = new ConcurrentHashMap<Tradeable, ConcurrentHashMap<Double, ConcurrentHashMap<TransactionType, List<Order>>>>();
 
   protected static boolean cancelUnknownOrders = (ConfigUtil.combined() != null) ? ConfigUtil.combined().getBoolean("cancel.unknownorders", false)
       : false;
@@ -389,14 +384,8 @@ public abstract class BaseOrderService implements OrderService {
         orderUpdate.getOrder().setPortfolio(portfolio);
 
       log.debug("Adding " + orderUpdate.getOrder().getId() + "/" + System.identityHashCode(orderUpdate.getOrder()) + " with state "
-          + orderUpdate.getState() + " to orderStateMap");
-      orderStateMap.put(orderUpdate.getOrder(), orderUpdate.getState());
-      if (stateOrderMap.get(orderUpdate.getState()) == null) {
-        Set<Order> orderSet = new HashSet<Order>();
-        stateOrderMap.put(orderUpdate.getState(), orderSet);
-
-      }
-      stateOrderMap.get(orderUpdate.getState()).add(orderUpdate.getOrder());
+          + orderUpdate.getState() + " to orderStore");
+      orderStore.setState(orderUpdate.getOrder(), orderUpdate.getState());
       if (orderUpdate.getState() == (OrderState.TRIGGER))
         addTriggerOrder(orderUpdate.getOrder());
 
@@ -415,18 +404,7 @@ public abstract class BaseOrderService implements OrderService {
       //        replacingOrderLock.lock();
       //this == OrderState.NEW || this == OrderState.TRIGGER || this == OrderState.ROUTED || this == OrderState.PLACED || this == OrderState.PARTFILLED;
 
-      if (stateOrderMap.get(OrderState.NEW) != null)
-        cointraderOpenOrders.addAll(stateOrderMap.get(OrderState.NEW));
-      if (stateOrderMap.get(OrderState.TRIGGER) != null)
-        cointraderOpenOrders.addAll(stateOrderMap.get(OrderState.TRIGGER));
-      if (stateOrderMap.get(OrderState.PLACED) != null)
-        cointraderOpenOrders.addAll(stateOrderMap.get(OrderState.PLACED));
-      if (stateOrderMap.get(OrderState.PARTFILLED) != null)
-        cointraderOpenOrders.addAll(stateOrderMap.get(OrderState.PARTFILLED));
-      if (stateOrderMap.get(OrderState.ROUTED) != null)
-        cointraderOpenOrders.addAll(stateOrderMap.get(OrderState.ROUTED));
-      if (stateOrderMap.get(OrderState.CANCELLING) != null)
-        cointraderOpenOrders.addAll(stateOrderMap.get(OrderState.CANCELLING));
+      cointraderOpenOrders.addAll(orderStore.getPendingOrders());
     } catch (Exception e) {
       log.error(this.getClass().getSimpleName() + ": getPendingOrders - Unable to retrive order state ", e);
     } finally {
@@ -479,7 +457,7 @@ public abstract class BaseOrderService implements OrderService {
     //synchronized (lock) {
     // triggerOrderLock.lock();
 
-    log.debug(this.getClass().getSimpleName() + " : handleCancelAllShortStopOrders to called from stack " + Thread.currentThread().getStackTrace()[2]);
+    log.debug("{} : handleCancelAllShortStopOrders to called from stack {}", this.getClass().getSimpleName(), Diagnostics.caller());
     if (portfolio == null || market == null || triggerOrders == null || triggerOrders.isEmpty() || triggerOrders.get(market) == null
         || triggerOrders.get(market).isEmpty())
       return cancelledOrders;
@@ -535,8 +513,7 @@ public abstract class BaseOrderService implements OrderService {
     //   }
     for (Order cancelledOrder : cancelledOrders) {
       updateOrderState(cancelledOrder, OrderState.CANCELLED, true);
-      log.info("handleCancelAllShortStopOrders called from class " + Thread.currentThread().getStackTrace()[2]
-          + " Cancelled Short Stop Trigger Order: " + cancelledOrder);
+      log.info("handleCancelAllShortStopOrders called from class {} Cancelled Short Stop Trigger Order: {}", Diagnostics.caller(), cancelledOrder);
     }
 
     /*
@@ -564,8 +541,7 @@ public abstract class BaseOrderService implements OrderService {
     if (parentFill == null)
       return;
     // triggerOrderLock.lock();
-    log.debug(this.getClass().getSimpleName() + " : handleCancelAllTriggerOrdersByParentFill to called from stack "
-        + Thread.currentThread().getStackTrace()[2]);
+    log.debug("{} : handleCancelAllTriggerOrdersByParentFill to called from stack {}", this.getClass().getSimpleName(), Diagnostics.caller());
     if (triggerOrders.get(parentFill.getMarket()) == null || triggerOrders.get(parentFill.getMarket()).isEmpty())
       return;
 
@@ -589,8 +565,8 @@ public abstract class BaseOrderService implements OrderService {
                 }
               }
 
-              log.info("handleCancelAllTriggerOrdersByParentFill called from class " + Thread.currentThread().getStackTrace()[2]
-                  + " Cancelled Trigger Order " + triggerOrder + " for : " + parentFill);
+              log.info("handleCancelAllTriggerOrdersByParentFill called from class {} Cancelled Trigger Order {} for : {}", Diagnostics.caller(),
+                  triggerOrder, parentFill);
             }
 
           }
@@ -609,7 +585,7 @@ public abstract class BaseOrderService implements OrderService {
     Order parentOrder;
     //synchronized (lock) {
     // triggerOrderLock.lock();
-    log.debug(this.getClass().getSimpleName() + " : handleCancelAllLongStopOrders to called from stack " + Thread.currentThread().getStackTrace()[2]);
+    log.debug("{} : handleCancelAllLongStopOrders to called from stack {}", this.getClass().getSimpleName(), Diagnostics.caller());
     if (portfolio == null || market == null || triggerOrders == null || triggerOrders.isEmpty() || triggerOrders.get(market) == null
         || triggerOrders.get(market).isEmpty())
       return cancelledOrders;
@@ -666,8 +642,7 @@ public abstract class BaseOrderService implements OrderService {
     //    }
     for (Order cancelledOrder : cancelledOrders) {
       updateOrderState(cancelledOrder, OrderState.CANCELLED, true);
-      log.info("handleCancelAllLongStopOrders called from class " + Thread.currentThread().getStackTrace()[2]
-          + " Cancelled Long Stop Trigger Order: " + cancelledOrder);
+      log.info("handleCancelAllLongStopOrders called from class {} Cancelled Long Stop Trigger Order: {}", Diagnostics.caller(), cancelledOrder);
 
     }
 
@@ -702,7 +677,7 @@ public abstract class BaseOrderService implements OrderService {
     Order parentOrder;
     //synchronized (lock) {
     // triggerOrderLock.lock();
-    log.debug(this.getClass().getSimpleName() + " : handleCancelAllLongStopOrders to called from stack " + Thread.currentThread().getStackTrace()[2]);
+    log.debug("{} : handleCancelAllLongStopOrders to called from stack {}", this.getClass().getSimpleName(), Diagnostics.caller());
     if (portfolio == null || market == null || triggerOrders == null || triggerOrders.isEmpty() || triggerOrders.get(market) == null
         || triggerOrders.get(market).isEmpty())
       return cancelledOrders;
@@ -765,8 +740,7 @@ public abstract class BaseOrderService implements OrderService {
     }
     for (Order cancelledOrder : cancelledOrders) {
       updateOrderState(cancelledOrder, OrderState.CANCELLED, true);
-      log.info("handleCancelAllLongStopOrders called from class " + Thread.currentThread().getStackTrace()[2]
-          + " Cancelled Long Stop Trigger Order: " + cancelledOrder);
+      log.info("handleCancelAllLongStopOrders called from class {} Cancelled Long Stop Trigger Order: {}", Diagnostics.caller(), cancelledOrder);
 
     }
 
@@ -796,7 +770,7 @@ public abstract class BaseOrderService implements OrderService {
     boolean found = false;
     //synchronized (lock) {
     // triggerOrderLock.lock();
-    log.debug(this.getClass().getSimpleName() + " : handleCancelGeneralOrder to called from stack " + Thread.currentThread().getStackTrace()[2]);
+    log.debug("{} : handleCancelGeneralOrder to called from stack {}", this.getClass().getSimpleName(), Diagnostics.caller());
 
     for (Iterator<Tradeable> itm = triggerOrders.keySet().iterator(); itm.hasNext();) {
       Tradeable market = itm.next();
@@ -843,8 +817,7 @@ public abstract class BaseOrderService implements OrderService {
            */
           for (Order cancelledOrder : cancelledOrders) {
             updateOrderState(cancelledOrder, OrderState.CANCELLED, true);
-            log.info("handleCancelGeneralOrder called from class " + Thread.currentThread().getStackTrace()[2]
-                + " Cancelled General  Trigger Order: " + cancelledOrder);
+            log.info("handleCancelGeneralOrder called from class {} Cancelled General  Trigger Order: {}", Diagnostics.caller(), cancelledOrder);
             // if (cancelledOrder.)
             Collection<SpecificOrder> closingOrders = null;
             if (cancelledOrder.getParentFill() != null) {
@@ -903,7 +876,7 @@ public abstract class BaseOrderService implements OrderService {
 
   @Override
   public synchronized void adjustShortStopLoss(Amount price, Amount amount, Boolean force, double orderGroup) {
-    log.debug(this.getClass().getSimpleName() + " : adjustShortStopLoss to called from stack " + Thread.currentThread().getStackTrace()[2]);
+    log.debug("{} : adjustShortStopLoss to called from stack {}", this.getClass().getSimpleName(), Diagnostics.caller());
     for (Iterator<Tradeable> itm = triggerOrders.keySet().iterator(); itm.hasNext();) {
       Tradeable market = itm.next();
       for (Iterator<Double> itd = triggerOrders.get(market).keySet().iterator(); itd.hasNext();) {
@@ -926,7 +899,7 @@ public abstract class BaseOrderService implements OrderService {
                   (price.plus(amount.abs()).toBasis(triggerOrder.getMarket().getPriceBasis(), Remainder.ROUND_EVEN)).getCount());
               DecimalAmount stopDiscrete = DecimalAmount.of(new DiscreteAmount(stopPrice, triggerOrder.getMarket().getPriceBasis()));
               if (stopDiscrete.compareTo(triggerOrder.getStopPrice()) == 0)
-                return;
+                continue;
               log.debug(this.getClass().getSimpleName() + ":adjustShortStopLoss Updsting stop price from " + triggerOrder.getStopPrice() + " to "
                   + stopDiscrete + " for " + triggerOrder);
 
@@ -937,6 +910,7 @@ public abstract class BaseOrderService implements OrderService {
                 triggerOrder.setStopAmount(impliedStopAmount);
               }
               triggerOrder.setStopPrice(stopDiscrete);
+              rekey(triggerOrders.get(market).get(triggerInterval).get(TransactionType.BUY), triggerOrder);
               triggerOrder.setStopAdjustmentCount(triggerOrder.getStopAdjustmentCount() + 1);
 
               if (triggerOrder.getParentFill() != null) {
@@ -957,7 +931,7 @@ public abstract class BaseOrderService implements OrderService {
 
   @Override
   public synchronized void adjustShortStopLossByAmount(Amount price, Boolean force, double orderGroup, double scaleFactor) {
-    log.debug(this.getClass().getSimpleName() + " : adjustShortStopLossByAmount to called from stack " + Thread.currentThread().getStackTrace()[2]);
+    log.debug("{} : adjustShortStopLossByAmount to called from stack {}", this.getClass().getSimpleName(), Diagnostics.caller());
     for (Iterator<Tradeable> itm = triggerOrders.keySet().iterator(); itm.hasNext();) {
       Tradeable market = itm.next();
       for (Iterator<Double> itd = triggerOrders.get(market).keySet().iterator(); itd.hasNext();) {
@@ -982,7 +956,7 @@ public abstract class BaseOrderService implements OrderService {
                       triggerOrder.getMarket().getPriceBasis(), Remainder.ROUND_EVEN)).getCount());
               DecimalAmount stopDiscrete = DecimalAmount.of(new DiscreteAmount(stopPrice, triggerOrder.getMarket().getPriceBasis()));
               if (stopDiscrete.compareTo(triggerOrder.getStopPrice()) == 0)
-                return;
+                continue;
               log.debug(this.getClass().getSimpleName() + ":adjustShortStopLossByAmount Updsting stop price from " + triggerOrder.getStopPrice()
                   + " to " + stopDiscrete + " for " + triggerOrder);
 
@@ -991,6 +965,7 @@ public abstract class BaseOrderService implements OrderService {
               triggerOrder.setStopAmount(impliedStopAmount);
 
               triggerOrder.setStopPrice(stopDiscrete);
+              rekey(triggerOrders.get(market).get(triggerInterval).get(TransactionType.BUY), triggerOrder);
               triggerOrder.setStopAdjustmentCount(triggerOrder.getStopAdjustmentCount() + 1);
 
               if (triggerOrder.getParentFill() != null) {
@@ -1010,7 +985,7 @@ public abstract class BaseOrderService implements OrderService {
 
   @Override
   public void adjustLongStopLossByAmount(Amount price, Boolean force, double orderGroup, double scaleFactor) {
-    log.debug(this.getClass().getSimpleName() + " : adjustLongStopLossByAmount to called from stack " + Thread.currentThread().getStackTrace()[2]);
+    log.debug("{} : adjustLongStopLossByAmount to called from stack {}", this.getClass().getSimpleName(), Diagnostics.caller());
     for (Iterator<Tradeable> itm = triggerOrders.keySet().iterator(); itm.hasNext();) {
       Tradeable market = itm.next();
       for (Iterator<Double> itd = triggerOrders.get(market).keySet().iterator(); itd.hasNext();) {
@@ -1036,7 +1011,7 @@ public abstract class BaseOrderService implements OrderService {
                       triggerOrder.getMarket().getPriceBasis(), Remainder.ROUND_EVEN)).getCount());
               DecimalAmount stopDiscrete = DecimalAmount.of(new DiscreteAmount(stopPrice, triggerOrder.getMarket().getPriceBasis()));
               if (stopDiscrete.compareTo(triggerOrder.getStopPrice()) == 0)
-                return;
+                continue;
               log.debug(this.getClass().getSimpleName() + ":adjustLongStopLossByAmount Updsting stop price from " + triggerOrder.getStopPrice()
                   + " to " + stopDiscrete + " for " + triggerOrder);
 
@@ -1045,6 +1020,7 @@ public abstract class BaseOrderService implements OrderService {
               triggerOrder.setStopAmount(impliedStopAmount);
 
               triggerOrder.setStopPrice(stopDiscrete);
+              rekey(triggerOrders.get(market).get(triggerInterval).get(TransactionType.SELL), triggerOrder);
               triggerOrder.setStopAdjustmentCount(triggerOrder.getStopAdjustmentCount() + 1);
 
               if (triggerOrder.getParentFill() != null) {
@@ -1064,7 +1040,7 @@ public abstract class BaseOrderService implements OrderService {
 
   @Override
   public void adjustLongStopLoss(Amount price, Amount amount, Boolean force, double orderGroup) {
-    log.debug(this.getClass().getSimpleName() + " : adjustLongStopLoss to called from stack " + Thread.currentThread().getStackTrace()[2]);
+    log.debug("{} : adjustLongStopLoss to called from stack {}", this.getClass().getSimpleName(), Diagnostics.caller());
     for (Iterator<Tradeable> itm = triggerOrders.keySet().iterator(); itm.hasNext();) {
       Tradeable market = itm.next();
       for (Iterator<Double> itd = triggerOrders.get(market).keySet().iterator(); itd.hasNext();) {
@@ -1086,7 +1062,7 @@ public abstract class BaseOrderService implements OrderService {
                   (price.minus(amount.abs()).toBasis(triggerOrder.getMarket().getPriceBasis(), Remainder.ROUND_EVEN)).getCount());
               DecimalAmount stopDiscrete = DecimalAmount.of(new DiscreteAmount(stopPrice, triggerOrder.getMarket().getPriceBasis()));
               if (stopDiscrete.compareTo(triggerOrder.getStopPrice()) == 0)
-                return;
+                continue;
               log.debug(this.getClass().getSimpleName() + ":adjustLongStopLoss Updsting stop price from " + triggerOrder.getStopPrice() + " to "
                   + stopDiscrete + " for " + triggerOrder);
               if ((amount == null || amount.isZero()) && triggerOrder.getStopAmount() != null || !triggerOrder.getStopAmount().isZero()) {
@@ -1096,6 +1072,7 @@ public abstract class BaseOrderService implements OrderService {
                 triggerOrder.setStopAmount(impliedStopAmount);
               }
               triggerOrder.setStopPrice(stopDiscrete);
+              rekey(triggerOrders.get(market).get(triggerInterval).get(TransactionType.SELL), triggerOrder);
               triggerOrder.setStopAdjustmentCount(triggerOrder.getStopAdjustmentCount() + 1);
 
               if (triggerOrder.getParentFill() != null) {
@@ -1115,7 +1092,7 @@ public abstract class BaseOrderService implements OrderService {
 
   @Override
   public void adjustLongTargetPrices(Amount price, Amount amount, double orderGroup) {
-    log.debug(this.getClass().getSimpleName() + " : adjustLongTargetPrices to called from stack " + Thread.currentThread().getStackTrace()[2]);
+    log.debug("{} : adjustLongTargetPrices to called from stack {}", this.getClass().getSimpleName(), Diagnostics.caller());
 
     for (Iterator<Tradeable> itm = triggerOrders.keySet().iterator(); itm.hasNext();) {
       Tradeable market = itm.next();
@@ -1136,6 +1113,7 @@ public abstract class BaseOrderService implements OrderService {
                   (price.plus(amount.abs()).toBasis(triggerOrder.getMarket().getPriceBasis(), Remainder.ROUND_EVEN)).getCount());
               DecimalAmount targetDiscrete = DecimalAmount.of(new DiscreteAmount(targetPrice, triggerOrder.getMarket().getPriceBasis()));
               triggerOrder.setTargetPrice(targetDiscrete);
+              rekey(triggerOrders.get(market).get(triggerInterval).get(TransactionType.SELL), triggerOrder);
               if (triggerOrder.getParentFill() != null)
                 triggerOrder.getParentFill().setTargetPriceCount(targetPrice);
             }
@@ -1149,7 +1127,7 @@ public abstract class BaseOrderService implements OrderService {
 
   @Override
   public void adjustShortTargetPrices(Amount price, Amount amount, double orderGroup) {
-    log.debug(this.getClass().getSimpleName() + " : adjustShortTargetPrices to called from stack " + Thread.currentThread().getStackTrace()[2]);
+    log.debug("{} : adjustShortTargetPrices to called from stack {}", this.getClass().getSimpleName(), Diagnostics.caller());
     for (Iterator<Tradeable> itm = triggerOrders.keySet().iterator(); itm.hasNext();) {
       Tradeable market = itm.next();
       for (Iterator<Double> itd = triggerOrders.get(market).keySet().iterator(); itd.hasNext();) {
@@ -1169,6 +1147,7 @@ public abstract class BaseOrderService implements OrderService {
                   (price.minus(amount.abs()).toBasis(triggerOrder.getMarket().getPriceBasis(), Remainder.ROUND_EVEN)).getCount());
               DecimalAmount TargetDiscrete = DecimalAmount.of(new DiscreteAmount(targetPrice, triggerOrder.getMarket().getPriceBasis()));
               triggerOrder.setTargetPrice(TargetDiscrete);
+              rekey(triggerOrders.get(market).get(triggerInterval).get(TransactionType.BUY), triggerOrder);
               if (triggerOrder.getParentFill() != null)
                 triggerOrder.getParentFill().setTargetPriceCount(targetPrice);
             }
@@ -1184,15 +1163,16 @@ public abstract class BaseOrderService implements OrderService {
 
   @Override
   public OrderState getOrderState(Order o) throws IllegalStateException {
-    OrderState state = orderStateMap.get(o);
+    OrderState state = orderStore.getState(o);
     if (state == null) {
       try {
         //  log.debug(this.getClass().getSimpleName() + ":getOrderState - Loading order " + o + " from database")
         // let's check if we can get state from exchange or DB
         OrderState orderState = getOrderStateFromOrderService(o);
-        if (orderState != null)
+        if (orderState != null) {
           updateOrderState(o, orderState, true);
-        else
+          state = orderState;
+        } else
           throw new IllegalStateException("Untracked order " + o);
 
       } catch (Throwable e) {
@@ -1206,26 +1186,18 @@ public abstract class BaseOrderService implements OrderService {
 
   public Collection<SpecificOrder> getWorkingOrdersOrderFromStateMap() {
     ArrayList<SpecificOrder> orders = new ArrayList<SpecificOrder>();
-    for (Order order : orderStateMap.keySet())
-      if (order instanceof SpecificOrder && orderStateMap.get(order).isOpen())
-        orders.add((SpecificOrder) order);
+    for (Map.Entry<Order, OrderState> entry : orderStore.getStates().entrySet())
+      if (entry.getKey() instanceof SpecificOrder && entry.getValue().isOpen())
+        orders.add((SpecificOrder) entry.getKey());
 
     return orders;
   }
 
   public SpecificOrder getSpecifcOrderFromStateMap(UUID id) {
-    boolean found = false;
-    for (Order order : orderStateMap.keySet()) {
-      if (order.getId().equals(id)) {
-        found = true;
-        if (order instanceof SpecificOrder)
-          return (SpecificOrder) order;
-      }
-
-    }
-    if (!found)
+    Order order = orderStore.getOrder(id);
+    if (order == null)
       throw new IllegalStateException("Untracked order " + id);
-    return null;
+    return order instanceof SpecificOrder ? (SpecificOrder) order : null;
 
   }
 
@@ -1242,10 +1214,10 @@ public abstract class BaseOrderService implements OrderService {
 
   // @When("@Priority(8) select * from OrderUpdate")
   public void handleOrderUpdate(OrderUpdate orderUpdate) {
-    log.debug(this.getClass().getSimpleName() + " : handleOrderUpdate to called from stack " + Thread.currentThread().getStackTrace()[2]);
+    log.debug("{} : handleOrderUpdate to called from stack {}", this.getClass().getSimpleName(), Diagnostics.caller());
 
     //TOOD somethig is up in here causing the states of stop orders to be changed when they are still resting
-    OrderState oldState = orderStateMap.get(orderUpdate.getOrder());
+    OrderState oldState = orderStore.getState(orderUpdate.getOrder());
     OrderState orderState = orderUpdate.getState();
     Order order = orderUpdate.getOrder();
     //        if (stateOrderMap.get(orderState) == null) {
@@ -1487,7 +1459,7 @@ public abstract class BaseOrderService implements OrderService {
 
   public void handleFill(Fill fill) {
     //  log.debug("BaseOrderService:handleFill Fill Received: " + fill);
-    log.debug(this.getClass().getSimpleName() + " : handleFill " + fill + " to called from stack " + Thread.currentThread().getStackTrace()[2]);
+    log.debug("{} : handleFill {} to called from stack {}", this.getClass().getSimpleName(), fill, Diagnostics.caller());
     fill.persit();
     // UUID orderID = UUID.fromString(fill.getRemoteKey());
     SpecificOrder order = fill.getOrder();
@@ -1512,7 +1484,7 @@ public abstract class BaseOrderService implements OrderService {
     //    fill.merge();
     if (log.isInfoEnabled())
       log.info("Received Fill " + fill);
-    OrderState state = orderStateMap.get(order);
+    OrderState state = orderStore.getState(order);
     if (state == null) {
       log.warn("Untracked order " + order);
       state = OrderState.PLACED;
@@ -2273,7 +2245,7 @@ public abstract class BaseOrderService implements OrderService {
     Boolean orderFound = false;
     //convert order to specfic order
     double interval = 0;
-    log.trace(this.getClass().getSimpleName() + " : triggerOrder to called from stack " + Thread.currentThread().getStackTrace()[2]);
+    log.trace("{} : triggerOrder to called from stack {}", this.getClass().getSimpleName(), Diagnostics.caller());
     for (Iterator<Double> itd = triggerOrders.get(triggeredOrder.getMarket()).keySet().iterator(); itd.hasNext();) {
       Double triggerInterval = itd.next();
       synchronized (triggerOrders.get(triggeredOrder.getMarket()).get(triggerInterval).get(triggeredOrder.getTransactionType())) {
@@ -2292,7 +2264,7 @@ public abstract class BaseOrderService implements OrderService {
     // .get(triggeredOrder.getTransactionType()) != null) ? triggerOrders.get(triggeredOrder.getMarket()).get(interval)
     // ./get(triggeredOrder.getTransactionType()) : new Object()) {
 
-    OrderState triggerOrderState = orderStateMap.get(triggeredOrder);
+    OrderState triggerOrderState = orderStore.getState(triggeredOrder);
     log.debug(this.getClass().getSimpleName() + " : triggerOrder trigger order " + triggeredOrder.getId() + " with state : " + triggerOrderState);
     if (!triggerOrderState.isOpen())
       return triggeredOrder;
@@ -2330,7 +2302,7 @@ public abstract class BaseOrderService implements OrderService {
         + " and unfilled volume " + triggeredOrder.getUnfilledVolume() + " for " + triggeredOrder.getId() + " with child orders "
         + triggeredOrder.getOrderChildren());
     for (Order childOrder : triggeredOrder.getOrderChildren()) {
-      if (orderStateMap.get(childOrder) != null && orderStateMap.get(childOrder).isOpen())
+      if (orderStore.getState(childOrder) != null && orderStore.getState(childOrder).isOpen())
         if (!handleCancelOrder(childOrder)) {
           log.info("UpdateRestingOrders: unable to cancell all child order " + childOrder.getId() + " from orders: "
               + triggeredOrder.getOrderChildren() + "for order:" + triggeredOrder.getId());
@@ -2538,7 +2510,8 @@ public abstract class BaseOrderService implements OrderService {
 
     if (bid == null || bid.getPrice().isZero() || ask == null || ask.getPrice().isZero())
       return;
-    log.trace("Bid price for trigger: " + bid.getPrice() + ". Ask price for trigger: " + ask.getPrice());
+    if (log.isTraceEnabled())
+      log.trace("Bid price for trigger: " + bid.getPrice() + ". Ask price for trigger: " + ask.getPrice());
 
     //    Iterator<Order> itOrder = getPendingOrders().iterator();
     //  while (itOrder.hasNext()) {
@@ -2600,7 +2573,7 @@ public abstract class BaseOrderService implements OrderService {
           // if I am buying, then I can buy at current best ask and sell at current best bid
 
           log.info("BasedOrderSerivce - UpdateRestingOrdsers: Setting limit prices for market " + pendingOrder.getMarket() + " using lastBook"
-              + lastBook + " order state" + orderStateMap.get(order));
+              + lastBook + " order state" + orderStore.getState(order));
 
           Offer bestOffer = (pendingOrder.isBid()) ? lastBook.getBestAskByVolume(new DiscreteAmount(DiscreteAmount.roundedCountForBasis(
               workingVolume.asBigDecimal(), pendingOrder.getMarket().getVolumeBasis()), pendingOrder.getMarket().getVolumeBasis())) : lastBook
@@ -2651,9 +2624,9 @@ public abstract class BaseOrderService implements OrderService {
             }
           } else {
             if (limitPrice == null) {
-              log.debug("pendingOrder:" + pendingOrder);
-              log.debug("pendingOrderState:" + orderStateMap.get(order));
-              log.debug("pendingOrderState:" + stateOrderMap.get(orderStateMap.get(order)));
+              log.debug("pendingOrder:{}", pendingOrder);
+              log.debug("pendingOrderState:{}", orderStore.getState(order));
+              log.debug("pendingOrderState:{}", orderStore.getOrders(orderStore.getState(order)));
             }
 
             if (updatedlimitPrice.isPositive() && limitPrice.compareTo(updatedlimitPrice) < 0)
@@ -2667,8 +2640,8 @@ public abstract class BaseOrderService implements OrderService {
           // limitPrice = (limitPrice.compareTo(updatedlimitPrice) > 0 ? limitPrice : updatedlimitPrice);
           // what about if 
           //TODO  we only need to do this is the best bid/best ask has changed vs previous
-          log.debug("replacing existing market order with fill type " + pendingOrder.getFillType() + " expirty time " + pendingOrder.getExpiryTime()
-              + ":" + pendingOrder);
+          log.debug("replacing existing market order with fill type {} expirty time {}:{}", pendingOrder.getFillType(), pendingOrder.getExpiryTime(),
+              pendingOrder);
           SpecificOrder replaceOrder = specificOrderFactory.create(pendingOrder);
 
           try {
@@ -2681,12 +2654,12 @@ public abstract class BaseOrderService implements OrderService {
               replaceOrder.withLimitPrice(limitPrice);
               replaceOrder.setVolumeCount(pendingOrder.getUnfilledVolume().getCount());
               //}
-              log.debug("placing replacment market order :" + replaceOrder + " for order" + pendingOrder);
+              log.debug("placing replacment market order :{} for order{}", replaceOrder, pendingOrder);
               //So order is placed, 
 
               if (placeOrder(replaceOrder)) {
-                log.debug("updateRestingOrders:Replaced market order with state : " + getOrderState(pendingOrder) + " " + pendingOrder + " with "
-                    + replaceOrder);
+                log.debug("updateRestingOrders:Replaced market order with state : {} {} with {}", getOrderState(pendingOrder), pendingOrder,
+                    replaceOrder);
                 log.info("Canceling  Orders " + pendingOrder + " with state " + getOrderState(pendingOrder));
                 if (handleCancelSpecificOrder(pendingOrder))
                   log.info("cancelled  Orders " + pendingOrder + " with state " + getOrderState(pendingOrder));
@@ -2798,11 +2771,18 @@ public abstract class BaseOrderService implements OrderService {
       ArrayList<Order> triggeredOrders = new ArrayList<Order>();
 
       //`Something is up here are we triggering orders whilst we are in teh loop, need to trigger them all once we have exited lopp
-      synchronized (triggerOrders.get(market).get(triggerInterval).get(TransactionType.BUY)) {
-        Iterator<Order> itto = triggerOrders.get(market).get(triggerInterval).get(TransactionType.BUY).iterator();
+      TriggerOrderList buyTriggerOrders = (TriggerOrderList) triggerOrders.get(market).get(triggerInterval).get(TransactionType.BUY);
+      synchronized (buyTriggerOrders) {
+        // only the expired orders and those the ask has crossed need to be visited, rather than every resting order
+        List<Order> candidateOrders = buyTriggerOrders.getExpiredBy(context.getTime());
+        candidateOrders.addAll(buyTriggerOrders.getBuysCrossedBy(ask.getPrice()));
+        Iterator<Order> itto = candidateOrders.iterator();
         //  int size = triggerOrders.get(tr).get(triggerInterval).get(TransactionType.BUY).size();
         while (itto.hasNext()) {
           Order triggeredOrder = itto.next();
+          // skip orders already handled, or removed by an order triggered earlier in this loop
+          if (triggeredOrders.contains(triggeredOrder) || !buyTriggerOrders.contains(triggeredOrder))
+            continue;
           //     synchronized (triggeredOrder) {
           // this is a buy order
           //  for (Order triggeredOrder : triggerOrders.get(market).get(TransactionType.BUY).get(parentKey)) {
@@ -2812,10 +2792,11 @@ public abstract class BaseOrderService implements OrderService {
 
           // for (Order triggeredOrder : triggerOrders.get(parentKey)) {
 
-          log.trace("determining to trigger resting buy  order:" + triggeredOrder.getId()
-              + (triggeredOrder.getStopPrice() != null ? " with stop price " + (triggeredOrder.getStopPrice()) : "")
-              + (triggeredOrder.getTargetPrice() != null ? " target price " + (triggeredOrder.getTargetPrice()) : "") + " for interval "
-              + triggerInterval + " at Bid price for trigger: " + bid.getPrice() + ". Ask price for trigger: " + ask.getPrice());
+          if (log.isTraceEnabled())
+            log.trace("determining to trigger resting buy  order:" + triggeredOrder.getId()
+                + (triggeredOrder.getStopPrice() != null ? " with stop price " + (triggeredOrder.getStopPrice()) : "")
+                + (triggeredOrder.getTargetPrice() != null ? " target price " + (triggeredOrder.getTargetPrice()) : "") + " for interval "
+                + triggerInterval + " at Bid price for trigger: " + bid.getPrice() + ". Ask price for trigger: " + ask.getPrice());
 
           if (triggeredOrder.getExpiryTime() != null && context.getTime().isAfter(triggeredOrder.getExpiryTime())
           //   && triggerOrders.get(market).get(TransactionType.BUY).contains(triggeredOrder)
@@ -2897,7 +2878,7 @@ public abstract class BaseOrderService implements OrderService {
                   }
 
                 } else
-                  break;
+                  continue;
 
                 // triggerOrderLock.unlock();
 
@@ -2931,8 +2912,9 @@ public abstract class BaseOrderService implements OrderService {
             //while (ittto.hasNext()) {
             //  Order trailingTriggerOrder = ittto.next();
 
-            log.trace("determining to to update trailing trigger order:" + trailingTriggerOrder.getId() + " at Bid price for trigger: "
-                + bid.getPrice() + ". Ask price for trigger: " + ask.getPrice());
+            if (log.isTraceEnabled())
+              log.trace("determining to to update trailing trigger order:" + trailingTriggerOrder.getId() + " at Bid price for trigger: "
+                  + bid.getPrice() + ". Ask price for trigger: " + ask.getPrice());
 
             if (b.getMarket() != null) {
               try {
@@ -2943,11 +2925,12 @@ public abstract class BaseOrderService implements OrderService {
                   if (trailingTriggerOrder.getFillType() != null
                       && (trailingTriggerOrder.getFillType().equals(FillType.TRAILING_STOP_LIMIT) || trailingTriggerOrder.getFillType().equals(
                           FillType.REENTRANT_TRAILING_STOP_LIMIT))) {
-                    log.trace(this.getClass().getSimpleName() + "- updateRestingOrders: Determing if any buy trailing stops to update for order id "
-                        + trailingTriggerOrder.getId());
+                    if (log.isTraceEnabled())
+                      log.trace(this.getClass().getSimpleName() + "- updateRestingOrders: Determing if any buy trailing stops to update for order id "
+                          + trailingTriggerOrder.getId());
                     if (trailingTriggerOrder.getUnfilledVolume().isZero()) {
-                      log.debug(this.getClass().getSimpleName() + "- updateRestingOrders: Removed  buy trailing stop with zero unfilled  "
-                          + trailingTriggerOrder);
+                      log.debug("{}- updateRestingOrders: Removed  buy trailing stop with zero unfilled  {}", this.getClass().getSimpleName(),
+                          trailingTriggerOrder);
 
                       triggeredOrders.add(trailingTriggerOrder);
                       // ittto.remove();
@@ -2967,12 +2950,13 @@ public abstract class BaseOrderService implements OrderService {
                           Remainder.ROUND_EVEN)).getCount(), (triggerPrice.getCount() + (stopAmount.toBasis(trailingTriggerOrder.getMarket()
                           .getPriceBasis(), Remainder.ROUND_EVEN)).getCount()));
                       DiscreteAmount stopDiscrete = (new DiscreteAmount(stopPrice, trailingTriggerOrder.getMarket().getPriceBasis()));
-                      log.debug(this.getClass().getSimpleName() + "- updateRestingOrders: At " + context.getTime()
-                          + " updating buy trailing stop from " + trailingTriggerOrder.getStopPrice() + " to " + stopDiscrete + " for order id "
-                          + trailingTriggerOrder.getId());
+                      log.debug("{}- updateRestingOrders: At {} updating buy trailing stop from {} to {} for order id {}",
+                          this.getClass().getSimpleName(), context.getTime(), trailingTriggerOrder.getStopPrice(), stopDiscrete,
+                          trailingTriggerOrder.getId());
 
                       trailingTriggerOrder.setStopPrice(DecimalAmount.of(stopDiscrete));
                       trailingTriggerOrder.setStopAdjustmentCount(trailingTriggerOrder.getStopAdjustmentCount() + 1);
+                      buyTriggerOrders.rekey(trailingTriggerOrder);
 
                       updatedOrders = true;
                       trailingTriggerOrder.merge();
@@ -3002,8 +2986,7 @@ public abstract class BaseOrderService implements OrderService {
           }
         }
         if (updatedOrders) {
-          sortOrders(triggerOrders.get(market).get(triggerInterval).get(TransactionType.BUY), TransactionType.BUY, market,
-              ascendingStopPriceComparator);
+          // the moved stops were re-keyed in the trigger orders as they moved, so only the trailing orders need sorting
           sortOrders(trailingTriggerOrders.get(market).get(triggerInterval).get(TransactionType.BUY), TransactionType.BUY, market,
               descendingTrailingStopPriceComparator);
         }
@@ -3042,11 +3025,18 @@ public abstract class BaseOrderService implements OrderService {
       // closing position
       //  Event parentKey = itEvent.next();
       ArrayList<Order> triggeredOrders = new ArrayList<Order>();
-      synchronized (triggerOrders.get(market).get(triggerInterval).get(TransactionType.SELL)) {
-        Iterator<Order> itto = triggerOrders.get(market).get(triggerInterval).get(TransactionType.SELL).iterator();
+      TriggerOrderList sellTriggerOrders = (TriggerOrderList) triggerOrders.get(market).get(triggerInterval).get(TransactionType.SELL);
+      synchronized (sellTriggerOrders) {
+        // only the expired orders and those the bid has crossed need to be visited, rather than every resting order
+        List<Order> candidateOrders = sellTriggerOrders.getExpiredBy(context.getTime());
+        candidateOrders.addAll(sellTriggerOrders.getSellsCrossedBy(bid.getPrice()));
+        Iterator<Order> itto = candidateOrders.iterator();
 
         while (itto.hasNext()) {
           Order triggeredOrder = itto.next();
+          // skip orders already handled, or removed by an order triggered earlier in this loop
+          if (triggeredOrders.contains(triggeredOrder) || !sellTriggerOrders.contains(triggeredOrder))
+            continue;
           //  synchronized (triggeredOrder) {
           //  Event parentKey = itps.next();
           //for (Order triggeredOrder : triggerOrders.get(market).get(TransactionType.SELL).get(parentKey)) {
@@ -3055,10 +3045,11 @@ public abstract class BaseOrderService implements OrderService {
            */
 
           // for (Order triggeredOrder : triggerOrders.get(parentKey)) {
-          log.trace("determining to trigger resting sell  order:" + triggeredOrder.getId()
-              + (triggeredOrder.getStopPrice() != null ? " with stop price " + (triggeredOrder.getStopPrice()) : "")
-              + (triggeredOrder.getTargetPrice() != null ? " target price " + (triggeredOrder.getTargetPrice()) : "") + " for interval "
-              + triggerInterval + " at Bid price for trigger: " + bid.getPrice() + ". Ask price for trigger: " + ask.getPrice());
+          if (log.isTraceEnabled())
+            log.trace("determining to trigger resting sell  order:" + triggeredOrder.getId()
+                + (triggeredOrder.getStopPrice() != null ? " with stop price " + (triggeredOrder.getStopPrice()) : "")
+                + (triggeredOrder.getTargetPrice() != null ? " target price " + (triggeredOrder.getTargetPrice()) : "") + " for interval "
+                + triggerInterval + " at Bid price for trigger: " + bid.getPrice() + ". Ask price for trigger: " + ask.getPrice());
 
           if (triggeredOrder.getExpiryTime() != null && context.getTime().isAfter(triggeredOrder.getExpiryTime())) {
 
@@ -3144,7 +3135,7 @@ public abstract class BaseOrderService implements OrderService {
                   //triggeredOrders.add(triggeredOrder);
 
                 } else
-                  break;
+                  continue;
               }
             } catch (NullPointerException npe) {
               // most likey thrown cos the trigger order have been removed by a cancel action
@@ -3174,8 +3165,9 @@ public abstract class BaseOrderService implements OrderService {
             //  while (ittto.hasNext()) {
             //    Order trailingTriggerOrder = ittto.next();
 
-            log.trace("determining to to update trailing trigger order:" + trailingTriggerOrder.getId() + " at Bid price for trigger: "
-                + bid.getPrice() + ". Ask price for trigger: " + ask.getPrice());
+            if (log.isTraceEnabled())
+              log.trace("determining to to update trailing trigger order:" + trailingTriggerOrder.getId() + " at Bid price for trigger: "
+                  + bid.getPrice() + ". Ask price for trigger: " + ask.getPrice());
 
             if (b.getMarket() != null) {
               try {
@@ -3186,11 +3178,12 @@ public abstract class BaseOrderService implements OrderService {
                   if (trailingTriggerOrder.getFillType() != null
                       && (trailingTriggerOrder.getFillType().equals(FillType.TRAILING_STOP_LIMIT) || trailingTriggerOrder.getFillType().equals(
                           FillType.REENTRANT_TRAILING_STOP_LIMIT))) {
-                    log.trace(this.getClass().getSimpleName() + "- updateRestingOrders: Determining if sell trailing stops to update for order id "
-                        + trailingTriggerOrder.getId());
+                    if (log.isTraceEnabled())
+                      log.trace(this.getClass().getSimpleName() + "- updateRestingOrders: Determining if sell trailing stops to update for order id "
+                          + trailingTriggerOrder.getId());
                     if (trailingTriggerOrder.getUnfilledVolume().isZero()) {
-                      log.debug(this.getClass().getSimpleName() + "- updateRestingOrders: Removed  buy trailing stop with zero unfilled  "
-                          + trailingTriggerOrder);
+                      log.debug("{}- updateRestingOrders: Removed  buy trailing stop with zero unfilled  {}", this.getClass().getSimpleName(),
+                          trailingTriggerOrder);
 
                       triggeredOrders.add(trailingTriggerOrder);
                       //  ittto.remove();
@@ -3209,12 +3202,13 @@ public abstract class BaseOrderService implements OrderService {
                           Remainder.ROUND_EVEN)).getCount(), (triggerPrice.getCount() - (stopAmount.toBasis(trailingTriggerOrder.getMarket()
                           .getPriceBasis(), Remainder.ROUND_EVEN)).getCount()));
                       DiscreteAmount stopDiscrete = (new DiscreteAmount(stopPrice, trailingTriggerOrder.getMarket().getPriceBasis()));
-                      log.debug(this.getClass().getSimpleName() + "- updateRestingOrders: At " + context.getTime()
-                          + " updating sell trailing stop from " + trailingTriggerOrder.getStopPrice() + " to " + stopDiscrete + " for order id "
-                          + trailingTriggerOrder.getId());
+                      log.debug("{}- updateRestingOrders: At {} updating sell trailing stop from {} to {} for order id {}",
+                          this.getClass().getSimpleName(), context.getTime(), trailingTriggerOrder.getStopPrice(), stopDiscrete,
+                          trailingTriggerOrder.getId());
 
                       trailingTriggerOrder.setStopPrice(DecimalAmount.of(stopDiscrete));
                       trailingTriggerOrder.setStopAdjustmentCount(trailingTriggerOrder.getStopAdjustmentCount() + 1);
+                      sellTriggerOrders.rekey(trailingTriggerOrder);
                       updatedOrders = true;
 
                       trailingTriggerOrder.merge();
@@ -3243,8 +3237,7 @@ public abstract class BaseOrderService implements OrderService {
           }
         }
         if (updatedOrders) {
-          sortOrders(triggerOrders.get(market).get(triggerInterval).get(TransactionType.SELL), TransactionType.SELL, market,
-              descendingStopPriceComparator);
+          // the moved stops were re-keyed in the trigger orders as they moved, so only the trailing orders need sorting
           sortOrders(trailingTriggerOrders.get(market).get(triggerInterval).get(TransactionType.SELL), TransactionType.SELL, market,
               ascendingTrailingStopPriceComparator);
 
@@ -3461,10 +3454,9 @@ public abstract class BaseOrderService implements OrderService {
       //    Order order = it.next();
       if (order instanceof SpecificOrder) {
         SpecificOrder specificOrder = (SpecificOrder) order;
-        if (specificOrder.getMarket().equals(market) && orderStateMap.get(specificOrder) != null && orderStateMap.get(specificOrder).isOpen()) {
+        if (specificOrder.getMarket().equals(market) && orderStore.getState(specificOrder) != null && orderStore.getState(specificOrder).isOpen()) {
           ordersToCancel.add(specificOrder);
-          log.info("handleCancelAllSpecificOrders called from class " + Thread.currentThread().getStackTrace()[2] + " cancelling order : "
-              + specificOrder);
+          log.info("handleCancelAllSpecificOrders called from class {} cancelling order : {}", Diagnostics.caller(), specificOrder);
         }
       }
     }
@@ -3489,7 +3481,7 @@ public abstract class BaseOrderService implements OrderService {
     Collection<SpecificOrder> portfolioPendingOrders = new ArrayList<SpecificOrder>();
     if (market == null || portfolio == null)
       return portfolioPendingOrders;
-    for (Order order : getPendingOrders()) {
+    for (Order order : orderStore.getPendingOrders(market, portfolio)) {
       if (order instanceof SpecificOrder) {
         SpecificOrder pendingOrder = (SpecificOrder) order;
         if (pendingOrder.getPortfolio().equals(portfolio) && pendingOrder.getMarket().equals(market)) {
@@ -3506,17 +3498,30 @@ public abstract class BaseOrderService implements OrderService {
   @Override
   public Collection<Fill> getFills(Market market, Portfolio portfolio) {
     List<Fill> portfolioFills = new ArrayList<Fill>();
-    for (Order order : orderStateMap.keySet()) {
+    Set<UUID> fillIds = new HashSet<UUID>();
+    // the fills of the orders still tracked
+    for (Order order : orderStore.getOrders()) {
       if (order.getFills() != null && !order.getFills().isEmpty() && order.getPortfolio().equals(portfolio) && order instanceof SpecificOrder) {
 
         SpecificOrder pendingOrder = (SpecificOrder) order;
 
         if (pendingOrder.getMarket().equals(market))
-
-          portfolioFills.addAll(pendingOrder.getFills());
+          for (Fill fill : pendingOrder.getFills())
+            if (fillIds.add(fill.getId()))
+              portfolioFills.add(fill);
 
       }
     }
+    // finished orders which have dropped out of the archive are no longer tracked, so their fills are loaded from the database
+    if (orderStore.hasEvicted()) {
+      try {
+        for (Fill fill : EM.queryList(Fill.class, "select f from Fill f where market=?1 and portfolio=?2", market, portfolio))
+          if (fillIds.add(fill.getId()))
+            portfolioFills.add(fill);
+      } catch (Exception | Error e) {
+        log.error(this.getClass().getSimpleName() + ":getFills Unable to load the fills of untracked orders for market " + market, e);
+      }
+    }
     Collections.sort(portfolioFills, timeOrderIdComparator);
     return portfolioFills;
     // return portfolioFills;
@@ -3783,12 +3788,11 @@ public abstract class BaseOrderService implements OrderService {
       //   Order order = it.next();
       if (order instanceof SpecificOrder) {
         SpecificOrder specificOrder = (SpecificOrder) order;
-        if (specificOrder.getMarket().equals(market) && (orderStateMap.get(specificOrder) != null && orderStateMap.get(specificOrder).isOpen())
+        if (specificOrder.getMarket().equals(market) && (orderStore.getState(specificOrder) != null && orderStore.getState(specificOrder).isOpen())
             && specificOrder.getPositionEffect() == (PositionEffect.CLOSE) && specificOrder.isBid()
             && (specificOrder.getExecutionInstruction() == null || (specificOrder.getExecutionInstruction() != null))) {
           orderToCancel.add(specificOrder);
-          log.info("handleCancelAllShortClosingSpecificOrders called from class " + Thread.currentThread().getStackTrace()[2]
-              + " cancelling order : " + specificOrder);
+          log.info("handleCancelAllShortClosingSpecificOrders called from class {} cancelling order : {}", Diagnostics.caller(), specificOrder);
 
         }
       }
@@ -3816,12 +3820,11 @@ public abstract class BaseOrderService implements OrderService {
       if (order instanceof SpecificOrder) {
         SpecificOrder specificOrder = (SpecificOrder) order;
         if (specificOrder.getMarket().equals(market) && specificOrder.getOrderGroup() == orderGroup
-            && (orderStateMap.get(specificOrder) != null && orderStateMap.get(specificOrder).isOpen())
+            && (orderStore.getState(specificOrder) != null && orderStore.getState(specificOrder).isOpen())
             && specificOrder.getPositionEffect() == (PositionEffect.CLOSE) && specificOrder.isBid()
             && (specificOrder.getExecutionInstruction() == null || (specificOrder.getExecutionInstruction() != null))) {
           orderToCancel.add(specificOrder);
-          log.info("handleCancelAllShortClosingSpecificOrders called from class " + Thread.currentThread().getStackTrace()[2]
-              + " cancelling order : " + specificOrder);
+          log.info("handleCancelAllShortClosingSpecificOrders called from class {} cancelling order : {}", Diagnostics.caller(), specificOrder);
 
         }
       }
@@ -3849,14 +3852,13 @@ public abstract class BaseOrderService implements OrderService {
       if (order instanceof SpecificOrder) {
         SpecificOrder specificOrder = (SpecificOrder) order;
         if (specificOrder.getMarket().equals(market)
-            && (orderStateMap.get(specificOrder) != null && orderStateMap.get(specificOrder).isOpen())
+            && (orderStore.getState(specificOrder) != null && orderStore.getState(specificOrder).isOpen())
             && specificOrder.getPositionEffect() == (PositionEffect.CLOSE)
             && specificOrder.isBid()
             && (specificOrder.getExecutionInstruction() == null || (specificOrder.getExecutionInstruction() != null && specificOrder
                 .getExecutionInstruction().equals(execInst)))) {
           orderToCancel.add(specificOrder);
-          log.info("handleCancelAllShortClosingSpecificOrders called from class " + Thread.currentThread().getStackTrace()[2]
-              + " cancelling order : " + specificOrder);
+          log.info("handleCancelAllShortClosingSpecificOrders called from class {} cancelling order : {}", Diagnostics.caller(), specificOrder);
 
         }
       }
@@ -3897,7 +3899,7 @@ public abstract class BaseOrderService implements OrderService {
     Collection<SpecificOrder> cancelledOrders;
 
     for (Order childOrder : allChildOrders) {
-      if (childOrder instanceof SpecificOrder && orderStateMap.get(childOrder) != null && orderStateMap.get(childOrder).isOpen())
+      if (childOrder instanceof SpecificOrder && orderStore.getState(childOrder) != null && orderStore.getState(childOrder).isOpen())
         ordersToCancel.add((SpecificOrder) childOrder);
 
     }
@@ -3915,16 +3917,14 @@ public abstract class BaseOrderService implements OrderService {
       CANCELLEDORDERSLOOP: for (SpecificOrder cancelledOrder : cancelledOrders) {
 
         if (cancelledOrder.equals(orderToCancel)) {
-          log.debug("handleCancelSpecificOrderByParentFill called from class " + Thread.currentThread().getStackTrace()[2] + " canclled order : "
-              + orderToCancel);
+          log.debug("handleCancelSpecificOrderByParentFill called from class {} canclled order : {}", Diagnostics.caller(), orderToCancel);
 
           foundOrderToBeCancelled = true;
           break CANCELLEDORDERSLOOP;
         }
       }
       if (!foundOrderToBeCancelled) {
-        log.debug("handleCancelSpecificOrderByParentFill called from class " + Thread.currentThread().getStackTrace()[2]
-            + " unable to cancel order : " + orderToCancel);
+        log.debug("handleCancelSpecificOrderByParentFill called from class {} unable to cancel order : {}", Diagnostics.caller(), orderToCancel);
 
         break ORDERSTOCANCELLOOP;
       }
@@ -3995,11 +3995,10 @@ public abstract class BaseOrderService implements OrderService {
       if (order instanceof SpecificOrder) {
         SpecificOrder specificOrder = (SpecificOrder) order;
         if (specificOrder.getMarket().equals(market) && specificOrder.getPositionEffect() == (PositionEffect.CLOSE)
-            && (orderStateMap.get(specificOrder) != null && orderStateMap.get(specificOrder).isOpen())) {
+            && (orderStore.getState(specificOrder) != null && orderStore.getState(specificOrder).isOpen())) {
           //cancelledOrders.add(specificOrder);
           orderToCancel.add(specificOrder);
-          log.debug("handleCancelAllClosingSpecificOrders called from class " + Thread.currentThread().getStackTrace()[2] + " cancelling order : "
-              + specificOrder);
+          log.debug("handleCancelAllClosingSpecificOrders called from class {} cancelling order : {}", Diagnostics.caller(), specificOrder);
         }
       }
     }
@@ -4344,10 +4343,9 @@ public abstract class BaseOrderService implements OrderService {
       if (order instanceof SpecificOrder) {
         SpecificOrder specificOrder = (SpecificOrder) order;
         if (specificOrder.getMarket().equals(market) && specificOrder.getPositionEffect() == (PositionEffect.OPEN) && specificOrder.isBid()
-            && orderStateMap.get(specificOrder) != null && orderStateMap.get(specificOrder).isOpen()) {
+            && orderStore.getState(specificOrder) != null && orderStore.getState(specificOrder).isOpen()) {
           orderToCancel.add(specificOrder);
-          log.info("handleCancelAllLongOpeningSpecificOrders called from class " + Thread.currentThread().getStackTrace()[2] + " cancelling order : "
-              + specificOrder);
+          log.info("handleCancelAllLongOpeningSpecificOrders called from class {} cancelling order : {}", Diagnostics.caller(), specificOrder);
         }
 
       }
@@ -4365,11 +4363,10 @@ public abstract class BaseOrderService implements OrderService {
       if (order instanceof SpecificOrder) {
         SpecificOrder specificOrder = (SpecificOrder) order;
         if (specificOrder.getMarket().equals(market) && specificOrder.getOrderGroup() == orderGroup
-            && specificOrder.getPositionEffect() == (PositionEffect.OPEN) && specificOrder.isBid() && orderStateMap.get(specificOrder) != null
-            && orderStateMap.get(specificOrder).isOpen()) {
+            && specificOrder.getPositionEffect() == (PositionEffect.OPEN) && specificOrder.isBid() && orderStore.getState(specificOrder) != null
+            && orderStore.getState(specificOrder).isOpen()) {
           orderToCancel.add(specificOrder);
-          log.info("handleCancelAllLongOpeningSpecificOrders called from class " + Thread.currentThread().getStackTrace()[2] + " cancelling order : "
-              + specificOrder);
+          log.info("handleCancelAllLongOpeningSpecificOrders called from class {} cancelling order : {}", Diagnostics.caller(), specificOrder);
         }
 
       }
@@ -4487,14 +4484,13 @@ public abstract class BaseOrderService implements OrderService {
       if (order instanceof SpecificOrder) {
         SpecificOrder specificOrder = (SpecificOrder) order;
         if (specificOrder.getMarket().equals(market)
-            && (orderStateMap.get(specificOrder) != null && orderStateMap.get(specificOrder).isOpen())
+            && (orderStore.getState(specificOrder) != null && orderStore.getState(specificOrder).isOpen())
             && specificOrder.getPositionEffect() == (PositionEffect.CLOSE)
             && specificOrder.isAsk()
             && (specificOrder.getExecutionInstruction() == null || (specificOrder.getExecutionInstruction() != null && specificOrder
                 .getExecutionInstruction().equals(execInst)))) {
           orderToCancel.add(specificOrder);
-          log.info("handleCancelAllLongClosingSpecificOrders called from class " + Thread.currentThread().getStackTrace()[2] + " cancelling order : "
-              + specificOrder);
+          log.info("handleCancelAllLongClosingSpecificOrders called from class {} cancelling order : {}", Diagnostics.caller(), specificOrder);
         }
       }
     }
@@ -4516,14 +4512,13 @@ public abstract class BaseOrderService implements OrderService {
         SpecificOrder specificOrder = (SpecificOrder) order;
         if (specificOrder.getOrderGroup() == orderGroup
             && specificOrder.getMarket().equals(market)
-            && (orderStateMap.get(specificOrder) != null && orderStateMap.get(specificOrder).isOpen())
+            && (orderStore.getState(specificOrder) != null && orderStore.getState(specificOrder).isOpen())
             && specificOrder.getPositionEffect() == (PositionEffect.CLOSE)
             && specificOrder.isAsk()
             && (specificOrder.getExecutionInstruction() == null || (specificOrder.getExecutionInstruction() != null && specificOrder
                 .getExecutionInstruction().equals(execInst)))) {
           orderToCancel.add(specificOrder);
-          log.info("handleCancelAllLongClosingSpecificOrders called from class " + Thread.currentThread().getStackTrace()[2] + " cancelling order : "
-              + specificOrder);
+          log.info("handleCancelAllLongClosingSpecificOrders called from class {} cancelling order : {}", Diagnostics.caller(), specificOrder);
         }
       }
     }
@@ -4545,12 +4540,11 @@ public abstract class BaseOrderService implements OrderService {
 
       if (order instanceof SpecificOrder) {
         SpecificOrder specificOrder = (SpecificOrder) order;
-        if (specificOrder.getMarket().equals(market) && (orderStateMap.get(specificOrder) != null && orderStateMap.get(specificOrder).isOpen())
+        if (specificOrder.getMarket().equals(market) && (orderStore.getState(specificOrder) != null && orderStore.getState(specificOrder).isOpen())
             && specificOrder.getPositionEffect() == (PositionEffect.CLOSE) && specificOrder.isAsk()
             && (specificOrder.getExecutionInstruction() == null || (specificOrder.getExecutionInstruction() != null))) {
           orderToCancel.add(specificOrder);
-          log.info("handleCancelAllLongClosingSpecificOrders called from class " + Thread.currentThread().getStackTrace()[2] + " cancelling order : "
-              + specificOrder);
+          log.info("handleCancelAllLongClosingSpecificOrders called from class {} cancelling order : {}", Diagnostics.caller(), specificOrder);
         }
       }
     }
@@ -4573,12 +4567,11 @@ public abstract class BaseOrderService implements OrderService {
       if (order instanceof SpecificOrder) {
         SpecificOrder specificOrder = (SpecificOrder) order;
         if (specificOrder.getMarket().equals(market) && specificOrder.getOrderGroup() == orderGroup
-            && (orderStateMap.get(specificOrder) != null && orderStateMap.get(specificOrder).isOpen())
+            && (orderStore.getState(specificOrder) != null && orderStore.getState(specificOrder).isOpen())
             && specificOrder.getPositionEffect() == (PositionEffect.CLOSE) && specificOrder.isAsk()
             && (specificOrder.getExecutionInstruction() == null || (specificOrder.getExecutionInstruction() != null))) {
           orderToCancel.add(specificOrder);
-          log.info("handleCancelAllLongClosingSpecificOrders called from class " + Thread.currentThread().getStackTrace()[2] + " cancelling order : "
-              + specificOrder);
+          log.info("handleCancelAllLongClosingSpecificOrders called from class {} cancelling order : {}", Diagnostics.caller(), specificOrder);
         }
       }
     }
@@ -4591,7 +4584,7 @@ public abstract class BaseOrderService implements OrderService {
   @Override
   public boolean handleCancelSpecificOrder(SpecificOrder specificOrder) {
     try {
-      if (orderStateMap.get(specificOrder) != null && orderStateMap.get(specificOrder).isOpen() && cancelSpecificOrder(specificOrder)) {
+      if (orderStore.getState(specificOrder) != null && orderStore.getState(specificOrder).isOpen() && cancelSpecificOrder(specificOrder)) {
         if (specificOrder.getParentFill() != null)
           specificOrder.getParentFill().setPositionType(
               (specificOrder.getParentFill().getOpenVolumeCount() == 0 ? PositionType.FLAT
@@ -4602,8 +4595,7 @@ public abstract class BaseOrderService implements OrderService {
         //
         //                specificOrder.getParentOrder().removeChildOrder(specificOrder);
 
-        log.info("handleCancelSpecificOrder cancelled called from class " + Thread.currentThread().getStackTrace()[2] + " Specific Order:"
-            + specificOrder);
+        log.info("handleCancelSpecificOrder cancelled called from class {} Specific Order:{}", Diagnostics.caller(), specificOrder);
         return true;
       }
 
@@ -4614,8 +4606,7 @@ public abstract class BaseOrderService implements OrderService {
       // }
 
       else {
-        log.info("handleCancelSpecificOrder called from class " + Thread.currentThread().getStackTrace()[2] + " unable to cancelled Specific Order:"
-            + specificOrder);
+        log.info("handleCancelSpecificOrder called from class {} unable to cancelled Specific Order:{}", Diagnostics.caller(), specificOrder);
         return false;
       }
     } catch (IllegalArgumentException ex) {
@@ -4641,13 +4632,13 @@ public abstract class BaseOrderService implements OrderService {
          * PositionType.LONG : PositionType.SHORT))); updateOrderState(specificOrder, OrderState.REJECTED, true); return true;
          */
       } catch (Throwable t) {
-        log.info("handleCancelSpecificOrder called from class " + Thread.currentThread().getStackTrace()[2] + " unable to cancel state "
-            + getOrderState(specificOrder).toString() + " for " + specificOrder.getClass().getSimpleName() + ": " + specificOrder);
+        log.info("handleCancelSpecificOrder called from class {} unable to cancel state {} for {}: {}", Diagnostics.caller(),
+            getOrderState(specificOrder).toString(), specificOrder.getClass().getSimpleName(), specificOrder);
         return false;
       }
     } catch (Throwable t) {
-      log.info("handleCancelSpecificOrder called from class " + Thread.currentThread().getStackTrace()[2] + " unable to cancel state "
-          + getOrderState(specificOrder).toString() + " for " + specificOrder.getClass().getSimpleName() + ": " + specificOrder);
+      log.info("handleCancelSpecificOrder called from class {} unable to cancel state {} for {}: {}", Diagnostics.caller(),
+          getOrderState(specificOrder).toString(), specificOrder.getClass().getSimpleName(), specificOrder);
       return false;
     }
     // throw new OrderNotFoundException("Unable to cancelled order");
@@ -4674,8 +4665,7 @@ public abstract class BaseOrderService implements OrderService {
             break;
         }
       } catch (Throwable ex) {
-        log.info("completeOrder called from class " + Thread.currentThread().getStackTrace()[2] + " unable to cancelled Specific Order:"
-            + specificOrder);
+        log.info("completeOrder called from class {} unable to cancelled Specific Order:{}", Diagnostics.caller(), specificOrder);
       }
     }
   }
@@ -4687,7 +4677,7 @@ public abstract class BaseOrderService implements OrderService {
     if (market == null || portfolio == null)
       return portfolioPendingOrders;
 
-    for (Order order : getPendingOrders()) {
+    for (Order order : orderStore.getPendingOrders(market, portfolio)) {
       if (order instanceof SpecificOrder) {
         SpecificOrder pendingOrder = (SpecificOrder) order;
         if (pendingOrder.getPortfolio().equals(portfolio) && pendingOrder.getMarket().equals(market))
@@ -4708,7 +4698,7 @@ public abstract class BaseOrderService implements OrderService {
     Fill parentFill;
     Order parentOrder;
     //synchronized (lock) {
-    log.debug(this.getClass().getSimpleName() + " : getPendingStopOrders to called from stack " + Thread.currentThread().getStackTrace()[2]);
+    log.debug("{} : getPendingStopOrders to called from stack {}", this.getClass().getSimpleName(), Diagnostics.caller());
     if (portfolio == null || market == null || triggerOrders == null || triggerOrders.isEmpty() || triggerOrders.get(market) == null
         || triggerOrders.get(market).isEmpty())
       return portfolioPendingStopOrders;
@@ -4743,7 +4733,7 @@ public abstract class BaseOrderService implements OrderService {
     Fill parentFill;
     Order parentOrder;
     //synchronized (lock) {
-    log.debug(this.getClass().getSimpleName() + " : getPendingLongStopOrders to called from stack " + Thread.currentThread().getStackTrace()[2]);
+    log.debug("{} : getPendingLongStopOrders to called from stack {}", this.getClass().getSimpleName(), Diagnostics.caller());
     if (portfolio == null || market == null || triggerOrders == null || triggerOrders.isEmpty() || triggerOrders.get(market) == null
         || triggerOrders.get(market).isEmpty())
       return portfolioPendingStopOrders;
@@ -4776,7 +4766,7 @@ public abstract class BaseOrderService implements OrderService {
     Fill parentFill;
     Order parentOrder;
     //synchronized (lock) {
-    log.debug(this.getClass().getSimpleName() + " : getPendingLongStopOrders to called from stack " + Thread.currentThread().getStackTrace()[2]);
+    log.debug("{} : getPendingLongStopOrders to called from stack {}", this.getClass().getSimpleName(), Diagnostics.caller());
     if (portfolio == null || market == null || triggerOrders == null || triggerOrders.isEmpty() || triggerOrders.get(market) == null
         || triggerOrders.get(market).isEmpty())
       return portfolioPendingStopOrders;
@@ -4808,7 +4798,7 @@ public abstract class BaseOrderService implements OrderService {
     Fill parentFill;
     Order parentOrder;
     //synchronized (lock) {
-    log.debug(this.getClass().getSimpleName() + " : getPendingLongTriggerOrders to called from stack " + Thread.currentThread().getStackTrace()[2]);
+    log.debug("{} : getPendingLongTriggerOrders to called from stack {}", this.getClass().getSimpleName(), Diagnostics.caller());
     if (portfolio == null || market == null || triggerOrders == null || triggerOrders.isEmpty() || triggerOrders.get(market) == null
         || triggerOrders.get(market).isEmpty())
       return portfolioPendingTriggerOrders;
@@ -4842,7 +4832,7 @@ public abstract class BaseOrderService implements OrderService {
 
     //stateOrderMap.get(OrderState.)
     //synchronized (lock) {
-    log.debug(this.getClass().getSimpleName() + " : getRoutedShortStopOrders to called from stack " + Thread.currentThread().getStackTrace()[2]);
+    log.debug("{} : getRoutedShortStopOrders to called from stack {}", this.getClass().getSimpleName(), Diagnostics.caller());
     if (portfolio == null || market == null || triggerOrders == null || triggerOrders.isEmpty() || triggerOrders.get(market) == null
         || triggerOrders.get(market).isEmpty())
       return portfolioPendingStopOrders;
@@ -4856,7 +4846,7 @@ public abstract class BaseOrderService implements OrderService {
 
           Order triggerOrder = it.next();
           if (triggerOrder.getPortfolio().equals(portfolio) && triggerOrder.getMarket().equals(market) && triggerOrder.isAsk()
-              && triggerOrder.getStopPrice() != null && orderStateMap.get(triggerOrder).equals(OrderState.ROUTED))
+              && triggerOrder.getStopPrice() != null && orderStore.getState(triggerOrder).equals(OrderState.ROUTED))
 
             portfolioPendingStopOrders.add(triggerOrder);
 
@@ -4877,7 +4867,7 @@ public abstract class BaseOrderService implements OrderService {
 
     //stateOrderMap.get(OrderState.)
     //synchronized (lock) {
-    log.debug(this.getClass().getSimpleName() + " : getRoutedShortStopOrders to called from stack " + Thread.currentThread().getStackTrace()[2]);
+    log.debug("{} : getRoutedShortStopOrders to called from stack {}", this.getClass().getSimpleName(), Diagnostics.caller());
     if (portfolio == null || market == null || triggerOrders == null || triggerOrders.isEmpty() || triggerOrders.get(market) == null
         || triggerOrders.get(market).isEmpty())
       return portfolioPendingStopOrders;
@@ -4891,7 +4881,7 @@ public abstract class BaseOrderService implements OrderService {
 
           Order triggerOrder = it.next();
           if (triggerOrder.getPortfolio().equals(portfolio) && triggerOrder.getMarket().equals(market) && triggerOrder.isBid()
-              && triggerOrder.getStopPrice() != null && orderStateMap.get(triggerOrder).equals(OrderState.ROUTED))
+              && triggerOrder.getStopPrice() != null && orderStore.getState(triggerOrder).equals(OrderState.ROUTED))
 
             portfolioPendingStopOrders.add(triggerOrder);
 
@@ -4911,7 +4901,7 @@ public abstract class BaseOrderService implements OrderService {
     Fill parentFill;
     Order parentOrder;
     //synchronized (lock) {
-    log.debug(this.getClass().getSimpleName() + " : getPendingShortStopOrders to called from stack " + Thread.currentThread().getStackTrace()[2]);
+    log.debug("{} : getPendingShortStopOrders to called from stack {}", this.getClass().getSimpleName(), Diagnostics.caller());
     if (portfolio == null || market == null || triggerOrders == null || triggerOrders.isEmpty() || triggerOrders.get(market) == null
         || triggerOrders.get(market).isEmpty())
       return portfolioPendingStopOrders;
@@ -4944,7 +4934,7 @@ public abstract class BaseOrderService implements OrderService {
     Fill parentFill;
     Order parentOrder;
     //synchronized (lock) {
-    log.debug(this.getClass().getSimpleName() + " : getPendingShortStopOrders to called from stack " + Thread.currentThread().getStackTrace()[2]);
+    log.debug("{} : getPendingShortStopOrders to called from stack {}", this.getClass().getSimpleName(), Diagnostics.caller());
     if (portfolio == null || market == null || triggerOrders == null || triggerOrders.isEmpty() || triggerOrders.get(market) == null
         || triggerOrders.get(market).isEmpty())
       return portfolioPendingStopOrders;
@@ -4977,7 +4967,7 @@ public abstract class BaseOrderService implements OrderService {
     Fill parentFill;
     Order parentOrder;
     //synchronized (lock) {
-    log.debug(this.getClass().getSimpleName() + " : getPendingShortTriggerOrders to called from stack " + Thread.currentThread().getStackTrace()[2]);
+    log.debug("{} : getPendingShortTriggerOrders to called from stack {}", this.getClass().getSimpleName(), Diagnostics.caller());
     if (portfolio == null || market == null || triggerOrders == null || triggerOrders.isEmpty() || triggerOrders.get(market) == null
         || triggerOrders.get(market).isEmpty())
       return portfolioPendingTriggerOrders;
@@ -5007,8 +4997,7 @@ public abstract class BaseOrderService implements OrderService {
     Collection<Order> cancelledOrders = new ConcurrentLinkedQueue<>();
     //synchronized (lock) {
     //triggerOrderLock.lock();
-    log.debug(this.getClass().getSimpleName() + " : handleCancelAllLongOpeningGeneralOrders to called from stack "
-        + Thread.currentThread().getStackTrace()[2]);
+    log.debug("{} : handleCancelAllLongOpeningGeneralOrders to called from stack {}", this.getClass().getSimpleName(), Diagnostics.caller());
     if (portfolio == null || market == null || triggerOrders == null || triggerOrders.isEmpty() || triggerOrders.get(market) == null
         || triggerOrders.get(market).isEmpty())
       return cancelledOrders;
@@ -5047,8 +5036,8 @@ public abstract class BaseOrderService implements OrderService {
     //    }
     for (Order cancelledOrder : cancelledOrders) {
       updateOrderState(cancelledOrder, OrderState.CANCELLED, true);
-      log.info("handleCancelAllLongOpeningGeneralOrders called from class " + Thread.currentThread().getStackTrace()[2]
-          + "Cancelled Long Opening Trigger Order: " + cancelledOrder);
+      log.info("handleCancelAllLongOpeningGeneralOrders called from class {}Cancelled Long Opening Trigger Order: {}", Diagnostics.caller(),
+          cancelledOrder);
       if (cancelledOrder.getParentFill() != null)
         handleCancelAllTriggerOrdersByParentFill(cancelledOrder.getParentFill());
 
@@ -5074,8 +5063,7 @@ public abstract class BaseOrderService implements OrderService {
     Collection<Order> cancelledOrders = new ConcurrentLinkedQueue<>();
     //synchronized (lock) {
     //triggerOrderLock.lock();
-    log.debug(this.getClass().getSimpleName() + " : handleCancelAllLongOpeningGeneralOrders to called from stack "
-        + Thread.currentThread().getStackTrace()[2]);
+    log.debug("{} : handleCancelAllLongOpeningGeneralOrders to called from stack {}", this.getClass().getSimpleName(), Diagnostics.caller());
     if (portfolio == null || market == null || triggerOrders == null || triggerOrders.isEmpty() || triggerOrders.get(market) == null
         || triggerOrders.get(market).isEmpty())
       return cancelledOrders;
@@ -5112,8 +5100,8 @@ public abstract class BaseOrderService implements OrderService {
     //    }
     for (Order cancelledOrder : cancelledOrders) {
       updateOrderState(cancelledOrder, OrderState.CANCELLED, true);
-      log.info("handleCancelAllLongOpeningGeneralOrders called from class " + Thread.currentThread().getStackTrace()[2]
-          + "Cancelled Long Opening Trigger Order: " + cancelledOrder);
+      log.info("handleCancelAllLongOpeningGeneralOrders called from class {}Cancelled Long Opening Trigger Order: {}", Diagnostics.caller(),
+          cancelledOrder);
       if (cancelledOrder.getParentFill() != null)
         handleCancelAllTriggerOrdersByParentFill(cancelledOrder.getParentFill());
 
@@ -5141,8 +5129,7 @@ public abstract class BaseOrderService implements OrderService {
       return cancelledOrders;
     //synchronized (lock) {
     // triggerOrderLock.lock();
-    log.debug(this.getClass().getSimpleName() + " : handleCancelAllShortOpeningGeneralOrders to called from stack "
-        + Thread.currentThread().getStackTrace()[2]);
+    log.debug("{} : handleCancelAllShortOpeningGeneralOrders to called from stack {}", this.getClass().getSimpleName(), Diagnostics.caller());
     if (portfolio == null || market == null || triggerOrders == null || triggerOrders.isEmpty() || triggerOrders.get(market) == null
         || triggerOrders.get(market).isEmpty())
       return cancelledOrders;
@@ -5181,8 +5168,8 @@ public abstract class BaseOrderService implements OrderService {
     }
     for (Order cancelledOrder : cancelledOrders) {
       updateOrderState(cancelledOrder, OrderState.CANCELLED, true);
-      log.info("handleCancelAllShortOpeningGeneralOrders called from class " + Thread.currentThread().getStackTrace()[2]
-          + ": Cancelled Short Opening Trigger Order: " + cancelledOrder);
+      log.info("handleCancelAllShortOpeningGeneralOrders called from class {}: Cancelled Short Opening Trigger Order: {}", Diagnostics.caller(),
+          cancelledOrder);
       if (cancelledOrder.getParentFill() != null)
         handleCancelAllTriggerOrdersByParentFill(cancelledOrder.getParentFill());
     }
@@ -5210,8 +5197,7 @@ public abstract class BaseOrderService implements OrderService {
 
     //synchronized (lock) {
     // triggerOrderLock.lock();
-    log.debug(this.getClass().getSimpleName() + " : handleCancelAllShortOpeningGeneralOrders to called from stack "
-        + Thread.currentThread().getStackTrace()[2]);
+    log.debug("{} : handleCancelAllShortOpeningGeneralOrders to called from stack {}", this.getClass().getSimpleName(), Diagnostics.caller());
     if (portfolio == null || market == null || triggerOrders == null || triggerOrders.isEmpty() || triggerOrders.get(market) == null
         || triggerOrders.get(market).isEmpty())
       return cancelledOrders;
@@ -5251,8 +5237,8 @@ public abstract class BaseOrderService implements OrderService {
     }
     for (Order cancelledOrder : cancelledOrders) {
       updateOrderState(cancelledOrder, OrderState.CANCELLED, true);
-      log.info("handleCancelAllShortOpeningGeneralOrders called from class " + Thread.currentThread().getStackTrace()[2]
-          + ": Cancelled Short Opening Trigger Order: " + cancelledOrder);
+      log.info("handleCancelAllShortOpeningGeneralOrders called from class {}: Cancelled Short Opening Trigger Order: {}", Diagnostics.caller(),
+          cancelledOrder);
       if (cancelledOrder.getParentFill() != null)
         handleCancelAllTriggerOrdersByParentFill(cancelledOrder.getParentFill());
     }
@@ -5275,7 +5261,7 @@ public abstract class BaseOrderService implements OrderService {
   @Override
   public Order getPendingTriggerOrder(Order order) {
     //synchronized (lock) {
-    log.debug(this.getClass().getSimpleName() + " : getPendingTriggerOrder to called from stack " + Thread.currentThread().getStackTrace()[2]);
+    log.debug("{} : getPendingTriggerOrder to called from stack {}", this.getClass().getSimpleName(), Diagnostics.caller());
     for (Iterator<Tradeable> itm = triggerOrders.keySet().iterator(); itm.hasNext();) {
       Tradeable market = itm.next();
       for (Iterator<Double> itd = triggerOrders.get(market).keySet().iterator(); itd.hasNext();) {
@@ -5314,11 +5300,10 @@ public abstract class BaseOrderService implements OrderService {
     for (Order order : getPendingOrders()) {
       if (order instanceof SpecificOrder) {
         SpecificOrder specificOrder = (SpecificOrder) order;
-        if (orderStateMap.get(specificOrder) != null && orderStateMap.get(specificOrder).isOpen() && specificOrder.getMarket().equals(market)
+        if (orderStore.getState(specificOrder) != null && orderStore.getState(specificOrder).isOpen() && specificOrder.getMarket().equals(market)
             && specificOrder.getPositionEffect() == (PositionEffect.OPEN) && specificOrder.isAsk()) {
           orderToCancel.add(specificOrder);
-          log.info("handleCancelAllShortOpeningSpecificOrders called from class " + Thread.currentThread().getStackTrace()[2]
-              + " cancelling order : " + specificOrder);
+          log.info("handleCancelAllShortOpeningSpecificOrders called from class {} cancelling order : {}", Diagnostics.caller(), specificOrder);
         }
 
       }
@@ -5337,11 +5322,10 @@ public abstract class BaseOrderService implements OrderService {
     for (Order order : getPendingOrders()) {
       if (order.getOrderGroup() == orderGroup && order instanceof SpecificOrder) {
         SpecificOrder specificOrder = (SpecificOrder) order;
-        if (orderStateMap.get(specificOrder) != null && orderStateMap.get(specificOrder).isOpen() && specificOrder.getMarket().equals(market)
+        if (orderStore.getState(specificOrder) != null && orderStore.getState(specificOrder).isOpen() && specificOrder.getMarket().equals(market)
             && specificOrder.getPositionEffect() == (PositionEffect.OPEN) && specificOrder.isAsk()) {
           orderToCancel.add(specificOrder);
-          log.info("handleCancelAllShortOpeningSpecificOrders called from class " + Thread.currentThread().getStackTrace()[2]
-              + " cancelling order : " + specificOrder);
+          log.info("handleCancelAllShortOpeningSpecificOrders called from class {} cancelling order : {}", Diagnostics.caller(), specificOrder);
         }
 
       }
@@ -5365,11 +5349,10 @@ public abstract class BaseOrderService implements OrderService {
       if (order instanceof SpecificOrder) {
         specificOrder = (SpecificOrder) order;
 
-        if (orderStateMap.get(specificOrder) != null && orderStateMap.get(specificOrder).isOpen() && specificOrder.getMarket().equals(market)
+        if (orderStore.getState(specificOrder) != null && orderStore.getState(specificOrder).isOpen() && specificOrder.getMarket().equals(market)
             && specificOrder.getPositionEffect() == (PositionEffect.OPEN)) {
           orderToCancel.add(specificOrder);
-          log.info("handleCancelAllOpeningSpecificOrders called from class " + Thread.currentThread().getStackTrace()[2] + " cancelling order : "
-              + specificOrder);
+          log.info("handleCancelAllOpeningSpecificOrders called from class {} cancelling order : {}", Diagnostics.caller(), specificOrder);
         }
 
       }
@@ -5382,15 +5365,15 @@ public abstract class BaseOrderService implements OrderService {
 
   @Override
   public Collection<SpecificOrder> cancelSpecificOrder(Collection<SpecificOrder> orders) {
-    log.trace("cancelSpecificOrder: called from class " + Thread.currentThread().getStackTrace()[2]);
+    log.trace("cancelSpecificOrder: called from class {}", Diagnostics.caller());
     Collection<SpecificOrder> cancelledOrders = new ArrayList<SpecificOrder>();
     for (SpecificOrder order : orders) {
       try {
-        if (orderStateMap.get(order) != null && orderStateMap.get(order).isOpen() && handleCancelSpecificOrder(order))
+        if (orderStore.getState(order) != null && orderStore.getState(order).isOpen() && handleCancelSpecificOrder(order))
           cancelledOrders.add(order);
       } catch (Throwable e) {
         // TODO Auto-generated catch block
-        log.error("cancelSpecificOrder: called from class " + Thread.currentThread().getStackTrace()[2] + " unable to cancel order:" + order, e);
+        log.error("cancelSpecificOrder: called from class {} unable to cancel order:{}", Diagnostics.caller(), order, e);
       }
     }
     return cancelledOrders;
@@ -5398,12 +5381,12 @@ public abstract class BaseOrderService implements OrderService {
   }
 
   public void updateOrderState(Order order, OrderState state, boolean route) {
-    log.debug(this.getClass().getSimpleName() + " - updateOrderState: called from class " + Thread.currentThread().getStackTrace()[2]);
+    log.debug("{} - updateOrderState: called from class {}", this.getClass().getSimpleName(), Diagnostics.caller());
     // need to add vaildation here on state and last state
     //   synchronized (order) {
     OrderState oldState = null;
     if (order != null) {
-      oldState = orderStateMap.get(order);
+      oldState = orderStore.getState(order);
       // order.merge();
     }
 
@@ -5414,24 +5397,10 @@ public abstract class BaseOrderService implements OrderService {
     if (oldState == null) {
       oldState = OrderState.NEW;
       order.persit();
-    } else if (oldState != null && order != null && !stateOrderMap.get(oldState).isEmpty()) {
-      if (stateOrderMap.get(oldState).remove(order))
-        log.info(this.getClass().getSimpleName() + ":UpdateOrderState - Removed order " + order + "with state " + oldState + " from stateOrderMap");
-
     }
     if (order != null) {
-      orderStateMap.put(order, state);
-      log.info(order + "/" + System.identityHashCode(order) + " with state " + state + " added to orderStateMap as "
-          + orderStateMap.get(order).toString());
-
-      if (stateOrderMap.get(state) == null) {
-        Set<Order> orderSet = new HashSet<Order>();
-        // orderSet.add(order);
-        stateOrderMap.put(state, orderSet);
-
-      }
-      if (stateOrderMap.get(state).add(order))
-        log.info(order + " with state " + state + " added to stateOrderMap as " + orderStateMap.get(order).toString());
+      orderStore.setState(order, state);
+      log.info(order + "/" + System.identityHashCode(order) + " with state " + state + " added to orderStore");
     }
 
     // this.getClass()
@@ -5443,7 +5412,7 @@ public abstract class BaseOrderService implements OrderService {
     orderUpdate.persit();
     handleOrderUpdate(orderUpdate);
     log.debug(this.getClass().getSimpleName() + " - updateOrderState: published orderupdate " + orderUpdate.getId() + " for order " + order
-        + " with state " + state + " after added to stateOrderMap with " + orderStateMap.get(order).toString());
+        + " with state " + state + " after added to orderStore with " + orderStore.getState(order));
 
     context.route(orderUpdate);
     //else
@@ -5465,7 +5434,7 @@ public abstract class BaseOrderService implements OrderService {
   private void updateParentOrderState(Order order, Order childOrder, OrderState childOrderState) {
     //    if (order.getFillType() == FillType.ONE_CANCELS_OTHER)
     //       return;
-    OrderState oldState = orderStateMap.get(order);
+    OrderState oldState = orderStore.getState(order);
     if (oldState.equals(OrderState.ROUTED))
       log.debug("test");
     // certain states we don't want ot properage to parent orders
@@ -5480,7 +5449,7 @@ public abstract class BaseOrderService implements OrderService {
       case NEW:
         boolean fullyNew = true;
         for (Order child : order.getOrderChildren()) {
-          if (orderStateMap.get(child) != null && !orderStateMap.get(child).isNew()) {
+          if (orderStore.getState(child) != null && !orderStore.getState(child).isNew()) {
             fullyNew = false;
             break;
           }
@@ -5493,7 +5462,7 @@ public abstract class BaseOrderService implements OrderService {
       case TRIGGER:
         boolean fullyTrigger = true;
         for (Order child : order.getOrderChildren()) {
-          if (orderStateMap.get(child) != null && !orderStateMap.get(child).isTrigger()) {
+          if (orderStore.getState(child) != null && !orderStore.getState(child).isTrigger()) {
             fullyTrigger = false;
             break;
           }
@@ -5507,7 +5476,7 @@ public abstract class BaseOrderService implements OrderService {
         //TODO: update state once all children have same state
         boolean fullyRouted = true;
         for (Order child : order.getOrderChildren()) {
-          if (orderStateMap.get(child) != null && !orderStateMap.get(child).isRouted()) {
+          if (orderStore.getState(child) != null && !orderStore.getState(child).isRouted()) {
             fullyRouted = false;
             break;
           }
@@ -5520,7 +5489,7 @@ public abstract class BaseOrderService implements OrderService {
         //TODO: update state once all children have same state
         boolean fullyPlaced = true;
         for (Order child : order.getOrderChildren()) {
-          if (orderStateMap.get(child) != null && !orderStateMap.get(child).isPlaced()) {
+          if (orderStore.getState(child) != null && !orderStore.getState(child).isPlaced()) {
             fullyPlaced = false;
             break;
           }
@@ -5532,7 +5501,7 @@ public abstract class BaseOrderService implements OrderService {
       case PARTFILLED:
         boolean fullyPartFilled = false;
         for (Order child : order.getOrderChildren()) {
-          if (orderStateMap.get(child).isPartfilled()) {
+          if (orderStore.getState(child).isPartfilled()) {
             fullyPartFilled = true;
             break;
           }
@@ -5546,7 +5515,7 @@ public abstract class BaseOrderService implements OrderService {
         //if (oldState == OrderState.CANCELLING) {
         boolean fullyFilled = true;
         for (Order child : order.getOrderChildren()) {
-          if (orderStateMap.get(child) != null && orderStateMap.get(child).isOpen()) {
+          if (orderStore.getState(child) != null && orderStore.getState(child).isOpen()) {
             fullyFilled = false;
             updateOrderState(order, OrderState.PARTFILLED, true);
             break;
@@ -5560,7 +5529,7 @@ public abstract class BaseOrderService implements OrderService {
       case CANCELLING:
         boolean fullyCancelling = true;
         for (Order child : order.getOrderChildren()) {
-          if (orderStateMap.get(child) != null && !orderStateMap.get(child).isCancelled()) {
+          if (orderStore.getState(child) != null && !orderStore.getState(child).isCancelled()) {
             fullyCancelling = false;
             break;
           }
@@ -5573,7 +5542,7 @@ public abstract class BaseOrderService implements OrderService {
         //  if (oldState == OrderState.CANCELLING) {
         boolean fullyCancelled = true;
         for (Order child : order.getOrderChildren()) {
-          if (orderStateMap.get(child) != null && !orderStateMap.get(child).isCancelled()) {
+          if (orderStore.getState(child) != null && !orderStore.getState(child).isCancelled()) {
             fullyCancelled = false;
             break;
           }
@@ -5585,7 +5554,7 @@ public abstract class BaseOrderService implements OrderService {
       case REJECTED:
         boolean fullyRejected = true;
         for (Order child : order.getOrderChildren()) {
-          if (orderStateMap.get(child) != null && !orderStateMap.get(child).isRejected()) {
+          if (orderStore.getState(child) != null && !orderStore.getState(child).isRejected()) {
             fullyRejected = false;
             break;
           }
@@ -5602,7 +5571,7 @@ public abstract class BaseOrderService implements OrderService {
           throw new Error("Child order expirations must match parent order expirations");
         boolean fullyExpired = true;
         for (Order child : order.getOrderChildren()) {
-          if (orderStateMap.get(child) != null && !orderStateMap.get(child).isExpired()) {
+          if (orderStore.getState(child) != null && !orderStore.getState(child).isExpired()) {
             fullyExpired = false;
             break;
           }
@@ -5627,7 +5596,7 @@ public abstract class BaseOrderService implements OrderService {
    * PersistUtil.insert(event); //} catch (Throwable e) { // throw new Error("Could not insert " + event, e); // } //} }
    */
   private void removeTriggerOrder(Order order) {
-    log.debug(this.getClass().getSimpleName() + " : removeTriggerOrder to called from stack " + Thread.currentThread().getStackTrace()[2]);
+    log.debug("{} : removeTriggerOrder to called from stack {}", this.getClass().getSimpleName(), Diagnostics.caller());
     List<Order> removedTriggerOrders = new ArrayList<Order>();
 
     for (Iterator<Tradeable> itm = triggerOrders.keySet().iterator(); itm.hasNext();) {
@@ -5717,7 +5686,10 @@ public abstract class BaseOrderService implements OrderService {
 
     //      Comparator<Order> comparator = (transactionType == TransactionType.BUY) ? ascendingStopPriceComparator : descendingStopPriceComparator;
     synchronized (orders) {
-      Collections.sort(orders, comparator);
+      if (orders instanceof TriggerOrderList)
+        ((TriggerOrderList) orders).reorder(comparator);
+      else
+        Collections.sort(orders, comparator);
     }
 
     // triggerOrdersTable.get(market).put(transactionType,triggerTable);
@@ -5727,10 +5699,16 @@ public abstract class BaseOrderService implements OrderService {
 
   }
 
+  /** re-indexes a trigger order whose stop or target price was changed in place, so the price index triggers it at its new price */
+  private static void rekey(List<Order> orders, Order order) {
+    if (orders instanceof TriggerOrderList)
+      ((TriggerOrderList) orders).rekey(order);
+  }
+
   private void addTriggerOrder(Order triggerOrder) {
     //If the trigger order is from a fill, we use the fill as the key for mutliple triggers, else we use the parent
     //any one of the multiple triggers can trigger first, but once one is triggered, all others are removed at for either the same fill or same parent
-    log.debug(this.getClass().getSimpleName() + " : addTriggerOrder to called from stack " + Thread.currentThread().getStackTrace()[2]);
+    log.debug("{} : addTriggerOrder to called from stack {}", this.getClass().getSimpleName(), Diagnostics.caller());
     Event eventKey = (triggerOrder.getParentFill() != null) ? triggerOrder.getParentFill() : triggerOrder.getParentOrder();
     Market market = (triggerOrder.getParentFill() != null) ? triggerOrder.getParentFill().getMarket() : triggerOrder.getMarket();
 
@@ -5742,8 +5720,8 @@ public abstract class BaseOrderService implements OrderService {
     // bid order are to exit a short posiont so we want the list that is highest to loser (descnding)
     // Comparator<Order> comparator = (transactionType == TransactionType.BUY) ? ascendingStopPriceComparator : descendingStopPriceComparator;
 
-    List<Order> triggerOrderQueue = new ArrayList<Order>();
-    List<Order> trailingTriggerOrderQueue = new ArrayList<Order>();
+    List<Order> triggerOrderQueue = new TriggerOrderList();
+    List<Order> trailingTriggerOrderQueue = new TriggerOrderList();
     // if (triggerOrder.isBid())
     //   triggerTable = TreeBasedTable.create(ascendingStopPriceComparator, descendingTrailingStopPriceComparator);
 
@@ -6003,7 +5981,7 @@ public abstract class BaseOrderService implements OrderService {
 
   @Override
   public Map<Order, OrderState> getOrderStateMap() {
-    return orderStateMap;
+    return orderStore.getStates();
   }
 
   protected void setPortfolioService(PortfolioService portfolioService) {
@@ -6013,19 +5991,14 @@ public abstract class BaseOrderService implements OrderService {
   public BaseOrderService() {
   }
 
-  private static ExecutorService service;
-
-  private static CountDownLatch fillProcessingLatch = null;
-
   @Inject
   protected Context context;
 
   protected static Logger log = LoggerFactory.getLogger("org.cryptocoinpartners.orderService");
 
   protected boolean enableTrading = false;
-  protected final Map<Order, OrderState> orderStateMap = new ConcurrentHashMap<Order, OrderState>();
-
-  protected final Map<OrderState, Set<Order>> stateOrderMap = new ConcurrentHashMap<OrderState, Set<Order>>();
+  protected static final int orderArchiveSize = (ConfigUtil.combined() != null) ? ConfigUtil.combined().getInt("order.archive.size", 10000) : 10000;
+  protected final OrderStore orderStore = new OrderStore(orderArchiveSize);
   @Inject
   protected transient QuoteService quotes;
   @Inject
@@ -20,6 +20,7 @@ import org.cryptocoinpartners.enumeration.TransactionType;
 import org.cryptocoinpartners.schema.Amount;
 import org.cryptocoinpartners.schema.Asset;
 import org.cryptocoinpartners.schema.Balance;
+import org.cryptocoinpartners.schema.CashLedger;
 import org.cryptocoinpartners.schema.DecimalAmount;
 import org.cryptocoinpartners.schema.DiscreteAmount;
 import org.cryptocoinpartners.schema.Exchange;
@@ -37,6 +38,7 @@ import org.cryptocoinpartners.schema.TransactionFactory;
 import org.cryptocoinpartners.service.PortfolioService;
 import org.cryptocoinpartners.service.PortfolioServiceException;
 import org.cryptocoinpartners.service.QuoteService;
+import org.cryptocoinpartners.util.ConfigUtil;
 import org.cryptocoinpartners.util.FeesUtil;
 import org.cryptocoinpartners.util.Remainder;
 import org.slf4j.Logger;
@@ -165,6 +167,8 @@ public class BasicPortfolioService implements PortfolioService {
 
                     context.getInjector().injectMembers(fill);
                     fill.setMarket((Market) portfolio.addMarket(fill.getMarket()));
+                    // restored fills are not merged unless they are still open, so the index is given them here
+                    portfolio.getPositionIndex().track(fill);
                     if (!fill.getOpenVolume().isZero()) {
                         fills.add(fill);
                     }
@@ -278,17 +282,28 @@ public class BasicPortfolioService implements PortfolioService {
 
     }
 
+    // read from each portfolio's PositionIndex, rather than by walking its positions and their fills
+
     public DiscreteAmount getLongPosition(Asset asset, Exchange exchange) {
-        return null;
+        long count = 0;
+        for (Portfolio portfolio : getPortfolios())
+            count += portfolio.getPositionIndex().getLongVolumeCount(asset, exchange);
+        return new DiscreteAmount(count, asset.getBasis());
     }
 
     public DiscreteAmount getShortPosition(Asset asset, Exchange exchange) {
-        return null;
+        long count = 0;
+        for (Portfolio portfolio : getPortfolios())
+            count += portfolio.getPositionIndex().getShortVolumeCount(asset, exchange);
+        return new DiscreteAmount(count, asset.getBasis());
     }
 
     @Override
     public DiscreteAmount getNetPosition(Asset asset, Exchange exchange) {
-        return null;
+        long count = 0;
+        for (Portfolio portfolio : getPortfolios())
+            count += portfolio.getPositionIndex().getNetVolumeCount(asset, exchange);
+        return new DiscreteAmount(count, asset.getBasis());
     }
 
     @Override
@@ -313,23 +328,13 @@ public class BasicPortfolioService implements PortfolioService {
         // so we need to get the cash balances
         // then we will add to it the avg price x quantity of the open position
 
-        Amount availableBalance = DecimalAmount.ZERO;
         ConcurrentHashMap<Asset, Amount> availableBalances = new ConcurrentHashMap<>();
 
-        Iterator<Transaction> itf = getTrades().iterator();
-        while (itf.hasNext()) {
-            //  for (Fill pos : getFills()) {
-            Transaction transaction = itf.next();
-            if (availableBalances.get(transaction.getAsset()) != null) {
-
-                availableBalance = availableBalances.get(transaction.getAsset());
-
+        for (Portfolio portfolio : getPortfolios())
+            for (Map.Entry<Asset, Amount> entry : portfolio.getCashLedger().getTradeBalances().entrySet()) {
+                Amount availableBalance = availableBalances.get(entry.getKey());
+                availableBalances.put(entry.getKey(), availableBalance == null ? entry.getValue() : availableBalance.plus(entry.getValue()));
             }
-            Amount tranCost = transaction.getCost();
-            availableBalance = availableBalance.plus(tranCost);
-            availableBalances.put(transaction.getAsset(), availableBalance);
-
-        }
         return availableBalances;
     }
 
@@ -350,186 +355,31 @@ public class BasicPortfolioService implements PortfolioService {
 
     @Transient
     private synchronized Map<Asset, Amount> getCurrentCashBalances(boolean reset) {
-        // if (reset) {
-        // sum of all transactions that belongs to this strategy
-        balances = new ConcurrentHashMap<Asset, Amount>();
+        // each portfolio's ledger is kept up to date as transactions are added, so this is a sum over assets rather than over the history
         ConcurrentHashMap<Asset, Amount> bals = new ConcurrentHashMap<Asset, Amount>();
-        // balances.hashCode();
-        Amount balance = DecimalAmount.ZERO;
-        // tradesHasgetTrades().hashCode()
-        Iterator<Transaction> itt = getTrades().iterator();
-        while (itt.hasNext()) {
-            balance = DecimalAmount.ZERO;
-
-            Transaction transaction = itt.next();
-            if (bals.get(transaction.getAsset()) != null) {
-
-                balance = bals.get(transaction.getAsset());
-
-            }
-            Amount tranCost = transaction.getCost();
-            if (!tranCost.isZero())
-
-                log.trace(this.getClass().getSimpleName() + " - getCurrentCashBalances trade cost " + transaction.getCost() + " for "
-                        + transaction.getClass().getSimpleName() + "adding to " + transaction.getAsset() + " balance " + balance);
-
-            balance = balance.plus(tranCost);
-            bals.put(transaction.getAsset(), balance);
-
-        }
-
-        // plus part of all cashFlows
-        //Amount cashFlows = new DiscreteAmount(0, portfolio.getBaseAsset().getBasis());
-
-        Iterator<Transaction> itc = getCashFlows().iterator();
-        while (itc.hasNext()) {
-            Amount cashFlows = DecimalAmount.ZERO;
-            Transaction cashFlowTransaction = itc.next();
-            if (bals.get(cashFlowTransaction.getCurrency()) != null) {
-
-                cashFlows = bals.get(cashFlowTransaction.getCurrency());
-            }
-            Amount tranCost = cashFlowTransaction.getCost();
-            if (!tranCost.isZero())
-
-                log.trace(this.getClass().getSimpleName() + " - getCurrentCashBalances cashFlowTransaction cost " + cashFlowTransaction.getCost() + " for "
-                        + cashFlowTransaction.getClass().getSimpleName() + "adding to " + cashFlowTransaction.getCurrency() + " cashFlows " + cashFlows);
-
-            cashFlows = cashFlows.plus(tranCost);
-            bals.put(cashFlowTransaction.getCurrency(), cashFlows);
-
-        }
-        //Amount amount = balance.plus(cashFlows);
-
-        Iterator<Asset> it = getRealisedPnLByMarket().keySet().iterator();
-        while (it.hasNext()) {
-            Asset asset = it.next();
-            Iterator<Exchange> ite = getRealisedPnLByMarket().get(asset).keySet().iterator();
-            while (ite.hasNext()) {
-                Exchange exchange = ite.next();
-                Iterator<Listing> itm = getRealisedPnLByMarket().get(asset).get(exchange).keySet().iterator();
-                while (itm.hasNext()) {
-                    Listing listing = itm.next();
-                    Market market = context.getInjector().getInstance(Market.class).findOrCreate(exchange, listing);
-
-                    Amount realisedPnL = getRealisedPnLByMarket().get(asset).get(exchange).get(listing);
-                    // need to change this to the market and check the margin.
-                    if (!realisedPnL.isZero()) {
-                        if (bals.get(asset) != null) {
-
-                            balance = bals.get(asset);
-
-                        }
-                        log.trace(this.getClass().getSimpleName() + " - getCurrentCashBalances realisedPnL cost " + realisedPnL + " for realisedPnL adding to "
-                                + asset + " balance " + balance);
-
-                        balance = balance.plus(realisedPnL);
-                        bals.put(asset, balance);
-
-                    }
-
-                }
-            }
-
-        }
-
-        Amount transferCredits = DecimalAmount.ZERO;
-        Amount transferDebits = DecimalAmount.ZERO;
-        Iterator<Transaction> itr = getTransfers().iterator();
-        while (itr.hasNext()) {
-            Transaction transactionTransaction = itr.next();
-            if (bals.get(transactionTransaction.getCurrency()) != null) {
-
-                transferDebits = bals.get(transactionTransaction.getCurrency());
-            }
-            if (bals.get(transactionTransaction.getAsset()) != null) {
-
-                transferCredits = bals.get(transactionTransaction.getAsset());
-            }
-
-            Amount tranCost = transactionTransaction.getCost();
-            if (!tranCost.isZero())
-
-                log.trace(this.getClass().getSimpleName() + " - getCurrentCashBalances transfers cost " + tranCost + " for " + transactionTransaction.getId()
-                        + " " + transactionTransaction.getAsset() + " added to transferCredits " + transferCredits);
-            transferCredits = transferCredits.plus(tranCost);
-            if (!tranCost.isZero())
-
-                log.trace(this.getClass().getSimpleName() + " - getCurrentCashBalances transfers cost " + transactionTransaction.getAmount() + " for "
-                        + transactionTransaction.getId() + " " + transactionTransaction.getCurrency() + " added to transferDebits " + transferDebits);
-            transferDebits = transferDebits.plus(transactionTransaction.getAmount());
-            bals.put(transactionTransaction.getCurrency(), transferDebits);
-            bals.put(transactionTransaction.getAsset(), transferCredits);
-        }
-        //
-        balances = bals;
-        // }
-
-        // }
-        log.trace(this.getClass().getSimpleName() + " - getCurrentCashBalances balances " + balances);
-
-        return balances;
-    }
-
-    @Transient
-    @SuppressWarnings("null")
-    private synchronized List<Transaction> getCashFlows() {
-        // return all CREDIT,DEBIT,INTREST,FEES and REALISED PnL
-
-        ArrayList<Transaction> cashFlows = new ArrayList<>();
         for (Portfolio portfolio : getPortfolios()) {
-            Iterator<Transaction> itf = portfolio.getTransactions().iterator();
-            while (itf.hasNext()) {
-                //  for (Fill pos : getFills()) {
-                Transaction transaction = itf.next();
-                if (transaction.getType() == (TransactionType.CREDIT) || transaction.getType() == (TransactionType.DEBIT)
-                        || transaction.getType() == (TransactionType.INTREST) || transaction.getType() == (TransactionType.FEES)) {
-                    cashFlows.add(transaction);
-                }
-            }
-        }
-        return cashFlows;
-    }
-
-    private synchronized List<Transaction> getTransfers() {
-        // return all CREDIT,DEBIT,INTREST,FEES and REALISED PnL
-
-        ArrayList<Transaction> transfers = new ArrayList<>();
-
-        for (Portfolio portfolio : getPortfolios()) {
-            Iterator<Transaction> itf = portfolio.getTransactions().iterator();
-            while (itf.hasNext()) {
-                //  for (Fill pos : getFills()) {
-                Transaction transaction = itf.next();
-                if (transaction.getType() == (TransactionType.REBALANCE)) {
-                    transfers.add(transaction);
-                }
+            if (verifyLedger)
+                verifyLedger(portfolio);
+            for (Map.Entry<Asset, Amount> entry : portfolio.getCashLedger().getBalances().entrySet()) {
+                Amount balance = bals.get(entry.getKey());
+                bals.put(entry.getKey(), balance == null ? entry.getValue() : balance.plus(entry.getValue()));
             }
         }
+        balances = bals;
+        log.trace(this.getClass().getSimpleName() + " - getCurrentCashBalances balances " + bals);
 
-        return transfers;
+        return bals;
     }
 
-    @Transient
-    @SuppressWarnings("null")
-    private synchronized List<Transaction> getTrades() {
-        //return all BUY and SELL
-        ArrayList<Transaction> trades = new ArrayList<>();
-        //  int transHashcode = portfolio.getTransactions().hashCode();
-        // log.info("transaction hascode" + transHashcode);
-        for (Portfolio portfolio : getPortfolios()) {
-            Iterator<Transaction> itf = portfolio.getTransactions().iterator();
-            while (itf.hasNext()) {
-                //  for (Fill pos : getFills()) {
-                Transaction transaction = itf.next();
-                if (transaction.getType() == (TransactionType.BUY) || transaction.getType() == (TransactionType.SELL)) {
-                    trades.add(transaction);
-                }
-            }
-            // transactionsHashCode = portfolio.getTransactions().hashCode();
-        }
-        //   log.debug("BasicPortfolioService; getTrades - " + trades);
-        return trades;
+    /**
+     * Rebuilds the portfolio's balances from its full transaction history and fails if they differ from its ledger. Enabled with
+     * portfolio.ledger.verify, for tests.
+     */
+    private void verifyLedger(Portfolio portfolio) {
+        CashLedger history = CashLedger.recompute(portfolio.getTransactions(), portfolio.getRealisedPnL());
+        String mismatches = portfolio.getCashLedger().compare(history);
+        if (mismatches != null)
+            throw new IllegalStateException("Cash ledger of " + portfolio + " differs from its transactions: " + mismatches);
     }
 
     @Override
@@ -1078,12 +928,12 @@ public class BasicPortfolioService implements PortfolioService {
         //  Map<Asset, Amount> cashBalances = getCashBalances();
         Set<Exchange> exchanges = new HashSet<Exchange>();
 
-        if (Portfolio.getMarkets() == null)
-            return cashBalance;
-        for (Tradeable tradeable : Portfolio.getMarkets()) {
-            if (!tradeable.isSynthetic()) {
-                Market market = (Market) tradeable;
-                exchanges.add(market.getExchange());
+        for (Portfolio portfolio : portfolios) {
+            for (Tradeable tradeable : portfolio.getMarkets()) {
+                if (!tradeable.isSynthetic()) {
+                    Market market = (Market) tradeable;
+                    exchanges.add(market.getExchange());
+                }
             }
         }
         for (Exchange exchange : exchanges) {
@@ -1257,11 +1107,10 @@ public class BasicPortfolioService implements PortfolioService {
 
     protected static Logger log = LoggerFactory.getLogger("org.cryptocoinpartners.portfolioService");
 
-    private static int transactionsHashCode;
-    private static int tradesHashCode;
-    private static int marginsHashCode;
 
-    private static Map<Asset, Amount> balances = new ConcurrentHashMap<Asset, Amount>();;
+    // per service, as sweeps run several backtests with their own portfolio services in the same JVM
+    private volatile Map<Asset, Amount> balances = new ConcurrentHashMap<Asset, Amount>();
+    private static final boolean verifyLedger = ConfigUtil.combined().getBoolean("portfolio.ledger.verify", false);
     private Collection<Portfolio> portfolios;
 
     @Override
@@ -12,10 +12,14 @@ import javax.inject.Singleton;
 import org.cryptocoinpartners.esper.annotation.When;
 import org.cryptocoinpartners.schema.Bar;
 import org.cryptocoinpartners.schema.Book;
+import org.cryptocoinpartners.schema.BookSide;
+import org.cryptocoinpartners.schema.BookUpdate;
 import org.cryptocoinpartners.schema.Exchanges;
 import org.cryptocoinpartners.schema.Listing;
+import org.cryptocoinpartners.schema.LiveBook;
 import org.cryptocoinpartners.schema.Market;
 import org.cryptocoinpartners.schema.Offer;
+import org.cryptocoinpartners.schema.Side;
 import org.cryptocoinpartners.schema.Trade;
 import org.cryptocoinpartners.schema.Tradeable;
 import org.cryptocoinpartners.service.QuoteService;
@@ -287,6 +291,36 @@ public class BasicQuoteService implements QuoteService {
 
   }
 
+  /**
+   * Keeps the implied rates current from the top of book deltas, so they do not wait for the next Book snapshot when snapshots are throttled.
+   */
+  @When("@Priority(9) @Audit select * from BookUpdate(BookUpdate.level=0)")
+  private void recordBookUpdate(BookUpdate update) {
+    Market market = update.getMarket();
+    if (market.isSynthetic())
+      return;
+    handleMarket(market);
+
+    LiveBook book = update.getBook();
+    boolean bid = update.getSide() == Side.BUY;
+    BookSide side = bid ? book.getBidSide() : book.getAskSide();
+    long priceCount;
+    synchronized (book) {
+      if (side.isEmpty())
+        return;
+      priceCount = side.getPriceCount(0);
+    }
+    ListingsMatrix impliedMatrix = bid ? impliedBidMatrix : impliedAskMatrix;
+    try {
+      impliedMatrix.updateRates(market.getBase(), market.getQuote(), priceCount);
+    } catch (java.lang.IllegalArgumentException e) {
+      try {
+        impliedMatrix.addAsset(market.getBase(), market.getQuote(), priceCount);
+      } catch (java.lang.IllegalArgumentException e2) {
+      }
+    }
+  }
+
   @When("@Priority(9) @Audit select * from Trade (Trade.volumeCount!=0)")
   private void recordTrade(Trade t) {
     Tradeable market = t.getMarket();
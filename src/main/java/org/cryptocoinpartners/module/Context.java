@@ -4,7 +4,9 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.lang.annotation.Annotation;
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
 import java.net.URL;
 import java.util.ArrayList;
@@ -12,8 +14,10 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
@@ -69,7 +73,7 @@ public class Context {
 
     /**
      * Contexts are not created through injection, because they are injection contexts themselves.  Use this static
-     * method for construction.
+     * method for construction.  Each Context runs its statements in an Esper engine of its own.
      */
     public static Context create() {
         return new Context(null);
@@ -83,6 +87,14 @@ public class Context {
         return new Context(timeProvider);
     }
 
+    /**
+     * Creates a Context whose Esper engine is named engineURI, rather than numbered, e.g. for each market of a
+     * partitioned replay.
+     */
+    public static Context create(TimeProvider timeProvider, String engineURI) {
+        return new Context(timeProvider, engineURI);
+    }
+
     public interface TimeProvider {
         /**
          * @return the Instant the Context should be initialized to as the starting time
@@ -456,6 +468,11 @@ public class Context {
         return config;
     }
 
+    /** @return the invocation counts and timings of every subscriber method, in the order they were subscribed */
+    public List<SubscriberStats> getSubscriberStats() {
+        return Collections.unmodifiableList(subscriberStats);
+    }
+
     //
     // End of Public Interface
     //
@@ -601,6 +618,10 @@ public class Context {
 
     @Inject
     private Context(TimeProvider timeProvider) {
+        this(timeProvider, null);
+    }
+
+    private Context(TimeProvider timeProvider, @Nullable String engineURI) {
         this.timeProvider = timeProvider;
 
         // final com.espertech.esper.client.Configuration esperConfig = new com.espertech.esper.client.Configuration();
@@ -614,7 +635,8 @@ public class Context {
         if (timeProvider != null) {
             epConfig.getEngineDefaults().getThreading().setInternalTimerEnabled(false);
         }
-        epService = EPServiceProviderManager.getDefaultProvider(epConfig);
+        // never the default engine, so Contexts in the same JVM, such as concurrent backtests, do not share statements or time
+        epService = EPServiceProviderManager.getProvider(engineURI == null ? "cointrader-" + engines.incrementAndGet() : engineURI, epConfig);
         if (timeProvider != null) {
             lastTime = timeProvider.getInitialTime();
             final EPServiceProviderImpl epService1 = (EPServiceProviderImpl) epService;
@@ -623,6 +645,7 @@ public class Context {
         epRuntime = epService.getEPRuntime();
         epAdministrator = epService.getEPAdministrator();
         config = ConfigUtil.combined();
+        timeSubscribers = config.getBoolean("context.subscriber.timing", true);
         //injector = Injector.root().createChildInjector(subscribingModule,new Module()
         injector = Injector.root().createChildInjector(new Module() {
             @Override
@@ -641,32 +664,41 @@ public class Context {
      */
     private class Listener {
         public void update(Object[] row) {
-            boolean wasAccessible = method.isAccessible();
-            method.setAccessible(true);
+            long start = timeSubscribers ? System.nanoTime() : 0;
             try {
-                method.invoke(delegate, row);
-            } catch (IllegalAccessException | InvocationTargetException e) {
-                throw new EsperError("Could not invoke method " + method + " on statement trigger " + statement, e);
+                handle.invokeExact(row);
             } catch (Throwable t) {
-                throw new Error("Error invoking " + delegate.getClass().getName() + "." + method.getName(), t);
+                throw new EsperError("Could not invoke method " + method + " on statement trigger " + stats.getStatement(), t);
             } finally {
-                method.setAccessible(wasAccessible);
+                if (timeSubscribers)
+                    stats.record(System.nanoTime() - start);
+                else
+                    stats.count();
             }
         }
 
+        /** resolves method to a MethodHandle bound to delegate once, instead of reflecting on every event */
         private Listener(Object delegate, Method method, String statement) {
-            this.delegate = delegate;
             this.method = method;
-            this.statement = statement;
+            method.setAccessible(true);
+            try {
+                handle = MethodHandles.lookup().unreflect(method).bindTo(delegate).asSpreader(Object[].class, method.getParameterTypes().length)
+                        .asType(MethodType.methodType(void.class, Object[].class));
+            } catch (IllegalAccessException e) {
+                throw new EsperError("Could not access method " + method + " for statement trigger " + statement, e);
+            }
+            stats = new SubscriberStats(delegate.getClass().getSimpleName() + "." + method.getName(), statement);
+            subscriberStats.add(stats);
         }
 
-        private final Object delegate;
         private final Method method;
-        private final String statement;
+        private final MethodHandle handle;
+        private final SubscriberStats stats;
     }
 
     protected transient static Logger log = LoggerFactory.getLogger(Context.class);
     protected transient static ExecutorService contextService = Executors.newFixedThreadPool(1);
+    private static final AtomicInteger engines = new AtomicInteger();
 
     private transient Configuration config;
     private transient Injector injector;
@@ -677,6 +709,8 @@ public class Context {
     private transient EPAdministrator epAdministrator;
     private transient final com.espertech.esper.client.Configuration epConfig = new com.espertech.esper.client.Configuration();
     private transient HashSet<String> loadedModules = new HashSet<String>();
+    private transient final List<SubscriberStats> subscriberStats = new CopyOnWriteArrayList<SubscriberStats>();
+    private transient boolean timeSubscribers = true;
 
     private void privateDestroy() {
         epService.destroy();
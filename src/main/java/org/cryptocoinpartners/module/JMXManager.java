@@ -2,6 +2,9 @@ package org.cryptocoinpartners.module;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 
 import javax.inject.Singleton;
 import javax.management.InstanceAlreadyExistsException;
@@ -31,6 +34,7 @@ import org.cryptocoinpartners.schema.Tradeable;
 import org.cryptocoinpartners.schema.TransactionFactory;
 import org.cryptocoinpartners.service.OrderService;
 import org.cryptocoinpartners.service.PortfolioService;
+import org.cryptocoinpartners.util.RateLimiter;
 import org.cryptocoinpartners.util.Remainder;
 
 import com.google.inject.Inject;
@@ -224,6 +228,30 @@ public class JMXManager implements JMXManagerMBean {
 
     }
 
+    @Override
+    public String getSubscriberStats() {
+        List<SubscriberStats> stats = new ArrayList<>(context.getSubscriberStats());
+        // slowest in total first
+        Collections.sort(stats, new Comparator<SubscriberStats>() {
+            @Override
+            public int compare(SubscriberStats stats1, SubscriberStats stats2) {
+                return Long.compare(stats2.getTotalNanos(), stats1.getTotalNanos());
+            }
+        });
+        StringBuilder report = new StringBuilder();
+        for (SubscriberStats subscriber : stats)
+            report.append(subscriber).append('\n');
+        return report.toString();
+    }
+
+    @Override
+    public String getRateLimiterStats() {
+        StringBuilder report = new StringBuilder();
+        for (RateLimiter limiter : RateLimiter.getLimiters())
+            report.append(limiter);
+        return report.toString();
+    }
+
     @Override
     public void stop() {
         System.out.println("stop");
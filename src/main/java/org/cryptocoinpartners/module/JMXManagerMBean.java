@@ -15,6 +15,12 @@ public interface JMXManagerMBean {
 
     String getPortfolioService();
 
+    /** @return the invocation count and timings of each Esper subscriber, slowest in total first */
+    String getSubscriberStats();
+
+    /** @return the permits, waits and rejections of each exchange's rate limiter endpoints */
+    String getRateLimiterStats();
+
     void createSpecificOrder(String marketSymbol, String volume, String limitPrice);
 
     void createGeneralOrder(String marketSymbol, String volume, String limitPrice);
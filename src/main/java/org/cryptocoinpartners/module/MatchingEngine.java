@@ -0,0 +1,303 @@
+package org.cryptocoinpartners.module;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import org.cryptocoinpartners.schema.Book;
+import org.cryptocoinpartners.schema.BookSide;
+import org.cryptocoinpartners.schema.Offer;
+import org.cryptocoinpartners.schema.SpecificOrder;
+import org.cryptocoinpartners.schema.Trade;
+import org.cryptocoinpartners.schema.Tradeable;
+import org.joda.time.Instant;
+
+/**
+ * A MatchingEngine simulates one market of an exchange for the MockOrderService. It holds our resting orders in price-time priority and matches
+ * them against the published Books and Trades, without changing the market data other subscribers see.
+ *
+ * An order reaches the exchange orderLatency milliseconds after it was placed, plus dataLatency for the age of the market data it was placed
+ * on, and is not matched against any event older than that. A marketable order takes the published liquidity of the opposite side, walking the
+ * levels until its limit price, with the configured slippage. The volume it takes is remembered in an impact book, so the same published level
+ * is not taken twice, until a later Book shows that level with a different volume.
+ *
+ * A resting order is given a queue position the first time its level is seen after it becomes active: the published volume at its price,
+ * which is ahead of it. Volume leaving the level is assumed to leave from ahead of it, and Trades at its price first use up the volume ahead
+ * before they fill it. Trades through its price fill it at its limit price. Each event only visits our levels at or better than the prices it
+ * reaches, so the work per event does not grow with the number of orders resting away from the market.
+ */
+public class MatchingEngine {
+
+  private static final long UNKNOWN = -1;
+
+  /** a fill matched by the engine, for the order service to book */
+  public static class Match {
+
+    Match(SpecificOrder order, Instant time, long priceCount, long volumeCount, boolean maker, Offer offer) {
+      this.order = order;
+      this.time = time;
+      this.priceCount = priceCount;
+      this.volumeCount = volumeCount;
+      this.maker = maker;
+      this.offer = offer;
+    }
+
+    public SpecificOrder getOrder() {
+      return order;
+    }
+
+    public Instant getTime() {
+      return time;
+    }
+
+    public long getPriceCount() {
+      return priceCount;
+    }
+
+    /** positive for a buy, negative for a sell */
+    public long getVolumeCount() {
+      return volumeCount;
+    }
+
+    /** true if the order was resting and was filled by a Trade, false if it took liquidity from a Book */
+    public boolean isMaker() {
+      return maker;
+    }
+
+    /** the published level or trade which filled the order */
+    public Offer getOffer() {
+      return offer;
+    }
+
+    private final SpecificOrder order;
+    private final Instant time;
+    private final long priceCount;
+    private final long volumeCount;
+    private final boolean maker;
+    private final Offer offer;
+  }
+
+  public MatchingEngine(Tradeable market, long orderLatency, long dataLatency, double slippage) {
+    this.market = market;
+    this.orderLatency = orderLatency;
+    this.dataLatency = dataLatency;
+    this.slippage = slippage;
+  }
+
+  /** adds an order with its unfilled volume, unless it is already resting */
+  public synchronized boolean add(SpecificOrder order) {
+    if (orders.containsKey(order) || order.getUnfilledVolumeCount() == 0)
+      return false;
+    Resting resting = new Resting(order, order.getTimestamp() + orderLatency + dataLatency);
+    NavigableMap<Long, ArrayDeque<Resting>> side = resting.bid ? bids : asks;
+    ArrayDeque<Resting> level = side.get(resting.priceCount);
+    if (level == null) {
+      level = new ArrayDeque<Resting>();
+      side.put(resting.priceCount, level);
+    }
+    level.add(resting);
+    orders.put(order, resting);
+    return true;
+  }
+
+  public synchronized boolean remove(SpecificOrder order) {
+    Resting resting = orders.remove(order);
+    if (resting == null)
+      return false;
+    NavigableMap<Long, ArrayDeque<Resting>> side = resting.bid ? bids : asks;
+    ArrayDeque<Resting> level = side.get(resting.priceCount);
+    level.remove(resting);
+    if (level.isEmpty())
+      side.remove(resting.priceCount);
+    return true;
+  }
+
+  public synchronized boolean contains(SpecificOrder order) {
+    return orders.containsKey(order);
+  }
+
+  public synchronized int size() {
+    return orders.size();
+  }
+
+  /** @return the published volume count ahead of a resting order at its price, or -1 if its level has not been seen yet */
+  public synchronized long getQueueAhead(SpecificOrder order) {
+    Resting resting = orders.get(order);
+    return resting == null ? UNKNOWN : resting.queueAhead;
+  }
+
+  /** @return the volume count our fills have taken from the published ask or bid level at the price */
+  public synchronized long getImpact(boolean ask, long priceCount) {
+    long[] taken = (ask ? askImpact : bidImpact).get(priceCount);
+    return taken == null ? 0 : taken[0];
+  }
+
+  /** matches the marketable orders against the book's liquidity, and moves the resting orders up their queues */
+  public synchronized List<Match> onBook(Book book) {
+    List<Match> matches = new ArrayList<Match>();
+    long now = book.getTimestamp();
+    synchronized (book) {
+      BookSide bidSide = book.getBidSide();
+      BookSide askSide = book.getAskSide();
+      refresh(askImpact, askSide);
+      refresh(bidImpact, bidSide);
+      cross(bids, askSide, askImpact, book.getTime(), now, matches);
+      cross(asks, bidSide, bidImpact, book.getTime(), now, matches);
+      queue(bids, bidSide, now);
+      queue(asks, askSide, now);
+    }
+    return matches;
+  }
+
+  /** fills the resting orders the trade reached: a sell trade fills our bids at or above its price, a buy trade our asks at or below it */
+  public synchronized List<Match> onTrade(Trade trade) {
+    long remaining = Math.abs(trade.getVolume().getCount());
+    if (remaining == 0)
+      return Collections.emptyList();
+    List<Match> matches = new ArrayList<Match>();
+    long now = trade.getTimestamp();
+    long tradePriceCount = trade.getPrice().getCount();
+    Offer offer = new Offer(market, trade.getTime(), trade.getTimeReceived(), tradePriceCount, trade.getVolume().getCount());
+    NavigableMap<Long, ArrayDeque<Resting>> side = trade.getVolume().isNegative() ? bids : asks;
+    for (Iterator<Map.Entry<Long, ArrayDeque<Resting>>> levels = side.headMap(tradePriceCount, true).entrySet().iterator(); levels.hasNext()
+        && remaining > 0;) {
+      Map.Entry<Long, ArrayDeque<Resting>> level = levels.next();
+      boolean atTradePrice = level.getKey() == tradePriceCount;
+      for (Iterator<Resting> it = level.getValue().iterator(); it.hasNext() && remaining > 0;) {
+        Resting resting = it.next();
+        if (resting.activeAt > now)
+          continue;
+        long through = remaining;
+        if (atTradePrice) {
+          long ahead = Math.max(resting.queueAhead, 0);
+          through = Math.max(0, remaining - ahead);
+          resting.queueAhead = Math.max(0, ahead - remaining);
+        }
+        long volume = Math.min(through, resting.remaining);
+        if (volume == 0)
+          continue;
+        resting.remaining -= volume;
+        remaining -= volume;
+        matches.add(new Match(resting.order, trade.getTime(), resting.limited ? resting.priceCount : tradePriceCount, resting.bid ? volume : -volume,
+            true, offer));
+        if (resting.remaining == 0) {
+          it.remove();
+          orders.remove(resting.order);
+        }
+      }
+      if (level.getValue().isEmpty())
+        levels.remove();
+    }
+    return matches;
+  }
+
+  private void cross(NavigableMap<Long, ArrayDeque<Resting>> side, BookSide opposite, Map<Long, long[]> impact, Instant time, long now,
+      List<Match> matches) {
+    if (opposite.isEmpty())
+      return;
+    // our levels which reach the opposite best price
+    for (Iterator<Map.Entry<Long, ArrayDeque<Resting>>> levels = side.headMap(opposite.getPriceCount(0), true).entrySet().iterator(); levels
+        .hasNext();) {
+      Map.Entry<Long, ArrayDeque<Resting>> level = levels.next();
+      for (Iterator<Resting> it = level.getValue().iterator(); it.hasNext();) {
+        Resting resting = it.next();
+        if (resting.activeAt > now)
+          continue;
+        take(resting, opposite, impact, time, matches);
+        if (resting.remaining == 0) {
+          it.remove();
+          orders.remove(resting.order);
+        }
+      }
+      if (level.getValue().isEmpty())
+        levels.remove();
+    }
+  }
+
+  private void take(Resting resting, BookSide opposite, Map<Long, long[]> impact, Instant time, List<Match> matches) {
+    for (int i = 0; i < opposite.size() && resting.remaining > 0; i++) {
+      long priceCount = opposite.getPriceCount(i);
+      if (resting.bid ? priceCount > resting.priceCount : priceCount < resting.priceCount)
+        break;
+      long published = opposite.getVolumeCount(i);
+      long[] taken = impact.get(priceCount);
+      long available = Math.abs(published) - (taken == null ? 0 : taken[0]);
+      if (available <= 0)
+        continue;
+      long volume = Math.min(available, resting.remaining);
+      if (taken == null)
+        impact.put(priceCount, new long[] { volume, published });
+      else
+        taken[0] += volume;
+      resting.remaining -= volume;
+      long slippageDiff = Math.round(priceCount * slippage);
+      // I am buying, so I pay the ask plus slippage but never more than my limit, and the reverse when selling
+      long fillPriceCount = resting.bid ? Math.min(resting.priceCount, priceCount + slippageDiff) : Math.max(resting.priceCount, priceCount
+          - slippageDiff);
+      matches.add(new Match(resting.order, time, fillPriceCount, resting.bid ? volume : -volume, false, new Offer(market, time, time, priceCount,
+          published)));
+    }
+  }
+
+  private void queue(NavigableMap<Long, ArrayDeque<Resting>> side, BookSide published, long now) {
+    if (published.isEmpty())
+      return;
+    // our levels down to the worst published level; those further away keep their positions until the book reaches them
+    for (Map.Entry<Long, ArrayDeque<Resting>> level : side.headMap(published.getPriceCount(published.size() - 1), true).entrySet()) {
+      int index = published.indexOf(level.getKey());
+      long volume = index < 0 ? 0 : Math.abs(published.getVolumeCount(index));
+      for (Resting resting : level.getValue())
+        if (resting.activeAt <= now)
+          resting.queueAhead = resting.queueAhead == UNKNOWN ? volume : Math.min(resting.queueAhead, volume);
+    }
+  }
+
+  /** forgets the impact on levels which the exchange has since republished with a different volume */
+  private static void refresh(Map<Long, long[]> impact, BookSide published) {
+    for (Iterator<Map.Entry<Long, long[]>> it = impact.entrySet().iterator(); it.hasNext();) {
+      Map.Entry<Long, long[]> taken = it.next();
+      int index = published.indexOf(taken.getKey());
+      if (index < 0 || published.getVolumeCount(index) != taken.getValue()[1])
+        it.remove();
+    }
+  }
+
+  private static class Resting {
+
+    Resting(SpecificOrder order, long activeAt) {
+      this.order = order;
+      this.activeAt = activeAt;
+      this.bid = order.isBid();
+      this.limited = order.getLimitPrice() != null && !order.getLimitPrice().isZero();
+      // an order without a limit price sorts ahead of every priced order on its side
+      this.priceCount = limited ? order.getLimitPrice().getCount() : bid ? Long.MAX_VALUE : Long.MIN_VALUE;
+      this.remaining = Math.abs(order.getUnfilledVolumeCount());
+    }
+
+    private final SpecificOrder order;
+    private final long activeAt;
+    private final boolean bid;
+    private final boolean limited;
+    private final long priceCount;
+    private long remaining;
+    private long queueAhead = UNKNOWN;
+  }
+
+  private final Tradeable market;
+  private final long orderLatency;
+  private final long dataLatency;
+  private final double slippage;
+  // our bids from the highest price and asks from the lowest, each level in time priority
+  private final NavigableMap<Long, ArrayDeque<Resting>> bids = new TreeMap<Long, ArrayDeque<Resting>>(Collections.reverseOrder());
+  private final NavigableMap<Long, ArrayDeque<Resting>> asks = new TreeMap<Long, ArrayDeque<Resting>>();
+  private final Map<SpecificOrder, Resting> orders = new HashMap<SpecificOrder, Resting>();
+  // by price: the volume count our fills took from the level, and the level's published volume count when they took it
+  private final Map<Long, long[]> askImpact = new HashMap<Long, long[]>();
+  private final Map<Long, long[]> bidImpact = new HashMap<Long, long[]>();
+}
@@ -1,13 +1,9 @@
 package org.cryptocoinpartners.module;
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.locks.Lock;
@@ -16,14 +12,11 @@ import java.util.concurrent.locks.ReentrantLock;
 import javax.inject.Singleton;
 
 import org.cryptocoinpartners.enumeration.OrderState;
-import org.cryptocoinpartners.enumeration.TransactionType;
 import org.cryptocoinpartners.esper.annotation.When;
 import org.cryptocoinpartners.schema.Amount;
 import org.cryptocoinpartners.schema.Book;
-import org.cryptocoinpartners.schema.DiscreteAmount;
 import org.cryptocoinpartners.schema.Event;
 import org.cryptocoinpartners.schema.Fill;
-import org.cryptocoinpartners.schema.Market;
 import org.cryptocoinpartners.schema.Offer;
 import org.cryptocoinpartners.schema.Order;
 import org.cryptocoinpartners.schema.OrderUpdate;
@@ -35,7 +28,8 @@ import org.cryptocoinpartners.util.EM;
 import org.cryptocoinpartners.util.Remainder;
 
 /**
- * MockOrderService simulates the Filling of Orders by looking at broadcast Book data for price and volume information.
+ * MockOrderService simulates the Filling of Orders by looking at broadcast Book data for price and volume information. Each Market's pending
+ * orders are matched by a MatchingEngine, which models queue position, latency and the impact of our own fills.
  * 
  * @author Tim Olson
  */
@@ -45,6 +39,9 @@ public class MockOrderService extends BaseOrderService {
   private static ExecutorService mockOrderService = Executors.newFixedThreadPool(1);
   // static Double doubleSlippage = ConfigUtil.combined().getDouble("mock.exchange.slippage", 0.02);
   private static double slippage = ConfigUtil.combined().getDouble("mock.exchange.slippage", 0.002);
+  // milliseconds for an order to reach the simulated exchange, and for its market data to reach us
+  private static long orderLatency = ConfigUtil.combined().getLong("mock.exchange.order.latency", 0);
+  private static long dataLatency = ConfigUtil.combined().getLong("mock.exchange.data.latency", 0);
   protected final Lock updateOrderBookLock = new ReentrantLock();
 
   // Object orderProcessingLock;
@@ -116,297 +113,32 @@ public class MockOrderService extends BaseOrderService {
       return;
     //   log.trace(this.getClass().getSimpleName() + " : updateBook to called from stack " + Thread.currentThread().getStackTrace()[2]);
 
-    Tradeable market = null;
-    List<Offer> asks = new ArrayList<>();
-    Book b = null;
-    Trade t = null;
-    List<Offer> bids = new ArrayList<>();
+    List<MatchingEngine.Match> matches;
     if (event instanceof Book) {
-      b = (Book) event;
-      if (b.getMarket().isSynthetic())
+      Book b = (Book) event;
+      if (b.getMarket().isSynthetic() || engines.get(b.getMarket()) == null)
         return;
-      market = b.getMarket();
-      asks = b.getAsks();
-      bids = b.getBids();
-    }
-
-    if (event instanceof Trade) {
-      t = (Trade) event;
-      if (t.getMarket().isSynthetic())
+      matches = engines.get(b.getMarket()).onBook(b);
+    } else if (event instanceof Trade) {
+      Trade t = (Trade) event;
+      if (t.getMarket().isSynthetic() || engines.get(t.getMarket()) == null)
         return;
-      market = t.getMarket();
-      //if Trade is a sell then it must have big the ask
-      if (t.getVolume().isNegative()) {
-        Offer bestBid = new Offer(market, t.getTime(), t.getTimeReceived(), t.getPrice().getCount(), t.getVolume().negate().getCount());
-        asks.add(bestBid);
-      } else {
-        Offer bestAsk = new Offer(market, t.getTime(), t.getTimeReceived(), t.getPrice().getCount(), t.getVolume().negate().getCount());
-        bids.add(bestAsk);
-
-      }
-    }
-
-    List<Fill> fills = Collections.synchronizedList(new ArrayList<Fill>());
-
-    // todo multiple Orders may be filled with the same Offer.  We should deplete the Offers as we fill
-    // we will loop over the orders that are looking to buy against the sell orders from the book i.e. the asks.
-    if (pendingOrders != null && pendingOrders.get(market) != null && pendingOrders.get(market).get(TransactionType.BUY) != null) {
-      ArrayList<SpecificOrder> buyOrdersToBeRemoved = new ArrayList<SpecificOrder>();
-
-      try {
-        // log.debug(this.getClass().getSimpleName() + ":updateBook locking buy updateOrderBookLock");
-
-        // updateOrderBookLock.lock();
-
-        synchronized (pendingOrders.get(market).get(TransactionType.BUY)) {
-
-          BIDORDERSLOOP: for (Iterator<SpecificOrder> itbpo = pendingOrders.get(market).get(TransactionType.BUY).iterator(); itbpo.hasNext();) {
-            if (asks == null || asks.isEmpty())
-              break;
-            SpecificOrder order = itbpo.next();
-            //  synchronized (order) {
-
-            // BIDORDERSLOOP: for (SpecificOrder pendingOrder : pendingOrders.get(market).get(TransactionType.BUY)) {
-            //       : while (itbpo.hasNext()) {
-
-            //      SpecificOrder pendingOrder = itbpo.next();
-
-            // for (Order pendingOrder : pendingOrders) {
-            //  if (pendingOrder instanceof SpecificOrder) {
-            //    SpecificOrder order = pendingOrder;
-            if (order.getUnfilledVolumeCount() == 0) {
-              // pendingOrders.get(market).get(TransactionType.BUY).remove(order);
-              itbpo.remove();
-              continue;
-            }
-
-            /*
-             * if (order.getUnfilledVolumeCount() == 0) { // buyOrdersToBeRemoved.add(order); order.getUnfilledVolumeCount(); itbpo.remove(); //
-             * pendingOrders.remove(order); continue; }
-             */
-            // 10.15, 10.18 ok
-            // 10.15, 10.14 not ok, so if the order time is > then the even time we should not process
-
-            if (order.getMarket().equals(market) && (order.getTimestamp() <= event.getTimestamp())) {
-              // buy order, so hit ask
-
-              //  long bidRemainingVolume = order.getUnfilledVolumeCount();
-              log.trace(this.getClass().getSimpleName() + ":UpdateBook - determining fills for buy order " + order.getId() + " with working volume "
-                  + order.getUnfilledVolumeCount());
-
-              ASKSLOOP: for (Iterator<Offer> ita = asks.iterator(); ita.hasNext();) {
-                //     
-                //    for (Offer ask : asks) {
-                Offer ask = ita.next();
-                if (order.getTimestamp() > ask.getTimestamp()) {
-                  log.debug(this.getClass().getSimpleName() + ":UpdateBook - ask " + ask + " older than order " + order.getId());
-                  if (ask.getVolumeCount() == 0)
-                    ita.remove();
-                  continue ASKSLOOP;
-                }
-                // 
-                if (ask == null || (order.getLimitPrice() != null && ask != null && order.getLimitPrice().getCount() < ask.getPriceCount())) {
-                  //  || ask.getVolumeCount() == 0 || ask.getPriceCount() == 0)
-                  log.trace(this.getClass().getSimpleName() + ":UpdateBook - ask price " + ask + " greater than limit price " + order.getLimitPrice()
-                      + " for order " + order.getId());
-                  //return;
-                  break BIDORDERSLOOP;
-                }
-                //  synchronized (lock) {
-                if (t != null) {
-                  log.debug("filled by a trade");
-
-                }
-
-                long buyFillVolume = Math.min(Math.abs(ask.getVolumeCount()), Math.abs(order.getUnfilledVolumeCount()));
-
-                DiscreteAmount vol = ask.getVolume();
-                Long count = ask.getVolumeCount();
-                long volbycount = ask.getVolume().getCount();
-                count = ask.getVolumeCount();
-                if (buyFillVolume == 0) {
-                  log.trace(this.getClass().getSimpleName() + ":UpdateBook fill voume zero for ask" + ask + " and order " + order.getId());
-
-                  continue ASKSLOOP;
-                }
-                //I am buying, so I want to buy at cheapest price, so we will add to ask price the slppage
-                // fillPrice long = ask.getPriceCount()
-                long slippageDiff = Math.round(ask.getPriceCount() * slippage);
-                // I am buying so limit price is 100, current ask is 99, get filled at 99
-                // order price is  636.36 and buying at ask 635.90, so I get the I want to buy at lowest rpice so 
-                long fillPriceCount = Math.min(order.getLimitPrice().getCount(), (ask.getPriceCount() + slippageDiff));
-                log.debug(this.getClass().getSimpleName() + ":updateBook - Creating fill with ask " + ask);
-
-                Fill fill = fillFactory.create(order, ask.getTime(), ask.getTime(), order.getMarket(), fillPriceCount, buyFillVolume,
-                    Long.toString(ask.getTime().getMillis()));
-                logFill(order, ask, fill);
-                log.debug(this.getClass().getSimpleName() + ":UpdateBook - set askVolume " + ask.getVolumeCount() + " to "
-                    + (ask.getVolumeCount() - buyFillVolume));
-                ask.setVolumeCount(ask.getVolumeCount() + buyFillVolume);
-                if (ask.getVolumeCount() == 0)
-                  ita.remove();
-
-                if (order.getUnfilledVolumeCount() == 0) {
-                  itbpo.remove();
-                  //   if (pendingOrders.get(market).get(TransactionType.BUY).remove(order))
-                  // else
-                  //   log.error(this.getClass().getSimpleName() + ":updateBook - Buy order(" + order.hashCode() + ") fully filled "
-                  //         + order + " not removed from order book" + pendingOrders.get(market).get(TransactionType.BUY));
-                  // buyOrdersToBeRemoved.add(order);
-                  //itbpo.remove();
-                }
-                if (fill.getVolume() == null || (fill.getVolume() != null && fill.getVolume().isZero()))
-                  log.debug("fill " + fill.getId() + " zero lots " + (order.getUnfilledVolumeCount()));
-                if (fill.getVolume().abs().compareTo(order.getVolume().abs()) > 0)
-                  log.debug("overfilled " + fill.getId() + " " + (order.getUnfilledVolumeCount()));
-                handleFillProcessing(fill);
-                // fills.add(fill);
-                //TODO Update the volume on the bid/ask to remove the filled volume and if it is zero remove it from book.
-                // bidRemainingVolume -= order.getUnfilledVolumeCount();;
-                // so we are setting remaining volume to 37 then back to 62, 
-
-                //  if (bidRemainingVolume > order.getUnfilledVolumeCount())
-                //    log.error("overfilled" + order.getUnfilledVolumeCount() + " " + order.getUnfilledVolumeCount());
-
-                //  logFill(order, ask, fill);
-                if (order.getUnfilledVolumeCount() == 0) {
-
-                  //order is fully filled so move onto next order
-                  continue BIDORDERSLOOP;
-                }
-              }
-
-            }
-            //  }
-
-          }
-        }
-
-        //}
-      } catch (Exception e) {
-        log.error(this.getClass().getSimpleName() + ": updateBook - Unable to itterate over buy mock order book " + " stack trace: ", e);
-      }
-    }
-
-    if (pendingOrders != null && pendingOrders.get(market) != null && pendingOrders.get(market).get(TransactionType.SELL) != null) {
-      ArrayList<SpecificOrder> sellOrdersToBeRemoved = new ArrayList<SpecificOrder>();
+      matches = engines.get(t.getMarket()).onTrade(t);
+    } else
+      return;
 
+    // the fills are booked outside the engine, as booking them can place or cancel orders on the same market
+    for (MatchingEngine.Match match : matches) {
+      SpecificOrder order = match.getOrder();
       try {
-        synchronized (pendingOrders.get(market).get(TransactionType.SELL)) {
-          //    log.debug(this.getClass().getSimpleName() + ":updateBook locking sell updateOrderBookLock");
-
-          //  updateOrderBookLock.lock();
-          ASKORDERSLOOP: for (Iterator<SpecificOrder> itspo = pendingOrders.get(market).get(TransactionType.SELL).iterator(); itspo.hasNext();) {
-            if (bids == null || bids.isEmpty())
-              break;
-            SpecificOrder order = itspo.next();
-            //       synchronized (order) {
-            //    for (SpecificOrder pendingOrder : pendingOrders.get(market).get(TransactionType.SELL)) {
-
-            //    Iterator<SpecificOrder> itspo = pendingOrders.get(market).get(TransactionType.SELL).iterator();
-            //  ASKORDERSLOOP: while (itspo.hasNext()) {
-
-            //   SpecificOrder pendingOrder = itspo.next();
-
-            if (order.getUnfilledVolumeCount() == 0) {
-              // pendingOrders.get(market).get(TransactionType.SELL).remove(order);
-              itspo.remove();
-              continue ASKORDERSLOOP;
-            }
-
-            /*
-             * if (order.getUnfilledVolumeCount() == 0) { order.getUnfilledVolumeCount(); //sellOrdersToBeRemoved.add(order); itspo.remove();
-             * continue; }
-             */
-            if (order.getMarket().equals(market) && (order.getTimestamp() <= event.getTimestamp())) {
-              //  long askRemainingVolume = order.getUnfilledVolumeCount(); // this will be negative
-              log.trace(this.getClass().getSimpleName() + ":UpdateBook - determining fills for sell order " + order.getId() + " with working volume "
-                  + order.getUnfilledVolumeCount());
-
-              // we need to thingk about maker and taker
-              //which side of the book do we hit
-              BIDSLOOP: for (Iterator<Offer> itb = bids.iterator(); itb.hasNext();) {
-                //     
-                //    for (Offer ask : asks) {
-                Offer bid = itb.next();
-                // BIDSLOOP: for (Offer bid : bids) {
-
-                if (order.getTimestamp() > bid.getTimestamp()) {
-                  log.trace(this.getClass().getSimpleName() + ":UpdateBook - bid " + bid + " older than order " + order.getId());
-
-                  continue BIDSLOOP;
-                }
-                if (bid == null || (order.getLimitPrice() != null && bid != null && order.getLimitPrice().getCount() > bid.getPriceCount())) {
-
-                  //|| bid.getVolumeCount() == 0 || bid.getPriceCount() == 0)
-                  log.trace(this.getClass().getSimpleName() + ":UpdateBook - bid price " + bid + " greater than limit price " + order.getLimitPrice()
-                      + " for order " + order.getId());
-
-                  break ASKORDERSLOOP;
-                }
-                // synchronized (lock) {
-                if (t != null) {
-                  log.debug("filled by a trade");
-
-                }
-                long askFillVolume = -Math.min(Math.abs(bid.getVolumeCount()), Math.abs(order.getUnfilledVolumeCount()));
-                if (askFillVolume == 0) {
-                  log.trace(this.getClass().getSimpleName() + ":UpdateBook fill volume zero for bid" + bid + " and order " + order.getId());
-                  if (bid.getVolumeCount() == 0)
-                    itb.remove();
-
-                  continue BIDSLOOP;
-                }
-                long slippageDiff = Math.round(bid.getPriceCount() * slippage);
-                // I am selling so limit price is 100, current bid is 101, get filled at 101
-                //selling at 634.57, 63470
-                long fillPriceCount = Math.max(order.getLimitPrice().getCount(), (bid.getPriceCount() - slippageDiff));
-                log.debug(this.getClass().getSimpleName() + ":updateBook - Creating fill with bid " + bid);
-
-                Fill fill = fillFactory.create(order, context.getTime(), context.getTime(), order.getMarket(), fillPriceCount, askFillVolume,
-                    Long.toString(bid.getTime().getMillis()));
-                logFill(order, bid, fill);
-                log.debug(this.getClass().getSimpleName() + ":UpdateBook - set bidVolume " + bid.getVolumeCount() + " to "
-                    + (bid.getVolumeCount() - askFillVolume));
-                bid.setVolumeCount(bid.getVolumeCount() - askFillVolume);
-                if (bid.getVolumeCount() == 0)
-                  itb.remove();
-                if (order.getUnfilledVolumeCount() == 0) {
-
-                  itspo.remove();
-                  //   if (pendingOrders.get(market).get(TransactionType.SELL).remove(order))
-                  // else
-                  //   log.error(this.getClass().getSimpleName() + ":updateBook - Sell order(" + order.hashCode() + ") fully filled "
-                  //         + order + " not removed from order book" + pendingOrders.get(market).get(TransactionType.SELL));
-                  //  sellOrdersToBeRemoved.add(order);
-                }
-
-                if (fill.getVolume() == null || (fill.getVolume() != null && fill.getVolume().isZero()))
-                  log.debug("fill zero lots " + fill.getId() + " " + (order.getUnfilledVolumeCount()));
-
-                if (fill.getVolume().abs().compareTo(order.getVolume().abs()) > 0)
-                  log.debug("overfilled " + fill.getId());
-                handleFillProcessing(fill);
-                // fills.add(fill);
-
-                //      log.debug(this.getClass().getSimpleName() + ":UpdateBook - setting askRemainingVolume to " + order.getUnfilledVolumeCount()
-                //            + " for fill volume " + askFillVolume + " for order " + order);
-
-                // askRemainingVolume -= askFillVolume;
-
-                if (order.getUnfilledVolumeCount() == 0) {
-
-                  continue ASKORDERSLOOP;
-                }
-              }
-            }
-            //   }
-
-          }
-        }
-
+        Fill fill = fillFactory.create(order, match.getTime(), match.getTime(), order.getMarket(), match.getPriceCount(), match.getVolumeCount(),
+            Long.toString(match.getTime().getMillis()));
+        logFill(order, match.getOffer(), fill);
+        if (fill.getVolume().abs().compareTo(order.getVolume().abs()) > 0)
+          log.debug("overfilled " + fill.getId() + " " + (order.getUnfilledVolumeCount()));
+        handleFillProcessing(fill);
       } catch (Exception e) {
-        log.error(this.getClass().getSimpleName() + ": addOrder - Unable to itterate over sell mock order book " + " stack trace: ", e);
+        log.error(this.getClass().getSimpleName() + ": updateBook - Unable to process mock fill of " + order.getId() + " stack trace: ", e);
       }
     }
 
@@ -416,43 +148,30 @@ public class MockOrderService extends BaseOrderService {
   @Override
   protected boolean cancelSpecificOrder(SpecificOrder order) {
     boolean deleted = false;
-    if (!orderStateMap.get(order).isOpen()) {
-      log.error("Unable to cancel order as is " + orderStateMap.get(order) + " :" + order.getId());
+    if (!orderStore.getState(order).isOpen()) {
+      log.error("Unable to cancel order as is " + orderStore.getState(order) + " :" + order.getId());
       deleted = true;
       return deleted;
 
     }
 
     try {
-      if (pendingOrders == null || pendingOrders.get(order.getMarket()) == null
-          || pendingOrders.get(order.getMarket()).get(order.getTransactionType()) == null)
+      MatchingEngine engine = engines.get(order.getMarket());
+      if (engine == null)
         return deleted;
       log.trace(this.getClass().getSimpleName() + ":cancelSpecificOrder - removing order(" + order.hashCode() + ") " + order + " from orderbook ");
 
-      // synchronized (pendingOrders.get(order.getMarket()).get(order.getTransactionType())) {
-      //   } catch (Exception e) {
-      //     log.error(this.getClass().getSimpleName() + ": addOrder - Unable to itterate over order book " + pendingOrders.get(market).get(TransactionType.BUY) + " stack trace: ", e);
-      // } finally {
-      //   updateOrderBookLock.unlock();
-
-      //}  
-      //      log.debug(this.getClass().getSimpleName() + ":cancelSpecificOrder Locking updateOrderBookLock");
-      //    updateOrderBookLock.lock();
-
-      synchronized (pendingOrders.get(order.getMarket()).get(order.getTransactionType())) {
-        if (pendingOrders.get(order.getMarket()).get(order.getTransactionType()).remove(order)) {
-          log.debug(this.getClass().getSimpleName() + ":cancelSpecificOrder - removed order(" + order.hashCode() + ") " + order + " from orderbook ");
+      if (engine.remove(order)) {
+        log.debug(this.getClass().getSimpleName() + ":cancelSpecificOrder - removed order(" + order.hashCode() + ") " + order + " from orderbook ");
 
-          updateOrderState(order, OrderState.CANCELLED, true);
+        updateOrderState(order, OrderState.CANCELLED, true);
 
-          deleted = true;
+        deleted = true;
 
-        } else {
-          //       if (!pendingOrders.get(order.getMarket()).get(order.getTransactionType()).contains(order)) {
-          log.error("Unable to cancel order as not present in mock order book. Order:" + order + " order book ");
-          updateOrderState(order, OrderState.REJECTED, true);
-          deleted = true;
-        }
+      } else {
+        log.error("Unable to cancel order as not present in mock order book. Order:" + order + " order book ");
+        updateOrderState(order, OrderState.REJECTED, true);
+        deleted = true;
       }
 
       //  }
@@ -472,69 +191,30 @@ public class MockOrderService extends BaseOrderService {
   }
 
   private synchronized void addOrder(SpecificOrder order) {
-    //   targetDiscrete = (DiscreteAmount) (limitPrice.minus(new DiscreteAmount((long) (targetPrice), market.getPriceBasis()))).abs();
-    //   targetDiscrete = (DiscreteAmount) (limitPrice.minus(new DiscreteAmount((long) (targetPrice), market.getPriceBasis()))).abs();
-
     try {
-      //   log.debug(this.getClass().getSimpleName() + ":addOrder Locking updateOrderBookLock");
-
-      //   updateOrderBookLock.lock();
-
-      if (pendingOrders.get(order.getMarket()) == null
-          || (pendingOrders.get(order.getMarket()) != null && pendingOrders.get(order.getMarket()).isEmpty())) {
-        ConcurrentSkipListSet<SpecificOrder> orders = new ConcurrentSkipListSet<SpecificOrder>(order.isBid() ? descendingPriceComparator
-            : ascendingPriceComparator);
-
-        //  ArrayList<SpecificOrder> orders = new ArrayList<SpecificOrder>();
-        orders.add(order);
-        ConcurrentHashMap<TransactionType, ConcurrentSkipListSet<SpecificOrder>> orderBook = new ConcurrentHashMap<TransactionType, ConcurrentSkipListSet<SpecificOrder>>();
-        orderBook.put(order.getTransactionType(), orders);
-        pendingOrders.put(order.getMarket(), orderBook);
+      MatchingEngine engine = getMatchingEngine(order.getMarket());
+      if (engine.add(order))
         log.trace(this.getClass().getSimpleName() + ":addOrder(" + order.hashCode() + "): " + order.getId() + " added to mock order book ");
-        return;
-
-      } else if (pendingOrders.get(order.getMarket()).get(order.getTransactionType()) == null
-          || (pendingOrders.get(order.getMarket()).get(order.getTransactionType()) != null && pendingOrders.get(order.getMarket())
-              .get(order.getTransactionType()).isEmpty())) {
-        ConcurrentSkipListSet<SpecificOrder> orders = new ConcurrentSkipListSet<SpecificOrder>(order.isBid() ? descendingPriceComparator
-            : ascendingPriceComparator);
-        orders.add(order);
-        pendingOrders.get(order.getMarket()).put(order.getTransactionType(), orders);
-        log.trace(this.getClass().getSimpleName() + ":addOrder(" + order.hashCode() + "): " + order.getId() + " added to mock order book ");
-        return;
-
-      } else {
-        //      synchronized (pendingOrders.get(order.getMarket()).get(order.getTransactionType())) {
-        if (pendingOrders.get(order.getMarket()).get(order.getTransactionType()).add(order)) {
-          //orderBook.add(order);
-          // Comparator<SpecificOrder> bookComparator = order.isBid() ? bidComparator : askComparator;
-
-          //   Collections.sort(pendingOrders.get(order.getMarket()).get(order.getTransactionType()), order.isBid() ? bidComparator : askComparator);
-          log.trace(this.getClass().getSimpleName() + ":addOrder(" + order.hashCode() + "):  -" + order.getId() + " added to mock order book.");
-
-          return;
-        } else {
-          log.error(this.getClass().getSimpleName() + ":addOrder(" + order.hashCode() + ") -" + order.getId()
-              + " unable to add order to mock order book ");
-          pendingOrders.get(order.getMarket()).get(order.getTransactionType()).add(order);
-        }
-        //       }
-
-        // askComparator
-      }
+      else
+        log.error(this.getClass().getSimpleName() + ":addOrder(" + order.hashCode() + ") -" + order.getId()
+            + " unable to add order to mock order book ");
 
     } catch (Exception e) {
       log.error(this.getClass().getSimpleName() + ": addOrder - Unable to add order " + order + "stack trace: ", e);
-    } finally {
-      //       log.debug(this.getClass().getSimpleName() + ":addOrder Unlocking updateOrderBookLock");
-      //     updateOrderBookLock.unlock();
-
     }
-    // }
-    //  }
 
   }
 
+  /** @return the simulated exchange holding this service's pending orders on the market, created on first use */
+  public MatchingEngine getMatchingEngine(Tradeable market) {
+    MatchingEngine engine = engines.get(market);
+    if (engine == null) {
+      engines.putIfAbsent(market, new MatchingEngine(market, orderLatency, dataLatency, slippage));
+      engine = engines.get(market);
+    }
+    return engine;
+  }
+
   private void logFill(SpecificOrder order, Offer offer, Fill fill) {
     //  if (log.isDebugEnabled())
     if (order != null && offer != null && fill != null)
@@ -542,8 +222,9 @@ public class MockOrderService extends BaseOrderService {
   }
 
   // private static Object lock = new Object();
-  // private static ConcurrentHashMap<Market, ConcurrentHashMap<TransactionType, ArrayList<SpecificOrder>>> pendingOrders = new ConcurrentHashMap<Market, ConcurrentHashMap<TransactionType, ArrayList<SpecificOrder>>>();
-  private static transient ConcurrentHashMap<Market, ConcurrentHashMap<TransactionType, ConcurrentSkipListSet<SpecificOrder>>> pendingOrders = new ConcurrentHashMap<Market, ConcurrentHashMap<TransactionType, ConcurrentSkipListSet<SpecificOrder>>>();
+  // one simulated exchange per market, holding the pending orders. Per service, so backtests run side by side in a sweep do not fill against
+  // each other's orders
+  private final transient ConcurrentHashMap<Tradeable, MatchingEngine> engines = new ConcurrentHashMap<Tradeable, MatchingEngine>();
 
   //new ConcurrentSkipListSet<>
   //  new ConcurrentLinkedQueue<SpecificOrder>();
@@ -564,14 +245,10 @@ public class MockOrderService extends BaseOrderService {
     // Once we have all the order loaded, let's add all the open specific orders to the mock order book (pendingOrders)
     //if (stateOrderMap.get(OrderState.NEW) != null)
     //    cointraderOpenOrders.addAll(stateOrderMap.get(OrderState.NEW));
-    if (stateOrderMap.get(OrderState.PLACED) != null)
-      cointraderOpenOrders.addAll(stateOrderMap.get(OrderState.PLACED));
-    if (stateOrderMap.get(OrderState.PARTFILLED) != null)
-      cointraderOpenOrders.addAll(stateOrderMap.get(OrderState.PARTFILLED));
-    if (stateOrderMap.get(OrderState.ROUTED) != null)
-      cointraderOpenOrders.addAll(stateOrderMap.get(OrderState.ROUTED));
-    if (stateOrderMap.get(OrderState.CANCELLING) != null)
-      cointraderOpenOrders.addAll(stateOrderMap.get(OrderState.CANCELLING));
+    cointraderOpenOrders.addAll(orderStore.getOrders(OrderState.PLACED));
+    cointraderOpenOrders.addAll(orderStore.getOrders(OrderState.PARTFILLED));
+    cointraderOpenOrders.addAll(orderStore.getOrders(OrderState.ROUTED));
+    cointraderOpenOrders.addAll(orderStore.getOrders(OrderState.CANCELLING));
     for (org.cryptocoinpartners.schema.Order openOrder : cointraderOpenOrders) {
       if (openOrder instanceof SpecificOrder)
         addOrder((SpecificOrder) openOrder);
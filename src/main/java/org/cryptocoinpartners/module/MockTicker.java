@@ -1,44 +1,38 @@
 package org.cryptocoinpartners.module;
 
-import java.math.BigDecimal;
-import java.net.URL;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
 
 import javax.inject.Inject;
 
-import jep.Jep;
-
 import org.apache.commons.configuration.Configuration;
-import org.apache.commons.io.FilenameUtils;
-import org.cryptocoinpartners.schema.Book;
 import org.cryptocoinpartners.schema.BookFactory;
-import org.cryptocoinpartners.schema.DiscreteAmount;
+import org.cryptocoinpartners.schema.BookSide;
+import org.cryptocoinpartners.schema.BookUpdate;
 import org.cryptocoinpartners.schema.Exchange;
 import org.cryptocoinpartners.schema.Listing;
+import org.cryptocoinpartners.schema.LiveBook;
 import org.cryptocoinpartners.schema.Market;
 import org.cryptocoinpartners.schema.Trade;
 import org.cryptocoinpartners.service.QuoteService;
-import org.cryptocoinpartners.util.MathUtil;
+import org.cryptocoinpartners.util.SyntheticMarketData;
 import org.joda.time.Instant;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Publishes random Books, BookUpdates and Trades for the randomticker.market markets from start to end, as a SyntheticMarketData generates
+ * them. The same randomticker.seed gives the same events, and with randomticker.rate left at 0 they are published as fast as the Context
+ * takes them, for load testing.
+ *
  * @author Tim Olson
  */
 @SuppressWarnings("FieldCanBeLocal")
 public class MockTicker {
 
-    // private final Instant end = new DateTime(2015, 11, 01, 0, 0, 0, 0, DateTimeZone.UTC).toInstant();
-    //
-
-    // private final Instant start = new DateTime(2014, 01, 01, 0, 0, 0, 0, DateTimeZone.UTC).toInstant();//
-
     @Inject
     public MockTicker(Context context, Configuration config, Instant start, Instant end, BookFactory bookFactory, QuoteService quotes) {
         this.context = context;
@@ -52,7 +46,6 @@ public class MockTicker {
             Object marketElement = il.next();
             String marketStr = marketElement.toString().toUpperCase();
 
-            //    String marketStr = config.getString("randomticker.market");
             Market market = (Market) Market.forSymbol(marketStr);
             if (market == null) {
                 String[] exchangeAndLising = marketStr.toUpperCase().split(":");
@@ -70,189 +63,142 @@ public class MockTicker {
             markets.add(market);
         }
 
-        long interval = config.getInt("randomticker.interval", 60);
-        int trend = config.getInt("randomticker.trend", 172800);
+        double interval = config.getDouble("randomticker.interval", 60);
         double high = config.getDouble("randomticker.high", 928.00);
         double low = config.getDouble("randomticker.low", 230.00);
         double noise = config.getDouble("randomticker.noise", 0.05);
-        long secondsDuration = ((end.minus(start.getMillis())).getMillis() / 1000);
-        int length = Math.round(secondsDuration / interval);
-        double range = high - low;
-        int trendLength = Math.round(trend / interval);
+        // publish a full Book at most this often in simulated seconds, BookUpdates are published on every tick
+        long bookSnapshotInterval = (long) (1000 * config.getDouble("randomticker.book.snapshot.interval", 0));
 
         double offset = low * (1 - noise) + (((high * (1 + noise)) - (low * (1 - noise))) / 2);
-        if (config.getBoolean("randomticker", false))
-
-            new Thread(new PoissonTickerThread(markets, start, length, trendLength, range, noise, offset, interval, bookFactory)).start();
-        else
+        double[] startPrices = new double[markets.size()];
+        for (int i = 0; i < startPrices.length; i++)
+            startPrices[i] = offset;
+        SyntheticMarketData data = new SyntheticMarketData(config.getLong("randomticker.seed", 1), startPrices, config.getDouble(
+                "randomticker.correlation", 0.5), regimes(config), interval);
+
+        if (config.getBoolean("randomticker", false)) {
+            // set before the thread starts, so a stop() straight after construction is not lost
+            running = true;
+            new TickerThread(markets, data, start, end, bookFactory, bookSnapshotInterval, config.getInt("randomticker.depth", 20), config.getDouble(
+                    "randomticker.volume", 1), config.getDouble("randomticker.rate", 0)).start();
+        } else
             throw new ConfigurationError("RandomTicker must be enabled with the  \"randomticker\" property");
 
     }
 
-    public void stop() {
-        running = false;
-    }
-
-    private double nextVolume(Market market) {
-        // double meanVolume = averageVolumeCount;
-
-        int volume = MathUtil.getPoissonRandom(averageVolumeCount);
-        double volumeAsDouble = (market.getVolumeBasis() < 1) ? (Double.parseDouble("1.0") / volume) * averageVolumeCount
-                : (Double.parseDouble("1.0") / volume) * averageVolumeCount * averageVolumeCount;
-        DiscreteAmount volumeDiscrete = new DiscreteAmount((long) (volumeAsDouble / market.getVolumeBasis()), market.getVolumeBasis());
-        volumeDiscrete.asDouble();
-        return volumeDiscrete.asDouble();
+    /** the regimes named by randomticker.regimes, each defaulting to the single regime set by the randomticker keys themselves */
+    private static List<SyntheticMarketData.Regime> regimes(Configuration config) {
+        double drift = config.getDouble("randomticker.drift", 0);
+        double volatility = config.getDouble("randomticker.volatility", 0.8);
+        double jumps = config.getDouble("randomticker.jumps", 0);
+        double jumpSize = config.getDouble("randomticker.jump.size", 0.05);
+        double duration = config.getDouble("randomticker.duration", 86400);
+        List<SyntheticMarketData.Regime> regimes = new ArrayList<>();
+        for (Object name : config.getList("randomticker.regimes")) {
+            String prefix = "randomticker.regime." + name + '.';
+            regimes.add(new SyntheticMarketData.Regime(config.getDouble(prefix + "drift", drift), config.getDouble(prefix + "volatility", volatility),
+                    config.getDouble(prefix + "jumps", jumps), config.getDouble(prefix + "jump.size", jumpSize), config.getDouble(prefix + "duration",
+                            duration)));
+        }
+        if (regimes.isEmpty())
+            regimes.add(new SyntheticMarketData.Regime(drift, volatility, jumps, jumpSize, duration));
+        return regimes;
     }
 
-    private double nextPrice() {
-        double delta = random.nextGaussian() * priceMovementStdDev;
-        double multiple;
-        if (delta < 0)
-            multiple = 1 / (1 - delta);
-        else
-            multiple = 1 + delta;
-        currentPrice *= multiple;
-        return currentPrice;
+    public void stop() {
+        running = false;
     }
 
-    private class PoissonTickerThread extends Thread {
+    private class TickerThread extends Thread {
 
-        private final int length;
-        private final double range;
-        private final double volatility;
-        private final int trendLength;
-        private final double offset;
-        private final long interval;
+        private final List<Market> markets;
+        private final SyntheticMarketData data;
         private final Instant start;
-        private int priceCount;
+        private final Instant end;
         private final BookFactory bookFactory;
-        private final List<Market> markets;
-        private final Map<Market, ArrayList<Double>> marketPrices = new HashMap<Market, ArrayList<Double>>();;
+        private final int depth;
+        private final double volume;
+        private final double rate;
+        private final Map<Market, LiveBook> liveBooks = new HashMap<Market, LiveBook>();
+        // refilled on every tick, LiveBook copies the levels it keeps
+        private final BookSide bids = BookSide.bids();
+        private final BookSide asks = BookSide.asks();
 
         @Override
         public void run() {
-
             log.debug("running mock ticker");
-            running = true;
-            // generate price data
-            ClassLoader classLoader = getClass().getClassLoader();
-            URL jepPath = classLoader.getResource("commonrandom.py");
-            String file = jepPath.getFile();
-
-            String path = jepPath.getPath();
-            String baseUrl = "/" + FilenameUtils.getPath(path);
-            //    .getFile();
-
-            try (Jep jep = new Jep(false, baseUrl)) {
-                jep.eval("from commonrandom import  generate_trendy_price");
-                jep.eval("from commonrandom import  skew_returns_annualised");
-
-                //   skew_returns_annualised
-                // any of the following work, these are just pseudo-examples
-
-                // using eval(String) to invoke methods
-                jep.set("Nlength", length);
-                jep.set("Tlength", trendLength);
-                jep.set("Xamplitude", range);
-                jep.set("Volscale", volatility);
-                for (Market market : markets) {
-
-                    // jep.set("annualSR", annualSharpeRatio);
-                    //jep.set("want_skew", skew);
-                    //jep.set("size", length);
-
-                    //jep.set("Xamplitude", range);
-                    // jep.set("Volscale", volatility);
-
-                    jep.eval("ans=generate_trendy_price(Nlength, Tlength, Xamplitude, Volscale)");
-                    //jep.eval("ans=skew_returns_annualised(annualSR, want_skew, size)");
-                    ArrayList<Double> rawPrices = (ArrayList<Double>) jep.getValue("ans");
-                    priceCount = (priceCount < rawPrices.size()) ? rawPrices.size() : priceCount;
-
-                    marketPrices.put(market, rawPrices);
+            long events = 0;
+            long started = System.nanoTime();
+            try {
+                while (running) {
+                    data.next();
+                    long tradeTime = start.getMillis() + data.getElapsedMillis();
+                    if (tradeTime > end.getMillis())
+                        break;
+                    Instant time = new Instant(tradeTime);
+                    for (int i = 0; i < markets.size(); i++) {
+                        publish(markets.get(i), data.getPrice(i), time);
+                        events++;
+                    }
+                    if (rate > 0) {
+                        // hold the wall clock rate down to the one configured, without drifting when a sleep overshoots
+                        long aheadMillis = (long) (events * 1000 / rate) - (System.nanoTime() - started) / 1000000;
+                        if (aheadMillis > 0)
+                            sleep(aheadMillis);
+                    }
                 }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             } catch (Error | Exception e) {
-                //  String path= "java.library.path";
-
-                log.error("unable to run PoissonTickerThread", e);
-
+                log.error("unable to run TickerThread", e);
             }
-            long tradeTime = 0;
-            for (int index = 0; index < priceCount; index++) {
-                tradeTime = (tradeTime == 0 ? start.getMillis() : tradeTime + (interval * 1000));
-
-                for (Market market : markets) {
-                    double rawPrice = marketPrices.get(market).get(index);
-
-                    // we need to get same index value from all other markets
-
-                    //   if (tradeTime=)
-                    Book book = bookFactory.create(new Instant(tradeTime), market);
-                    // this needs to be aditive, we take the last book and add it
-                    int loopVal;
-                    int end_value = 20;
-                    for (loopVal = 1; loopVal < end_value; loopVal++) {
-                        book.addBid(BigDecimal.valueOf((rawPrice + offset) - (market.getPriceBasis() * loopVal)), BigDecimal.valueOf(nextVolume(market)));
-                        book.addAsk(BigDecimal.valueOf((rawPrice + offset) + (market.getPriceBasis() * loopVal)), BigDecimal.valueOf(nextVolume(market)));
-
-                    }
-                    book.build();
-                    //   context.publish(book);
-
-                    // log.info("publishing book " + book);
-                    Trade trade = Trade.fromDoubles(market, new Instant(tradeTime), null, (rawPrice + offset), nextVolume(market));
-                    // log.info("publishing trade " + trade);
-                    context.publish(book);
-                    context.publish(trade);
-                }
+            long elapsed = Math.max(1, (System.nanoTime() - started) / 1000000);
+            log.info("Published {} ticks for {} markets in {} ms, {} ticks/s", events, markets.size(), elapsed, events * 1000 / elapsed);
+        }
 
-                // double scaledPrice = rawPrice+offset;
+        private void publish(Market market, double price, Instant time) {
+            double priceBasis = market.getPriceBasis();
+            // keep the book clear of zero and negative prices however far the price falls
+            long mid = Math.max(depth + 1, Math.round(price / priceBasis));
+            bids.clear();
+            asks.clear();
+            for (int level = 1; level <= depth; level++) {
+                bids.append(mid - level, nextVolumeCount(market));
+                asks.append(mid + level, -nextVolumeCount(market));
             }
+            LiveBook liveBook = liveBooks.get(market);
+            // only the levels which moved since the last tick are published
+            for (BookUpdate update : liveBook.applySnapshot(bids, asks, time, time))
+                context.publish(update);
+            if (liveBook.isSnapshotDue(time))
+                context.publish(liveBook.snapshot(bookFactory, time));
+            // trades are taken from the best bid or the best ask
+            context.publish(new Trade(market, time, null, data.nextDouble() < 0.5 ? mid - 1 : mid + 1, nextVolumeCount(market)));
+        }
 
-            // using getValue(String) to invoke methods
-
-            // using runScript
-
-            /*            while (running) {
-                            try {
-                                double lambda = 1 / averageTimeBetweenTrades;
-                                double poissonSleep = -Math.log(1d - random.nextDouble()) / lambda;
-                                sleep((long) (1000 * poissonSleep));
-                            } catch (InterruptedException e) {
-                                break;
-                            }
-                            if (!running)
-                                break;
-                            Trade trade = Trade.fromDoubles(market, Instant.now(), null, nextPrice(), nextVolume());
-                            context.publish(trade);
-                        }*/
+        private long nextVolumeCount(Market market) {
+            return Math.max(1, Math.round(data.nextExponential(volume) / market.getVolumeBasis()));
         }
 
-        private PoissonTickerThread(List<Market> markets, Instant start, int length, int trendLength, double range, double volatility, double offset,
-                long interval, BookFactory bookFactory) {
+        private TickerThread(List<Market> markets, SyntheticMarketData data, Instant start, Instant end, BookFactory bookFactory,
+                long bookSnapshotInterval, int depth, double volume, double rate) {
             setDaemon(true);
             this.markets = markets;
-
-            this.length = length;
-            this.range = range;
-            this.volatility = volatility;
-            this.trendLength = trendLength;
-            this.offset = offset;
-            this.interval = interval;
+            this.data = data;
             this.start = start;
+            this.end = end;
             this.bookFactory = bookFactory;
+            this.depth = depth;
+            this.volume = volume;
+            this.rate = rate;
+            for (Market market : markets)
+                liveBooks.put(market, new LiveBook(market, bookSnapshotInterval));
 
         }
 
     }
 
-    private final double averageTimeBetweenTrades = 2;
-    private final double priceMovementStdDev = 0.0001;
-    private final double averageVolumeCount = 100;
-    //  private final double volumeBasis = 1 / 1000.0;
-
-    private final Random random = new Random();
-    private double currentPrice = 100;
     private volatile boolean running;
 
     private final Context context;
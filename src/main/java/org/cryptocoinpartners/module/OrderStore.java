@@ -0,0 +1,218 @@
+package org.cryptocoinpartners.module;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nullable;
+
+import org.cryptocoinpartners.enumeration.OrderState;
+import org.cryptocoinpartners.schema.Market;
+import org.cryptocoinpartners.schema.Order;
+import org.cryptocoinpartners.schema.Portfolio;
+
+/**
+ * An OrderStore holds the state of every order an OrderService tracks. Orders which can still change are indexed by id, state, market and
+ * portfolio, so a state transition moves the order between two sets and a lookup by id or by market visits only the orders it returns. Once
+ * an order is CANCELLED, REJECTED, EXPIRED or FILLED it is moved out of the indexes into an archive which holds the most recent archiveSize
+ * such orders, so a long running service does not keep every order it has ever seen; an order which has dropped out of the archive is
+ * untracked, and its state must be loaded again from the exchange or the database.
+ *
+ * Lookups take no lock and see each index as of the last completed transition; transitions are serialized.
+ */
+public class OrderStore {
+
+  /** the states getPendingOrders() returns */
+  public static final Set<OrderState> PENDING = Collections.unmodifiableSet(EnumSet.of(OrderState.NEW, OrderState.TRIGGER, OrderState.ROUTED,
+      OrderState.PLACED, OrderState.PARTFILLED, OrderState.CANCELLING));
+
+  public static final Set<OrderState> TERMINAL = Collections.unmodifiableSet(EnumSet.of(OrderState.CANCELLED, OrderState.REJECTED,
+      OrderState.EXPIRED, OrderState.FILLED));
+
+  public OrderStore(final int archiveSize) {
+    for (OrderState state : OrderState.values())
+      byState.put(state, Collections.newSetFromMap(new ConcurrentHashMap<Order, Boolean>()));
+    archive = new LinkedHashMap<UUID, Archived>() {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<UUID, Archived> eldest) {
+        if (size() <= archiveSize)
+          return false;
+        evicted = true;
+        return true;
+      }
+    };
+  }
+
+  /** @return the order's state, or null if it is not tracked */
+  @Nullable
+  public OrderState getState(Order order) {
+    OrderState state = states.get(order);
+    if (state != null)
+      return state;
+    Archived archived = getArchived(order.getId());
+    return archived == null ? null : archived.state;
+  }
+
+  /**
+   * moves the order to the state, re-indexing it, or archiving it if the state is terminal
+   *
+   * @return the order's previous state, or null if it was not tracked
+   */
+  @Nullable
+  public synchronized OrderState setState(Order order, OrderState state) {
+    OrderState oldState = states.get(order);
+    if (oldState == null) {
+      Archived archived;
+      synchronized (archive) {
+        archived = archive.remove(order.getId());
+      }
+      if (archived != null)
+        oldState = archived.state;
+    } else if (oldState != state)
+      byState.get(oldState).remove(order);
+
+    if (TERMINAL.contains(state)) {
+      if (states.remove(order) != null)
+        unindex(order);
+      synchronized (archive) {
+        archive.put(order.getId(), new Archived(order, state));
+      }
+    } else {
+      if (states.put(order, state) == null)
+        index(order);
+      byState.get(state).add(order);
+    }
+    return oldState;
+  }
+
+  /** @return the tracked order with the id, or null if there is none */
+  @Nullable
+  public Order getOrder(UUID id) {
+    Order order = byId.get(id);
+    if (order != null)
+      return order;
+    Archived archived = getArchived(id);
+    return archived == null ? null : archived.order;
+  }
+
+  /** @return a live view of the orders in the state, empty for a terminal state */
+  public Set<Order> getOrders(OrderState state) {
+    return Collections.unmodifiableSet(byState.get(state));
+  }
+
+  /** @return the orders in any of the PENDING states */
+  public List<Order> getPendingOrders() {
+    List<Order> pending = new ArrayList<Order>();
+    for (OrderState state : PENDING)
+      pending.addAll(byState.get(state));
+    return pending;
+  }
+
+  /** @return the orders in any of the PENDING states for the market and portfolio */
+  public List<Order> getPendingOrders(Market market, Portfolio portfolio) {
+    List<Order> pending = new ArrayList<Order>();
+    Set<Order> orders = byMarket.get(market);
+    if (orders != null)
+      for (Order order : orders) {
+        OrderState state = states.get(order);
+        if (state != null && PENDING.contains(state) && portfolio.equals(order.getPortfolio()))
+          pending.add(order);
+      }
+    return pending;
+  }
+
+  /** @return the orders of the portfolio which are not yet in a terminal state */
+  public Collection<Order> getOrders(Portfolio portfolio) {
+    Set<Order> orders = byPortfolio.get(portfolio);
+    return orders == null ? Collections.<Order> emptySet() : Collections.unmodifiableSet(orders);
+  }
+
+  /** @return a live view of the orders which are not yet in a terminal state, and their states */
+  public Map<Order, OrderState> getStates() {
+    return Collections.unmodifiableMap(states);
+  }
+
+  /** @return the orders which are not yet in a terminal state, followed by the archived orders, oldest first */
+  public List<Order> getOrders() {
+    List<Order> orders = new ArrayList<Order>(states.keySet());
+    synchronized (archive) {
+      for (Archived archived : archive.values())
+        orders.add(archived.order);
+    }
+    return orders;
+  }
+
+  /** @return true once an order has dropped out of the archive, after which getOrders() no longer returns every order this store has seen */
+  public boolean hasEvicted() {
+    return evicted;
+  }
+
+  private Archived getArchived(UUID id) {
+    synchronized (archive) {
+      return archive.get(id);
+    }
+  }
+
+  private void index(Order order) {
+    byId.put(order.getId(), order);
+    if (order.getMarket() != null)
+      indexUnder(byMarket, order.getMarket(), order);
+    if (order.getPortfolio() != null)
+      indexUnder(byPortfolio, order.getPortfolio(), order);
+  }
+
+  private void unindex(Order order) {
+    byId.remove(order.getId());
+    if (order.getMarket() != null)
+      unindexUnder(byMarket, order.getMarket(), order);
+    if (order.getPortfolio() != null)
+      unindexUnder(byPortfolio, order.getPortfolio(), order);
+  }
+
+  private static <K> void indexUnder(Map<K, Set<Order>> index, K key, Order order) {
+    Set<Order> orders = index.get(key);
+    if (orders == null) {
+      orders = Collections.newSetFromMap(new ConcurrentHashMap<Order, Boolean>());
+      index.put(key, orders);
+    }
+    orders.add(order);
+  }
+
+  private static <K> void unindexUnder(Map<K, Set<Order>> index, K key, Order order) {
+    Set<Order> orders = index.get(key);
+    if (orders != null) {
+      orders.remove(order);
+      if (orders.isEmpty())
+        index.remove(key);
+    }
+  }
+
+  private static class Archived {
+
+    Archived(Order order, OrderState state) {
+      this.order = order;
+      this.state = state;
+    }
+
+    private final Order order;
+    private final OrderState state;
+  }
+
+  private final Map<Order, OrderState> states = new ConcurrentHashMap<Order, OrderState>();
+  private final Map<UUID, Order> byId = new ConcurrentHashMap<UUID, Order>();
+  private final Map<OrderState, Set<Order>> byState = new EnumMap<OrderState, Set<Order>>(OrderState.class);
+  private final Map<Market, Set<Order>> byMarket = new ConcurrentHashMap<Market, Set<Order>>();
+  private final Map<Portfolio, Set<Order>> byPortfolio = new ConcurrentHashMap<Portfolio, Set<Order>>();
+  // access order would have a get modify the map, so an order is archived, and evicted, in the order it reached its terminal state
+  private final LinkedHashMap<UUID, Archived> archive;
+  private volatile boolean evicted;
+
+}
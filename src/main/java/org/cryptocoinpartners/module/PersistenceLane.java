@@ -0,0 +1,320 @@
+package org.cryptocoinpartners.module;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.cryptocoinpartners.enumeration.PersistanceAction;
+import org.cryptocoinpartners.schema.EntityBase;
+import org.cryptocoinpartners.schema.Fill;
+import org.cryptocoinpartners.schema.Holding;
+import org.cryptocoinpartners.schema.MarketData;
+import org.cryptocoinpartners.schema.Order;
+import org.cryptocoinpartners.schema.OrderUpdate;
+import org.cryptocoinpartners.schema.Portfolio;
+import org.cryptocoinpartners.schema.Position;
+import org.cryptocoinpartners.schema.Transaction;
+import org.cryptocoinpartners.util.Injector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A PersistenceLane writes the entities of a set of types with its own writer threads, so a busy type such as Book cannot hold up the writes
+ * of another lane's Orders and Fills.
+ *
+ * Each writer thread owns a partition of the lane with its own queue, and every entity is routed to a partition by its aggregate key: the
+ * Portfolio, the root Order, the Market, or the entity itself. All the writes for one aggregate are therefore made by one thread in the order
+ * they were queued, so a Fill is never written before its Order when both are in the same lane and keyed the same way.
+ *
+ * A writer drains its queue in batches of up to batchSize entities, waiting at most batchLatency milliseconds for a batch to fill, and writes
+ * the batch as groups of one entity type and action, one transaction per group. An entity joins an earlier group of its type only if no
+ * group written after that one holds an entity of the same aggregate, so grouping never reorders writes within an aggregate.
+ */
+public class PersistenceLane {
+  protected static Logger log = LoggerFactory.getLogger("org.cryptocoinpartners.persistenceLane");
+
+  public enum AggregateKey {
+    /** the Portfolio of an Order, Fill, OrderUpdate, Transaction or Position */
+    PORTFOLIO,
+    /** the root parent Order of an Order, or of the Order of a Fill, OrderUpdate or Transaction */
+    ORDER,
+    /** the Market of a Book, Trade or Bar */
+    MARKET,
+    /** the entity itself */
+    ID;
+
+    Object of(EntityBase entity) {
+      Object key = null;
+      switch (this) {
+        case PORTFOLIO:
+          key = portfolioOf(entity);
+          break;
+        case ORDER:
+          key = orderOf(entity);
+          break;
+        case MARKET:
+          key = entity instanceof MarketData && ((MarketData) entity).getMarket() != null ? ((MarketData) entity).getMarket().getSymbol() : null;
+          break;
+        default:
+          break;
+      }
+      return key != null ? key : entity.getId();
+    }
+
+    private static Object portfolioOf(EntityBase entity) {
+      Portfolio portfolio = null;
+      if (entity instanceof Portfolio)
+        portfolio = (Portfolio) entity;
+      else if (entity instanceof Order)
+        portfolio = ((Order) entity).getPortfolio();
+      else if (entity instanceof Fill)
+        portfolio = ((Fill) entity).getPortfolio();
+      else if (entity instanceof OrderUpdate)
+        portfolio = ((OrderUpdate) entity).getOrder() != null ? ((OrderUpdate) entity).getOrder().getPortfolio() : null;
+      else if (entity instanceof Transaction)
+        portfolio = ((Transaction) entity).getPortfolio();
+      else if (entity instanceof Holding)
+        // of the Holdings only a Position belongs to a Portfolio; a Balance belongs to its Exchange and is keyed by itself
+        portfolio = entity instanceof Position ? ((Position) entity).getPortfolio() : null;
+      return portfolio == null ? null : portfolio.getId();
+    }
+
+    private static Object orderOf(EntityBase entity) {
+      Order order = null;
+      if (entity instanceof Order)
+        order = (Order) entity;
+      else if (entity instanceof Fill)
+        order = ((Fill) entity).getOrder();
+      else if (entity instanceof OrderUpdate)
+        order = ((OrderUpdate) entity).getOrder();
+      else if (entity instanceof Transaction)
+        order = ((Transaction) entity).getOrder() != null ? ((Transaction) entity).getOrder() : ((Transaction) entity).getFill() != null
+            ? ((Transaction) entity).getFill().getOrder() : null;
+      if (order == null)
+        return null;
+      while (order.getParentOrder() != null && order.getParentOrder() != order)
+        order = order.getParentOrder();
+      return order.getId();
+    }
+  }
+
+  public PersistenceLane(String name, int threads, AggregateKey aggregateKey, int queueSize, int batchSize, long batchLatency) {
+    this.name = name;
+    this.aggregateKey = aggregateKey;
+    this.batchSize = batchSize;
+    this.batchLatency = batchLatency;
+    partitions = new Partition[Math.max(threads, 1)];
+    for (int i = 0; i < partitions.length; i++)
+      partitions[i] = new Partition(Math.max(queueSize / partitions.length, batchSize));
+    writers = Executors.newFixedThreadPool(partitions.length);
+  }
+
+  public void start() {
+    for (Partition partition : partitions)
+      writers.submit(partition);
+  }
+
+  /** queues entity for writing, waiting while its partition's queue is full */
+  public void enqueue(EntityBase entity) {
+    Partition partition = partitionFor(entity);
+    if (partition.queue.offer(entity))
+      return;
+    backPressureWaits.incrementAndGet();
+    log.debug(name + " write behind queue full, waiting to queue " + entity.getClass().getSimpleName() + " " + entity.getId());
+    try {
+      partition.queue.put(entity);
+    } catch (InterruptedException e) {
+      // don't lose the write
+      partition.retries.add(entity);
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** queues an entity the writers failed to write for another attempt, without blocking */
+  public void requeue(EntityBase entity) {
+    partitionFor(entity).retries.add(entity);
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public int getThreads() {
+    return partitions.length;
+  }
+
+  public AggregateKey getAggregateKey() {
+    return aggregateKey;
+  }
+
+  /** @return the number of entities waiting to be written */
+  public int getQueueDepth() {
+    int depth = 0;
+    for (Partition partition : partitions)
+      depth += partition.queue.size() + partition.retries.size();
+    return depth;
+  }
+
+  /** @return the number of times a caller waited for room in the queue */
+  public long getBackPressureWaits() {
+    return backPressureWaits.get();
+  }
+
+  /** @return the number of transactions the writers have committed */
+  public long getCommitCount() {
+    return commitCount.get();
+  }
+
+  public long getCommittedEntityCount() {
+    return committedEntityCount.get();
+  }
+
+  public long getCommitNanos() {
+    return commitNanos.get();
+  }
+
+  public long getMaxCommitNanos() {
+    return maxCommitNanos.get();
+  }
+
+  @Override
+  public String toString() {
+    return name + " lane: " + partitions.length + " threads by " + aggregateKey + ", " + getQueueDepth() + " queued, " + commitCount.get()
+        + " commits";
+  }
+
+  private Partition partitionFor(EntityBase entity) {
+    return partitions[(aggregateKey.of(entity).hashCode() & Integer.MAX_VALUE) % partitions.length];
+  }
+
+  private class Partition implements Runnable {
+
+    Partition(int queueSize) {
+      queue = new LinkedBlockingQueue<EntityBase>(queueSize);
+    }
+
+    @Override
+    public void run() {
+      List<EntityBase> batch = new ArrayList<EntityBase>(batchSize);
+      while (!Thread.currentThread().isInterrupted())
+        try {
+          if (!fill(batch))
+            continue;
+          for (Map.Entry<Map.Entry<Class<?>, PersistanceAction>, List<EntityBase>> group : group(batch))
+            write(group.getKey().getValue(), group.getValue());
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        } catch (Throwable e) {
+          log.error(" " + name + " lane:run, full stack trace follows:", e);
+        } finally {
+          batch.clear();
+        }
+    }
+
+    /** @return false if nothing arrived within the batch latency */
+    private boolean fill(List<EntityBase> batch) throws InterruptedException {
+      for (EntityBase retry = retries.poll(); retry != null && batch.size() < batchSize; retry = retries.poll())
+        batch.add(retry);
+      if (batch.isEmpty()) {
+        EntityBase first = queue.poll(batchLatency, TimeUnit.MILLISECONDS);
+        if (first == null)
+          return false;
+        batch.add(first);
+      }
+      long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(batchLatency);
+      while (batch.size() < batchSize) {
+        queue.drainTo(batch, batchSize - batch.size());
+        long wait = deadline - System.nanoTime();
+        if (batch.size() == batchSize || wait <= 0)
+          break;
+        EntityBase next = queue.poll(wait, TimeUnit.NANOSECONDS);
+        if (next == null)
+          break;
+        batch.add(next);
+      }
+      return true;
+    }
+
+    private List<Map.Entry<Map.Entry<Class<?>, PersistanceAction>, List<EntityBase>>> group(List<EntityBase> batch) {
+      List<Map.Entry<Map.Entry<Class<?>, PersistanceAction>, List<EntityBase>>> groups = new ArrayList<>();
+      Map<Map.Entry<Class<?>, PersistanceAction>, Integer> lastGroupOfType = new LinkedHashMap<>();
+      Map<Object, Integer> lastGroupOfAggregate = new HashMap<>();
+      for (EntityBase entity : batch) {
+        if (entity.getDao() == null)
+          Injector.root().getInjector().injectMembers(entity);
+        if (entity.getDao() == null) {
+          log.error(name + " lane:group - No DAO defined for " + entity.getClass().getSimpleName() + " " + entity.getId());
+          continue;
+        }
+        PersistanceAction action = entity.getPeristanceAction() == null ? PersistanceAction.MERGE : entity.getPeristanceAction();
+        Map.Entry<Class<?>, PersistanceAction> type = new AbstractMap.SimpleImmutableEntry<Class<?>, PersistanceAction>(entity.getClass(), action);
+        Object aggregate = aggregateKey.of(entity);
+        Integer index = lastGroupOfType.get(type);
+        Integer floor = lastGroupOfAggregate.get(aggregate);
+        if (index == null || (floor != null && index < floor)) {
+          index = groups.size();
+          groups.add(new AbstractMap.SimpleImmutableEntry<Map.Entry<Class<?>, PersistanceAction>, List<EntityBase>>(type,
+              new ArrayList<EntityBase>()));
+          lastGroupOfType.put(type, index);
+        }
+        groups.get(index).getValue().add(entity);
+        lastGroupOfAggregate.put(aggregate, index);
+      }
+      return groups;
+    }
+
+    private void write(PersistanceAction action, List<EntityBase> group) {
+      EntityBase[] entities = group.toArray(new EntityBase[group.size()]);
+      long start = System.nanoTime();
+      switch (action) {
+        case NEW:
+          entities[0].getDao().persistBatch(entities);
+          break;
+        case DELETE:
+          for (EntityBase entity : entities)
+            try {
+              entity.getDao().deleteEntities(entity);
+            } catch (Throwable e) {
+              log.error(" " + name + " lane:write, " + entity + " full stack trace follows:", e);
+            }
+          break;
+        default:
+          entities[0].getDao().mergeBatch(entities);
+          break;
+      }
+      long latency = System.nanoTime() - start;
+      commitCount.incrementAndGet();
+      committedEntityCount.addAndGet(entities.length);
+      commitNanos.addAndGet(latency);
+      for (long max = maxCommitNanos.get(); latency > max && !maxCommitNanos.compareAndSet(max, latency); max = maxCommitNanos.get())
+        ;
+      log.trace(name + " lane:write - wrote " + entities.length + " " + entities[0].getClass().getSimpleName() + " " + action + " in "
+          + latency / 1000 + "us, " + getQueueDepth() + " queued");
+    }
+
+    private final LinkedBlockingQueue<EntityBase> queue;
+    // entities the writers put back for another attempt; unbounded, so a writer never blocks on the queue it drains
+    private final ConcurrentLinkedQueue<EntityBase> retries = new ConcurrentLinkedQueue<EntityBase>();
+  }
+
+  private final String name;
+  private final AggregateKey aggregateKey;
+  private final int batchSize;
+  private final long batchLatency;
+  private final Partition[] partitions;
+  private final ExecutorService writers;
+  private final AtomicLong commitCount = new AtomicLong();
+  private final AtomicLong committedEntityCount = new AtomicLong();
+  private final AtomicLong commitNanos = new AtomicLong();
+  private final AtomicLong maxCommitNanos = new AtomicLong();
+  private final AtomicLong backPressureWaits = new AtomicLong();
+}
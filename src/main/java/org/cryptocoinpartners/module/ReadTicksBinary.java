@@ -0,0 +1,146 @@
+package org.cryptocoinpartners.module;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.configuration.Configuration;
+import org.apache.commons.lang.StringUtils;
+import org.cryptocoinpartners.schema.Book;
+import org.cryptocoinpartners.schema.BookFactory;
+import org.cryptocoinpartners.schema.Exchange;
+import org.cryptocoinpartners.schema.Listing;
+import org.cryptocoinpartners.schema.Market;
+import org.cryptocoinpartners.schema.TradeFactory;
+import org.cryptocoinpartners.util.TickFile;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Instant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ Replays the TickFiles under readticksbinary.dir into the Context, as ReadTicksCsv does a csv file: for each record a one level Book and a
+ Trade, the files merged in time order. Records are read straight from the mapped files and their counts used as they are, so nothing is
+ parsed, and only the records from readticksbinary.start up to readticksbinary.end are read.
+ */
+@SuppressWarnings("UnusedDeclaration")
+@Singleton
+public class ReadTicksBinary {
+
+    @Inject
+    public ReadTicksBinary(Context context, Configuration config, TradeFactory tradeFactory, BookFactory bookFactory) {
+        final String dirname = config.getString("readticksbinary.dir");
+        if (!StringUtils.isNotBlank(dirname))
+            throw new ConfigurationError("You must set the property readticksbinary.dir");
+        File[] files = new File(dirname).listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(TickFile.SUFFIX);
+            }
+        });
+        if (files == null)
+            throw new ConfigurationError("Could not read directory " + dirname);
+        long start = time(config.getString("readticksbinary.start", null), Long.MIN_VALUE);
+        long end = time(config.getString("readticksbinary.end", null), Long.MAX_VALUE);
+
+        PriorityQueue<Cursor> cursors = new PriorityQueue<>(Math.max(1, files.length), timeComparator);
+        try {
+            for (File file : files) {
+                Cursor cursor = new Cursor(new TickFile.Reader(file));
+                cursor.reader.seek(start);
+                if (cursor.reader.next() && cursor.reader.getTime() < end)
+                    cursors.add(cursor);
+                else
+                    cursor.reader.close();
+            }
+            long events = 0;
+            while (!cursors.isEmpty()) {
+                Cursor cursor = cursors.poll();
+                publish(cursor, context, tradeFactory, bookFactory);
+                events++;
+                if (cursor.reader.next() && cursor.reader.getTime() < end)
+                    cursors.add(cursor);
+                else
+                    cursor.reader.close();
+            }
+            log.info("Read " + events + " ticks from " + files.length + " files in " + dirname);
+        } catch (IOException e) {
+            throw new ConfigurationError("Could not read tick files in " + dirname + ": " + e.getMessage());
+        } finally {
+            for (Cursor cursor : cursors)
+                try {
+                    cursor.reader.close();
+                } catch (IOException e) {
+                    log.warn(e.getMessage(), e);
+                }
+        }
+    }
+
+    private void publish(Cursor cursor, Context context, TradeFactory tradeFactory, BookFactory bookFactory) {
+        TickFile.Reader reader = cursor.reader;
+        Market market = cursor.getMarket();
+        Instant instant = new Instant(reader.getTime());
+        Book book = bookFactory.create(instant, market);
+        if (reader.getBidPriceCount() != TickFile.NONE)
+            book.getBidSide().add(cursor.price(reader.getBidPriceCount()), cursor.volume(reader.getBidVolumeCount()));
+        if (reader.getAskPriceCount() != TickFile.NONE)
+            book.getAskSide().add(cursor.price(reader.getAskPriceCount()), cursor.volume(reader.getAskVolumeCount()));
+        book.build(chains);
+        context.publish(book);
+        context.publish(tradeFactory.create(market, instant, null, cursor.price(reader.getPriceCount()), cursor.volume(reader.getVolumeCount())));
+    }
+
+    private static long time(String time, long otherwise) {
+        if (StringUtils.isBlank(time))
+            return otherwise;
+        return new DateTime(time, DateTimeZone.UTC).getMillis();
+    }
+
+    /** a file being read, and the market its records belong to */
+    private static class Cursor {
+
+        Cursor(TickFile.Reader reader) {
+            this.reader = reader;
+        }
+
+        Market getMarket() {
+            if (market == null) {
+                market = Market.findOrCreate(Exchange.forSymbolOrCreate(reader.getExchange()), Listing.forSymbol(reader.getListing()));
+                priceScale = reader.getPriceBasis() / market.getPriceBasis();
+                volumeScale = reader.getVolumeBasis() / market.getVolumeBasis();
+            }
+            return market;
+        }
+
+        /** the count in the market's price basis, which is the file's unless the market's basis has changed since it was written */
+        long price(long count) {
+            return priceScale == 1 ? count : Math.round(count * priceScale);
+        }
+
+        long volume(long count) {
+            return volumeScale == 1 ? count : Math.round(count * volumeScale);
+        }
+
+        private final TickFile.Reader reader;
+        private Market market;
+        private double priceScale = 1;
+        private double volumeScale = 1;
+    }
+
+    private static final Comparator<Cursor> timeComparator = new Comparator<Cursor>() {
+        @Override
+        public int compare(Cursor cursor, Cursor cursor2) {
+            return Long.compare(cursor.reader.getTime(), cursor2.reader.getTime());
+        }
+    };
+
+    private final Book.Chains chains = new Book.Chains();
+    protected static Logger log = LoggerFactory.getLogger("org.cryptocoinpartners.tickReader");
+
+}
@@ -46,6 +46,7 @@ public class ReadTicksCsv {
     private Market market;
     private CurrencyPair pair;
     private final Book.Builder bookBuilder = new Book.Builder();
+    private final Book.Chains chains = new Book.Chains();
     private final SaveMarketData dbPersistance = new SaveMarketData();;
 
     @Inject
@@ -111,7 +112,7 @@ public class ReadTicksCsv {
                 book.addBid(BigDecimal.valueOf(csvtrade.getBidprice1()), BigDecimal.valueOf(csvtrade.getBidvol1()));
                 book.addAsk(BigDecimal.valueOf(csvtrade.getAskprice1()), BigDecimal.valueOf(csvtrade.getAskvol1()));
 
-                book.build();
+                book.build(chains);
                 context.publish(book);
                 context.publish(trade);
 
@@ -0,0 +1,90 @@
+package org.cryptocoinpartners.module;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.configuration.Configuration;
+import org.apache.commons.lang.StringUtils;
+import org.cryptocoinpartners.esper.annotation.When;
+import org.cryptocoinpartners.schema.Book;
+import org.cryptocoinpartners.schema.Market;
+import org.cryptocoinpartners.schema.Tick;
+import org.cryptocoinpartners.util.TickFile;
+import org.slf4j.Logger;
+
+/**
+ Saves Ticks as SaveTicksCsv does, but to a TickFile per market under saveticksbinary.dir, appending to the files already there. Each Tick is
+ written as its last trade and the best bid and ask of its last book.
+ */
+@SuppressWarnings("UnusedDeclaration")
+@Singleton
+public class SaveTicksBinary {
+
+    @Inject
+    public SaveTicksBinary(Context context, Configuration config) {
+        final String dirname = config.getString("saveticksbinary.dir");
+        if (!StringUtils.isNotBlank(dirname))
+            throw new ConfigurationError("You must set the property saveticksbinary.dir");
+        dir = new File(dirname);
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new ConfigurationError("Could not create directory " + dirname);
+        allowNa = config.getBoolean("saveticksbinary.na", false);
+        chunkRecords = config.getInt("saveticksbinary.chunkRecords", 1 << 16);
+    }
+
+    @When("select * from Tick")
+    public void saveTick(Tick t) {
+        if (!allowNa) {
+            if (t.getLastBook() == null)
+                return;
+        }
+        if (!t.getMarket().isSynthetic() && t.getPriceCount() != null) {
+            Market market = (Market) t.getMarket();
+            Book book = t.getLastBook();
+            boolean bids = book != null && !book.getBidSide().isEmpty();
+            boolean asks = book != null && !book.getAskSide().isEmpty();
+            try {
+                writerFor(market).append(t.getTime().getMillis(), t.getPriceCount(), t.getVolumeCount() == null ? 0 : t.getVolumeCount(),
+                        bids ? book.getBestBidPriceCount() : TickFile.NONE, bids ? book.getBestBidVolumeCount() : 0,
+                        asks ? book.getBestAskPriceCount() : TickFile.NONE, asks ? book.getBestAskVolumeCount() : 0);
+            } catch (IOException e) {
+                log.warn(e.getMessage(), e);
+            }
+        }
+    }
+
+    /** forces the ticks saved to disk and closes the files; ticks are not lost if this is not called, as each is written to the page cache */
+    public synchronized void close() {
+        for (TickFile.Writer writer : writers.values())
+            try {
+                writer.close();
+            } catch (IOException e) {
+                log.warn(e.getMessage(), e);
+            }
+        writers.clear();
+    }
+
+    private synchronized TickFile.Writer writerFor(Market market) throws IOException {
+        TickFile.Writer writer = writers.get(market);
+        if (writer == null) {
+            String exchange = market.getExchange().getSymbol();
+            String listing = market.getListing().getSymbol();
+            writer = new TickFile.Writer(TickFile.fileFor(dir, exchange, listing), exchange, listing, market.getPriceBasis(),
+                    market.getVolumeBasis(), chunkRecords);
+            writers.put(market, writer);
+        }
+        return writer;
+    }
+
+    @Inject
+    public Logger log;
+    private final File dir;
+    private final boolean allowNa;
+    private final int chunkRecords;
+    private final Map<Market, TickFile.Writer> writers = new HashMap<>();
+}
@@ -0,0 +1,102 @@
+package org.cryptocoinpartners.module;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts the invocations of one subscriber method bound to an Esper statement, and keeps a histogram of how long they took in power of two
+ * nanosecond buckets, so a slow subscriber stands out.
+ */
+public class SubscriberStats {
+
+    private static final int BUCKETS = 64;
+
+    public SubscriberStats(String subscriber, String statement) {
+        this.subscriber = subscriber;
+        this.statement = statement;
+    }
+
+    void record(long nanos) {
+        invocations.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        histogram.incrementAndGet(bucket(nanos));
+        for (long max = maxNanos.get(); nanos > max && !maxNanos.compareAndSet(max, nanos); max = maxNanos.get())
+            ;
+    }
+
+    void count() {
+        invocations.incrementAndGet();
+    }
+
+    public String getSubscriber() {
+        return subscriber;
+    }
+
+    public String getStatement() {
+        return statement;
+    }
+
+    public long getInvocations() {
+        return invocations.get();
+    }
+
+    public long getTotalNanos() {
+        return totalNanos.get();
+    }
+
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    public long getMeanNanos() {
+        long timed = getTimedInvocations();
+        return timed == 0 ? 0 : totalNanos.get() / timed;
+    }
+
+    /** @return the upper bound of the histogram bucket holding the given percentile of timed invocations, or 0 if none were timed */
+    public long getPercentileNanos(double percentile) {
+        long timed = getTimedInvocations();
+        if (timed == 0)
+            return 0;
+        long rank = (long) Math.ceil(timed * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += histogram.get(i);
+            if (seen >= Math.max(rank, 1))
+                return i == BUCKETS - 1 ? Long.MAX_VALUE : (1L << i) - 1;
+        }
+        return maxNanos.get();
+    }
+
+    /** @return the number of invocations in each bucket, where bucket i holds the times below 2^i nanoseconds */
+    public long[] getHistogram() {
+        long[] result = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++)
+            result[i] = histogram.get(i);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return subscriber + ": " + invocations.get() + " invocations, mean " + getMeanNanos() / 1000 + "us, p99 < " + getPercentileNanos(99) / 1000
+                + "us, max " + maxNanos.get() / 1000 + "us for " + statement;
+    }
+
+    private long getTimedInvocations() {
+        long timed = 0;
+        for (int i = 0; i < BUCKETS; i++)
+            timed += histogram.get(i);
+        return timed;
+    }
+
+    private static int bucket(long nanos) {
+        return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(Math.max(nanos, 0)));
+    }
+
+    private final String subscriber;
+    private final String statement;
+    private final AtomicLong invocations = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+    private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+}
@@ -0,0 +1,256 @@
+package org.cryptocoinpartners.module;
+
+import java.math.BigDecimal;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.cryptocoinpartners.schema.Amount;
+import org.cryptocoinpartners.schema.Order;
+import org.joda.time.Instant;
+
+/**
+ * A TriggerOrderList holds the resting trigger orders of one market, interval and side, and indexes them by stop price, target price and
+ * expiry time, so a new bid or ask only has to visit the orders it crosses instead of every resting order.
+ *
+ * It is a List so the existing callers can keep adding, removing and iterating the orders as before; callers synchronize on the list. An order
+ * is held at most once. The index is keyed on the prices an order had when it was added, so an order whose stop or target price changes must
+ * be re-keyed with rekey(), or the whole list with reorder().
+ */
+public class TriggerOrderList extends AbstractList<Order> implements RandomAccess {
+
+  /** @return the orders with a stop price at or below the price, lowest first, followed by those with a target price at or above it */
+  public List<Order> getBuysCrossedBy(Amount price) {
+    BigDecimal key = price.asBigDecimal();
+    return crossed(stops.headMap(key, true), targets.tailMap(key, true));
+  }
+
+  /** @return the orders with a stop price at or above the price, highest first, followed by those with a target price at or below it */
+  public List<Order> getSellsCrossedBy(Amount price) {
+    BigDecimal key = price.asBigDecimal();
+    return crossed(stops.tailMap(key, true).descendingMap(), targets.headMap(key, true).descendingMap());
+  }
+
+  /** @return the orders which expired before the time */
+  public List<Order> getExpiredBy(Instant time) {
+    List<Order> expired = new ArrayList<Order>();
+    for (Set<Order> level : expiries.headMap(time.getMillis(), false).values())
+      expired.addAll(level);
+    return expired;
+  }
+
+  /** re-indexes an order after its stop or target price has changed */
+  public void rekey(Order order) {
+    if (keys.containsKey(order)) {
+      unindex(order);
+      index(order);
+    }
+  }
+
+  /** sorts the orders and re-indexes those whose prices have changed */
+  public void reorder(Comparator<Order> comparator) {
+    Collections.sort(orders, comparator);
+    for (Order order : orders)
+      if (!new Key(order).equals(keys.get(order))) {
+        unindex(order);
+        index(order);
+      }
+  }
+
+  @Override
+  public Order get(int index) {
+    return orders.get(index);
+  }
+
+  @Override
+  public int size() {
+    return orders.size();
+  }
+
+  @Override
+  public boolean contains(Object order) {
+    return keys.containsKey(order);
+  }
+
+  @Override
+  public boolean add(Order order) {
+    if (order == null || keys.containsKey(order))
+      return false;
+    orders.add(order);
+    index(order);
+    modCount++;
+    return true;
+  }
+
+  @Override
+  public void add(int position, Order order) {
+    if (order == null || keys.containsKey(order))
+      return;
+    orders.add(position, order);
+    index(order);
+    modCount++;
+  }
+
+  @Override
+  public Order set(int position, Order order) {
+    Order replaced = orders.get(position);
+    if (replaced.equals(order))
+      return orders.set(position, order);
+    if (keys.containsKey(order))
+      throw new IllegalArgumentException("order " + order.getId() + " is already held");
+    orders.set(position, order);
+    unindex(replaced);
+    index(order);
+    return replaced;
+  }
+
+  @Override
+  public Order remove(int position) {
+    Order removed = orders.remove(position);
+    unindex(removed);
+    modCount++;
+    return removed;
+  }
+
+  @Override
+  public boolean remove(Object order) {
+    if (!keys.containsKey(order))
+      return false;
+    orders.remove(order);
+    unindex((Order) order);
+    modCount++;
+    return true;
+  }
+
+  @Override
+  public boolean removeAll(Collection<?> removals) {
+    Set<Object> removed = new HashSet<Object>();
+    for (Object order : removals)
+      if (keys.containsKey(order))
+        removed.add(order);
+    if (removed.isEmpty())
+      return false;
+    for (Iterator<Order> it = orders.iterator(); it.hasNext();) {
+      Order order = it.next();
+      if (removed.contains(order)) {
+        it.remove();
+        unindex(order);
+      }
+    }
+    modCount++;
+    return true;
+  }
+
+  @Override
+  public void clear() {
+    orders.clear();
+    clearIndex();
+    modCount++;
+  }
+
+  private static List<Order> crossed(Map<BigDecimal, Set<Order>> stopLevels, Map<BigDecimal, Set<Order>> targetLevels) {
+    if (stopLevels.isEmpty() && targetLevels.isEmpty())
+      return Collections.emptyList();
+    // an order with both a stop and a target price can be crossed on both, but is returned once
+    Set<Order> crossed = new LinkedHashSet<Order>();
+    for (Set<Order> level : stopLevels.values())
+      crossed.addAll(level);
+    for (Set<Order> level : targetLevels.values())
+      crossed.addAll(level);
+    return new ArrayList<Order>(crossed);
+  }
+
+  private void index(Order order) {
+    Key key = new Key(order);
+    keys.put(order, key);
+    if (key.stop != null)
+      put(stops, key.stop, order);
+    if (key.target != null)
+      put(targets, key.target, order);
+    if (key.expiry != null)
+      put(expiries, key.expiry, order);
+  }
+
+  private void unindex(Order order) {
+    Key key = keys.remove(order);
+    if (key == null)
+      return;
+    if (key.stop != null)
+      take(stops, key.stop, order);
+    if (key.target != null)
+      take(targets, key.target, order);
+    if (key.expiry != null)
+      take(expiries, key.expiry, order);
+  }
+
+  private void clearIndex() {
+    keys.clear();
+    stops.clear();
+    targets.clear();
+    expiries.clear();
+  }
+
+  private static <K> void put(NavigableMap<K, Set<Order>> levels, K key, Order order) {
+    Set<Order> level = levels.get(key);
+    if (level == null) {
+      level = new LinkedHashSet<Order>();
+      levels.put(key, level);
+    }
+    level.add(order);
+  }
+
+  private static <K> void take(NavigableMap<K, Set<Order>> levels, K key, Order order) {
+    Set<Order> level = levels.get(key);
+    if (level != null && level.remove(order) && level.isEmpty())
+      levels.remove(key);
+  }
+
+  /** the prices and expiry an order was indexed under */
+  private static class Key {
+
+    Key(Order order) {
+      stop = order.getStopPrice() == null ? null : order.getStopPrice().asBigDecimal();
+      target = order.getTargetPrice() == null ? null : order.getTargetPrice().asBigDecimal();
+      expiry = order.getExpiryTime() == null ? null : order.getExpiryTime().getMillis();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key))
+        return false;
+      Key key = (Key) o;
+      return same(stop, key.stop) && same(target, key.target) && (expiry == null ? key.expiry == null : expiry.equals(key.expiry));
+    }
+
+    @Override
+    public int hashCode() {
+      return expiry == null ? 0 : expiry.hashCode();
+    }
+
+    private static boolean same(BigDecimal price, BigDecimal other) {
+      return price == null ? other == null : other != null && price.compareTo(other) == 0;
+    }
+
+    private final BigDecimal stop;
+    private final BigDecimal target;
+    private final Long expiry;
+  }
+
+  private final List<Order> orders = new ArrayList<Order>();
+  private final Map<Order, Key> keys = new HashMap<Order, Key>();
+  private final NavigableMap<BigDecimal, Set<Order>> stops = new TreeMap<BigDecimal, Set<Order>>();
+  private final NavigableMap<BigDecimal, Set<Order>> targets = new TreeMap<BigDecimal, Set<Order>>();
+  private final NavigableMap<Long, Set<Order>> expiries = new TreeMap<Long, Set<Order>>();
+}
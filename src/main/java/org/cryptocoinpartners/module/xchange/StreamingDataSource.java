@@ -0,0 +1,61 @@
+package org.cryptocoinpartners.module.xchange;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+
+import javax.annotation.Nullable;
+
+import org.apache.commons.configuration.Configuration;
+import org.cryptocoinpartners.schema.BookSide;
+import org.cryptocoinpartners.schema.Exchange;
+import org.cryptocoinpartners.schema.Market;
+import org.cryptocoinpartners.schema.Side;
+import org.joda.time.Instant;
+
+/**
+ * You may implement this interface to push an exchange's market data to XchangeData from a streaming feed, such as a WebSocket, instead of
+ * having it polled. Set the class name of your source in the module configuration using the key:<br/>
+ * xchange.<marketname>.streaming.config.class=com.foo.bar.MySource<br/>
+ * if you leave out the package name it is assumed to be the same as the XchangeData class (i.e. the xchange module package). The class needs a
+ * public no-argument constructor.
+ * <p>
+ * The source calls the Listener from its own threads, with the messages of each market in the order the exchange sent them. Sequence numbers
+ * are the exchange's, and must increase by one from each book message of a market to the next, so that a dropped message can be detected; a
+ * feed without them should number its messages itself as it receives them. When a market's stream fails the source calls onDisconnected, and
+ * XchangeData polls that market instead.
+ */
+public interface StreamingDataSource {
+
+  interface Listener {
+
+    /**
+     * @param sequence the exchange's sequence number for the market's trades, or 0 if the feed does not number them
+     * @param volume negative for a sell
+     */
+    void onTrade(Market market, long sequence, Instant time, @Nullable String remoteKey, BigDecimal price, BigDecimal volume);
+
+    /** replaces the market's book with a full one, e.g. on subscribing or after requestSnapshot() */
+    void onBookSnapshot(Market market, long sequence, Instant time, BookSide bids, BookSide asks);
+
+    /**
+     * sets the total volume at one price
+     *
+     * @param volume the unsigned volume at the price, as exchanges quote it, or zero if the level was removed
+     */
+    void onBookDelta(Market market, long sequence, Instant time, Side side, BigDecimal price, BigDecimal volume);
+
+    void onDisconnected(Market market, @Nullable Exception cause);
+  }
+
+  /**
+   * connects to the exchange and subscribes to the trades and books of the markets
+   *
+   * @param prefix the configuration prefix of the exchange, e.g. "xchange.bitfinex.", for the source's own settings
+   */
+  void start(Exchange exchange, Collection<Market> markets, Configuration config, String prefix, Listener listener) throws Exception;
+
+  /** asks the feed to send a fresh onBookSnapshot for the market, after a gap in its sequence */
+  void requestSnapshot(Market market) throws Exception;
+
+  void stop();
+}
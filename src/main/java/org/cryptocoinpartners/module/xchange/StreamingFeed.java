@@ -0,0 +1,224 @@
+package org.cryptocoinpartners.module.xchange;
+
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nullable;
+
+import org.cryptocoinpartners.module.Context;
+import org.cryptocoinpartners.schema.BookFactory;
+import org.cryptocoinpartners.schema.BookSide;
+import org.cryptocoinpartners.schema.BookUpdate;
+import org.cryptocoinpartners.schema.Event;
+import org.cryptocoinpartners.schema.LiveBook;
+import org.cryptocoinpartners.schema.Market;
+import org.cryptocoinpartners.schema.MarketDataGapError;
+import org.cryptocoinpartners.schema.Side;
+import org.cryptocoinpartners.schema.TradeFactory;
+import org.joda.time.Duration;
+import org.joda.time.Instant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * StreamingFeed receives the messages of a StreamingDataSource, applies them to the markets' LiveBooks and publishes the resulting Trades,
+ * BookUpdates and throttled Book snapshots, as the polling FetchTradesRunnable does.
+ * <p>
+ * Book messages must carry consecutive sequence numbers. When one is missing, a MarketDataGapError is published for the time the gap spans,
+ * the deltas which follow are held back, and a fresh snapshot is requested; once it arrives the held deltas newer than it are applied. If the
+ * snapshot cannot be requested, or too many deltas pile up waiting for it, or the stream disconnects, the market falls back to polling.
+ */
+public class StreamingFeed implements StreamingDataSource.Listener {
+
+  /** called to poll a market whose stream is no longer usable */
+  public interface Fallback {
+    void poll(Market market);
+  }
+
+  public static final int MAX_HELD_DELTAS = 10000;
+
+  public StreamingFeed(Context context, BookFactory bookFactory, TradeFactory tradeFactory, Map<Market, LiveBook> liveBooks,
+      StreamingDataSource source, Fallback fallback) {
+    this.context = context;
+    this.bookFactory = bookFactory;
+    this.tradeFactory = tradeFactory;
+    this.liveBooks = liveBooks;
+    this.source = source;
+    this.fallback = fallback;
+  }
+
+  /** marks the market as fed by the stream, waiting for its first snapshot */
+  public void subscribe(Market market) {
+    streams.put(market, new Stream());
+  }
+
+  /** @return true while the market is fed by the stream rather than polled */
+  public boolean isLive(Market market) {
+    return streams.containsKey(market);
+  }
+
+  @Override
+  public void onTrade(Market market, long sequence, Instant time, @Nullable String remoteKey, BigDecimal price, BigDecimal volume) {
+    Stream stream = streams.get(market);
+    if (stream == null)
+      return;
+    synchronized (stream) {
+      if (sequence != 0) {
+        if (sequence <= stream.tradeSequence)
+          return;
+        if (stream.tradeSequence != 0 && sequence != stream.tradeSequence + 1)
+          gap(market, stream.tradeTime, time, "trade", stream.tradeSequence, sequence);
+        stream.tradeSequence = sequence;
+      }
+      stream.tradeTime = time;
+      publish(tradeFactory.create(market, time, remoteKey, price, volume));
+    }
+  }
+
+  @Override
+  public void onBookSnapshot(Market market, long sequence, Instant time, BookSide bids, BookSide asks) {
+    Stream stream = streams.get(market);
+    if (stream == null)
+      return;
+    synchronized (stream) {
+      LiveBook liveBook = liveBooks.get(market);
+      publishUpdates(liveBook, liveBook.applySnapshot(bids, asks, time, Instant.now()));
+      stream.bookSequence = sequence;
+      stream.bookTime = time;
+      // the deltas which arrived while waiting for the snapshot, and are not already part of it
+      Delta delta;
+      while ((delta = stream.held.poll()) != null)
+        if (delta.sequence > stream.bookSequence && !apply(market, stream, liveBook, delta))
+          break;
+      publishSnapshotIfDue(liveBook);
+    }
+  }
+
+  @Override
+  public void onBookDelta(Market market, long sequence, Instant time, Side side, BigDecimal price, BigDecimal volume) {
+    Stream stream = streams.get(market);
+    if (stream == null)
+      return;
+    synchronized (stream) {
+      Delta delta = new Delta(sequence, time, side, price, volume);
+      if (stream.bookSequence == AWAITING_SNAPSHOT) {
+        hold(market, stream, delta);
+        return;
+      }
+      LiveBook liveBook = liveBooks.get(market);
+      if (apply(market, stream, liveBook, delta))
+        publishSnapshotIfDue(liveBook);
+    }
+  }
+
+  @Override
+  public void onDisconnected(Market market, @Nullable Exception cause) {
+    log.warn(this.getClass().getSimpleName() + ":onDisconnected stream for market " + market + " disconnected, polling it instead", cause);
+    fallBack(market);
+  }
+
+  protected void publish(Event event) {
+    context.publish(event);
+  }
+
+  /**
+   * applies a delta which follows the last sequence, or starts a resync if it does not
+   *
+   * @return false if the book is now waiting for a snapshot
+   */
+  private boolean apply(Market market, Stream stream, LiveBook liveBook, Delta delta) {
+    if (delta.sequence <= stream.bookSequence)
+      return true;
+    if (delta.sequence != stream.bookSequence + 1) {
+      gap(market, stream.bookTime, delta.time, "book", stream.bookSequence, delta.sequence);
+      stream.bookSequence = AWAITING_SNAPSHOT;
+      // ahead of any deltas still held from an earlier resync
+      stream.held.addFirst(delta);
+      try {
+        source.requestSnapshot(market);
+      } catch (Exception e) {
+        log.error(this.getClass().getSimpleName() + ":apply unable to request a snapshot for market " + market + ", polling it instead", e);
+        fallBack(market);
+      }
+      return false;
+    }
+    BookUpdate update = liveBook.applyDelta(delta.side, delta.price, delta.volume, delta.time);
+    if (update != null)
+      publish(update);
+    stream.bookSequence = delta.sequence;
+    stream.bookTime = delta.time;
+    return true;
+  }
+
+  private void hold(Market market, Stream stream, Delta delta) {
+    if (stream.held.size() >= MAX_HELD_DELTAS) {
+      log.error(this.getClass().getSimpleName() + ":hold no snapshot for market " + market + " after " + MAX_HELD_DELTAS
+          + " deltas, polling it instead");
+      fallBack(market);
+      return;
+    }
+    stream.held.add(delta);
+  }
+
+  private void gap(Market market, @Nullable Instant from, Instant to, String kind, long lastSequence, long sequence) {
+    Duration gap = from == null || to.isBefore(from) ? Duration.ZERO : new Duration(from, to);
+    log.warn(this.getClass().getSimpleName() + ":gap " + kind + " stream for market " + market + " jumped from sequence " + lastSequence + " to "
+        + sequence);
+    publish(new MarketDataGapError(market, gap));
+  }
+
+  private void publishUpdates(LiveBook liveBook, List<BookUpdate> updates) {
+    for (BookUpdate update : updates)
+      publish(update);
+  }
+
+  private void publishSnapshotIfDue(LiveBook liveBook) {
+    if (!liveBook.getBidSide().isEmpty() && !liveBook.getAskSide().isEmpty() && liveBook.isSnapshotDue(liveBook.getTime()))
+      publish(liveBook.snapshot(bookFactory, liveBook.getTime()));
+  }
+
+  private void fallBack(Market market) {
+    if (streams.remove(market) != null)
+      fallback.poll(market);
+  }
+
+  private static final long AWAITING_SNAPSHOT = -1;
+
+  /** the sequence state of one market's stream; callers synchronize on it */
+  private static class Stream {
+    long bookSequence = AWAITING_SNAPSHOT;
+    Instant bookTime;
+    long tradeSequence;
+    Instant tradeTime;
+    final ArrayDeque<Delta> held = new ArrayDeque<Delta>();
+  }
+
+  private static class Delta {
+
+    Delta(long sequence, Instant time, Side side, BigDecimal price, BigDecimal volume) {
+      this.sequence = sequence;
+      this.time = time;
+      this.side = side;
+      this.price = price;
+      this.volume = volume;
+    }
+
+    final long sequence;
+    final Instant time;
+    final Side side;
+    final BigDecimal price;
+    final BigDecimal volume;
+  }
+
+  protected static Logger log = LoggerFactory.getLogger("org.cryptocoinpartners.xchangeData");
+  private final Context context;
+  private final BookFactory bookFactory;
+  private final TradeFactory tradeFactory;
+  private final Map<Market, LiveBook> liveBooks;
+  private final StreamingDataSource source;
+  private final Fallback fallback;
+  private final Map<Market, Stream> streams = new ConcurrentHashMap<Market, Stream>();
+}
@@ -10,7 +10,9 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
@@ -20,8 +22,12 @@ import org.apache.commons.configuration.Configuration;
 import org.cryptocoinpartners.module.Context;
 import org.cryptocoinpartners.schema.Book;
 import org.cryptocoinpartners.schema.BookFactory;
+import org.cryptocoinpartners.schema.BookSide;
+import org.cryptocoinpartners.schema.BookUpdate;
+import org.cryptocoinpartners.schema.DiscreteAmount;
 import org.cryptocoinpartners.schema.Exchange;
 import org.cryptocoinpartners.schema.Listing;
+import org.cryptocoinpartners.schema.LiveBook;
 import org.cryptocoinpartners.schema.Market;
 import org.cryptocoinpartners.schema.Prompt;
 import org.cryptocoinpartners.schema.SpecificOrder;
@@ -29,7 +35,6 @@ import org.cryptocoinpartners.schema.TradeFactory;
 import org.cryptocoinpartners.util.EM;
 import org.cryptocoinpartners.util.RateLimiter;
 import org.cryptocoinpartners.util.XchangeUtil;
-import org.joda.time.Duration;
 import org.joda.time.Instant;
 import org.knowm.xchange.currency.CurrencyPair;
 import org.knowm.xchange.dto.Order.OrderType;
@@ -63,18 +68,20 @@ public class XchangeData {
       // .class the full classname of the Xchange implementation
       // .rate.queries rate limit the number of queries to this many (default: 1)
       // .rate.period rate limit the number of queries during this period of time (default: 1 second)
+      // .rate.data.*, .rate.trading.*, .rate.account.* the queries and period of one class of endpoint, see RateLimiter.forExchange
       // .listings identifies which Listings should be fetched from this exchange
+      // .book.snapshot.interval publish a full Book at most this often, in seconds (default: 0, a Book on every poll). BookUpdates are published on every poll
+      // .streaming.config.class the StreamingDataSource which pushes the listings' trades and books, instead of polling them (default: none, poll)
       Exchange exchange = XchangeUtil.getExchangeForTag(tag);
       String prefix = configPrefix + "." + tag + '.';
       if (exchange != null) {
 
         final String helperClassName = config.getString(prefix + "helper.class", null);
         final String streamingConfigClassName = config.getString(prefix + "streaming.config.class", null);
-        int queries = config.getInt(prefix + "rate.queries", 1);
         int retryCount = config.getInt(prefix + "retry", 10);
-        Duration period = Duration.millis((long) (1000 * config.getDouble(prefix + "rate.period", 1))); // rate.period in seconds
         final List listings = config.getList(prefix + "listings");
-        initExchange(helperClassName, streamingConfigClassName, queries, period, exchange, listings, retryCount);
+        long bookSnapshotInterval = (long) (1000 * config.getDouble(prefix + "book.snapshot.interval", 0));
+        initExchange(helperClassName, streamingConfigClassName, exchange, listings, retryCount, bookSnapshotInterval, config, prefix);
       } else {
         log.warn("Could not find Exchange for property \"xchange." + tag + ".*\"");
       }
@@ -104,8 +111,8 @@ public class XchangeData {
 
   }
 
-  private void initExchange(@Nullable String helperClassName, @Nullable String streamingConfigClassName, int queries, Duration per,
-      Exchange coinTraderExchange, List listings, int retryCount) {
+  private void initExchange(@Nullable String helperClassName, @Nullable String streamingConfigClassName, Exchange coinTraderExchange, List listings,
+      int retryCount, long bookSnapshotInterval, Configuration config, String prefix) {
     org.knowm.xchange.Exchange xchangeExchange = XchangeUtil.getExchangeForMarket(coinTraderExchange);
     Helper helper = null;
     if (helperClassName != null && !helperClassName.isEmpty()) {
@@ -140,7 +147,8 @@ public class XchangeData {
       markets.add(market);
     }
 
-    RateLimiter rateLimiter = new RateLimiter(queries, per);
+    // shared with the order service, whose calls go ahead of these polls
+    final RateLimiter rateLimiter = RateLimiter.forExchange(coinTraderExchange, config, prefix);
 
     //   initExchange(helperClassName, streamingConfigClassName, queries, period, exchange, listings);
 
@@ -158,10 +166,17 @@ public class XchangeData {
       failedTradeCounts.put(cointraderMarket, 0);
       failedBookCounts.put(cointraderMarket, 0);
       retryCounts.put(cointraderMarket, retryCount);
-
-      rateLimiter.execute(new FetchTradesRunnable(context, coinTraderExchange, cointraderMarket, rateLimiter));
+      liveBooks.put(cointraderMarket, new LiveBook(cointraderMarket, bookSnapshotInterval));
     }
 
+    // markets on a stream are only polled once their stream fails
+    StreamingFeed feed = null;
+    if (streamingConfigClassName != null && !streamingConfigClassName.isEmpty())
+      feed = initStreaming(streamingConfigClassName, coinTraderExchange, markets, rateLimiter, config, prefix);
+    for (Market cointraderMarket : markets)
+      if (feed == null || !feed.isLive(cointraderMarket))
+        rateLimiter.execute(new FetchTradesRunnable(context, coinTraderExchange, cointraderMarket, rateLimiter));
+
     // for (Iterator<Market> im = markets.iterator(); im.hasNext(); )
     //   market = im.next();
 
@@ -174,6 +189,38 @@ public class XchangeData {
 
   }
 
+  /** @return the feed the source pushes the markets' data to, or null if the source could not be started and the markets should be polled */
+  @Nullable
+  private StreamingFeed initStreaming(String sourceClassName, final Exchange coinTraderExchange, List<Market> markets, final RateLimiter rateLimiter,
+      Configuration config, String prefix) {
+    if (sourceClassName.indexOf('.') == -1)
+      sourceClassName = XchangeData.class.getPackage().getName() + '.' + sourceClassName;
+    StreamingDataSource source;
+    try {
+      source = (StreamingDataSource) getClass().getClassLoader().loadClass(sourceClassName).newInstance();
+    } catch (ClassNotFoundException | InstantiationException | IllegalAccessException | ClassCastException e) {
+      log.error("Could not stream " + coinTraderExchange + " because streaming class " + sourceClassName + " could not be instantiated as a "
+          + StreamingDataSource.class + ", polling it instead", e);
+      return null;
+    }
+    StreamingFeed feed = new StreamingFeed(context, bookFactory, tradeFactory, liveBooks, source, new StreamingFeed.Fallback() {
+      @Override
+      public void poll(Market market) {
+        rateLimiter.execute(new FetchTradesRunnable(context, coinTraderExchange, market, rateLimiter));
+      }
+    });
+    for (Market market : markets)
+      feed.subscribe(market);
+    try {
+      source.start(coinTraderExchange, markets, config, prefix, feed);
+    } catch (Exception | Error e) {
+      log.error("Could not start streaming " + coinTraderExchange + " from " + sourceClassName + ", polling it instead", e);
+      source.stop();
+      return null;
+    }
+    return feed;
+  }
+
   public Collection<org.cryptocoinpartners.schema.Trade> getTrades(Market market, Exchange coinTraderExchange) throws Throwable {
     Prompt prompt = market.getListing().getPrompt();
     ArrayList<org.cryptocoinpartners.schema.Trade> ourTrades = new ArrayList<org.cryptocoinpartners.schema.Trade>();
@@ -317,7 +364,23 @@ public class XchangeData {
 
   }
 
+  /** polls the exchange's order book, applies it to the market's LiveBook, publishes the BookUpdates and returns a Book snapshot of the result */
   public Book getBook(Market market, Exchange coinTraderExchange) throws Exception {
+    List<BookUpdate> updates = updateBook(market, coinTraderExchange);
+    if (updates == null)
+      return null;
+    for (BookUpdate update : updates)
+      context.publish(update);
+    LiveBook liveBook = liveBooks.get(market);
+    return liveBook.snapshot(bookFactory, liveBook.getTime());
+  }
+
+  /**
+   * Polls the exchange's order book and applies it to the market's LiveBook.
+   *
+   * @return the BookUpdates for the levels which changed since the last poll, or null if the book could not be fetched
+   */
+  public List<BookUpdate> updateBook(Market market, Exchange coinTraderExchange) throws Exception {
     Prompt prompt = market.getListing().getPrompt();
     CurrencyPair pair = XchangeUtil.getCurrencyPairForListing(market.getListing());
     FuturesContract contract = prompt == null ? null : XchangeUtil.getContractForListing(market.getListing());
@@ -338,32 +401,22 @@ public class XchangeData {
       OrderBook orderBook = XchangeUtil.getExchangeForMarket(coinTraderExchange).getMarketDataService().getOrderBook(pair, params);
       if (XchangeUtil.getHelperForExchange(coinTraderExchange) != null)
         XchangeUtil.getHelperForExchange(coinTraderExchange).handleOrderBook(orderBook);
-      log.trace("Attempting create book from: " + orderBook);
-      Book book = bookFactory.create(new Instant(orderBook.getTimeStamp()), market);
-      LimitOrder limitOrder;
-      // sort lowerst to highest limit price
-      List<LimitOrder> asks = orderBook.getAsks();
-      log.trace("Attempting to sort asks: " + asks);
-
-      Collections.sort(asks, limitPriceComparator);
-      // sort highest to lowest limit price
-      List<LimitOrder> bids = orderBook.getBids();
-      log.trace("Attempting to sort bids: " + bids);
-
-      Collections.sort(bids, Collections.reverseOrder(limitPriceComparator));
-      // need to sort bids
-      for (Iterator<LimitOrder> itb = bids.iterator(); itb.hasNext(); book.addBid(limitOrder.getLimitPrice(), limitOrder.getTradableAmount()))
-        limitOrder = itb.next();
-
-      // neet to sort asks
-      for (Iterator<LimitOrder> ita = asks.iterator(); ita.hasNext(); book.addAsk(limitOrder.getLimitPrice(), limitOrder.getTradableAmount()))
-        limitOrder = ita.next();
-
-      book.build();
-      //        log.debug("publish book:" + book.getId());
+      log.trace("Attempting to apply book: " + orderBook);
+      LiveBook liveBook = liveBooks.get(market);
+      Instant time = new Instant(orderBook.getTimeStamp());
+      // the exchanges send their levels best first, so adding them to the sides appends without shifting
+      BookSide bids = BookSide.bids();
+      for (LimitOrder limitOrder : orderBook.getBids())
+        bids.add(DiscreteAmount.roundedCountForBasis(limitOrder.getLimitPrice(), market.getPriceBasis()),
+            DiscreteAmount.roundedCountForBasis(limitOrder.getTradableAmount(), market.getVolumeBasis()));
+      BookSide asks = BookSide.asks();
+      for (LimitOrder limitOrder : orderBook.getAsks())
+        asks.add(DiscreteAmount.roundedCountForBasis(limitOrder.getLimitPrice(), market.getPriceBasis()),
+            -DiscreteAmount.roundedCountForBasis(limitOrder.getTradableAmount(), market.getVolumeBasis()));
+      List<BookUpdate> updates = liveBook.applySnapshot(bids, asks, time, Instant.now());
 
       failedBookCounts.put(market, 0);
-      return book;
+      return updates;
       //
 
     } catch (Exception | Error e) {
@@ -417,10 +470,15 @@ public class XchangeData {
       try {
         rateLimiter.execute(this); // run again. requeue in case we die!
         //   Thread.sleep(15000);
-        Book book = getBook(market, coinTraderExchange);
+        List<BookUpdate> updates = updateBook(market, coinTraderExchange);
         Collection<org.cryptocoinpartners.schema.Trade> trades = getTrades(market, coinTraderExchange);
-        if (book != null && !book.getBids().isEmpty() && !book.getAsks().isEmpty())
-          context.publish(book);
+        if (updates != null) {
+          for (BookUpdate update : updates)
+            context.publish(update);
+          LiveBook liveBook = liveBooks.get(market);
+          if (!liveBook.getBidSide().isEmpty() && !liveBook.getAskSide().isEmpty() && liveBook.isSnapshotDue(liveBook.getTime()))
+            context.publish(liveBook.snapshot(bookFactory, liveBook.getTime()));
+        }
         if (trades != null && !trades.isEmpty()) {
 
           for (org.cryptocoinpartners.schema.Trade trade : trades)
@@ -446,13 +504,6 @@ public class XchangeData {
 
   }
 
-  private static final Comparator<LimitOrder> limitPriceComparator = new Comparator<LimitOrder>() {
-    @Override
-    public int compare(LimitOrder event, LimitOrder event2) {
-      return event.getLimitPrice().compareTo(event2.getLimitPrice());
-    }
-  };
-
   private static final Comparator<Trade> timeOrderIdComparator = new Comparator<Trade>() {
     @Override
     public int compare(Trade event, Trade event2) {
@@ -476,6 +527,7 @@ public class XchangeData {
   private final HashMap<Market, Integer> failedTradeCounts = new HashMap<Market, Integer>();
   private final HashMap<Market, Integer> failedBookCounts = new HashMap<Market, Integer>();
   private final HashMap<Market, Integer> retryCounts = new HashMap<Market, Integer>();
+  private final Map<Market, LiveBook> liveBooks = new ConcurrentHashMap<Market, LiveBook>();
   private final Context context;
   private static boolean instanceExists = false;
 }
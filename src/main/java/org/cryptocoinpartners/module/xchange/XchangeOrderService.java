@@ -13,7 +13,10 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
@@ -42,11 +45,13 @@ import org.cryptocoinpartners.schema.Prompt;
 import org.cryptocoinpartners.schema.SpecificOrder;
 import org.cryptocoinpartners.schema.Tradeable;
 import org.cryptocoinpartners.service.PortfolioService;
+import org.cryptocoinpartners.util.Diagnostics;
 import org.cryptocoinpartners.util.EM;
 import org.cryptocoinpartners.util.RateLimiter;
+import org.cryptocoinpartners.util.RateLimiter.Endpoint;
+import org.cryptocoinpartners.util.RateLimiter.Priority;
 import org.cryptocoinpartners.util.Remainder;
 import org.cryptocoinpartners.util.XchangeUtil;
-import org.joda.time.Duration;
 import org.knowm.xchange.currency.CurrencyPair;
 import org.knowm.xchange.dto.Order;
 import org.knowm.xchange.dto.Order.OrderStatus;
@@ -80,6 +85,7 @@ public class XchangeOrderService extends BaseOrderService {
 
   private final Context context;
   private static final HashMap<Market, Long> lastFillTimes = new HashMap<Market, Long>();
+  private static final Map<Exchange, Long> orderPermitTimeouts = new ConcurrentHashMap<Exchange, Long>();
 
   @Inject
   public XchangeOrderService(Context context, Configuration config, FillFactory fillFactory) {
@@ -93,7 +99,8 @@ public class XchangeOrderService extends BaseOrderService {
       // three configs required:
       // .class the full classname of the Xchange implementation
       // .rate.queries rate limit the number of queries to this many (default: 1)
-      // .rate.period rate limit the number of queries during this period of time (default: 1 second)
+      // .rate.period rate limit the number of queries during this period of time (default: 1 second, 2 seconds for the private endpoints)
+      // .rate.order.timeout give up placing or cancelling an order if no query is allowed within this many seconds (default: 10)
       // .listings identifies which Listings should be fetched from this exchange
       org.cryptocoinpartners.schema.Exchange exchange = XchangeUtil.getExchangeForTag(tag);
       String prefix = configPrefix + "." + tag + '.';
@@ -101,21 +108,18 @@ public class XchangeOrderService extends BaseOrderService {
 
         final String helperClassName = config.getString(prefix + "helper.class", null);
         final String streamingConfigClassName = config.getString(prefix + "streaming.config.class", null);
-        int queries = config.getInt(prefix + "rate.queries", 1);
         int retryCount = config.getInt(prefix + "retry", 10);
-
-        Duration period = Duration.millis((long) (2000 * config.getDouble(prefix + "rate.period", 1))); // rate.period in seconds
         final List listings = config.getList(prefix + "listings");
 
-        initExchange(helperClassName, streamingConfigClassName, retryCount, queries, period, exchange, listings);
+        initExchange(helperClassName, streamingConfigClassName, retryCount, exchange, listings, config, prefix);
       } else {
         log.warn("Could not find Exchange for property \"xchange." + tag + ".*\"");
       }
     }
   }
 
-  private void initExchange(@Nullable String helperClassName, @Nullable String streamingConfigClassName, int retryCount, int queries, Duration per,
-      Exchange coinTraderExchange, List listings) {
+  private void initExchange(@Nullable String helperClassName, @Nullable String streamingConfigClassName, int retryCount, Exchange coinTraderExchange,
+      List listings, Configuration config, String prefix) {
     org.knowm.xchange.Exchange xchangeExchange = XchangeUtil.getExchangeForMarket(coinTraderExchange);
     Helper helper = null;
     if (helperClassName != null && !helperClassName.isEmpty()) {
@@ -151,13 +155,16 @@ public class XchangeOrderService extends BaseOrderService {
 
     //    PollingTradeService dataService = xchangeExchange.getPollingTradeService();
     // when 
-    RateLimiter rateLimiter = new RateLimiter(queries, per);
+    // shared with XchangeData, so order placement and cancels go ahead of the polls of both
+    RateLimiter rateLimiter = RateLimiter.forExchange(coinTraderExchange, config, prefix);
+    orderPermitTimeouts.put(coinTraderExchange, (long) (1000 * config.getDouble(prefix + "rate.order.timeout", 10)));
     for (Market cointraderMarket : markets) {
 
       // add to various shared mapps
       lastFillTimes.put(cointraderMarket, 0L);
 
-      rateLimiter.execute(new FetchOrdersRunnable(context, cointraderMarket, rateLimiter, coinTraderExchange, retryCount, helper));
+      rateLimiter.submit(Endpoint.PRIVATE_TRADING, Priority.POLL, new FetchOrdersRunnable(context, cointraderMarket, rateLimiter, coinTraderExchange,
+          retryCount, helper));
     }
 
     return;
@@ -169,6 +176,12 @@ public class XchangeOrderService extends BaseOrderService {
     Order.OrderType orderType = null;
     org.knowm.xchange.Exchange exchange = XchangeUtil.getExchangeForMarket(specificOrder.getMarket().getExchange());
     TradeService tradeService = exchange.getTradeService();
+    if (!acquireOrderPermit(specificOrder.getMarket().getExchange())) {
+      specificOrder.persit();
+      reject(specificOrder, "handleSpecificOrder: rate limit of " + specificOrder.getMarket().getExchange() + " did not allow order "
+          + specificOrder.getId() + " to be placed in time");
+      return;
+    }
     synchronized (tradeService) {
       if (specificOrder.getLimitPrice() != null && specificOrder.getStopPrice() != null) {
         specificOrder.persit();
@@ -280,7 +293,7 @@ public class XchangeOrderService extends BaseOrderService {
         OpenOrders openOrders = tradeService.getOpenOrders();
 
         for (LimitOrder xchangeOrder : openOrders.getOpenOrders()) {
-          for (org.cryptocoinpartners.schema.Order cointraderOrder : orderStateMap.keySet()) {
+          for (org.cryptocoinpartners.schema.Order cointraderOrder : orderStore.getStates().keySet()) {
             if (cointraderOrder instanceof SpecificOrder) {
               specificOrder = (SpecificOrder) cointraderOrder;
               if (xchangeOrder.getId().equals(specificOrder.getRemoteKey()) && specificOrder.getMarket().equals(market)) {
@@ -288,7 +301,7 @@ public class XchangeOrderService extends BaseOrderService {
                 if (fill != null)
                   handleFillProcessing(fill);
 
-                if (!adaptOrderState(xchangeOrder.getStatus()).equals(orderStateMap.get(specificOrder)))
+                if (!adaptOrderState(xchangeOrder.getStatus()).equals(orderStore.getState(specificOrder)))
                   if (adaptOrderState(xchangeOrder.getStatus()) != OrderState.FILLED
                       || adaptOrderState(xchangeOrder.getStatus()) != OrderState.PARTFILLED)
                     updateOrderState(specificOrder, adaptOrderState(xchangeOrder.getStatus()), true);
@@ -343,26 +356,22 @@ public class XchangeOrderService extends BaseOrderService {
         log.trace("Attempting to get trades from data service");
         List<String> openOrdersXchangeIds = new ArrayList<String>();
 
-        if (stateOrderMap.get(OrderState.PLACED) != null)
-          for (org.cryptocoinpartners.schema.Order placedOrder : stateOrderMap.get(OrderState.PLACED))
-            if (XchangeUtil.getCurrencyPairForListing(placedOrder.getMarket().getListing()).equals(pair)
-                && placedOrder.getMarket().getExchange().equals(coinTraderExchange))
-              cointraderOpenOrders.add(placedOrder);
-        if (stateOrderMap.get(OrderState.PARTFILLED) != null)
-          for (org.cryptocoinpartners.schema.Order partfilledOrder : stateOrderMap.get(OrderState.PARTFILLED))
-            if (XchangeUtil.getCurrencyPairForListing(partfilledOrder.getMarket().getListing()).equals(pair)
-                && partfilledOrder.getMarket().getExchange().equals(coinTraderExchange))
-              cointraderOpenOrders.add(partfilledOrder);
-        if (stateOrderMap.get(OrderState.ROUTED) != null)
-          for (org.cryptocoinpartners.schema.Order routedOrder : stateOrderMap.get(OrderState.ROUTED))
-            if (XchangeUtil.getCurrencyPairForListing(routedOrder.getMarket().getListing()).equals(pair)
-                && routedOrder.getMarket().getExchange().equals(coinTraderExchange))
-              cointraderOpenOrders.add(routedOrder);
-        if (stateOrderMap.get(OrderState.CANCELLING) != null)
-          for (org.cryptocoinpartners.schema.Order cancellingOrder : stateOrderMap.get(OrderState.CANCELLING))
-            if (XchangeUtil.getCurrencyPairForListing(cancellingOrder.getMarket().getListing()).equals(pair)
-                && cancellingOrder.getMarket().getExchange().equals(coinTraderExchange))
-              cointraderOpenOrders.add(cancellingOrder);
+        for (org.cryptocoinpartners.schema.Order placedOrder : orderStore.getOrders(OrderState.PLACED))
+          if (XchangeUtil.getCurrencyPairForListing(placedOrder.getMarket().getListing()).equals(pair)
+              && placedOrder.getMarket().getExchange().equals(coinTraderExchange))
+            cointraderOpenOrders.add(placedOrder);
+        for (org.cryptocoinpartners.schema.Order partfilledOrder : orderStore.getOrders(OrderState.PARTFILLED))
+          if (XchangeUtil.getCurrencyPairForListing(partfilledOrder.getMarket().getListing()).equals(pair)
+              && partfilledOrder.getMarket().getExchange().equals(coinTraderExchange))
+            cointraderOpenOrders.add(partfilledOrder);
+        for (org.cryptocoinpartners.schema.Order routedOrder : orderStore.getOrders(OrderState.ROUTED))
+          if (XchangeUtil.getCurrencyPairForListing(routedOrder.getMarket().getListing()).equals(pair)
+              && routedOrder.getMarket().getExchange().equals(coinTraderExchange))
+            cointraderOpenOrders.add(routedOrder);
+        for (org.cryptocoinpartners.schema.Order cancellingOrder : orderStore.getOrders(OrderState.CANCELLING))
+          if (XchangeUtil.getCurrencyPairForListing(cancellingOrder.getMarket().getListing()).equals(pair)
+              && cancellingOrder.getMarket().getExchange().equals(coinTraderExchange))
+            cointraderOpenOrders.add(cancellingOrder);
         for (org.cryptocoinpartners.schema.Order openOrder : cointraderOpenOrders) {
           SpecificOrder openSpecificOrder;
           if (openOrder instanceof SpecificOrder) {
@@ -425,7 +434,7 @@ public class XchangeOrderService extends BaseOrderService {
                           lastFillTimes.put(market, fill.getTimestamp());
                       }
 
-                      if (!adaptOrderState(exchangeOrder.getStatus()).equals(orderStateMap.get(openOrder)))
+                      if (!adaptOrderState(exchangeOrder.getStatus()).equals(orderStore.getState(openOrder)))
                         if (adaptOrderState(exchangeOrder.getStatus()) != OrderState.FILLED
                             || adaptOrderState(exchangeOrder.getStatus()) != OrderState.PARTFILLED)
                           updateOrderState(openOrder, adaptOrderState(exchangeOrder.getStatus()), true);
@@ -578,8 +587,7 @@ public class XchangeOrderService extends BaseOrderService {
                 log.warn(this.getClass().getSimpleName() + ":getOrders - Cancelled Unkown order" + specificOrder);
             } catch (Throwable e) {
               // TODO Auto-generated catch block
-              log.error("getOrders: called from class " + Thread.currentThread().getStackTrace()[2] + " unable to cancel order:" + specificOrder
-                  + " " + e);
+              log.error("getOrders: called from class {} unable to cancel order:{} {}", Diagnostics.caller(), specificOrder, e);
               throw new OrderNotFoundException("Unknown exchnage order " + unknowOrder);
             }
 
@@ -666,7 +674,7 @@ public class XchangeOrderService extends BaseOrderService {
     public void run() {
       try {
         if (resubmitable)
-          rateLimiter.execute(this); // requeue in case we die!
+          rateLimiter.submit(Endpoint.PRIVATE_TRADING, Priority.POLL, this); // requeue in case we die!
         if (!getTradingEnabled())
           return;
         if (lastFillTimes.get(market) == null || lastFillTimes.get(market) == 0 || lastFillTimes.get(market) == null
@@ -906,6 +914,15 @@ public class XchangeOrderService extends BaseOrderService {
     }
   };
 
+  /** waits for a private trading permit ahead of the polls; false if the exchange's rate limit did not give one in time */
+  private boolean acquireOrderPermit(Exchange exchange) throws InterruptedException {
+    RateLimiter rateLimiter = RateLimiter.forExchange(exchange);
+    if (rateLimiter == null)
+      return true;
+    Long timeout = orderPermitTimeouts.get(exchange);
+    return rateLimiter.tryAcquire(Endpoint.PRIVATE_TRADING, Priority.ORDER, timeout == null ? 10000 : timeout, TimeUnit.MILLISECONDS);
+  }
+
   @SuppressWarnings("finally")
   @Override
   protected boolean cancelSpecificOrder(SpecificOrder order) throws Throwable {
@@ -914,12 +931,16 @@ public class XchangeOrderService extends BaseOrderService {
     TradeService tradeService = exchange.getTradeService();
 
     boolean deleted = false;
-    if (!orderStateMap.get(order).isWorking()) {
-      log.error("Unable to cancel order as is " + orderStateMap.get(order) + " :" + order);
+    if (!orderStore.getState(order).isWorking()) {
+      log.error("Unable to cancel order as is " + orderStore.getState(order) + " :" + order);
       deleted = true;
       return deleted;
     }
     try {
+      if (!acquireOrderPermit(order.getMarket().getExchange())) {
+        log.error("Unable to cancel order as the rate limit of " + order.getMarket().getExchange() + " did not allow it in time :" + order);
+        return deleted;
+      }
 
       synchronized (tradeService) {
         tradeService.cancelOrder(order.getRemoteKey());
@@ -939,7 +960,7 @@ public class XchangeOrderService extends BaseOrderService {
       // lets kick of a new thread to check that it is canclled we need to wait for this to complete before returning
       getOrders(XchangeUtil.getHelperForExchange(order.getMarket().getExchange()), order.getMarket(), pair, 0, 0, contract, false, order.getMarket()
           .getExchange(), 0);
-      if (orderStateMap.get(order) != null && orderStateMap.get(order).equals(OrderState.CANCELLED))
+      if (orderStore.getState(order) != null && orderStore.getState(order).equals(OrderState.CANCELLED))
         deleted = true;
       // } else {
 
@@ -72,8 +72,19 @@ public abstract class Asset extends EntityBase {
     this.basis = basis;
   }
 
+  /** @return the id ReferenceData gave this Asset when it was interned, or -1 */
+  @Transient
+  public int getReferenceId() {
+    return referenceId;
+  }
+
+  void setReferenceId(int referenceId) {
+    this.referenceId = referenceId;
+  }
+
   private String symbol;
   private double basis;
+  private transient int referenceId = -1;
 
   protected static Logger log = LoggerFactory.getLogger(Asset.class);
 }
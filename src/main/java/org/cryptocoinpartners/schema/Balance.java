@@ -13,6 +13,7 @@ import javax.persistence.Transient;
 import org.cryptocoinpartners.enumeration.PersistanceAction;
 import org.cryptocoinpartners.schema.dao.BalanceDao;
 import org.cryptocoinpartners.schema.dao.Dao;
+import org.cryptocoinpartners.util.Diagnostics;
 
 import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
@@ -156,7 +157,7 @@ public class Balance extends Holding {
   public synchronized void merge() {
     this.setPeristanceAction(PersistanceAction.MERGE);
     this.setRevision(this.getRevision() + 1);
-    log.debug("Balance - Merge : Merge of Balance " + this.getId() + " called from class " + Thread.currentThread().getStackTrace()[2]);
+    log.debug("Balance - Merge : Merge of Balance {} called from class {}", this.getId(), Diagnostics.caller());
 
     try {
       balanceDao.merge(this);
@@ -208,7 +209,7 @@ public class Balance extends Holding {
     this.setPeristanceAction(PersistanceAction.NEW);
 
     this.setRevision(this.getRevision() + 1);
-    log.debug("Balance - Persist : Persist of Balance " + this.getId() + " called from class " + Thread.currentThread().getStackTrace()[2]);
+    log.debug("Balance - Persist : Persist of Balance {} called from class {}", this.getId(), Diagnostics.caller());
 
     try {
       balanceDao.persist(this);
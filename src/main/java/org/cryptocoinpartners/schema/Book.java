@@ -1,17 +1,13 @@
 package org.cryptocoinpartners.schema;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.math.BigDecimal;
+import java.util.AbstractList;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.RandomAccess;
 import java.util.UUID;
 
 import javax.annotation.Nullable;
@@ -60,41 +56,67 @@ public class Book extends MarketData implements Spread {
   protected static transient BookFactory bookFactory;
 
   public static void find(Interval timeInterval, Visitor<Book> visitor) {
-    EM.queryEach(Book.class, visitor, "select b from Book b where time > ?1 and time < ?2", timeInterval.getStartMillis(),
+    EM.queryEachByTime(Book.class, visitor, "select b from Book b where time > ?1 and time < ?2", timeInterval.getStartMillis(),
         timeInterval.getEndMillis());
   }
 
   public static void findAll(Visitor<Book> visitor) {
-    EM.queryEach(Book.class, visitor, "select b from Book b");
+    EM.queryEachByTime(Book.class, visitor, "select b from Book b");
   }
 
   private static final Object lock = new Object();
 
+  /**
+   * @return a lazy view of the bid levels, best (highest) price first. Adding an Offer to the view inserts it at its sorted position.
+   */
   @Transient
   public List<Offer> getBids() {
     // synchronized (lock) {
     resolveDiff();
     if (bids == null)
-      return (new ArrayList<>());
+      bids = new OfferList(getBidSide());
     return bids;
     //}
   }
 
+  /**
+   * @return a lazy view of the ask levels, best (lowest) price first. Adding an Offer to the view inserts it at its sorted position.
+   */
   @Transient
   public List<Offer> getAsks() {
     //  synchronized (lock) {
     resolveDiff();
     if (asks == null)
-      return (new ArrayList<>());
+      asks = new OfferList(getAskSide());
     return asks;
     // }
   }
 
+  /** the primitive bid levels behind getBids() */
+  @Transient
+  public BookSide getBidSide() {
+    resolveDiff();
+    if (bidSide == null)
+      bidSide = BookSide.bids();
+    return bidSide;
+  }
+
+  /** the primitive ask levels behind getAsks() */
+  @Transient
+  public BookSide getAskSide() {
+    resolveDiff();
+    if (askSide == null)
+      askSide = BookSide.asks();
+    return askSide;
+  }
+
   @Override
   @Transient
   public Offer getBestBid() {
-    if ((getBids() == null || getBids().isEmpty()))
+    if (getBidSide().isEmpty()) {
+      // a new Offer each time, as Offers are mutable and must carry the time of the book they were read from
       return new Offer(getMarket(), getTime(), getTimeReceived(), 0L, 0L);
+    }
     return getBids().get(0);
   }
 
@@ -125,7 +147,8 @@ public class Book extends MarketData implements Spread {
   @Override
   @Transient
   public Offer getBestAsk() {
-    if ((getAsks() == null || getAsks().isEmpty())) {
+    if (getAskSide().isEmpty()) {
+      // a new Offer each time, as Offers are mutable and must carry the time of the book they were read from
       return new Offer(getMarket(), getTime(), getTimeReceived(), Long.MAX_VALUE, 0L);
     }
     return getAsks().get(0);
@@ -150,25 +173,73 @@ public class Book extends MarketData implements Spread {
     return ask;
   }
 
+  /** best bid price count, or 0 if there are no bids. Does not allocate. */
+  @Transient
+  public long getBestBidPriceCount() {
+    return getBidSide().getBestPriceCount(0L);
+  }
+
+  /** best bid volume count, or 0 if there are no bids. Does not allocate. */
+  @Transient
+  public long getBestBidVolumeCount() {
+    return getBidSide().getBestVolumeCount();
+  }
+
+  /** best ask price count, or Long.MAX_VALUE if there are no asks. Does not allocate. */
+  @Transient
+  public long getBestAskPriceCount() {
+    return getAskSide().getBestPriceCount(Long.MAX_VALUE);
+  }
+
+  /** best ask volume count (negative), or 0 if there are no asks. Does not allocate. */
+  @Transient
+  public long getBestAskVolumeCount() {
+    return getAskSide().getBestVolumeCount();
+  }
+
+  /** @return the total bid volume count of the best levels, up to the given number of levels */
+  @Transient
+  public long getBidVolumeCountToDepth(int levels) {
+    return getBidSide().getVolumeCountToDepth(levels);
+  }
+
+  /** @return the total ask volume count (negative) of the best levels, up to the given number of levels */
+  @Transient
+  public long getAskVolumeCountToDepth(int levels) {
+    return getAskSide().getVolumeCountToDepth(levels);
+  }
+
+  /** @return the average price count paid to sell volumeCount into the bids, or NaN if there are no bids */
+  @Transient
+  public double getBidVolumeWeightedPriceCount(long volumeCount) {
+    return getBidSide().getVolumeWeightedPriceCount(volumeCount);
+  }
+
+  /** @return the average price count paid to buy volumeCount from the asks, or NaN if there are no asks */
+  @Transient
+  public double getAskVolumeWeightedPriceCount(long volumeCount) {
+    return getAskSide().getVolumeWeightedPriceCount(volumeCount);
+  }
+
   @Nullable
   @Transient
   public DiscreteAmount getBidPrice() {
-    if (getBids().isEmpty())
-      return new DiscreteAmount(0, (getMarket()).getPriceBasis());
+    if (getBidSide().isEmpty())
+      return getBestBid().getPrice();
     return getBids().get(0).getPrice();
   }
 
   @Nullable
   @Transient
   public DiscreteAmount getBidVolume() {
-    if (getBids().isEmpty())
-      return new DiscreteAmount(0, getMarket().getVolumeBasis());
+    if (getBidSide().isEmpty())
+      return getBestBid().getVolume();
     return getBids().get(0).getVolume();
   }
 
   @Nullable
   public Double getBidPriceAsDouble() {
-    if (getBids().isEmpty())
+    if (getBidSide().isEmpty())
       return 0d;
     return getBids().get(0).getPriceAsDouble();
   }
@@ -176,14 +247,14 @@ public class Book extends MarketData implements Spread {
   @Nullable
   @Transient
   public Double getBidPriceCountAsDouble() {
-    if (getBids().isEmpty())
+    if (getBidSide().isEmpty())
       return 0d;
-    return getBids().get(0).getPriceCountAsDouble();
+    return (double) getBidSide().getPriceCount(0);
   }
 
   @Nullable
   public Double getBidVolumeAsDouble() {
-    if (getBids().isEmpty())
+    if (getBidSide().isEmpty())
       return 0d;
     return getBids().get(0).getVolumeAsDouble();
   }
@@ -191,24 +262,24 @@ public class Book extends MarketData implements Spread {
   @Nullable
   @Transient
   public Double getBidVolumeCountAsDouble() {
-    if (getBids().isEmpty())
+    if (getBidSide().isEmpty())
       return 0d;
-    return getBids().get(0).getVolumeCountAsDouble();
+    return (double) getBidSide().getVolumeCount(0);
   }
 
   @Nullable
   @Transient
   public DiscreteAmount getAskPrice() {
-    if (getAsks().isEmpty())
-      return new DiscreteAmount(Long.MAX_VALUE, getMarket().getPriceBasis());
+    if (getAskSide().isEmpty())
+      return getBestAsk().getPrice();
     return getAsks().get(0).getPrice();
   }
 
   @Nullable
   @Transient
   public DiscreteAmount getAskVolume() {
-    if (getAsks().isEmpty())
-      return new DiscreteAmount(0, getMarket().getVolumeBasis());
+    if (getAskSide().isEmpty())
+      return getBestAsk().getVolume();
     return getAsks().get(0).getVolume();
   }
 
@@ -231,7 +302,7 @@ public class Book extends MarketData implements Spread {
   /** saved to the db for query convenience */
   @Nullable
   public Double getAskPriceAsDouble() {
-    if (getAsks().isEmpty())
+    if (getAskSide().isEmpty())
       return Double.MAX_VALUE;
     return getAsks().get(0).getPriceAsDouble();
   }
@@ -239,15 +310,15 @@ public class Book extends MarketData implements Spread {
   @Nullable
   @Transient
   public Double getAskPriceCountAsDouble() {
-    if (getAsks().isEmpty())
+    if (getAskSide().isEmpty())
       return Double.MAX_VALUE;
-    return getAsks().get(0).getPriceCountAsDouble();
+    return (double) getAskSide().getPriceCount(0);
   }
 
   /** saved to the db for query convenience */
   @Nullable
   public Double getAskVolumeAsDouble() {
-    if (getAsks().isEmpty())
+    if (getAskSide().isEmpty())
       return 0d;
     return getAsks().get(0).getVolumeAsDouble();
   }
@@ -255,9 +326,9 @@ public class Book extends MarketData implements Spread {
   @Nullable
   @Transient
   public Double getAskVolumeCountAsDouble() {
-    if (getAsks().isEmpty())
+    if (getAskSide().isEmpty())
       return 0d;
-    return getAsks().get(0).getVolumeCountAsDouble();
+    return (double) getAskSide().getVolumeCount(0);
   }
 
   public static class DiffResult {
@@ -268,8 +339,8 @@ public class Book extends MarketData implements Spread {
   public DiffResult diff(Book previousBook) {
     DiffResult result = new DiffResult();
     //   synchronized (lock) {
-    diff(result, getBids(), previousBook.getBids());
-    diff(result, getAsks(), previousBook.getAsks());
+    diff(result, getBids(), getBidSide(), previousBook.getBids(), previousBook.getBidSide());
+    diff(result, getAsks(), getAskSide(), previousBook.getAsks(), previousBook.getAskSide());
     //  }
     return result;
   }
@@ -280,8 +351,8 @@ public class Book extends MarketData implements Spread {
     // Book();
     this.id = getId();
 
-    this.bids = new ArrayList<>();
-    this.asks = new ArrayList<>();
+    this.bidSide = BookSide.bids();
+    this.askSide = BookSide.asks();
     this.setTime(time);
     this.setTimeReceived(Instant.now());
     this.setRemoteKey(null);
@@ -294,8 +365,8 @@ public class Book extends MarketData implements Spread {
     //this.bookDao = bookDao;
 
     this.id = getId();
-    this.bids = new ArrayList<>();
-    this.asks = new ArrayList<>();
+    this.bidSide = BookSide.bids();
+    this.askSide = BookSide.asks();
     this.setTime(time);
     this.setTimeReceived(Instant.now());
     this.setRemoteKey(remoteKey);
@@ -305,8 +376,8 @@ public class Book extends MarketData implements Spread {
   @AssistedInject
   Book(@Assisted("bookTime") Instant time, @Assisted("bookTimeReceived") Instant timeReceived, @Assisted String remoteKey, @Assisted Tradeable market) {
     this.id = getId();
-    this.bids = new ArrayList<>();
-    this.asks = new ArrayList<>();
+    this.bidSide = BookSide.bids();
+    this.askSide = BookSide.asks();
     this.setTime(time);
     this.setTimeReceived(timeReceived);
     this.setRemoteKey(remoteKey);
@@ -316,8 +387,8 @@ public class Book extends MarketData implements Spread {
   public synchronized Book addBid(BigDecimal price, BigDecimal volume) {
     //   synchronized (lock) {
     Tradeable market = this.getMarket();
-    this.bids.add(Offer.bid(market, this.getTime(), this.getTimeReceived(), DiscreteAmount.roundedCountForBasis(price, market.getPriceBasis()),
-        DiscreteAmount.roundedCountForBasis(volume, market.getVolumeBasis())));
+    getBidSide().add(DiscreteAmount.roundedCountForBasis(price, market.getPriceBasis()),
+        DiscreteAmount.roundedCountForBasis(volume, market.getVolumeBasis()));
     return this;
 
     //   }
@@ -333,8 +404,8 @@ public class Book extends MarketData implements Spread {
 
   public synchronized Book addAsk(BigDecimal price, BigDecimal volume) {
     Tradeable market = this.getMarket();
-    this.asks.add(Offer.ask(market, this.getTime(), this.getTimeReceived(), DiscreteAmount.roundedCountForBasis(price, market.getPriceBasis()),
-        DiscreteAmount.roundedCountForBasis(volume, market.getVolumeBasis())));
+    getAskSide().add(DiscreteAmount.roundedCountForBasis(price, market.getPriceBasis()),
+        -DiscreteAmount.roundedCountForBasis(volume, market.getVolumeBasis()));
 
     return this;
 
@@ -342,37 +413,56 @@ public class Book extends MarketData implements Spread {
 
   }
 
-  public Book build() {
-    this.sortBook();
+  /** replaces both sides with copies of already sorted levels, e.g. when snapshotting a LiveBook */
+  public synchronized Book setLevels(BookSide bids, BookSide asks) {
+    getBidSide().copyFrom(bids);
+    getAskSide().copyFrom(asks);
+    return this;
+  }
 
-    // look for a Chain of Books of the same Market
-    String marketSymbol = this.getMarket().getSymbol();
-    Chain chain = chains.get(marketSymbol);
-    if (chain == null) {
-      // no chain exists for the Market, so create one
-      chain = new Chain();
-      chain.previousBook = this;
-      chains.put(marketSymbol, chain);
-    } else {
-      // a parent Book exists in the chain
-      Book parentBook;
-      if (chain.chainLength == MAX_PARENT_CHAIN_LENGTH) {
-        // reached max chain length.  set parent to null and reset the chain length count
-        parentBook = null;
-        chain.chainLength = 0;
+  /**
+   * joins this Book to its Market's chain, making the previous Book of the chain its parent
+   *
+   * @param chains the chains of the run this Book belongs to, e.g. of a LiveBook, so concurrent runs do not parent each other's Books
+   */
+  public Book build(Chains chains) {
+    // the sides are kept sorted as levels are added, so there is nothing to sort here
+    return chains.link(this);
+  }
+
+  /** The last Book of each Market, which the next Book built for the Market is diffed against in the db */
+  public static class Chains {
+
+    public synchronized Book link(Book book) {
+      // look for a Chain of Books of the same Market
+      String marketSymbol = book.getMarket().getSymbol();
+      Chain chain = chains.get(marketSymbol);
+      if (chain == null) {
+        // no chain exists for the Market, so create one
+        chain = new Chain();
+        chain.previousBook = book;
+        chains.put(marketSymbol, chain);
       } else {
-        // the chain is not too long.  use the previous book in the chain as a parent
-        parentBook = chain.previousBook;
-        chain.chainLength++;
-      }
+        // a parent Book exists in the chain
+        Book parentBook;
+        if (chain.chainLength == MAX_PARENT_CHAIN_LENGTH) {
+          // reached max chain length.  set parent to null and reset the chain length count
+          parentBook = null;
+          chain.chainLength = 0;
+        } else {
+          // the chain is not too long.  use the previous book in the chain as a parent
+          parentBook = chain.previousBook;
+          chain.chainLength++;
+        }
 
-      this.setParent(parentBook);
-      chain.previousBook = this;
+        book.setParent(parentBook);
+        chain.previousBook = book;
 
+      }
+      return book;
     }
 
-    Book result = this;
-    return result;
+    private final Map<String, Chain> chains = new HashMap<>();
   }
 
   /** Book.Builder remembers the previous Book it built, allowing for diffs to be saved in the db */
@@ -401,8 +491,8 @@ public class Book extends MarketData implements Spread {
 
       Tradeable market = book.getMarket();
       //   synchronized (lock) {
-      book.bids.add(Offer.bid(market, book.getTime(), book.getTimeReceived(), DiscreteAmount.roundedCountForBasis(price, market.getPriceBasis()),
-          DiscreteAmount.roundedCountForBasis(volume, market.getVolumeBasis())));
+      book.getBidSide().add(DiscreteAmount.roundedCountForBasis(price, market.getPriceBasis()),
+          DiscreteAmount.roundedCountForBasis(volume, market.getVolumeBasis()));
 
       return this;
     }
@@ -410,55 +500,21 @@ public class Book extends MarketData implements Spread {
     public Builder addAsk(BigDecimal price, BigDecimal volume) {
       Tradeable market = book.getMarket();
       // synchronized (lock) {
-      book.asks.add(Offer.ask(market, book.getTime(), book.getTimeReceived(), DiscreteAmount.roundedCountForBasis(price, market.getPriceBasis()),
-          DiscreteAmount.roundedCountForBasis(volume, market.getVolumeBasis())));
+      book.getAskSide().add(DiscreteAmount.roundedCountForBasis(price, market.getPriceBasis()),
+          -DiscreteAmount.roundedCountForBasis(volume, market.getVolumeBasis()));
       //  }
 
       return this;
     }
 
     public Book build() {
-      book.sortBook();
-
-      // look for a Chain of Books of the same Market
-      String marketSymbol = book.getMarket().getSymbol();
-      Chain chain = chains.get(marketSymbol);
-      if (chain == null) {
-        // no chain exists for the Market, so create one
-        chain = new Chain();
-        chain.previousBook = book;
-        chains.put(marketSymbol, chain);
-      } else {
-        // a parent Book exists in the chain
-        Book parentBook;
-        if (chain.chainLength == MAX_PARENT_CHAIN_LENGTH) {
-          // reached max chain length.  set parent to null and reset the chain length count
-          parentBook = null;
-          chain.chainLength = 0;
-        } else {
-          // the chain is not too long.  use the previous book in the chain as a parent
-          parentBook = chain.previousBook;
-          chain.chainLength++;
-        }
-
-        book.setParent(parentBook);
-        chain.previousBook = book;
-
-      }
-
-      Book result = book;
+      Book result = chains.link(book);
       book = Book.create();
       return result;
     }
 
-    private static class Chain {
-      private int chainLength;
-      private Book previousBook;
-      private String marketSymbol;
-    }
-
     private Book book;
-    private final Map<String, Chain> chains = new HashMap<>();
+    private final Chains chains = new Chains();
   }
 
   private static class Chain {
@@ -467,6 +523,90 @@ public class Book extends MarketData implements Spread {
     private String marketSymbol;
   }
 
+  /**
+   * OfferList is the List<Offer> view of a BookSide returned by getBids() and getAsks(). An Offer is only created the first time its level is
+   * read, and is then cached until the side is changed by something other than this view. add() ignores any requested index and inserts the
+   * Offer at its sorted position. Changing an Offer in place (e.g. setVolumeCount) is not written back to the primitive levels.
+   */
+  private class OfferList extends AbstractList<Offer> implements RandomAccess {
+
+    OfferList(BookSide side) {
+      this.side = side;
+    }
+
+    @Override
+    public Offer get(int index) {
+      sync();
+      Offer offer = offers[index];
+      if (offer == null) {
+        offer = new Offer(getMarket(), getTime(), getTimeReceived(), side.getPriceCount(index), side.getVolumeCount(index));
+        offers[index] = offer;
+      }
+      return offer;
+    }
+
+    @Override
+    public int size() {
+      return side.size();
+    }
+
+    @Override
+    public void add(int index, Offer offer) {
+      sync();
+      long priceCount = offer.getPriceCount() == null ? 0 : offer.getPriceCount();
+      long volumeCount = offer.getVolumeCount() == null ? 0 : offer.getVolumeCount();
+      int level = side.insertionPoint(priceCount);
+      side.insert(level, priceCount, volumeCount);
+      ensureCapacity(side.size());
+      System.arraycopy(offers, level, offers, level + 1, side.size() - level - 1);
+      offers[level] = offer;
+      expectedModCount = side.getModCount();
+      modCount++;
+    }
+
+    @Override
+    public Offer remove(int index) {
+      Offer removed = get(index);
+      side.remove(index);
+      System.arraycopy(offers, index + 1, offers, index, side.size() - index);
+      offers[side.size()] = null;
+      expectedModCount = side.getModCount();
+      modCount++;
+      return removed;
+    }
+
+    @Override
+    public Offer set(int index, Offer offer) {
+      Offer replaced = remove(index);
+      add(offer);
+      return replaced;
+    }
+
+    @Override
+    public void clear() {
+      side.clear();
+      sync();
+      modCount++;
+    }
+
+    private void sync() {
+      if (expectedModCount != side.getModCount()) {
+        offers = new Offer[Math.max(side.size(), 1)];
+        expectedModCount = side.getModCount();
+      }
+      ensureCapacity(side.size());
+    }
+
+    private void ensureCapacity(int capacity) {
+      if (offers.length < capacity)
+        offers = Arrays.copyOf(offers, Math.max(capacity, offers.length + (offers.length >> 1)));
+    }
+
+    private final BookSide side;
+    private Offer[] offers = new Offer[0];
+    private int expectedModCount = -1;
+  }
+
   @Override
   public String toString() {
     StringBuilder sb = new StringBuilder(getMarket().toString() + " Book at " + getTime() + " bids={");
@@ -598,15 +738,15 @@ public class Book extends MarketData implements Spread {
   // this is separate from the empty JPA constructor.  it allows Book.Builder to start with a minimally initialized Book
   private static Book create() {
     Book result = new Book();
-    result.bids = new ArrayList<>();
-    result.asks = new ArrayList<>();
+    result.bidSide = BookSide.bids();
+    result.askSide = BookSide.asks();
     return result;
   }
 
   private Book(boolean init) {
     Book result = new Book();
-    result.bids = new ArrayList<>();
-    result.asks = new ArrayList<>();
+    result.bidSide = BookSide.bids();
+    result.askSide = BookSide.asks();
 
   }
 
@@ -620,10 +760,10 @@ public class Book extends MarketData implements Spread {
     if (parent == null) {
 
       //PersistUtil.insert(getMarket());
-      if (bids != null)
-        bidInsertionsBlob = convertQuotesToDatabaseBlob(bids);
-      if (asks != null)
-        askInsertionsBlob = convertQuotesToDatabaseBlob(asks);
+      if (bidSide != null)
+        bidInsertionsBlob = BookCodec.encodeLevels(bidSide);
+      if (askSide != null)
+        askInsertionsBlob = BookCodec.encodeLevels(askSide);
       bidDeletionsBlob = null;
       askDeletionsBlob = null;
     } else {
@@ -640,25 +780,16 @@ public class Book extends MarketData implements Spread {
       //.refresh(getParentBook());
       //PersistUtil.detach(parent);
       //  PersistUtil.refresh(getParentBook());
-      DiffBlobs bidBlobs = diff(parent.getBids(), getBids());
+      DiffBlobs bidBlobs = diff(parent.getBidSide(), getBidSide());
       bidInsertionsBlob = bidBlobs.insertBlob;
       bidDeletionsBlob = bidBlobs.deleteBlob;
-      DiffBlobs askBlobs = diff(parent.getAsks(), getAsks());
+      DiffBlobs askBlobs = diff(parent.getAskSide(), getAskSide());
       askInsertionsBlob = askBlobs.insertBlob;
       askDeletionsBlob = askBlobs.deleteBlob;
 
     }
   }
 
-  @SuppressWarnings("ConstantConditions")
-  private boolean hasQuote(List<? extends Offer> list, Offer offer) {
-    for (Offer item : list) {
-      if (Long.compare(item.getPriceCount(), offer.getPriceCount()) == 0 && Long.compare(item.getVolumeCount(), offer.getVolumeCount()) == 0)
-        return true;
-    }
-    return false;
-  }
-
   @Override
   @PostPersist
   public synchronized void postPersist() {
@@ -673,8 +804,10 @@ public class Book extends MarketData implements Spread {
 
   @PostLoad
   private void postLoad() {
-    bids = convertDatabaseBlobToQuoteList(bidInsertionsBlob);
-    asks = convertDatabaseBlobToQuoteList(askInsertionsBlob);
+    bidSide = BookCodec.decodeLevels(bidInsertionsBlob, BookSide.bids());
+    askSide = BookCodec.decodeLevels(askInsertionsBlob, BookSide.asks());
+    bids = null;
+    asks = null;
     if (parent != null) {
       needToResolveDiff = true;
 
@@ -691,29 +824,30 @@ public class Book extends MarketData implements Spread {
   private void resolveDiff() {
     if (!needToResolveDiff)
       return;
+    resolveDiff(parent);
+  }
+
+  /** true for a Book loaded as a diff whose levels have not been merged with its parent's yet */
+  boolean needsDiffResolution() {
+    return needToResolveDiff;
+  }
+
+  /**
+   * Resolves the diff against resolvedParent rather than the loaded parent. ResolvedBookCache uses this to resolve against a parent it has
+   * already materialized, instead of walking the parent chain.
+   */
+  void resolveDiff(Book resolvedParent) {
     // no difference between books
     //if (bidDeletionsBlob == null || askDeletionsBlob == null)
     //return;
     if (bidDeletionsBlob == null || askDeletionsBlob == null)
       Log.debug("null blob");
     // add any non-deleted entries from the parent
-    List<Integer> bidDeletionIndexes = convertDatabaseBlobToIndexList(bidDeletionsBlob); // these should be already sorted
-    List<Offer> parentBids = parent.getBids();
-    for (int i = 0; i < parentBids.size(); i++) {
-      if (!bidDeletionIndexes.contains(i))
-        //  synchronized (lock) {
-        bids.add(parentBids.get(i));
-      // }
-    }
-    List<Integer> askDeletionIndexes = convertDatabaseBlobToIndexList(askDeletionsBlob); // these should be already sorted
-    List<Offer> parentAsks = parent.getAsks();
-    for (int i = 0; i < parentAsks.size(); i++) {
-      if (!askDeletionIndexes.contains(i))
-        //   synchronized (lock) {
-        asks.add(parentAsks.get(i));
-      //    }
-    }
-    sortBook();
+    // the sides are read directly here, since the getters would call back into resolveDiff()
+    bidSide = resolveSide(bidSide, resolvedParent.getBidSide(), BookCodec.decodeIndexes(bidDeletionsBlob));
+    askSide = resolveSide(askSide, resolvedParent.getAskSide(), BookCodec.decodeIndexes(askDeletionsBlob));
+    bids = null;
+    asks = null;
     clearBlobs();
     needToResolveDiff = false;
   }
@@ -726,92 +860,13 @@ public class Book extends MarketData implements Spread {
     askInsertionsBlob = null;
   }
 
-  @SuppressWarnings("ConstantConditions")
-  private static <T extends Offer> byte[] convertQuotesToDatabaseBlob(List<T> quotes) {
-    ByteArrayOutputStream bos = new ByteArrayOutputStream();
-    try {
-      ObjectOutputStream out = new ObjectOutputStream(bos);
-      out.writeInt(quotes.size());
-      for (T quote : quotes) {
-        out.writeLong(quote.getPriceCount());
-        out.writeLong(quote.getVolumeCount());
-      }
-      out.close();
-      bos.close();
-    } catch (IOException e) {
-      throw new Error(e);
-    }
-    return bos.toByteArray();
-  }
-
-  private List<Offer> convertDatabaseBlobToQuoteList(byte[] bytes) {
-    if (bytes == null)
-      return new ArrayList<>();
-    List<Offer> result = new ArrayList<>();
-    ByteArrayInputStream bin = new ByteArrayInputStream(bytes);
-    //noinspection EmptyCatchBlock
-    try {
-      ObjectInputStream in = new ObjectInputStream(bin);
-      int size = in.readInt();
-      for (int i = 0; i < size; i++) {
-        long price = in.readLong();
-        long volume = in.readLong();
-
-        result.add(new Offer(getMarket(), getTime(), getTimeReceived(), price, volume));
-
-      }
-      in.close();
-      bin.close();
-    } catch (IOException e) {
-      throw new Error(e);
-    }
-    return result;
-  }
-
-  @SuppressWarnings("ConstantConditions")
-  private static byte[] convertIndexesToDatabaseBlob(List<Integer> indexes) {
-    ByteArrayOutputStream bos = new ByteArrayOutputStream();
-    try {
-      ObjectOutputStream out = new ObjectOutputStream(bos);
-      out.writeInt(indexes.size());
-      for (Integer index : indexes)
-        out.writeInt(index);
-      out.close();
-      bos.close();
-    } catch (IOException e) {
-      throw new Error(e);
-    }
-    return bos.toByteArray();
-  }
-
-  private static List<Integer> convertDatabaseBlobToIndexList(byte[] bytes) {
-    List<Integer> result = new ArrayList<>();
-    if (bytes == null)
-      return result;
-    ByteArrayInputStream bin = new ByteArrayInputStream(bytes);
-    try {
-      ObjectInputStream in = new ObjectInputStream(bin);
-      int size = in.readInt();
-      for (int i = 0; i < size; i++)
-        result.add(in.readInt());
-      in.close();
-      bin.close();
-    } catch (IOException e) {
-      throw new Error(e);
-    }
-    return result;
-  }
-
   /** this implements the public diff() */
-  private void diff(DiffResult result, List<? extends Offer> childQuotes, List<? extends Offer> parentQuotes) {
-    for (Offer childOffer : childQuotes) {
-      if (!hasQuote(parentQuotes, childOffer))
-        result.newOffers.add(childOffer);
-    }
-    for (Offer parentOffer : parentQuotes) {
-      if (!hasQuote(childQuotes, parentOffer))
-        result.removedOffers.add(parentOffer);
-    }
+  private void diff(DiffResult result, List<Offer> childQuotes, BookSide childSide, List<Offer> parentQuotes, BookSide parentSide) {
+    SideDiff sideDiff = new SideDiff(parentSide, childSide);
+    for (int i = 0; i < sideDiff.insertionCount; i++)
+      result.newOffers.add(childQuotes.get(sideDiff.insertions[i]));
+    for (int i = 0; i < sideDiff.deletionCount; i++)
+      result.removedOffers.add(parentQuotes.get(sideDiff.deletions[i]));
   }
 
   private static class DiffBlobs {
@@ -820,44 +875,103 @@ public class Book extends MarketData implements Spread {
   }
 
   /** this is separate from the public diff for efficiency */
-  private DiffBlobs diff(List<? extends Offer> parentQuotes, List<? extends Offer> childQuotes) {
-    List<Offer> insertions = new ArrayList<>();
-    for (Offer childOffer : childQuotes) {
-      if (!hasQuote(parentQuotes, childOffer))
-        insertions.add(childOffer);
+  private static DiffBlobs diff(BookSide parentSide, BookSide childSide) {
+    SideDiff sideDiff = new SideDiff(parentSide, childSide);
+    BookSide insertions = new BookSide(childSide.isDescending(), sideDiff.insertionCount);
+    for (int i = 0; i < sideDiff.insertionCount; i++)
+      insertions.append(childSide.getPriceCount(sideDiff.insertions[i]), childSide.getVolumeCount(sideDiff.insertions[i]));
+    DiffBlobs result = new DiffBlobs();
+    result.insertBlob = BookCodec.encodeLevels(insertions);
+    result.deleteBlob = BookCodec.encodeIndexes(sideDiff.deletions, sideDiff.deletionCount);
+    return result;
+  }
+
+  /**
+   * A single pass over two sorted sides. A level is unchanged if the other side has a level with the same price and volume; the child levels
+   * which are not are insertions and the parent levels which are not are deletions. Only levels sharing a price are compared with each other,
+   * so the cost is linear in the depth of the book.
+   */
+  private static class SideDiff {
+
+    SideDiff(BookSide parentSide, BookSide childSide) {
+      insertions = new int[childSide.size()];
+      deletions = new int[parentSide.size()];
+      int p = 0;
+      int c = 0;
+      while (p < parentSide.size() || c < childSide.size()) {
+        int cmp;
+        if (p == parentSide.size())
+          cmp = 1;
+        else if (c == childSide.size())
+          cmp = -1;
+        else
+          cmp = parentSide.compare(parentSide.getPriceCount(p), childSide.getPriceCount(c));
+        if (cmp < 0) {
+          deletions[deletionCount++] = p++;
+        } else if (cmp > 0) {
+          insertions[insertionCount++] = c++;
+        } else {
+          // find the run of levels at this price on each side and match volumes within them
+          long price = parentSide.getPriceCount(p);
+          int parentEnd = p + 1;
+          while (parentEnd < parentSide.size() && parentSide.getPriceCount(parentEnd) == price)
+            parentEnd++;
+          int childEnd = c + 1;
+          while (childEnd < childSide.size() && childSide.getPriceCount(childEnd) == price)
+            childEnd++;
+          for (int i = p; i < parentEnd; i++)
+            if (!hasVolume(childSide, c, childEnd, parentSide.getVolumeCount(i)))
+              deletions[deletionCount++] = i;
+          for (int i = c; i < childEnd; i++)
+            if (!hasVolume(parentSide, p, parentEnd, childSide.getVolumeCount(i)))
+              insertions[insertionCount++] = i;
+          p = parentEnd;
+          c = childEnd;
+        }
+      }
     }
 
-    List<Integer> deletionIndexes = new ArrayList<>();
-    for (int i = 0; i < parentQuotes.size(); i++) {
-      Offer offer = parentQuotes.get(i);
-      if (!hasQuote(childQuotes, offer))
-        deletionIndexes.add(i);
+    private static boolean hasVolume(BookSide side, int from, int to, long volumeCount) {
+      for (int i = from; i < to; i++)
+        if (side.getVolumeCount(i) == volumeCount)
+          return true;
+      return false;
     }
-    DiffBlobs result = new DiffBlobs();
-    result.insertBlob = convertQuotesToDatabaseBlob(insertions);
-    result.deleteBlob = convertIndexesToDatabaseBlob(deletionIndexes);
-    return result;
+
+    final int[] insertions;
+    final int[] deletions;
+    int insertionCount;
+    int deletionCount;
   }
 
-  private void sortBook() {
-    //  synchronized (lock) {
-    Collections.sort(bids, new Comparator<Offer>() {
-      @Override
-      @SuppressWarnings("ConstantConditions")
-      public int compare(Offer bid, Offer bid2) {
-        return -bid.getPriceCount().compareTo(bid2.getPriceCount()); // high to low
+  /**
+   * Merges the levels this Book inserted with the parent levels it did not delete. Both are sorted, so this is one pass that only appends.
+   *
+   * @param deletions sorted indexes of parent levels to skip
+   */
+  private static BookSide resolveSide(BookSide insertions, BookSide parentSide, int[] deletions) {
+    BookSide result = new BookSide(insertions.isDescending(), insertions.size() + parentSide.size());
+    int i = 0;
+    int p = 0;
+    int d = 0;
+    while (i < insertions.size() || p < parentSide.size()) {
+      if (p < parentSide.size()) {
+        while (d < deletions.length && deletions[d] < p)
+          d++;
+        if (d < deletions.length && deletions[d] == p) {
+          p++;
+          continue;
+        }
       }
-    });
-    //    }
-    //    synchronized (lock) {
-    Collections.sort(asks, new Comparator<Offer>() {
-      @Override
-      @SuppressWarnings("ConstantConditions")
-      public int compare(Offer ask, Offer ask2) {
-        return ask.getPriceCount().compareTo(ask2.getPriceCount()); // low to high
+      if (p == parentSide.size() || (i < insertions.size() && insertions.compare(insertions.getPriceCount(i), parentSide.getPriceCount(p)) <= 0)) {
+        result.append(insertions.getPriceCount(i), insertions.getVolumeCount(i));
+        i++;
+      } else {
+        result.append(parentSide.getPriceCount(p), parentSide.getVolumeCount(p));
+        p++;
       }
-    });
-    //   }
+    }
+    return result;
   }
 
   public <T> T find() {
@@ -927,14 +1041,14 @@ public class Book extends MarketData implements Spread {
 
   }
 
-  private static final Map<String, Chain> chains = new HashMap<>();
-
   // @Inject
   // private FillJpaDao fillDao;
   @Inject
   protected transient BookDao bookDao;
-  private List<Offer> bids;
-  private List<Offer> asks;
+  private BookSide bidSide;
+  private BookSide askSide;
+  private transient List<Offer> bids;
+  private transient List<Offer> asks;
   private List<Book> children;
   private Book parent;// if this is not null, then the Book is persisted as a diff against the parent Book
   private byte[] bidDeletionsBlob;
@@ -0,0 +1,231 @@
+package org.cryptocoinpartners.schema;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * BookCodec reads and writes the blobs Book persists its levels and deletion indexes in.
+ *
+ * Every blob starts with a format byte. Version 1 levels are a varint count followed by the best level's price and volume, then each further
+ * level as the zigzag varint difference from the previous level's price and a zigzag varint volume. Since a side's prices are sorted and close
+ * together, most levels take two or three bytes instead of sixteen. Version 1 deletion indexes are stored either as runs of consecutive
+ * indexes or as a bitset, whichever is smaller.
+ *
+ * Blobs written by older versions with an ObjectOutputStream are recognized by the stream magic and decoded with the legacy reader, so
+ * existing Book rows stay readable without a migration.
+ */
+class BookCodec {
+
+    static final byte VERSION_1 = 1;
+
+    private static final byte INDEXES_RUNS = 0;
+    private static final byte INDEXES_BITSET = 1;
+    private static final int[] NO_INDEXES = new int[0];
+
+    static byte[] encodeLevels(BookSide side) {
+        Writer out = new Writer(2 + side.size() * 4);
+        out.writeByte(VERSION_1);
+        out.writeVarint(side.size());
+        long previousPrice = 0;
+        for (int i = 0; i < side.size(); i++) {
+            long price = side.getPriceCount(i);
+            out.writeSignedVarint(price - previousPrice);
+            out.writeSignedVarint(side.getVolumeCount(i));
+            previousPrice = price;
+        }
+        return out.toByteArray();
+    }
+
+    /** adds the levels in bytes to result, which may already hold levels */
+    static BookSide decodeLevels(byte[] bytes, BookSide result) {
+        if (bytes == null || bytes.length == 0)
+            return result;
+        if (isLegacy(bytes))
+            return decodeLegacyLevels(bytes, result);
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        checkVersion(in.get());
+        int size = (int) readVarint(in);
+        long price = 0;
+        for (int i = 0; i < size; i++) {
+            price += readSignedVarint(in);
+            result.add(price, readSignedVarint(in));
+        }
+        return result;
+    }
+
+    /** @param indexes sorted level indexes, of which the first count are used */
+    static byte[] encodeIndexes(int[] indexes, int count) {
+        int runs = 0;
+        for (int i = 0; i < count; i++)
+            if (i == 0 || indexes[i] != indexes[i - 1] + 1)
+                runs++;
+        int bitsetBytes = count == 0 ? 0 : (indexes[count - 1] >> 3) + 1;
+        // a run costs at least two bytes, so prefer the bitset once it is smaller than that
+        if (count > 0 && bitsetBytes < runs * 2) {
+            Writer out = new Writer(bitsetBytes + 4);
+            out.writeByte(VERSION_1);
+            out.writeByte(INDEXES_BITSET);
+            out.writeVarint(bitsetBytes);
+            byte[] bits = new byte[bitsetBytes];
+            for (int i = 0; i < count; i++)
+                bits[indexes[i] >> 3] |= 1 << (indexes[i] & 7);
+            out.writeBytes(bits);
+            return out.toByteArray();
+        }
+        Writer out = new Writer(3 + runs * 2);
+        out.writeByte(VERSION_1);
+        out.writeByte(INDEXES_RUNS);
+        out.writeVarint(runs);
+        int nextExpected = 0;
+        int i = 0;
+        while (i < count) {
+            int start = indexes[i];
+            int end = i + 1;
+            while (end < count && indexes[end] == indexes[end - 1] + 1)
+                end++;
+            // gaps from the end of the previous run keep the numbers small
+            out.writeVarint(start - nextExpected);
+            out.writeVarint(end - i);
+            nextExpected = start + (end - i);
+            i = end;
+        }
+        return out.toByteArray();
+    }
+
+    /** @return the sorted indexes held in bytes, or an empty array if bytes is null */
+    static int[] decodeIndexes(byte[] bytes) {
+        if (bytes == null || bytes.length == 0)
+            return NO_INDEXES;
+        if (isLegacy(bytes))
+            return decodeLegacyIndexes(bytes);
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        checkVersion(in.get());
+        byte encoding = in.get();
+        if (encoding == INDEXES_BITSET) {
+            int length = (int) readVarint(in);
+            int[] result = new int[length * 8];
+            int count = 0;
+            for (int i = 0; i < length; i++) {
+                int bits = in.get() & 0xff;
+                for (int bit = 0; bits != 0; bit++, bits >>>= 1)
+                    if ((bits & 1) != 0)
+                        result[count++] = (i << 3) + bit;
+            }
+            return Arrays.copyOf(result, count);
+        }
+        if (encoding != INDEXES_RUNS)
+            throw new Error("unknown book index encoding " + encoding);
+        int runs = (int) readVarint(in);
+        int[] result = new int[Math.max(runs, 8)];
+        int count = 0;
+        int next = 0;
+        for (int run = 0; run < runs; run++) {
+            next += (int) readVarint(in);
+            int length = (int) readVarint(in);
+            if (count + length > result.length)
+                result = Arrays.copyOf(result, Math.max(count + length, result.length * 2));
+            for (int i = 0; i < length; i++)
+                result[count++] = next++;
+        }
+        return count == result.length ? result : Arrays.copyOf(result, count);
+    }
+
+    /** blobs written by ObjectOutputStream start with the stream magic 0xACED */
+    static boolean isLegacy(byte[] bytes) {
+        return bytes.length >= 2 && bytes[0] == (byte) 0xAC && bytes[1] == (byte) 0xED;
+    }
+
+    private static void checkVersion(byte version) {
+        if (version != VERSION_1)
+            throw new Error("unknown book blob version " + version);
+    }
+
+    private static BookSide decodeLegacyLevels(byte[] bytes, BookSide result) {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                long price = in.readLong();
+                long volume = in.readLong();
+                result.add(price, volume);
+            }
+        } catch (IOException e) {
+            throw new Error(e);
+        }
+        return result;
+    }
+
+    private static int[] decodeLegacyIndexes(byte[] bytes) {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            int[] result = new int[in.readInt()];
+            for (int i = 0; i < result.length; i++)
+                result[i] = in.readInt();
+            Arrays.sort(result);
+            return result;
+        } catch (IOException e) {
+            throw new Error(e);
+        }
+    }
+
+    private static long readVarint(ByteBuffer in) {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            result |= (long) (b & 0x7f) << shift;
+            if (b >= 0)
+                return result;
+        }
+        throw new Error("malformed varint in book blob");
+    }
+
+    private static long readSignedVarint(ByteBuffer in) {
+        long zigzag = readVarint(in);
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+
+    /** a growable byte array, cheaper than a ByteArrayOutputStream since nothing is synchronized */
+    private static class Writer {
+
+        Writer(int capacity) {
+            buffer = new byte[Math.max(capacity, 8)];
+        }
+
+        void writeByte(int b) {
+            ensureCapacity(1);
+            buffer[size++] = (byte) b;
+        }
+
+        void writeBytes(byte[] bytes) {
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, buffer, size, bytes.length);
+            size += bytes.length;
+        }
+
+        void writeVarint(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7fL) != 0) {
+                buffer[size++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            buffer[size++] = (byte) value;
+        }
+
+        void writeSignedVarint(long value) {
+            writeVarint((value << 1) ^ (value >> 63));
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, size);
+        }
+
+        private void ensureCapacity(int extra) {
+            if (size + extra > buffer.length)
+                buffer = Arrays.copyOf(buffer, Math.max(size + extra, buffer.length * 2));
+        }
+
+        private byte[] buffer;
+        private int size;
+    }
+}
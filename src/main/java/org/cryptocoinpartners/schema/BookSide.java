@@ -0,0 +1,252 @@
+package org.cryptocoinpartners.schema;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * BookSide holds one side of a Book as parallel primitive arrays of price and volume counts, always kept sorted best price first. Bids are
+ * ordered high to low and asks low to high. Levels with equal prices keep their insertion order, the same as the stable sort Book used to run
+ * on every build(). Volumes are stored exactly as the Offers carry them, so asks have negative volume counts.
+ *
+ * None of the accessors allocate, which lets Book answer best bid/ask, depth and volume-weighted price queries without creating Offers.
+ * BookSide is not thread safe; callers synchronize on the owning Book.
+ */
+public class BookSide implements Serializable {
+
+    private static final long serialVersionUID = 3360873281726374109L;
+    private static final int DEFAULT_CAPACITY = 16;
+
+    public static BookSide bids() {
+        return new BookSide(true, DEFAULT_CAPACITY);
+    }
+
+    public static BookSide asks() {
+        return new BookSide(false, DEFAULT_CAPACITY);
+    }
+
+    public BookSide(boolean descending, int capacity) {
+        this.descending = descending;
+        this.priceCounts = new long[Math.max(capacity, 1)];
+        this.volumeCounts = new long[Math.max(capacity, 1)];
+    }
+
+    /** true for bids, which are sorted from the highest price to the lowest */
+    public boolean isDescending() {
+        return descending;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /** incremented on every change to the levels, so views can tell when their cached levels are stale */
+    public int getModCount() {
+        return modCount;
+    }
+
+    public long getPriceCount(int level) {
+        checkLevel(level);
+        return priceCounts[level];
+    }
+
+    public long getVolumeCount(int level) {
+        checkLevel(level);
+        return volumeCounts[level];
+    }
+
+    /** @return the price count of the best level, or emptyPriceCount if this side has no levels */
+    public long getBestPriceCount(long emptyPriceCount) {
+        return size == 0 ? emptyPriceCount : priceCounts[0];
+    }
+
+    /** @return the volume count of the best level, or zero if this side has no levels */
+    public long getBestVolumeCount() {
+        return size == 0 ? 0 : volumeCounts[0];
+    }
+
+    /**
+     * Inserts a level at its sorted position, after any levels already at the same price.
+     *
+     * @return the level index the price was inserted at
+     */
+    public int add(long priceCount, long volumeCount) {
+        int level = insertionPoint(priceCount);
+        insert(level, priceCount, volumeCount);
+        return level;
+    }
+
+    /**
+     * Appends a level which the caller guarantees sorts at or after the current worst level. Used when copying from an already sorted source.
+     */
+    public void append(long priceCount, long volumeCount) {
+        if (size > 0 && compare(priceCounts[size - 1], priceCount) > 0)
+            throw new IllegalArgumentException("price count " + priceCount + " is out of order for " + (descending ? "bids" : "asks"));
+        ensureCapacity(size + 1);
+        priceCounts[size] = priceCount;
+        volumeCounts[size] = volumeCount;
+        size++;
+        modCount++;
+    }
+
+    /** replaces the volume at a level without moving it */
+    public void setVolumeCount(int level, long volumeCount) {
+        checkLevel(level);
+        volumeCounts[level] = volumeCount;
+        modCount++;
+    }
+
+    public void remove(int level) {
+        checkLevel(level);
+        int moved = size - level - 1;
+        if (moved > 0) {
+            System.arraycopy(priceCounts, level + 1, priceCounts, level, moved);
+            System.arraycopy(volumeCounts, level + 1, volumeCounts, level, moved);
+        }
+        size--;
+        modCount++;
+    }
+
+    public void clear() {
+        size = 0;
+        modCount++;
+    }
+
+    /** @return the first level with exactly this price count, or -1 if there is none */
+    public int indexOf(long priceCount) {
+        int low = 0;
+        int high = size - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compare(priceCounts[mid], priceCount);
+            if (cmp < 0)
+                low = mid + 1;
+            else {
+                if (cmp == 0)
+                    found = mid;
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    /** @return the sum of the volume counts of the best levels, up to the given number of levels */
+    public long getVolumeCountToDepth(int levels) {
+        long total = 0;
+        int end = Math.min(levels, size);
+        for (int i = 0; i < end; i++)
+            total += volumeCounts[i];
+        return total;
+    }
+
+    /**
+     * @return the first level at which the cumulative absolute volume reaches volumeCount, or the worst level if the side does not hold that
+     *         much volume, or -1 if the side is empty
+     */
+    public int getLevelForVolumeCount(long volumeCount) {
+        long remaining = Math.abs(volumeCount);
+        for (int i = 0; i < size; i++) {
+            remaining -= Math.abs(volumeCounts[i]);
+            if (remaining <= 0)
+                return i;
+        }
+        return size - 1;
+    }
+
+    /**
+     * Walks the book from the best level until volumeCount (in absolute terms) has been consumed.
+     *
+     * @return the volume-weighted average price count of the consumed levels, or NaN if the side is empty
+     */
+    public double getVolumeWeightedPriceCount(long volumeCount) {
+        long remaining = Math.abs(volumeCount);
+        double notional = 0;
+        long filled = 0;
+        for (int i = 0; i < size && remaining > 0; i++) {
+            long levelVolume = Math.min(Math.abs(volumeCounts[i]), remaining);
+            notional += (double) levelVolume * priceCounts[i];
+            filled += levelVolume;
+            remaining -= levelVolume;
+        }
+        if (filled == 0)
+            return size == 0 ? Double.NaN : priceCounts[0];
+        return notional / filled;
+    }
+
+    /** replaces the contents of this side with a copy of another side's levels */
+    public void copyFrom(BookSide other) {
+        ensureCapacity(other.size);
+        System.arraycopy(other.priceCounts, 0, priceCounts, 0, other.size);
+        System.arraycopy(other.volumeCounts, 0, volumeCounts, 0, other.size);
+        size = other.size;
+        modCount++;
+    }
+
+    /** @return negative if priceCount sorts before otherPriceCount on this side */
+    public int compare(long priceCount, long otherPriceCount) {
+        return descending ? Long.compare(otherPriceCount, priceCount) : Long.compare(priceCount, otherPriceCount);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(descending ? "bids={" : "asks={");
+        for (int i = 0; i < size; i++) {
+            if (i > 0)
+                sb.append(';');
+            sb.append(volumeCounts[i]).append('@').append(priceCounts[i]);
+        }
+        return sb.append('}').toString();
+    }
+
+    int insertionPoint(long priceCount) {
+        // upper bound, so equal prices keep their arrival order
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(priceCounts[mid], priceCount) <= 0)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    void insert(int level, long priceCount, long volumeCount) {
+        if (level < 0 || level > size)
+            throw new IndexOutOfBoundsException("level " + level + " size " + size);
+        ensureCapacity(size + 1);
+        int moved = size - level;
+        if (moved > 0) {
+            System.arraycopy(priceCounts, level, priceCounts, level + 1, moved);
+            System.arraycopy(volumeCounts, level, volumeCounts, level + 1, moved);
+        }
+        priceCounts[level] = priceCount;
+        volumeCounts[level] = volumeCount;
+        size++;
+        modCount++;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= priceCounts.length)
+            return;
+        int newCapacity = Math.max(capacity, priceCounts.length + (priceCounts.length >> 1));
+        priceCounts = Arrays.copyOf(priceCounts, newCapacity);
+        volumeCounts = Arrays.copyOf(volumeCounts, newCapacity);
+    }
+
+    private void checkLevel(int level) {
+        if (level < 0 || level >= size)
+            throw new IndexOutOfBoundsException("level " + level + " size " + size);
+    }
+
+    private final boolean descending;
+    private long[] priceCounts;
+    private long[] volumeCounts;
+    private int size;
+    private transient int modCount;
+}
@@ -0,0 +1,158 @@
+package org.cryptocoinpartners.schema;
+
+import java.math.BigDecimal;
+
+import javax.persistence.Transient;
+
+import org.cryptocoinpartners.schema.dao.Dao;
+import org.joda.time.Instant;
+
+/**
+ * BookUpdate is published when a single price level of a LiveBook changes. volumeCount is the new total volume resting at priceCount, signed
+ * the same way as Offers (asks are negative), and is zero when the level was removed. level is the index of the price on its side after the
+ * change, so level 0 means the top of the book moved.
+ *
+ * BookUpdates are not persisted; throttled Book snapshots are still published for persistence and for consumers which need the full book.
+ */
+public class BookUpdate extends RemoteEvent {
+
+    public BookUpdate(LiveBook book, Side side, long priceCount, long volumeCount, long previousVolumeCount, int level, long sequence,
+            Instant time, Instant timeReceived) {
+        super(time, timeReceived, null);
+        this.book = book;
+        this.market = book.getMarket();
+        this.side = side;
+        this.priceCount = priceCount;
+        this.volumeCount = volumeCount;
+        this.previousVolumeCount = previousVolumeCount;
+        this.level = level;
+        this.sequence = sequence;
+    }
+
+    @Transient
+    public Market getMarket() {
+        return market;
+    }
+
+    /** the live book this update was applied to, for consumers which want to read neighbouring levels */
+    @Transient
+    public LiveBook getBook() {
+        return book;
+    }
+
+    @Transient
+    public Side getSide() {
+        return side;
+    }
+
+    @Transient
+    public long getPriceCount() {
+        return priceCount;
+    }
+
+    @Transient
+    public long getVolumeCount() {
+        return volumeCount;
+    }
+
+    @Transient
+    public long getPreviousVolumeCount() {
+        return previousVolumeCount;
+    }
+
+    @Transient
+    public int getLevel() {
+        return level;
+    }
+
+    /** increases by one for every update applied to the same LiveBook, so consumers can detect missed updates */
+    @Transient
+    public long getSequence() {
+        return sequence;
+    }
+
+    @Transient
+    public boolean isRemoved() {
+        return volumeCount == 0;
+    }
+
+    @Transient
+    public boolean isTopOfBook() {
+        return level == 0;
+    }
+
+    @Transient
+    public double getPriceAsDouble() {
+        return priceCount * market.getPriceBasis();
+    }
+
+    @Transient
+    public BigDecimal getPriceAsBigDecimal() {
+        return new DiscreteAmount(priceCount, market.getPriceBasis()).asBigDecimal();
+    }
+
+    @Transient
+    public double getVolumeAsDouble() {
+        return volumeCount * market.getVolumeBasis();
+    }
+
+    @Override
+    public String toString() {
+        return "BookUpdate{" + market + " " + side + " " + volumeCount + "@" + priceCount + " level=" + level + " seq=" + sequence + "}";
+    }
+
+    @Override
+    @Transient
+    public EntityBase getParent() {
+        return null;
+    }
+
+    @Override
+    public void persit() {
+    }
+
+    @Override
+    public void detach() {
+    }
+
+    @Override
+    public void merge() {
+    }
+
+    @Override
+    @Transient
+    public Dao getDao() {
+        return null;
+    }
+
+    @Override
+    @Transient
+    public void setDao(Dao dao) {
+    }
+
+    @Override
+    public void delete() {
+    }
+
+    @Override
+    public EntityBase refresh() {
+        return null;
+    }
+
+    @Override
+    public void prePersist() {
+    }
+
+    @Override
+    public void postPersist() {
+    }
+
+    private final transient LiveBook book;
+    private final Market market;
+    private final Side side;
+    private final long priceCount;
+    private final long volumeCount;
+    private final long previousVolumeCount;
+    private final int level;
+    private final long sequence;
+}
@@ -0,0 +1,183 @@
+package org.cryptocoinpartners.schema;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.cryptocoinpartners.enumeration.TransactionType;
+
+/**
+ * A CashLedger keeps the cash balance of a Portfolio for each Asset and Exchange, and is updated as each Transaction is added or removed
+ * instead of being recomputed from every Transaction the Portfolio has ever seen.
+ *
+ * Trades (BUY and SELL) move their cost into the Transaction's asset, cash flows (CREDIT, DEBIT, INTREST and FEES) move their cost into its
+ * currency, transfers (REBALANCE) move their amount into the currency and their cost into the asset, and realised profit and loss is held
+ * apart so it can be reset on its own. The balance of an Asset is the sum of all of these.
+ *
+ * recompute() rebuilds the balances from scratch so a test can check the ledger against the full history.
+ */
+public class CashLedger {
+
+  /** applies a Transaction which was added to the Portfolio. Realised profit and loss is applied through addRealised */
+  public synchronized void add(Transaction transaction) {
+    apply(transaction, false);
+  }
+
+  /** reverses a Transaction which was removed from the Portfolio */
+  public synchronized void remove(Transaction transaction) {
+    apply(transaction, true);
+  }
+
+  public synchronized void addRealised(Asset currency, Exchange exchange, Amount realisedPnL) {
+    credit(realised, currency, exchange, realisedPnL);
+  }
+
+  /** clears the balances of the Transactions, keeping the realised profit and loss */
+  public synchronized void resetCash() {
+    cash.clear();
+    trades.clear();
+  }
+
+  public synchronized void resetRealised() {
+    realised.clear();
+  }
+
+  public synchronized void reset() {
+    cash.clear();
+    realised.clear();
+    trades.clear();
+  }
+
+  /** @return the balance of each Asset summed over all Exchanges */
+  public synchronized Map<Asset, Amount> getBalances() {
+    Map<Asset, Amount> balances = new HashMap<Asset, Amount>();
+    sum(cash, balances);
+    sum(realised, balances);
+    return balances;
+  }
+
+  /** @return the balance of each Asset on the given Exchange */
+  public synchronized Map<Asset, Amount> getBalances(Exchange exchange) {
+    Map<Asset, Amount> balances = new HashMap<Asset, Amount>();
+    sum(cash, exchange, balances);
+    sum(realised, exchange, balances);
+    return balances;
+  }
+
+  public synchronized Amount getBalance(Asset asset) {
+    Map<Asset, Amount> balances = new HashMap<Asset, Amount>();
+    sum(cash, asset, balances);
+    sum(realised, asset, balances);
+    return plus(balances.get(asset), DecimalAmount.ZERO);
+  }
+
+  /** @return the cost of the BUY and SELL Transactions of each Asset */
+  public synchronized Map<Asset, Amount> getTradeBalances() {
+    return new HashMap<Asset, Amount>(trades);
+  }
+
+  /** @return a ledger built from the full history, for checking an incrementally maintained one */
+  public static CashLedger recompute(Collection<Transaction> transactions, Map<Asset, ? extends Map<Exchange, ? extends Map<Listing, Amount>>> realisedPnL) {
+    CashLedger ledger = new CashLedger();
+    for (Transaction transaction : transactions)
+      ledger.add(transaction);
+    for (Map.Entry<Asset, ? extends Map<Exchange, ? extends Map<Listing, Amount>>> asset : realisedPnL.entrySet())
+      for (Map.Entry<Exchange, ? extends Map<Listing, Amount>> exchange : asset.getValue().entrySet())
+        for (Amount amount : exchange.getValue().values())
+          ledger.addRealised(asset.getKey(), exchange.getKey(), amount);
+    return ledger;
+  }
+
+  /** @return a description of each Asset whose balance differs from the other ledger's, or null if they agree */
+  public synchronized String compare(CashLedger other) {
+    Map<Asset, Amount> balances = getBalances();
+    Map<Asset, Amount> expected = other.getBalances();
+    StringBuilder mismatches = new StringBuilder();
+    for (Asset asset : union(balances, expected)) {
+      Amount balance = plus(balances.get(asset), DecimalAmount.ZERO);
+      Amount expectedBalance = plus(expected.get(asset), DecimalAmount.ZERO);
+      if (balance.compareTo(expectedBalance) != 0)
+        mismatches.append(" ").append(asset).append(" ledger ").append(balance).append(" history ").append(expectedBalance);
+    }
+    return mismatches.length() == 0 ? null : mismatches.toString().trim();
+  }
+
+  private void apply(Transaction transaction, boolean reverse) {
+    if (transaction == null || transaction.getType() == null)
+      return;
+    TransactionType type = transaction.getType();
+    switch (type) {
+      case BUY:
+      case SELL:
+        Amount cost = signed(transaction.getCost(), reverse);
+        credit(cash, transaction.getAsset(), transaction.getExchange(), cost);
+        if (transaction.getAsset() != null && cost != null)
+          trades.put(transaction.getAsset(), plus(trades.get(transaction.getAsset()), cost));
+        break;
+      case CREDIT:
+      case DEBIT:
+      case INTREST:
+      case FEES:
+        credit(cash, transaction.getCurrency(), transaction.getExchange(), signed(transaction.getCost(), reverse));
+        break;
+      case REBALANCE:
+        credit(cash, transaction.getCurrency(), transaction.getExchange(), signed(transaction.getAmount(), reverse));
+        credit(cash, transaction.getAsset(), transaction.getExchange(), signed(transaction.getCost(), reverse));
+        break;
+      default:
+        break;
+    }
+  }
+
+  private static void credit(Map<Asset, Map<Exchange, Amount>> balances, Asset asset, Exchange exchange, Amount amount) {
+    if (asset == null || amount == null)
+      return;
+    Map<Exchange, Amount> assetBalances = balances.get(asset);
+    if (assetBalances == null) {
+      // a HashMap so transactions without an exchange can be held against the null key
+      assetBalances = new HashMap<Exchange, Amount>();
+      balances.put(asset, assetBalances);
+    }
+    assetBalances.put(exchange, plus(assetBalances.get(exchange), amount));
+  }
+
+  private static Amount signed(Amount amount, boolean reverse) {
+    return amount == null || !reverse ? amount : amount.negate();
+  }
+
+  private static Amount plus(Amount balance, Amount amount) {
+    return balance == null ? amount : balance.plus(amount);
+  }
+
+  private static void sum(Map<Asset, Map<Exchange, Amount>> source, Map<Asset, Amount> balances) {
+    for (Map.Entry<Asset, Map<Exchange, Amount>> entry : source.entrySet())
+      for (Amount amount : entry.getValue().values())
+        balances.put(entry.getKey(), plus(balances.get(entry.getKey()), amount));
+  }
+
+  private static void sum(Map<Asset, Map<Exchange, Amount>> source, Exchange exchange, Map<Asset, Amount> balances) {
+    for (Map.Entry<Asset, Map<Exchange, Amount>> entry : source.entrySet()) {
+      Amount amount = entry.getValue().get(exchange);
+      if (amount != null)
+        balances.put(entry.getKey(), plus(balances.get(entry.getKey()), amount));
+    }
+  }
+
+  private static void sum(Map<Asset, Map<Exchange, Amount>> source, Asset asset, Map<Asset, Amount> balances) {
+    if (source.get(asset) != null)
+      for (Amount amount : source.get(asset).values())
+        balances.put(asset, plus(balances.get(asset), amount));
+  }
+
+  private static Set<Asset> union(Map<Asset, Amount> a, Map<Asset, Amount> b) {
+    Set<Asset> assets = new HashSet<Asset>(a.keySet());
+    assets.addAll(b.keySet());
+    return assets;
+  }
+
+  private final Map<Asset, Map<Exchange, Amount>> cash = new HashMap<Asset, Map<Exchange, Amount>>();
+  private final Map<Asset, Map<Exchange, Amount>> realised = new HashMap<Asset, Map<Exchange, Amount>>();
+  private final Map<Asset, Amount> trades = new HashMap<Asset, Amount>();
+}
@@ -41,7 +41,10 @@ public class Currency extends Asset {
   }
 
   public static Currency forSymbol(String symbol) {
-    return EM.queryOne(Currency.class, "select c from Currency c where symbol=?1", symbol);
+    Currency currency = ReferenceData.getCurrency(symbol);
+    if (currency != null)
+      return currency;
+    return ReferenceData.intern(EM.queryOne(Currency.class, "select c from Currency c where symbol=?1", symbol));
   }
 
   public static List<String> allSymbols() {
@@ -84,7 +87,7 @@ public class Currency extends Asset {
         // TODO Auto-generated catch block
         e1.printStackTrace();
       }
-      return currency;
+      return ReferenceData.intern(currency);
     }
   }
 
@@ -101,7 +104,7 @@ public class Currency extends Asset {
         // TODO Auto-generated catch block
 
       }
-      return currency;
+      return ReferenceData.intern(currency);
     }
   }
 
@@ -15,6 +15,7 @@ import javax.persistence.Version;
 import org.cryptocoinpartners.enumeration.PersistanceAction;
 import org.cryptocoinpartners.schema.dao.Dao;
 import org.cryptocoinpartners.util.ConfigUtil;
+import org.cryptocoinpartners.util.Diagnostics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -53,23 +54,23 @@ public abstract class EntityBase implements java.io.Serializable, Cloneable, Com
 
     @Transient
     public void getUpdateLock() throws InterruptedException {
-        log.debug(this.getClass().getSimpleName() + " : getUpdateLock - attempting to get update lock for id " + getId() + " called from class "
-                + Thread.currentThread().getStackTrace()[2]);
+        log.debug("{} : getUpdateLock - attempting to get update lock for id {} called from class {}", this.getClass().getSimpleName(), getId(),
+                Diagnostics.caller());
         updateLock.acquire();
-        log.debug(this.getClass().getSimpleName() + " : getUpdateLock - acquired  update lock for id " + getId() + " called from class "
-                + Thread.currentThread().getStackTrace()[2]);
+        log.debug("{} : getUpdateLock - acquired  update lock for id {} called from class {}", this.getClass().getSimpleName(), getId(),
+                Diagnostics.caller());
 
     }
 
     @Transient
     public void releaseUpdateLock() {
         // Log.debug(messages)
-        log.debug(this.getClass().getSimpleName() + " : releaseUpdateLock - attempting to release update lock for id " + getId() + " called from class "
-                + Thread.currentThread().getStackTrace()[2]);
+        log.debug("{} : releaseUpdateLock - attempting to release update lock for id {} called from class {}", this.getClass().getSimpleName(),
+                getId(), Diagnostics.caller());
 
         updateLock.release();
-        log.debug(this.getClass().getSimpleName() + " : getUpdateLock - released update lock for id " + getId() + " called from class "
-                + Thread.currentThread().getStackTrace()[2]);
+        log.debug("{} : getUpdateLock - released update lock for id {} called from class {}", this.getClass().getSimpleName(), getId(),
+                Diagnostics.caller());
 
     }
 
@@ -34,6 +34,7 @@ import org.cryptocoinpartners.enumeration.PositionType;
 import org.cryptocoinpartners.schema.dao.Dao;
 import org.cryptocoinpartners.schema.dao.FillDao;
 import org.cryptocoinpartners.service.OrderService;
+import org.cryptocoinpartners.util.Diagnostics;
 import org.cryptocoinpartners.util.EM;
 import org.cryptocoinpartners.util.FeesUtil;
 import org.hibernate.Hibernate;
@@ -170,7 +171,7 @@ public class Fill extends RemoteEvent {
       this.setPeristanceAction(PersistanceAction.MERGE);
 
       this.setRevision(this.getRevision() + 1);
-      log.trace("Fill - Merge : Merge of Fill " + this + " called from class " + Thread.currentThread().getStackTrace()[2]);
+      log.trace("Fill - Merge : Merge of Fill {} called from class {}", this, Diagnostics.caller());
 
       fillDao.merge(this);
       //if (duplicate == null || duplicate.isEmpty())
@@ -216,7 +217,7 @@ public class Fill extends RemoteEvent {
     //    childOrder.p
     //  childOrder.persit();
     // try {
-    log.debug("Fill - Persist : Persit of Fill " + this + " called from class " + Thread.currentThread().getStackTrace()[2]);
+    log.debug("Fill - Persist : Persit of Fill {} called from class {}", this, Diagnostics.caller());
     fillDao.persist(this);
     //  } catch (Exception | Error ex) {
     //   fillDao.merge(this);
@@ -402,8 +403,8 @@ public class Fill extends RemoteEvent {
   }
 
   protected synchronized void setFillChildOrders(List<Order> children) {
-    log.trace("Fill:setFillChildOrders setting child orders [ ] to " + System.identityHashCode(children) + " for fill " + getId() + " / "
-        + System.identityHashCode(this) + "Calling class " + Thread.currentThread().getStackTrace()[2]);
+    log.trace("Fill:setFillChildOrders setting child orders [ ] to {} for fill {} / {}Calling class {}", System.identityHashCode(children), getId(),
+        System.identityHashCode(this), Diagnostics.caller());
     ////     for (StackTraceElement ste : Thread.currentThread().getStackTrace()) {
     //     log.error(ste.toString());
     // }
@@ -720,8 +721,7 @@ public class Fill extends RemoteEvent {
     Fill fillWithTransactions;
 
     // Set test = new HashSet();
-    log.trace("Fill:loadAllChildOrdersByFill loading child order for fill " + parentFill.getId() + ". Calling class "
-        + Thread.currentThread().getStackTrace()[2]);
+    log.trace("Fill:loadAllChildOrdersByFill loading child order for fill {}. Calling class {}", parentFill.getId(), Diagnostics.caller());
     try {
       log.trace("Fill:loadAllChildOrdersByFill loading child order for parent order: " + parentFill.getOrder().getId() + "/"
           + System.identityHashCode(parentFill.getOrder()) + " of fill " + parentFill.getId() + ". Calling class ");
@@ -923,21 +923,17 @@ public class Fill extends RemoteEvent {
   }
 
   public synchronized void setOpenVolumeCount(long openVolumeCount) {
-    log.trace(this.getClass().getSimpleName() + " : setOpenVolumeCount to " + openVolumeCount + "for " + this.getId() + "called from stack "
-        + Thread.currentThread().getStackTrace()[2]);
+    log.trace("{} : setOpenVolumeCount to {}for {}called from stack {}", this.getClass().getSimpleName(), openVolumeCount, this.getId(),
+        Diagnostics.caller());
     // for (StackTraceElement element : Thread.currentThread().getStackTrace())
     //   log.debug(element.toString());
+    long delta = openVolumeCount - this.openVolumeCount;
     this.openVolumeCount = openVolumeCount;
     this.openVolume = null;
-    if (this.position != null) {
-      synchronized (this.position) {
-        this.position.setLongVolumeCount(0);
-        this.position.setOpenVolumeCount(0);
-        this.position.setShortVolumeCount(0);
-        this.position.setVolumeCount(0);
-      }
-
-    }
+    if (this.position != null)
+      this.position.openVolumeChanged(this);
+    if (positionIndex != null && delta != 0)
+      positionIndex.openVolumeChanged(this, delta);
 
   }
 
@@ -974,6 +970,10 @@ public class Fill extends RemoteEvent {
 
   }
 
+  // the index of the Portfolio which merged this fill, kept up to date with its open volume
+  transient volatile PositionIndex positionIndex;
+  transient int positionIndexSlot;
+  transient int positionIndexGeneration;
   private volatile List<Order> fillChildOrders;
   private volatile SpecificOrder order;
   private volatile Market market;
@@ -1,9 +1,7 @@
 package org.cryptocoinpartners.schema;
 
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 
 import javax.persistence.Cacheable;
 import javax.persistence.Entity;
@@ -43,7 +41,6 @@ import com.google.inject.Inject;
 public class Listing extends EntityBase {
   @Inject
   protected transient static ListingDao listingDao;
-  protected static Set<Listing> listings = new HashSet<Listing>();
 
   @ManyToOne(optional = false)
   //@Column(unique = true)
@@ -75,43 +72,49 @@ public class Listing extends EntityBase {
 
   /** will create the listing if it doesn't exist */
   public static Listing forPair(Asset base, Asset quote) {
-
-    for (Listing listing : listings) {
-      if (listing.getBase().equals(base) && listing.getQuote().equals(quote))
+    Listing listing = ReferenceData.getListing(base, quote, null);
+    if (listing != null)
+      return listing;
+    // so two threads missing the same pair do not both persist it
+    synchronized (Listing.class) {
+      listing = ReferenceData.getListing(base, quote, null);
+      if (listing != null)
         return listing;
-    }
-    //this is very slow, we should cache it in a map!
-    try {
-      Listing listing = EM.namedQueryZeroOne(Listing.class, "Listing.findByQuoteBase", base, quote);
-      if (listing == null) {
+      try {
+        listing = EM.namedQueryZeroOne(Listing.class, "Listing.findByQuoteBase", base, quote);
+        if (listing == null) {
+          listing = new Listing(base, quote);
+          EM.find(base);
+          EM.find(quote);
+          EM.persist(listing);
+        }
+      } catch (NoResultException e) {
         listing = new Listing(base, quote);
-        EM.find(base);
-        EM.find(quote);
         EM.persist(listing);
       }
-      listings.add(listing);
-      return listing;
-    } catch (NoResultException e) {
-      final Listing listing = new Listing(base, quote);
-      EM.persist(listing);
-      listings.add(listing);
-      return listing;
+      return ReferenceData.intern(listing);
     }
   }
 
   public static Listing forPair(Asset base, Asset quote, Prompt prompt) {
-    try {
-
-      Listing listing = EM.namedQueryZeroOne(Listing.class, "Listing.findByQuoteBasePrompt", base, quote, prompt);
-      if (listing == null) {
+    Listing listing = ReferenceData.getListing(base, quote, prompt);
+    if (listing != null)
+      return listing;
+    synchronized (Listing.class) {
+      listing = ReferenceData.getListing(base, quote, prompt);
+      if (listing != null)
+        return listing;
+      try {
+        listing = EM.namedQueryZeroOne(Listing.class, "Listing.findByQuoteBasePrompt", base, quote, prompt);
+        if (listing == null) {
+          listing = new Listing(base, quote, prompt);
+          EM.persist(listing);
+        }
+      } catch (NoResultException e) {
         listing = new Listing(base, quote, prompt);
         EM.persist(listing);
       }
-      return listing;
-    } catch (NoResultException e) {
-      final Listing listing = new Listing(base, quote, prompt);
-      EM.persist(listing);
-      return listing;
+      return ReferenceData.intern(listing);
     }
   }
 
@@ -252,9 +255,20 @@ public class Listing extends EntityBase {
     this.prompt = prompt;
   }
 
+  /** @return the id ReferenceData gave this Listing when it was interned, or -1 */
+  @Transient
+  public int getReferenceId() {
+    return referenceId;
+  }
+
+  void setReferenceId(int referenceId) {
+    this.referenceId = referenceId;
+  }
+
   protected Asset base;
   protected Asset quote;
   private Prompt prompt;
+  private transient int referenceId = -1;
 
   public Listing(Asset base, Asset quote) {
     this.base = base;
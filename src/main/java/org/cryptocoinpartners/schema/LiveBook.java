@@ -0,0 +1,178 @@
+package org.cryptocoinpartners.schema;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.joda.time.Instant;
+
+/**
+ * LiveBook is the mutable, current order book of one Market. Feeds apply single level changes with applyDelta(), or whole refreshed books
+ * with applySnapshot(), and get back the BookUpdate events to publish. Immutable Book snapshots, which are what gets persisted, are only
+ * built when snapshot() is called, so a feed can throttle them with isSnapshotDue() instead of allocating a Book on every refresh.
+ *
+ * All methods synchronize on the LiveBook. Callers reading the sides directly must do the same.
+ */
+public class LiveBook {
+
+    /**
+     * @param snapshotIntervalMillis the minimum time between Book snapshots reported by isSnapshotDue(). Zero or less means every refresh is
+     *            due a snapshot, changed or not.
+     */
+    public LiveBook(Market market, long snapshotIntervalMillis) {
+        this.market = market;
+        this.snapshotIntervalMillis = snapshotIntervalMillis;
+    }
+
+    public Market getMarket() {
+        return market;
+    }
+
+    public BookSide getBidSide() {
+        return bidSide;
+    }
+
+    public BookSide getAskSide() {
+        return askSide;
+    }
+
+    public synchronized long getBestBidPriceCount() {
+        return bidSide.getBestPriceCount(0);
+    }
+
+    public synchronized long getBestAskPriceCount() {
+        return askSide.getBestPriceCount(Long.MAX_VALUE);
+    }
+
+    /** @return the exchange time of the last delta or snapshot applied */
+    public synchronized Instant getTime() {
+        return time;
+    }
+
+    /** @return the sequence number of the last BookUpdate emitted, or zero if nothing has been applied yet */
+    public synchronized long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Sets the total volume resting at a price. A volume of zero removes the level.
+     *
+     * @param volumeCount signed like Offer volumes, so negative for asks
+     * @return the BookUpdate describing the change, or null if the level already held this volume
+     */
+    public synchronized BookUpdate applyDelta(Side side, long priceCount, long volumeCount, Instant time, Instant timeReceived) {
+        BookSide bookSide = side == Side.BUY ? bidSide : askSide;
+        int level = bookSide.indexOf(priceCount);
+        long previousVolumeCount = 0;
+        if (level < 0) {
+            if (volumeCount == 0)
+                return null;
+            level = bookSide.add(priceCount, volumeCount);
+        } else {
+            previousVolumeCount = bookSide.getVolumeCount(level);
+            if (previousVolumeCount == volumeCount)
+                return null;
+            if (volumeCount == 0)
+                bookSide.remove(level);
+            else
+                bookSide.setVolumeCount(level, volumeCount);
+        }
+        changedSinceSnapshot = true;
+        this.time = time;
+        return new BookUpdate(this, side, priceCount, volumeCount, previousVolumeCount, level, ++sequence, time, timeReceived);
+    }
+
+    /**
+     * Rounds the price and volume to the Market's bases and applies them as a delta.
+     *
+     * @param volume the unsigned volume at the price, as exchanges quote it
+     */
+    public BookUpdate applyDelta(Side side, BigDecimal price, BigDecimal volume, Instant time) {
+        long priceCount = DiscreteAmount.roundedCountForBasis(price, market.getPriceBasis());
+        long volumeCount = DiscreteAmount.roundedCountForBasis(volume, market.getVolumeBasis());
+        return applyDelta(side, priceCount, side == Side.BUY ? volumeCount : -volumeCount, time, Instant.now());
+    }
+
+    /**
+     * Replaces the book with a freshly polled one, walking the old and new sides in price order so that only levels which were added, removed
+     * or changed volume produce a BookUpdate.
+     *
+     * @return the updates, in the order they were applied, bids first
+     */
+    public synchronized List<BookUpdate> applySnapshot(BookSide bids, BookSide asks, Instant time, Instant timeReceived) {
+        List<BookUpdate> updates = new ArrayList<>();
+        merge(Side.BUY, bidSide, bids, time, timeReceived, updates);
+        merge(Side.SELL, askSide, asks, time, timeReceived, updates);
+        if (!updates.isEmpty())
+            changedSinceSnapshot = true;
+        this.time = time;
+        return updates;
+    }
+
+    /**
+     * Intervals are measured in event time rather than wall clock time, so throttling behaves the same when replaying or simulating.
+     *
+     * @return true if no snapshot interval is set, which keeps the old behaviour of a Book per refresh, or if the interval has passed since the
+     *         last snapshot and the book has changed since then
+     */
+    public synchronized boolean isSnapshotDue(Instant time) {
+        return snapshotIntervalMillis <= 0 || (changedSinceSnapshot && time.getMillis() - lastSnapshotMillis >= snapshotIntervalMillis);
+    }
+
+    /**
+     * Copies the current levels into a new Book. The Book is built, so it joins its Market's parent chain just like a Book assembled with
+     * addBid() and addAsk().
+     */
+    public synchronized Book snapshot(BookFactory bookFactory, Instant time) {
+        Book book = bookFactory.create(time, market);
+        book.setLevels(bidSide, askSide);
+        book.build(chains);
+        lastSnapshotMillis = time.getMillis();
+        changedSinceSnapshot = false;
+        return book;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "LiveBook{" + market + " " + bidSide + " " + askSide + " seq=" + sequence + "}";
+    }
+
+    private void merge(Side side, BookSide current, BookSide incoming, Instant time, Instant timeReceived, List<BookUpdate> updates) {
+        int i = 0;
+        int j = 0;
+        while (i < current.size() || j < incoming.size()) {
+            int cmp;
+            if (i == current.size())
+                cmp = 1;
+            else if (j == incoming.size())
+                cmp = -1;
+            else
+                cmp = current.compare(current.getPriceCount(i), incoming.getPriceCount(j));
+            if (cmp < 0) {
+                // level is no longer in the book
+                updates.add(new BookUpdate(this, side, current.getPriceCount(i), 0, current.getVolumeCount(i), j, ++sequence, time, timeReceived));
+                i++;
+            } else if (cmp > 0) {
+                updates.add(new BookUpdate(this, side, incoming.getPriceCount(j), incoming.getVolumeCount(j), 0, j, ++sequence, time, timeReceived));
+                j++;
+            } else {
+                if (current.getVolumeCount(i) != incoming.getVolumeCount(j))
+                    updates.add(new BookUpdate(this, side, incoming.getPriceCount(j), incoming.getVolumeCount(j), current.getVolumeCount(i), j,
+                            ++sequence, time, timeReceived));
+                i++;
+                j++;
+            }
+        }
+        current.copyFrom(incoming);
+    }
+
+    private final Market market;
+    private final long snapshotIntervalMillis;
+    private final BookSide bidSide = BookSide.bids();
+    private final BookSide askSide = BookSide.asks();
+    private long sequence;
+    private Instant time;
+    private long lastSnapshotMillis;
+    private boolean changedSinceSnapshot;
+    private final Book.Chains chains = new Book.Chains();
+}
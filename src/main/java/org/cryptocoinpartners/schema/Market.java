@@ -1,9 +1,7 @@
 package org.cryptocoinpartners.schema;
 
 import java.math.BigDecimal;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 
 import javax.annotation.Nullable;
 import javax.persistence.Basic;
@@ -45,7 +43,6 @@ import com.google.inject.assistedinject.AssistedInject;
 public class Market extends Tradeable {
 
   protected List<SyntheticMarket> syntheticMarkets;
-  protected static Set<Market> markets = new HashSet<Market>();
   @Inject
   protected transient static MarketFactory marketFactory;
   @Inject
@@ -54,7 +51,7 @@ public class Market extends Tradeable {
   //TODO
   //add a set of markets, that we keep and get from here, if not presnet in set go to db
   /** adds the Market to the database if it does not already exist */
-  public synchronized static Market findOrCreate(Exchange exchange, Listing listing) {
+  public static Market findOrCreate(Exchange exchange, Listing listing) {
     return findOrCreate(exchange, listing, listing.getPriceBasis(), listing.getVolumeBasis());
   }
 
@@ -90,30 +87,23 @@ public class Market extends Tradeable {
 
   }
 
-  public synchronized static Market findOrCreate(Exchange exchange, Listing listing, double quoteBasis, double volumeBasis) {
-    // final String queryStr = "select m from Market m where exchange=?1 and listing=?2";
-    try {
-      for (Market market : markets) {
-        if (market.getExchange().equals(exchange) && market.getListing().equals(listing))
-          return market;
+  public static Market findOrCreate(Exchange exchange, Listing listing, double quoteBasis, double volumeBasis) {
+    Market market = ReferenceData.getMarket(exchange, listing);
+    if (market != null)
+      return market;
+    // so two threads missing the same market do not both persist it
+    synchronized (Market.class) {
+      market = ReferenceData.getMarket(exchange, listing);
+      if (market != null)
+        return market;
+      try {
+        List<Market> results = EM.namedQueryList(Market.class, "Market.findByMarket", exchange, listing);
+        if (results != null && !results.isEmpty() && results.get(0) != null)
+          return ReferenceData.intern(results.get(0));
+      } catch (NoResultException e) {
       }
-      List<Market> results = EM.namedQueryList(Market.class, "Market.findByMarket", exchange, listing);
-      if (results != null && !results.isEmpty() && results.get(0) != null) {
-        markets.add(results.get(0));
-        return results.get(0);
-      } else {
-        Market ml = marketFactory.create(exchange, listing, quoteBasis, volumeBasis);
-        markets.add(ml);
-        //  Market ml = new Market(exchange, listing, quoteBasis, volumeBasis);
-        ml.persit();
-        // marketDao.persist(ml);
-        return ml;
-      }
-
-    } catch (NoResultException e) {
-
       Market ml = marketFactory.create(exchange, listing, quoteBasis, volumeBasis);
-      markets.add(ml);
+      ml = ReferenceData.intern(ml);
       //  Market ml = new Market(exchange, listing, quoteBasis, volumeBasis);
       ml.persit();
       // marketDao.persist(ml);
@@ -291,6 +281,16 @@ public class Market extends Tradeable {
     this.exchange = exchange;
   }
 
+  /** @return the id ReferenceData gave this Market when it was interned, or -1 */
+  @Transient
+  public int getReferenceId() {
+    return referenceId;
+  }
+
+  void setReferenceId(int referenceId) {
+    this.referenceId = referenceId;
+  }
+
   protected synchronized void setListing(Listing listing) {
     this.listing = listing;
   }
@@ -314,6 +314,7 @@ public class Market extends Tradeable {
 
   protected Exchange exchange;
   protected volatile Listing listing;
+  private transient int referenceId = -1;
 
   protected transient MarketAmountBuilder marketAmountBuilder;
 
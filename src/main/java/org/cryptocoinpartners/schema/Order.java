@@ -39,6 +39,7 @@ import org.cryptocoinpartners.enumeration.TransactionType;
 import org.cryptocoinpartners.schema.dao.Dao;
 import org.cryptocoinpartners.schema.dao.FillJpaDao;
 import org.cryptocoinpartners.schema.dao.OrderDao;
+import org.cryptocoinpartners.util.Diagnostics;
 import org.cryptocoinpartners.util.EM;
 import org.cryptocoinpartners.util.FeesUtil;
 import org.cryptocoinpartners.util.Remainder;
@@ -289,8 +290,8 @@ public abstract class Order extends Event {
 
   public synchronized void setParentFill(Fill fill) {
     if (fill != null) {
-      log.trace("Order:setParentFill setting parent fill to " + fill.getId() + " / " + System.identityHashCode(fill) + " for order " + getId()
-          + " / " + System.identityHashCode(this) + ". Calling class " + Thread.currentThread().getStackTrace()[2]);
+      log.trace("Order:setParentFill setting parent fill to {} / {} for order {} / {}. Calling class {}", fill.getId(), System.identityHashCode(fill),
+          getId(), System.identityHashCode(this), Diagnostics.caller());
       //   for (StackTraceElement ste : Thread.currentThread().getStackTrace()) {
       //     log.error(ste.toString());
       //}
@@ -532,8 +533,8 @@ public abstract class Order extends Event {
 
         if (!fills.containsKey(fill)) {
           fills.put(fill, fill);
-          log.debug("Order loadAllChildOrdersByParentOrder loading all child order for fill" + fill.getId() + " for order " + orderWithFills.getId()
-              + ". Calling class " + Thread.currentThread().getStackTrace()[2]);
+          log.debug("Order loadAllChildOrdersByParentOrder loading all child order for fill{} for order {}. Calling class {}", fill.getId(),
+              orderWithFills.getId(), Diagnostics.caller());
           fill.loadAllChildOrdersByFill(fill, orders, fills);
 
         } else
@@ -869,7 +870,7 @@ public abstract class Order extends Event {
       this.setPeristanceAction(PersistanceAction.MERGE);
 
       this.setRevision(this.getRevision() + 1);
-      log.trace("Order - Merge : Merge of Order " + this.getId() + " called from class " + Thread.currentThread().getStackTrace()[2]);
+      log.trace("Order - Merge : Merge of Order {} called from class {}", this.getId(), Diagnostics.caller());
 
       orderDao.merge(this);
       //if (duplicate == null || duplicate.isEmpty())
@@ -1001,7 +1002,7 @@ public abstract class Order extends Event {
     //List<Order> duplicate = null;
     //  EntityBase entity = PersistUtil.find(this);
     try {
-      log.debug("Order - Persist : Persit of Order " + this.getId() + " called from class " + Thread.currentThread().getStackTrace()[2]);
+      log.debug("Order - Persist : Persit of Order {} called from class {}", this.getId(), Diagnostics.caller());
 
       this.setPeristanceAction(PersistanceAction.NEW);
       this.setRevision(this.getRevision() + 1);
@@ -13,8 +13,6 @@ import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
@@ -44,6 +42,7 @@ import org.cryptocoinpartners.schema.dao.PortfolioDao;
 import org.cryptocoinpartners.service.OrderService;
 import org.cryptocoinpartners.service.PortfolioService;
 import org.cryptocoinpartners.service.QuoteService;
+import org.cryptocoinpartners.util.Diagnostics;
 import org.cryptocoinpartners.util.EM;
 import org.cryptocoinpartners.util.Remainder;
 import org.hibernate.annotations.Fetch;
@@ -98,9 +97,8 @@ import com.google.inject.Singleton;
 @Cacheable
 public class Portfolio extends EntityBase {
 
-  private transient static Object lock = new Object();
-  private transient static ExecutorService service = Executors.newFixedThreadPool(10);
-  private transient static List<Tradeable> markets = new ArrayList<Tradeable>();
+  // per portfolio, so backtests running side by side in one JVM each trade only their own markets
+  private transient List<Tradeable> markets = new ArrayList<Tradeable>();
 
   /** returns all Positions, whether they are tied to an open Order or not. Use getTradeablePositions() */
   public @Transient
@@ -129,14 +127,14 @@ public class Portfolio extends EntityBase {
   }
 
   @Transient
-  public static List<Tradeable> getMarkets() {
+  public List<Tradeable> getMarkets() {
 
     return markets;
 
   }
 
   @Transient
-  public static Tradeable getMarket(Tradeable market) {
+  public Tradeable getMarket(Tradeable market) {
     synchronized (getMarkets()) {
       for (Tradeable portfolioMarket : getMarkets())
         if (market != null && market.equals(portfolioMarket))
@@ -225,6 +223,7 @@ public class Portfolio extends EntityBase {
   public void positionReset() {
     positions.clear();
     positionsMap.clear();
+    positionIndex.reset();
     restRealisedProfits();
     resetTransactions();
 
@@ -243,6 +242,7 @@ public class Portfolio extends EntityBase {
       for (Exchange exchange : realisedProfits.get(asset).keySet())
         for (Listing listing : realisedProfits.get(asset).get(exchange).keySet())
           realisedProfits.get(asset).get(exchange).put(listing, DecimalAmount.ZERO);
+    cashLedger.resetRealised();
 
   }
 
@@ -252,6 +252,7 @@ public class Portfolio extends EntityBase {
       for (Exchange exchange : transactions.get(asset).keySet())
         for (TransactionType type : transactions.get(asset).get(exchange).keySet())
           transactions.get(asset).get(exchange).get(type).clear();
+    cashLedger.resetCash();
 
   }
 
@@ -622,30 +623,7 @@ public class Portfolio extends EntityBase {
    */
   public @Transient
   DiscreteAmount getNetPosition(Asset asset, Exchange exchange) {
-    long netVolumeCount = 0;
-    Fill pos = null;
-    //  synchronized (lock) {
-    if (positionsMap.get(asset) != null && positionsMap.get(asset).get(exchange) != null) {
-      synchronized (positionsMap.get(asset).get(exchange)) {
-        for (Iterator<Listing> itl = positionsMap.get(asset).get(exchange).keySet().iterator(); itl.hasNext();) {
-          Listing listing = itl.next();
-          for (Iterator<TransactionType> itt = positionsMap.get(asset).get(exchange).get(listing).keySet().iterator(); itt.hasNext();) {
-            TransactionType transactionType = itt.next();
-
-            for (Position itpos : positionsMap.get(asset).get(exchange).get(listing).get(transactionType)) {
-              for (Iterator<Fill> itp = itpos.getFills().iterator(); itp.hasNext();) {
-
-                pos = itp.next();
-                netVolumeCount += pos.getOpenVolumeCount();
-              }
-            }
-
-          }
-        }
-      }
-    }
-    // }
-    return new DiscreteAmount(netVolumeCount, asset.getBasis());
+    return new DiscreteAmount(positionIndex.getNetVolumeCount(asset, exchange), asset.getBasis());
   }
 
   /*
@@ -667,6 +645,22 @@ public class Portfolio extends EntityBase {
     throw new NotImplementedException();
   }
 
+  /**
+   * The cash balances of this Portfolio, kept up to date as Transactions are added and removed
+   */
+  @Transient
+  public CashLedger getCashLedger() {
+    return cashLedger;
+  }
+
+  /**
+   * The long, short and net open volume of this Portfolio in each Market, kept up to date as its fills are opened and closed out
+   */
+  @Transient
+  public PositionIndex getPositionIndex() {
+    return positionIndex;
+  }
+
   @Transient
   public Collection<Transaction> getTransactions() {
     ConcurrentLinkedQueue<Transaction> allTransactions = new ConcurrentLinkedQueue<Transaction>();
@@ -716,7 +710,8 @@ public class Portfolio extends EntityBase {
     if (transactions.get(reservation.getCurrency()).get(reservation.getExchange()).get(reservation.getType()) == null)
       return;
     // synchronized (lock) {
-    transactions.get(reservation.getCurrency()).get(reservation.getExchange()).get(reservation.getType()).remove(reservation);
+    if (transactions.get(reservation.getCurrency()).get(reservation.getExchange()).get(reservation.getType()).remove(reservation))
+      cashLedger.remove(reservation);
 
   }
 
@@ -801,6 +796,7 @@ public class Portfolio extends EntityBase {
 
       getRealisedPnL().get(transaction.getCurrency()).get(transaction.getExchange())
           .put(transaction.getFill().getMarket().getListing(), TotalRealisedPnL);
+      cashLedger.addRealised(transaction.getCurrency(), transaction.getExchange(), transaction.getAmount());
     } catch (Exception | Error ex) {
       log.debug("Portfolio - addRealisedPnL: Unable to set relasied PnL", ex);
 
@@ -809,6 +805,13 @@ public class Portfolio extends EntityBase {
 
   @Transient
   public synchronized boolean addTransaction(Transaction transaction) {
+    if (!insertTransaction(transaction))
+      return false;
+    cashLedger.add(transaction);
+    return true;
+  }
+
+  private boolean insertTransaction(Transaction transaction) {
 
     ConcurrentHashMap<Exchange, ConcurrentHashMap<TransactionType, ConcurrentLinkedQueue<Transaction>>> assetTransactions = transactions
         .get(transaction.getCurrency());
@@ -890,6 +893,10 @@ public class Portfolio extends EntityBase {
     // synchronized (lock) {
     getPositions().add(position);
     // }
+    if (position.getFills() != null)
+      for (Fill fill : position.getFills())
+        if (fill != null)
+          positionIndex.track(fill);
   }
 
   public synchronized void removePositions(Collection<Position> removedPositions) {
@@ -1001,6 +1008,7 @@ public class Portfolio extends EntityBase {
   @Transient
   public boolean merge(Fill fill) {
     boolean persit = true;
+    positionIndex.track(fill);
     if (fill.getPositionEffect().equals(PositionEffect.CLOSE) && fill.isLong())
       log.debug("closing short");
     if (fill.getPositionEffect().equals(PositionEffect.CLOSE) && fill.isShort())
@@ -2014,6 +2022,9 @@ public class Portfolio extends EntityBase {
   protected synchronized void setTransactions(
       ConcurrentHashMap<Asset, ConcurrentHashMap<Exchange, ConcurrentHashMap<TransactionType, ConcurrentLinkedQueue<Transaction>>>> transactions) {
     this.transactions = transactions;
+    cashLedger.resetCash();
+    for (Transaction transaction : getTransactions())
+      cashLedger.add(transaction);
   }
 
   public synchronized void setName(String name) {
@@ -2151,7 +2162,7 @@ public class Portfolio extends EntityBase {
   public synchronized void persit() {
 
     try {
-      log.debug("Portfolio - Persist : Persit of Portfolio " + this.getId() + " called from class " + Thread.currentThread().getStackTrace()[2]);
+      log.debug("Portfolio - Persist : Persit of Portfolio {} called from class {}", this.getId(), Diagnostics.caller());
 
       this.setPeristanceAction(PersistanceAction.NEW);
       this.setRevision(this.getRevision() + 1);
@@ -2180,7 +2191,7 @@ public class Portfolio extends EntityBase {
     this.setPeristanceAction(PersistanceAction.MERGE);
 
     this.setRevision(this.getRevision() + 1);
-    log.debug("Portfolio - Portfolio : Merge of Portfolio " + this.getId() + " called from class " + Thread.currentThread().getStackTrace()[2]);
+    log.debug("Portfolio - Portfolio : Merge of Portfolio {} called from class {}", this.getId(), Diagnostics.caller());
 
     try {
 
@@ -2227,6 +2238,8 @@ public class Portfolio extends EntityBase {
   private transient ConcurrentHashMap<Asset, ConcurrentHashMap<Exchange, ConcurrentHashMap<Listing, ConcurrentHashMap<TransactionType, ConcurrentLinkedQueue<Position>>>>> positionsMap;
   private transient ConcurrentHashMap<Asset, ConcurrentHashMap<Exchange, ConcurrentHashMap<Listing, Amount>>> realisedProfits;
   private transient ConcurrentHashMap<Asset, ConcurrentHashMap<Exchange, ConcurrentHashMap<TransactionType, ConcurrentLinkedQueue<Transaction>>>> transactions;
+  private final transient CashLedger cashLedger = new CashLedger();
+  private final transient PositionIndex positionIndex = new PositionIndex();
   private transient List<Stake> stakes = new CopyOnWriteArrayList<>();
   private transient Set<Position> positions = Sets.newConcurrentHashSet();
 
@@ -1,9 +1,12 @@
 package org.cryptocoinpartners.schema;
 
+import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import javax.annotation.Nullable;
 import javax.persistence.Cacheable;
@@ -27,6 +30,7 @@ import org.cryptocoinpartners.enumeration.PersistanceAction;
 import org.cryptocoinpartners.enumeration.PositionEffect;
 import org.cryptocoinpartners.schema.dao.Dao;
 import org.cryptocoinpartners.schema.dao.PositionDao;
+import org.cryptocoinpartners.util.Diagnostics;
 import org.cryptocoinpartners.util.Remainder;
 import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
@@ -334,30 +338,11 @@ public class Position extends Holding {
 
   @Transient
   public synchronized Amount getLongAvgPrice() {
-    // if (longAvgPrice == null) {
-    // Amount longCumVolume = DecimalAmount.ZERO;
-    // Amount longAvgPrice = DecimalAmount.ZERO;
-    if (longAvgPrice != null)
-      //&& (getLongVolume() != null && getLongVolume().isZero()) && !longAvgPrice.isZero())
-      return longAvgPrice;
-    longCumVolume = DecimalAmount.ZERO;
-    longAvgPrice = DecimalAmount.ZERO;
-    Iterator<Fill> itf = getFills().iterator();
-    while (itf.hasNext()) {
-      //  for (Fill pos : getFills()) {
-      Fill pos = itf.next();
-      if (pos.isLong() && pos.getPrice() != null && !pos.getPrice().isZero() && !(longCumVolume.plus(pos.getOpenVolume()).isZero())) {
-        longAvgPrice = longAvgPrice == null ? DecimalAmount.ZERO : ((longAvgPrice.times(longCumVolume, Remainder.ROUND_EVEN)).plus(pos
-            .getOpenVolume().times(pos.getPrice(), Remainder.ROUND_EVEN))).divide(longCumVolume.plus(pos.getOpenVolume()), Remainder.ROUND_EVEN);
-        longCumVolume = longCumVolume.plus(pos.getOpenVolume());
-
-      }
+    if (longAvgPrice == null) {
+      aggregate();
+      longAvgPrice = averagePrice(longCostCount, longPricedVolumeCount);
     }
-
-    if (longAvgPrice == null)
-      return DecimalAmount.ZERO;
-    else
-      return longAvgPrice;
+    return longAvgPrice;
 
   }
 
@@ -376,34 +361,11 @@ public class Position extends Holding {
 
   @Transient
   public synchronized Amount getShortAvgPrice() {
-    //   if (shortAvgPrice == null) {
-    //Amount shortCumVolume = DecimalAmount.ZERO;
-    // Amount shortAvgPrice = DecimalAmount.ZERO;
-    if (shortAvgStopPrice != null)
-      //&& ((getShortVolume() != null && getShortVolume().isZero()) || (shortAvgStopPrice != null && !shortAvgStopPrice.isZero())))
-      return shortAvgPrice;
-    shortCumVolume = DecimalAmount.ZERO;
-    shortAvgPrice = DecimalAmount.ZERO;
-    Iterator<Fill> itf = getFills().iterator();
-
-    while (itf.hasNext()) {
-      //  for (Fill pos : getFills()) {
-      Fill pos = itf.next();
-
-      if (pos.isShort() && pos.getPrice() != null && !pos.getPrice().isZero() && !(shortCumVolume.plus(pos.getOpenVolume()).isZero())) {
-
-        shortAvgPrice = shortAvgPrice == null ? DecimalAmount.ZERO : ((shortAvgPrice.times(shortCumVolume, Remainder.ROUND_EVEN)).plus(pos
-            .getOpenVolume().times(pos.getPrice(), Remainder.ROUND_EVEN))).divide(shortCumVolume.plus(pos.getOpenVolume()), Remainder.ROUND_EVEN);
-        shortCumVolume = shortCumVolume.plus(pos.getOpenVolume());
-
-      }
+    if (shortAvgPrice == null) {
+      aggregate();
+      shortAvgPrice = averagePrice(shortCostCount, shortPricedVolumeCount);
     }
-
-    // }
-    if (shortAvgPrice == null)
-      return DecimalAmount.ZERO;
-    else
-      return shortAvgPrice;
+    return shortAvgPrice;
 
   }
 
@@ -607,157 +569,126 @@ public class Position extends Holding {
   public Position() {
   }
 
-  @Transient
-  protected synchronized void setVolumeCount(long volumeCount) {
-
-    this.volumeCount = volumeCount;
-    shortAvgPrice = null;
-    longAvgPrice = null;
-    longAvgStopPrice = null;
-    originalLongAvgStopPrice = null;
-    shortAvgStopPrice = null;
-    originalShortAvgStopPrice = null;
-
-    longVolume = null;
-    shortVolume = null;
-    openVolume = null;
-  }
-
-  @Transient
-  protected synchronized void setOpenVolumeCount(long openVolumeCount) {
-    this.openVolumeCount = openVolumeCount;
-    shortAvgPrice = null;
-    longAvgPrice = null;
-    longAvgStopPrice = null;
-    originalLongAvgStopPrice = null;
-    shortAvgStopPrice = null;
-    originalShortAvgStopPrice = null;
-    longVolume = null;
-    shortVolume = null;
-    openVolume = null;
-  }
-
-  @Transient
-  protected synchronized void setLongVolumeCount(long longVolumeCount) {
-    this.longVolumeCount = longVolumeCount;
-    shortAvgPrice = null;
-    longAvgPrice = null;
-    longAvgStopPrice = null;
-    originalLongAvgStopPrice = null;
-    shortAvgStopPrice = null;
-    originalShortAvgStopPrice = null;
-    longVolume = null;
-    shortVolume = null;
-    openVolume = null;
-
-  }
-
-  @Transient
-  protected synchronized void setShortVolumeCount(long shortVolumeCount) {
-    this.shortVolumeCount = shortVolumeCount;
-    shortAvgPrice = null;
-    longAvgPrice = null;
-    longAvgStopPrice = null;
-    originalLongAvgStopPrice = null;
-    shortAvgStopPrice = null;
-    originalShortAvgStopPrice = null;
-    longVolume = null;
-    shortVolume = null;
-    openVolume = null;
-  }
-
   @Nullable
   @Transient
   protected synchronized long getVolumeCount() {
-    //    reset();
-
-    if (hasFills() && volumeCount == 0) {
-      Iterator<Fill> itf = getFills().iterator();
-      while (itf.hasNext()) {
-        //  for (Fill pos : getFills()) {
-        Fill fill = itf.next();
-
-        volumeCount += fill.getOpenVolumeCount();
-      }
-    }
-
+    aggregate();
     return volumeCount;
   }
 
   @Nullable
   @Transient
   protected synchronized long getOpenVolumeCount() {
-    //    reset();
-    if (hasFills() && openVolumeCount == 0) {
-      Iterator<Fill> itf = getFills().iterator();
-      while (itf.hasNext()) {
-
-        //  for (Fill pos : getFills()) {
-        Fill fill = itf.next();
-
-        // if (fill.getPositionEffect() == null || fill.getPositionEffect() == PositionEffect.OPEN)
-        openVolumeCount += fill.getOpenVolumeCount();
-
-      }
-    }
-
+    aggregate();
     return openVolumeCount;
   }
 
+  /** the open volume of the fills which opened long or closed short */
   @Nullable
   @Transient
   protected synchronized long getLongVolumeCount() {
-    //  reset();
-    //System.out.println(getFills().toString());
-
-    if (hasFills() && longVolumeCount == 0) {
-      Iterator<Fill> itf = getFills().iterator();
-      while (itf.hasNext()) {
-        //  for (Fill pos : getFills()) {
-        Fill fill = itf.next();
-
-        if (fill.getPositionEffect() != null
-            && ((fill.getPositionEffect() == PositionEffect.OPEN && fill.isLong()) || (fill.getPositionEffect() == PositionEffect.CLOSE && fill
-                .isShort()))) {
-          longVolumeCount += fill.getOpenVolumeCount();
-        } else if ((fill.getPositionEffect() == null || fill.getPositionEffect() == PositionEffect.OPEN) && fill.isLong())
-          longVolumeCount += fill.getOpenVolumeCount();
-
-        long vol = this.getVolumeCount();
-        // if (vol > 0 && vol != longVolumeCount)
-        //System.out.println("issue with long volume cacl");
-
-      }
-    }
+    aggregate();
     return longVolumeCount;
   }
 
+  /** the open volume of the fills which opened short or closed long */
   @Nullable
   @Transient
   protected synchronized long getShortVolumeCount() {
-    //  reset();
-    if (hasFills() && shortVolumeCount == 0) {
-      Iterator<Fill> itf = getFills().iterator();
-      while (itf.hasNext()) {
-        //  for (Fill pos : getFills()) {
-        Fill fill = itf.next();
-        // if it is entering & short or exiting and long
-        if (fill.getPositionEffect() != null
-            && ((fill.getPositionEffect() == PositionEffect.OPEN && fill.isShort()) || (fill.getPositionEffect() == PositionEffect.CLOSE && fill
-                .isLong()))) {
-          shortVolumeCount += fill.getOpenVolumeCount();
-
-        } else if ((fill.getPositionEffect() == null || fill.getPositionEffect() == PositionEffect.OPEN) && fill.isShort())
-          shortVolumeCount += fill.getOpenVolumeCount();
+    aggregate();
+    return shortVolumeCount;
+  }
+
+  /**
+   * Called by a Fill of this Position when its open volume changes, so the running counters can move by the difference instead of being summed
+   * again over every fill.
+   */
+  synchronized void openVolumeChanged(Fill fill) {
+    if (!aggregated)
+      return;
+    Long contributed = contributions.get(fill);
+    if (contributed == null)
+      return;
+    accumulate(fill, fill.getOpenVolumeCount() - contributed);
+    contributions.put(fill, fill.getOpenVolumeCount());
+  }
+
+  /** sums the counters over the fills the first time they are needed, e.g. after the fills were loaded */
+  private void aggregate() {
+    if (aggregated)
+      return;
+    longVolumeCount = 0;
+    volumeCount = 0;
+    openVolumeCount = 0;
+    shortVolumeCount = 0;
+    longCostCount = 0;
+    shortCostCount = 0;
+    longPricedVolumeCount = 0;
+    shortPricedVolumeCount = 0;
+    contributions.clear();
+    aggregated = true;
+    if (hasFills())
+      for (Fill fill : getFills())
+        include(fill);
+  }
 
+  private void include(Fill fill) {
+    if (!aggregated || contributions.containsKey(fill))
+      return;
+    contributions.put(fill, fill.getOpenVolumeCount());
+    accumulate(fill, fill.getOpenVolumeCount());
+  }
+
+  private void exclude(Fill fill) {
+    if (!aggregated)
+      return;
+    Long contributed = contributions.remove(fill);
+    if (contributed != null)
+      accumulate(fill, -contributed);
+  }
+
+  private void accumulate(Fill fill, long delta) {
+    if (delta == 0)
+      return;
+    // the direction of a fill is that of its original volume, as its open volume may already be zero
+    boolean buy = fill.getVolumeCount() > 0;
+    volumeCount += delta;
+    openVolumeCount += delta;
+    // opening long or closing short adds to the long volume, opening short or closing long to the short volume
+    if (buy != (fill.getPositionEffect() == PositionEffect.CLOSE))
+      longVolumeCount += delta;
+    else
+      shortVolumeCount += delta;
+    if (fill.getPriceCount() != 0) {
+      // volume count times price count stays well inside a long for any realistic position
+      if (buy) {
+        longPricedVolumeCount += delta;
+        longCostCount += delta * fill.getPriceCount();
+      } else {
+        shortPricedVolumeCount += delta;
+        shortCostCount += delta * fill.getPriceCount();
       }
     }
+    reset();
+  }
 
-    // long vol = this.getVolumeCount();
-    //System.out.println(getFills());
-    // if (vol < 0 && vol != shortVolumeCount)
-    //      System.out.println("issue with short volume cacl");
-    return shortVolumeCount;
+  private Amount averagePrice(long costCount, long pricedVolumeCount) {
+    if (pricedVolumeCount == 0 || getMarket() == null)
+      return DecimalAmount.ZERO;
+    return new DiscreteAmount(costCount, getMarket().getPriceBasis()).divide(BigDecimal.valueOf(pricedVolumeCount), Remainder.ROUND_EVEN);
+  }
+
+  /** clears the amounts cached from the counters and the stop prices, which are still averaged over the fills when next read */
+  private void reset() {
+    shortAvgPrice = null;
+    longAvgPrice = null;
+    longAvgStopPrice = null;
+    originalLongAvgStopPrice = null;
+    shortAvgStopPrice = null;
+    originalShortAvgStopPrice = null;
+    longVolume = null;
+    shortVolume = null;
+    openVolume = null;
   }
 
   //  fetch = FetchType.EAGER,
@@ -795,7 +726,7 @@ public class Position extends Holding {
   @Override
   public synchronized void delete() {
     try {
-      log.debug("Position - delete : Delete of Position " + this.getId() + " called from class " + Thread.currentThread().getStackTrace()[2]);
+      log.debug("Position - delete : Delete of Position {} called from class {}", this.getId(), Diagnostics.caller());
       if (this.getPortfolio() != null)
         if (this.getPortfolio().removePosition(this)) {
 
@@ -847,7 +778,7 @@ public class Position extends Holding {
   public synchronized void persit() {
 
     try {
-      log.debug("Position - Persist : Persit of Position " + this.getId() + " called from class " + Thread.currentThread().getStackTrace()[2]);
+      log.debug("Position - Persist : Persit of Position {} called from class {}", this.getId(), Diagnostics.caller());
 
       this.setPeristanceAction(PersistanceAction.NEW);
       this.setRevision(this.getRevision() + 1);
@@ -906,20 +837,7 @@ public class Position extends Holding {
       return false;
     else {
       if (getFills().add(fill)) {
-        shortAvgPrice = null;
-        longAvgPrice = null;
-        longAvgStopPrice = null;
-        originalLongAvgStopPrice = null;
-        shortAvgStopPrice = null;
-        originalShortAvgStopPrice = null;
-        longVolume = null;
-        shortVolume = null;
-        openVolume = null;
-        longVolumeCount = 0;
-        volumeCount = 0;
-        openVolumeCount = 0;
-        shortVolumeCount = 0;
-
+        include(fill);
         return true;
       }
       //  return (getFills().add(fill));
@@ -938,22 +856,9 @@ public class Position extends Holding {
 
   public synchronized void addFill(Collection<Fill> fills) {
     //   synchronized (lock) {
-    if (getFills().addAll(fills)) {
-      shortAvgPrice = null;
-      longAvgPrice = null;
-      longAvgStopPrice = null;
-      originalLongAvgStopPrice = null;
-      shortAvgStopPrice = null;
-      originalShortAvgStopPrice = null;
-      longVolume = null;
-      shortVolume = null;
-      openVolume = null;
-      longVolumeCount = 0;
-      volumeCount = 0;
-      openVolumeCount = 0;
-      shortVolumeCount = 0;
-
-    }
+    if (getFills().addAll(fills))
+      for (Fill fill : fills)
+        include(fill);
 
     //TODO We should do a check to make sure the fill is the samme attributes as position
     //}
@@ -969,19 +874,8 @@ public class Position extends Holding {
   public synchronized void removeFills(Collection<Fill> removedFills) {
     //   synchronized (lock) {
     if (getFills().removeAll(removedFills))
-      shortAvgPrice = null;
-    longAvgPrice = null;
-    longAvgStopPrice = null;
-    originalLongAvgStopPrice = null;
-    shortAvgStopPrice = null;
-    originalShortAvgStopPrice = null;
-    longVolume = null;
-    shortVolume = null;
-    openVolume = null;
-    longVolumeCount = 0;
-    volumeCount = 0;
-    openVolumeCount = 0;
-    shortVolumeCount = 0;
+      for (Fill removedFill : removedFills)
+        exclude(removedFill);
     for (Fill removedFill : removedFills) {
 
       removedFill.setPosition(null);
@@ -1008,20 +902,9 @@ public class Position extends Holding {
       removedFill.setOpenVolumeCount(0);
       // removedFill.merge();
     }
-    shortAvgPrice = null;
-    longAvgPrice = null;
-    longAvgStopPrice = null;
-    originalLongAvgStopPrice = null;
-    shortAvgStopPrice = null;
-    originalShortAvgStopPrice = null;
-    longVolume = null;
-    shortVolume = null;
-    openVolume = null;
-    longVolumeCount = 0;
-    volumeCount = 0;
-    openVolumeCount = 0;
-    shortVolumeCount = 0;
     getFills().clear();
+    aggregated = false;
+    reset();
     //   removeFill(removedFill);
     //ODO We should do a check to make sure the fill is the samme attributes as position
     //}
@@ -1038,19 +921,7 @@ public class Position extends Holding {
     //   synchronized (lock) {
     log.debug("removing fill: " + fill + " from position: " + this);
     if (getFills().remove(fill)) {
-      shortAvgPrice = null;
-      longAvgPrice = null;
-      longAvgStopPrice = null;
-      originalLongAvgStopPrice = null;
-      shortAvgStopPrice = null;
-      originalShortAvgStopPrice = null;
-      longVolume = null;
-      shortVolume = null;
-      openVolume = null;
-      longVolumeCount = 0;
-      volumeCount = 0;
-      openVolumeCount = 0;
-      shortVolumeCount = 0;
+      exclude(fill);
       fill.setPosition(null);
       fill.setOpenVolumeCount(0);
       //  fill.merge();
@@ -1123,8 +994,9 @@ public class Position extends Holding {
   }
 
   protected synchronized void setFills(List<Fill> fills) {
-    // reset();
     this.fills = fills;
+    aggregated = false;
+    reset();
 
   }
 
@@ -1132,10 +1004,19 @@ public class Position extends Holding {
   //private Amount shortVolume = DecimalAmount.ZERO;
   //private Amount volume = DecimalAmount.ZERO;
   private volatile Market market;
-  long longVolumeCount = 0;
-  long volumeCount = 0;
-  long openVolumeCount = 0;
-  long shortVolumeCount = 0;
+  // running totals over the open volume of the fills, kept up to date as fills are added, removed or closed out
+  private transient long longVolumeCount;
+  private transient long volumeCount;
+  private transient long openVolumeCount;
+  private transient long shortVolumeCount;
+  // open volume times price of the long and short fills with a price, and that volume, for the average prices
+  private transient long longCostCount;
+  private transient long shortCostCount;
+  private transient long longPricedVolumeCount;
+  private transient long shortPricedVolumeCount;
+  private transient boolean aggregated;
+  // the open volume each fill last contributed to the totals
+  private final transient Map<Fill, Long> contributions = new IdentityHashMap<Fill, Long>();
 
   //private Amount longAvgPrice = DecimalAmount.ZERO;
   //private Amount shortAvgPrice = DecimalAmount.ZERO;
@@ -0,0 +1,154 @@
+package org.cryptocoinpartners.schema;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A PositionIndex holds the long, short and net open volume of a Portfolio for each Market in flat arrays, so the exposure to a market can be
+ * read without walking the Portfolio's positions and their fills.
+ *
+ * Each Market is given a slot the first time it is seen. Callers on a hot path can look the slot up once with slotOf() and then read the
+ * volumes by slot, which is a single array read. The volumes are kept up to date by the Fills themselves: a Fill is tracked when its Portfolio
+ * merges it, and from then on reports every change to its open volume.
+ */
+public class PositionIndex {
+
+  private static final int INITIAL_SLOTS = 16;
+
+  /** @return the slot of the market, assigning one if the market has not been seen before */
+  public int slotOf(Market market) {
+    Integer slot = slots.get(market);
+    if (slot != null)
+      return slot;
+    synchronized (this) {
+      slot = slots.get(market);
+      if (slot == null) {
+        slot = slots.size();
+        if (slot == longVolumeCounts.length())
+          grow();
+        slots.put(market, slot);
+      }
+      return slot;
+    }
+  }
+
+  public long getLongVolumeCount(int slot) {
+    AtomicLongArray counts = longVolumeCounts;
+    return slot < counts.length() ? counts.get(slot) : 0;
+  }
+
+  public long getShortVolumeCount(int slot) {
+    AtomicLongArray counts = shortVolumeCounts;
+    return slot < counts.length() ? counts.get(slot) : 0;
+  }
+
+  public long getNetVolumeCount(int slot) {
+    return getLongVolumeCount(slot) + getShortVolumeCount(slot);
+  }
+
+  public long getLongVolumeCount(Market market) {
+    Integer slot = slots.get(market);
+    return slot == null ? 0 : getLongVolumeCount(slot);
+  }
+
+  public long getShortVolumeCount(Market market) {
+    Integer slot = slots.get(market);
+    return slot == null ? 0 : getShortVolumeCount(slot);
+  }
+
+  public long getNetVolumeCount(Market market) {
+    Integer slot = slots.get(market);
+    return slot == null ? 0 : getNetVolumeCount(slot);
+  }
+
+  public long getLongVolumeCount(Asset base, Exchange exchange) {
+    long count = 0;
+    for (Map.Entry<Market, Integer> entry : slots.entrySet())
+      if (isOf(entry.getKey(), base, exchange))
+        count += getLongVolumeCount(entry.getValue());
+    return count;
+  }
+
+  public long getShortVolumeCount(Asset base, Exchange exchange) {
+    long count = 0;
+    for (Map.Entry<Market, Integer> entry : slots.entrySet())
+      if (isOf(entry.getKey(), base, exchange))
+        count += getShortVolumeCount(entry.getValue());
+    return count;
+  }
+
+  /** @return the net open volume summed over the markets of the base asset on the exchange, a read per market the portfolio has traded */
+  public long getNetVolumeCount(Asset base, Exchange exchange) {
+    return getLongVolumeCount(base, exchange) + getShortVolumeCount(base, exchange);
+  }
+
+  /** @return the markets which have a slot */
+  public Set<Market> getMarkets() {
+    return Collections.unmodifiableSet(slots.keySet());
+  }
+
+  /** @return the net open volume of the market as an amount in the market's volume basis */
+  public DiscreteAmount getNetVolume(Market market) {
+    return new DiscreteAmount(getNetVolumeCount(market), market.getVolumeBasis());
+  }
+
+  /**
+   * adds the open volume of the fill to its market, unless the fill is already tracked. Fills are tracked as their Portfolio merges them, and
+   * as a Portfolio's positions are restored from the database.
+   */
+  public synchronized void track(Fill fill) {
+    if (fill.positionIndex == this && fill.positionIndexGeneration == generation)
+      return;
+    fill.positionIndex = this;
+    fill.positionIndexGeneration = generation;
+    fill.positionIndexSlot = slotOf(fill.getMarket());
+    add(fill, fill.getOpenVolumeCount());
+  }
+
+  synchronized void openVolumeChanged(Fill fill, long delta) {
+    if (fill.positionIndexGeneration == generation)
+      add(fill, delta);
+  }
+
+  /** forgets every volume, along with the fills tracked so far */
+  public synchronized void reset() {
+    generation++;
+    longVolumeCounts = new AtomicLongArray(longVolumeCounts.length());
+    shortVolumeCounts = new AtomicLongArray(shortVolumeCounts.length());
+  }
+
+  private void add(Fill fill, long delta) {
+    if (delta == 0)
+      return;
+    // the direction of a fill is that of its original volume, as its open volume may already be zero
+    if (fill.getVolumeCount() > 0)
+      longVolumeCounts.addAndGet(fill.positionIndexSlot, delta);
+    else
+      shortVolumeCounts.addAndGet(fill.positionIndexSlot, delta);
+  }
+
+  private static boolean isOf(Market market, Asset base, Exchange exchange) {
+    return market.getBase().equals(base) && market.getExchange().equals(exchange);
+  }
+
+  private void grow() {
+    longVolumeCounts = copy(longVolumeCounts, longVolumeCounts.length() * 2);
+    shortVolumeCounts = copy(shortVolumeCounts, shortVolumeCounts.length() * 2);
+  }
+
+  private static AtomicLongArray copy(AtomicLongArray counts, int length) {
+    AtomicLongArray copy = new AtomicLongArray(length);
+    for (int i = 0; i < counts.length(); i++)
+      copy.set(i, counts.get(i));
+    return copy;
+  }
+
+  private final ConcurrentHashMap<Market, Integer> slots = new ConcurrentHashMap<Market, Integer>();
+  // written under the lock, and replaced only under the lock when they grow
+  private volatile AtomicLongArray longVolumeCounts = new AtomicLongArray(INITIAL_SLOTS);
+  private volatile AtomicLongArray shortVolumeCounts = new AtomicLongArray(INITIAL_SLOTS);
+  private int generation;
+}
@@ -30,7 +30,10 @@ public class Prompt extends EntityBase {
   protected transient static PromptJpaDao promptDao;
 
   public static Prompt forSymbol(String symbol) {
-    return EM.queryOne(Prompt.class, "select c from Prompt c where symbol=?1", symbol);
+    Prompt prompt = ReferenceData.getPrompt(symbol);
+    if (prompt != null)
+      return prompt;
+    return ReferenceData.intern(EM.queryOne(Prompt.class, "select c from Prompt c where symbol=?1", symbol));
   }
 
   @Override
@@ -110,6 +113,16 @@ public class Prompt extends EntityBase {
     this.volumeBasis = volumeBasis;
   }
 
+  /** @return the id ReferenceData gave this Prompt when it was interned, or -1 */
+  @Transient
+  public int getReferenceId() {
+    return referenceId;
+  }
+
+  void setReferenceId(int referenceId) {
+    this.referenceId = referenceId;
+  }
+
   @Basic(optional = true)
   public double getVolumeBasis() {
     return this.volumeBasis;
@@ -217,7 +230,7 @@ public class Prompt extends EntityBase {
         // TODO Auto-generated catch block
         e1.printStackTrace();
       }
-      return prompt;
+      return ReferenceData.intern(prompt);
     }
   }
 
@@ -235,7 +248,7 @@ public class Prompt extends EntityBase {
         // TODO Auto-generated catch block
         e1.printStackTrace();
       }
-      return prompt;
+      return ReferenceData.intern(prompt);
     }
   }
 
@@ -294,6 +307,7 @@ public class Prompt extends EntityBase {
   private Asset tradedCurrency;
   private double priceBasis;
   private double volumeBasis;
+  private transient int referenceId = -1;
   private int margin;
   private double makerFeeRate;
   private double takerFeeRate;
@@ -0,0 +1,243 @@
+package org.cryptocoinpartners.schema;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nullable;
+
+/**
+ * ReferenceData interns the Currencies, Prompts, Listings and Markets of the JVM, so that once they are loaded looking one up is a read of a
+ * ConcurrentHashMap, with no lock and no database round trip. PersistUtil.ensureSingletonsExist() preloads every one in the database at
+ * startup, and the forSymbol, forPair and findOrCreate methods intern what they load or create afterwards.
+ * <p>
+ * Each interned entity is given a small integer id, dense per kind, which hot paths can use to index arrays or to pack into a long key rather
+ * than hashing the entity, whose hashCode formats its UUID. Listings and Markets are keyed here by the ids of their parts. The get methods
+ * return null on a miss; the entities' own lookups then go to the database, and intern the result under a lock per kind so only one copy is
+ * kept.
+ */
+public class ReferenceData {
+
+  public static void preload(List<Currency> currencies, List<Prompt> prompts, List<Listing> listings, List<Market> markets) {
+    for (Currency currency : currencies)
+      intern(currency);
+    for (Prompt prompt : prompts)
+      intern(prompt);
+    for (Listing listing : listings)
+      intern(listing);
+    for (Market market : markets)
+      intern(market);
+  }
+
+  @Nullable
+  public static Currency getCurrency(String symbol) {
+    return currencies.get(symbol);
+  }
+
+  @Nullable
+  public static Prompt getPrompt(String symbol) {
+    return prompts.get(symbol);
+  }
+
+  @Nullable
+  public static Listing getListing(Asset base, Asset quote, @Nullable Prompt prompt) {
+    int baseId = idOf(base);
+    int quoteId = idOf(quote);
+    int promptId = prompt == null ? -1 : idOf(prompt);
+    if (baseId < 0 || quoteId < 0 || (prompt != null && promptId < 0))
+      return null;
+    return listings.get(key(baseId, quoteId, promptId + 1));
+  }
+
+  @Nullable
+  public static Market getMarket(Exchange exchange, Listing listing) {
+    Integer exchangeId = exchanges.get(exchange.getSymbol());
+    int listingId = idOf(listing);
+    if (exchangeId == null || listingId < 0)
+      return null;
+    return markets.get(key(exchangeId, listingId, 0));
+  }
+
+  /** @return the Listing interned with the id, or null if there is none */
+  @Nullable
+  public static Listing getListing(int id) {
+    Listing[] byId = listingsById;
+    return id >= 0 && id < byId.length ? byId[id] : null;
+  }
+
+  /** @return the Market interned with the id, or null if there is none */
+  @Nullable
+  public static Market getMarket(int id) {
+    Market[] byId = marketsById;
+    return id >= 0 && id < byId.length ? byId[id] : null;
+  }
+
+  /** @return the interned copy of the Currency, which is the Currency itself unless one with its symbol was interned first */
+  public static Currency intern(Currency currency) {
+    Currency interned = currencies.get(currency.getSymbol());
+    if (interned == null) {
+      synchronized (currencies) {
+        interned = currencies.get(currency.getSymbol());
+        if (interned == null) {
+          currency.setReferenceId(currencies.size());
+          currencies.put(currency.getSymbol(), currency);
+          return currency;
+        }
+      }
+    }
+    currency.setReferenceId(interned.getReferenceId());
+    return interned;
+  }
+
+  public static Prompt intern(Prompt prompt) {
+    Prompt interned = prompts.get(prompt.getSymbol());
+    if (interned == null) {
+      synchronized (prompts) {
+        interned = prompts.get(prompt.getSymbol());
+        if (interned == null) {
+          prompt.setReferenceId(prompts.size());
+          prompts.put(prompt.getSymbol(), prompt);
+          return prompt;
+        }
+      }
+    }
+    prompt.setReferenceId(interned.getReferenceId());
+    return interned;
+  }
+
+  public static Listing intern(Listing listing) {
+    int baseId = internedId(listing.getBase());
+    int quoteId = internedId(listing.getQuote());
+    int promptId = listing.getPrompt() == null ? -1 : intern(listing.getPrompt()).getReferenceId();
+    long key = key(baseId, quoteId, promptId + 1);
+    Listing interned = listings.get(key);
+    if (interned == null) {
+      synchronized (listings) {
+        interned = listings.get(key);
+        if (interned == null) {
+          int id = listings.size();
+          Listing[] byId = grow(listingsById, id);
+          byId[id] = listing;
+          listingsById = byId;
+          listing.setReferenceId(id);
+          listings.put(key, listing);
+          return listing;
+        }
+      }
+    }
+    listing.setReferenceId(interned.getReferenceId());
+    return interned;
+  }
+
+  public static Market intern(Market market) {
+    int exchangeId = internedId(market.getExchange());
+    int listingId = intern(market.getListing()).getReferenceId();
+    long key = key(exchangeId, listingId, 0);
+    Market interned = markets.get(key);
+    if (interned == null) {
+      synchronized (markets) {
+        interned = markets.get(key);
+        if (interned == null) {
+          int id = markets.size();
+          Market[] byId = grow(marketsById, id);
+          byId[id] = market;
+          marketsById = byId;
+          market.setReferenceId(id);
+          markets.put(key, market);
+          return market;
+        }
+      }
+    }
+    market.setReferenceId(interned.getReferenceId());
+    return interned;
+  }
+
+  /** @return the id of the Asset, or -1 if no Asset with its symbol has been interned */
+  public static int idOf(Asset asset) {
+    int id = asset.getReferenceId();
+    if (id >= 0)
+      return id;
+    // a copy loaded apart from the interned one, e.g. by another EntityManager
+    Currency interned = currencies.get(asset.getSymbol());
+    if (interned == null)
+      return -1;
+    asset.setReferenceId(interned.getReferenceId());
+    return interned.getReferenceId();
+  }
+
+  public static int idOf(Prompt prompt) {
+    int id = prompt.getReferenceId();
+    if (id >= 0)
+      return id;
+    Prompt interned = prompts.get(prompt.getSymbol());
+    if (interned == null)
+      return -1;
+    prompt.setReferenceId(interned.getReferenceId());
+    return interned.getReferenceId();
+  }
+
+  public static int idOf(Listing listing) {
+    int id = listing.getReferenceId();
+    if (id >= 0)
+      return id;
+    Listing interned = getListing(listing.getBase(), listing.getQuote(), listing.getPrompt());
+    if (interned == null)
+      return -1;
+    listing.setReferenceId(interned.getReferenceId());
+    return interned.getReferenceId();
+  }
+
+  public static int idOf(Market market) {
+    int id = market.getReferenceId();
+    if (id >= 0)
+      return id;
+    Market interned = getMarket(market.getExchange(), market.getListing());
+    if (interned == null)
+      return -1;
+    market.setReferenceId(interned.getReferenceId());
+    return interned.getReferenceId();
+  }
+
+  private static int internedId(Asset asset) {
+    int id = idOf(asset);
+    if (id >= 0)
+      return id;
+    // only Currencies are Assets, but the Asset may be a proxy of one
+    return (asset instanceof Currency ? intern((Currency) asset) : Currency.forSymbol(asset.getSymbol())).getReferenceId();
+  }
+
+  private static int internedId(Exchange exchange) {
+    Integer id = exchanges.get(exchange.getSymbol());
+    if (id == null) {
+      synchronized (exchanges) {
+        id = exchanges.get(exchange.getSymbol());
+        if (id == null) {
+          id = exchanges.size();
+          exchanges.put(exchange.getSymbol(), id);
+        }
+      }
+    }
+    return id;
+  }
+
+  /** packs three ids of up to 21 bits each */
+  private static long key(int first, int second, int third) {
+    return ((long) first << 42) | ((long) second << 21) | third;
+  }
+
+  private static <T> T[] grow(T[] byId, int id) {
+    if (id < byId.length)
+      return byId;
+    return Arrays.copyOf(byId, Math.max(16, byId.length * 2));
+  }
+
+  private static final ConcurrentHashMap<String, Currency> currencies = new ConcurrentHashMap<>();
+  private static final ConcurrentHashMap<String, Prompt> prompts = new ConcurrentHashMap<>();
+  private static final ConcurrentHashMap<String, Integer> exchanges = new ConcurrentHashMap<>();
+  private static final ConcurrentHashMap<Long, Listing> listings = new ConcurrentHashMap<>();
+  private static final ConcurrentHashMap<Long, Market> markets = new ConcurrentHashMap<>();
+  // a slot is filled before the array is republished, and never changed after, so readers need no lock
+  private static volatile Listing[] listingsById = new Listing[0];
+  private static volatile Market[] marketsById = new Market[0];
+
+}
@@ -0,0 +1,102 @@
+package org.cryptocoinpartners.schema;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * ResolvedBookCache holds recently replayed Books whose levels are fully materialized, keyed by Book id and evicted least recently used
+ * first once either the count or the estimated size bound is reached.
+ *
+ * A diff Book loaded from the database keeps a reference to its parent, and resolving it walks up the parent chain, as far as
+ * MAX_PARENT_CHAIN_LENGTH Books. Books are replayed in time order, so a Book's parent is almost always the Book replayed just before it for the
+ * same Market. resolve() merges the diff against that cached parent in one pass over its levels, then drops the reference to the loaded
+ * parent so the chain can be collected once it has been published.
+ *
+ * Replayed Books are read only, so dropping the parent reference does not lose anything which would be persisted.
+ */
+public class ResolvedBookCache {
+
+    /** rough per level cost of a resolved side: a price and a volume count */
+    private static final long BYTES_PER_LEVEL = 16;
+    private static final long BYTES_PER_BOOK = 256;
+
+    public ResolvedBookCache(int maxBooks, long maxBytes) {
+        this.maxBooks = maxBooks;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Materializes the levels of book, using a cached parent when there is one, and adds book to the cache.
+     *
+     * @return the resolved book
+     */
+    public synchronized Book resolve(Book book) {
+        Book parent = book.getParent();
+        if (book.needsDiffResolution() && parent != null) {
+            Book resolvedParent = get(parent.getId());
+            if (resolvedParent != null) {
+                book.resolveDiff(resolvedParent);
+                hits++;
+            } else {
+                // fall back to walking the loaded chain
+                book.getBidSide();
+                misses++;
+            }
+        }
+        if (parent != null)
+            book.setParent(null);
+        put(book);
+        return book;
+    }
+
+    public synchronized Book get(UUID bookId) {
+        return books.get(bookId);
+    }
+
+    public synchronized void clear() {
+        books.clear();
+        bytes = 0;
+    }
+
+    public synchronized int size() {
+        return books.size();
+    }
+
+    /** @return the estimated size in bytes of the cached levels */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    private synchronized void put(Book book) {
+        Book previous = books.put(book.getId(), book);
+        if (previous != null)
+            bytes -= estimateBytes(previous);
+        bytes += estimateBytes(book);
+        Iterator<Map.Entry<UUID, Book>> eldest = books.entrySet().iterator();
+        while ((books.size() > maxBooks || bytes > maxBytes) && eldest.hasNext()) {
+            bytes -= estimateBytes(eldest.next().getValue());
+            eldest.remove();
+        }
+    }
+
+    private static long estimateBytes(Book book) {
+        return BYTES_PER_BOOK + BYTES_PER_LEVEL * (book.getBidSide().size() + book.getAskSide().size());
+    }
+
+    private final int maxBooks;
+    private final long maxBytes;
+    private final Map<UUID, Book> books = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    private long hits;
+    private long misses;
+}
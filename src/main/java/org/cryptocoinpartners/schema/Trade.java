@@ -148,12 +148,12 @@ public class Trade extends PriceData {
   }
 
   public static void find(Interval timeInterval, Visitor<Trade> visitor) {
-    EM.queryEach(Trade.class, visitor, "select t from Trade t where time > ?1 and time < ?2", timeInterval.getStartMillis(),
+    EM.queryEachByTime(Trade.class, visitor, "select t from Trade t where time > ?1 and time < ?2", timeInterval.getStartMillis(),
         timeInterval.getEndMillis());
   }
 
   public static void forAll(Visitor<Trade> visitor) {
-    EM.queryEach(Trade.class, visitor, "select t from Trade t");
+    EM.queryEachByTime(Trade.class, visitor, "select t from Trade t");
   }
 
   @Override
@@ -13,13 +13,13 @@ public class BookJpaDao extends DaoJpa implements BookDao {
 
     @Override
     public void find(Interval timeInterval, Visitor<Book> visitor) {
-        queryEach(Book.class, visitor, "select b from Book b where time > ?1 and time < ?2", timeInterval.getStartMillis(), timeInterval.getEndMillis());
+        queryEachByTime(Book.class, visitor, "select b from Book b where time > ?1 and time < ?2", timeInterval.getStartMillis(), timeInterval.getEndMillis());
 
     }
 
     @Override
     public void findAll(Visitor<Book> visitor) {
-        queryEach(Book.class, visitor, "select b from Book b");
+        queryEachByTime(Book.class, visitor, "select b from Book b");
 
     }
 
@@ -23,6 +23,12 @@ public interface Dao {
 
     void deleteEntities(EntityBase... entities);
 
+    /** writes entities, which are all new and of the same class, in as few transactions as possible */
+    void persistBatch(EntityBase... entities);
+
+    /** writes entities, which are all of the same class, in as few transactions as possible */
+    void mergeBatch(EntityBase... entities);
+
     void delete(EntityBase... entities);
 
     <T> T find(Class<T> resultType, UUID id);
@@ -45,6 +51,16 @@ public interface Dao {
 
     void queryEach(Visitor<Object[]> handler, int batchSize, String queryStr, Object... params);
 
+    <T extends EntityBase> void queryEachByTime(Class<T> resultType, Visitor<T> handler, String queryStr, Object... params);
+
+    <T extends EntityBase> void queryEachByTime(Class<T> resultType, Visitor<T> handler, int batchSize, String queryStr, Object... params);
+
+    <T> void scrollEach(Class<T> resultType, Visitor<T> handler, String queryStr, Object... params);
+
+    <T> void scrollEach(Class<T> resultType, Visitor<T> handler, int fetchSize, String queryStr, Object... params);
+
+    void scrollEach(Visitor<Object[]> handler, int fetchSize, String queryStr, Object... params);
+
     <T> Long findRevisionById(Class<T> resultType, UUID id) throws NoResultException;
 
     <T> Long findVersionById(Class<T> resultType, UUID id) throws NoResultException;
@@ -1,6 +1,9 @@
 package org.cryptocoinpartners.schema.dao;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import javax.persistence.EntityExistsException;
@@ -15,9 +18,14 @@ import org.cryptocoinpartners.enumeration.PersistanceAction;
 import org.cryptocoinpartners.module.ApplicationInitializer;
 import org.cryptocoinpartners.schema.EntityBase;
 import org.cryptocoinpartners.util.ConfigUtil;
+import org.cryptocoinpartners.util.Diagnostics;
+import org.cryptocoinpartners.util.KeysetQuery;
 import org.cryptocoinpartners.util.Visitor;
 import org.hibernate.PersistentObjectException;
 import org.hibernate.PropertyAccessException;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
 import org.hibernate.StaleObjectStateException;
 import org.hibernate.TransientObjectException;
 import org.hibernate.TransientPropertyValueException;
@@ -37,10 +45,15 @@ public abstract class DaoJpa implements Dao, java.io.Serializable {
      */
   private static final long serialVersionUID = -3999121207747846784L;
   protected static Logger log = LoggerFactory.getLogger("org.cryptocoinpartners.persist");
-  private static final int defaultBatchSize = 20;
+  private static int defaultBatchSize;
+  private static int defaultFetchSize;
+  private static boolean scrollQueries;
   private static int retry;
   static {
     retry = ConfigUtil.combined().getInt("db.persist.retry");
+    defaultBatchSize = ConfigUtil.combined().getInt("db.query.batch.size", 20);
+    defaultFetchSize = ConfigUtil.combined().getInt("db.query.fetch.size", 1000);
+    scrollQueries = ConfigUtil.combined().getBoolean("db.query.scroll", false);
   }
   @Inject
   protected transient Provider<EntityManager> entityManager;
@@ -72,6 +85,10 @@ public abstract class DaoJpa implements Dao, java.io.Serializable {
   @Override
   @Transactional
   public void queryEach(Visitor<Object[]> handler, int batchSize, String queryStr, Object... params) {
+    if (scrollQueries) {
+      scrollEach(handler, batchSize, queryStr, params);
+      return;
+    }
     try {
       Query query = entityManager.get().createQuery(queryStr);
       if (params != null) {
@@ -110,6 +127,10 @@ public abstract class DaoJpa implements Dao, java.io.Serializable {
   @Override
   @Transactional
   public <T> void queryEach(Class<T> resultType, Visitor<T> handler, int batchSize, String queryStr, Object... params) {
+    if (scrollQueries) {
+      scrollEach(resultType, handler, batchSize, queryStr, params);
+      return;
+    }
     try {
       TypedQuery<T> query = entityManager.get().createQuery(queryStr, resultType);
       if (params != null) {
@@ -137,6 +158,104 @@ public abstract class DaoJpa implements Dao, java.io.Serializable {
     }
   }
 
+  @Override
+  public <T extends EntityBase> void queryEachByTime(Class<T> resultType, Visitor<T> handler, String queryStr, Object... params) {
+    queryEachByTime(resultType, handler, defaultBatchSize, queryStr, params);
+  }
+
+  /**
+   * Visits the results of an entity query in (time, id) order, seeking past the last row of each page instead of skipping an offset, see
+   * KeysetQuery. Visited rows are detached, so a long scan does not grow the persistence context.
+   */
+  @Override
+  @Transactional
+  public <T extends EntityBase> void queryEachByTime(Class<T> resultType, Visitor<T> handler, int batchSize, String queryStr, Object... params) {
+    try {
+      KeysetQuery keyset = new KeysetQuery(queryStr, "time");
+      TypedQuery<T> query = entityManager.get().createQuery(keyset.getFirstQuery(), resultType);
+      Object[] pageParams = params;
+      for (boolean first = true;; first = false) {
+        if (pageParams != null) {
+          for (int i = 0; i < pageParams.length; i++) {
+            Object param = pageParams[i];
+            query.setParameter(i + 1, param); // JPA uses 1-based indexes
+          }
+        }
+        query.setMaxResults(batchSize);
+        List<T> list = query.getResultList();
+        for (T row : list) {
+          if (!handler.handleItem(row))
+            return;
+          entityManager.get().detach(row);
+        }
+        if (list.size() < batchSize)
+          return;
+        if (first)
+          query = entityManager.get().createQuery(keyset.getNextQuery(params == null ? 0 : params.length), resultType);
+        pageParams = keyset.getNextParams(params, list.get(list.size() - 1));
+      }
+    } catch (Exception | Error ex) {
+
+      log.error("Unable to perform request in " + this.getClass().getSimpleName() + ":queryEachByTime, full stack trace follows:", ex);
+      throw ex;
+
+    }
+  }
+
+  @Override
+  public <T> void scrollEach(Class<T> resultType, Visitor<T> handler, String queryStr, Object... params) {
+    scrollEach(resultType, handler, defaultFetchSize, queryStr, params);
+  }
+
+  @Override
+  public <T> void scrollEach(final Class<T> resultType, final Visitor<T> handler, int fetchSize, String queryStr, Object... params) {
+    scrollEach(new Visitor<Object[]>() {
+      @Override
+      public boolean handleItem(Object[] row) {
+        return handler.handleItem(resultType.cast(row[0]));
+      }
+    }, fetchSize, queryStr, params);
+  }
+
+  /**
+   * Visits the results of a query in a single pass through a forward only Hibernate ScrollableResults, with fetchSize rows buffered by the
+   * driver. Visited entities are evicted from the session, so memory use stays constant however many rows the query returns.
+   */
+  @Override
+  @Transactional
+  public void scrollEach(Visitor<Object[]> handler, int fetchSize, String queryStr, Object... params) {
+    try {
+      Session session = entityManager.get().unwrap(Session.class);
+      org.hibernate.Query query = session.createQuery(queryStr);
+      if (params != null) {
+        for (int i = 0; i < params.length; i++) {
+          Object param = params[i];
+          query.setParameter(String.valueOf(i + 1), param); // JPA style ?1 parameters are named by their index
+        }
+      }
+      query.setReadOnly(true);
+      query.setFetchSize(fetchSize);
+      ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY);
+      try {
+        while (results.next()) {
+          Object[] row = results.get();
+          if (!handler.handleItem(row))
+            return;
+          for (Object item : row)
+            if (item instanceof EntityBase && session.contains(item))
+              session.evict(item);
+        }
+      } finally {
+        results.close();
+      }
+    } catch (Exception | Error ex) {
+
+      log.error("Unable to perform request in " + this.getClass().getSimpleName() + ":scrollEach, full stack trace follows:", ex);
+      throw ex;
+
+    }
+  }
+
   @Override
   @Transactional
   public <T> T namedQueryOne(Class<T> resultType, String namedQuery, Object... params) throws NoResultException {
@@ -369,7 +488,7 @@ public abstract class DaoJpa implements Dao, java.io.Serializable {
 
           entity.setAttempt(0);
           entity.setPeristanceAction(PersistanceAction.NEW);
-          application.getInsertQueue().add(entity);
+          application.requeue(entity);
           //      persist(false, entity);
         }
 
@@ -390,7 +509,7 @@ public abstract class DaoJpa implements Dao, java.io.Serializable {
               + " already persisted. Persist attempt " + entity.getAttempt() + " of " + retry);
           //               entity.setRevision(0);
           entity.setPeristanceAction(PersistanceAction.NEW);
-          application.getInsertQueue().add(entity);
+          application.requeue(entity);
           //  persist(false, entity);
 
         }
@@ -417,7 +536,7 @@ public abstract class DaoJpa implements Dao, java.io.Serializable {
             //                   entity.setRevision(0);
             entity.prePersist();
             entity.setPeristanceAction(PersistanceAction.NEW);
-            application.getInsertQueue().add(entity);
+            application.requeue(entity);
             //    persist(false, entity);
             //  persist(false, entity);
             // attempt++;
@@ -445,7 +564,7 @@ public abstract class DaoJpa implements Dao, java.io.Serializable {
             // entity.setAttempt(0);
             //                      entity.setRevision(0);
             entity.setPeristanceAction(PersistanceAction.MERGE);
-            application.getMergeQueue().add(entity);
+            application.requeue(entity);
             // merge(false, entity);
           }
 
@@ -471,7 +590,7 @@ public abstract class DaoJpa implements Dao, java.io.Serializable {
             //                        entity.setAttempt(0);
             //                     entity.setRevision(0);
             entity.setPeristanceAction(PersistanceAction.MERGE);
-            application.getMergeQueue().add(entity);
+            application.requeue(entity);
             //   merge(false, entity);
           }
 
@@ -494,7 +613,7 @@ public abstract class DaoJpa implements Dao, java.io.Serializable {
                 + " :persist, primary key for version " + entity.getVersion() + "  already present in db with version " + dbEntity.getVersion()
                 + ". Persist attempt " + entity.getAttempt() + " of " + retry);
             entity.setPeristanceAction(PersistanceAction.MERGE);
-            application.getMergeQueue().add(entity);
+            application.requeue(entity);
             // merge(false, entity);
 
           }
@@ -539,8 +658,7 @@ public abstract class DaoJpa implements Dao, java.io.Serializable {
   @Override
   public void persist(EntityBase... entities) {
     for (EntityBase entity : entities)
-      log.trace("DaoJpa - Persist : Persit of " + entity.getClass().getSimpleName() + " " + entity.getId() + " called from class "
-          + Thread.currentThread().getStackTrace()[2]);
+      log.trace("DaoJpa - Persist : Persit of {} {} called from class {}", entity.getClass().getSimpleName(), entity.getId(), Diagnostics.caller());
     //let's clone the object as it could update and cause issues 
     //  SerializationUtils.clone(Object);
 
@@ -561,7 +679,7 @@ public abstract class DaoJpa implements Dao, java.io.Serializable {
           //  SerializationUtils.clone(entity);
           EntityBase entityClone = entity.clone();
           entityClone.setDao(entity.getDao());
-          application.getInsertQueue().add(entityClone);
+          application.enqueue(entityClone);
           //  } else {
           //    application.getInsertQueue().addFirst(entity);
           //}
@@ -583,8 +701,7 @@ public abstract class DaoJpa implements Dao, java.io.Serializable {
   @Override
   public void delete(EntityBase... entities) {
     for (EntityBase entity : entities)
-      log.trace("DaoJpa - Delete : delete of " + entity.getClass().getSimpleName() + " " + entity.getId() + " called from class "
-          + Thread.currentThread().getStackTrace()[2]);
+      log.trace("DaoJpa - Delete : delete of {} {} called from class {}", entity.getClass().getSimpleName(), entity.getId(), Diagnostics.caller());
 
     delete(true, entities);
 
@@ -607,7 +724,7 @@ public abstract class DaoJpa implements Dao, java.io.Serializable {
           // EntityBase entityClone = SerializationUtils.clone(entity);
           entityClone.setDao(entity.getDao());
 
-          application.getMergeQueue().add(entityClone);
+          application.enqueue(entityClone);
 
           log.debug("deleting " + entity.getClass().getSimpleName() + " id:" + entity.getId());
         }
@@ -657,8 +774,7 @@ public abstract class DaoJpa implements Dao, java.io.Serializable {
   @Override
   public void merge(EntityBase... entities) {
     for (EntityBase entity : entities)
-      log.trace("DaoJpa - Merge : Merge of " + entity.getClass().getSimpleName() + " " + entity.getId() + " called from class "
-          + Thread.currentThread().getStackTrace()[2]);
+      log.trace("DaoJpa - Merge : Merge of {} {} called from class {}", entity.getClass().getSimpleName(), entity.getId(), Diagnostics.caller());
 
     merge(false, entities);
   }
@@ -679,7 +795,7 @@ public abstract class DaoJpa implements Dao, java.io.Serializable {
           // entityClone.setDao(entity.getDao());
           EntityBase entityClone = entity.clone();
           entityClone.setDao(entity.getDao());
-          application.getMergeQueue().add(entityClone);
+          application.enqueue(entityClone);
           //  .add(c);
           // entity.getDao().mergeEntities(entity);
           //  application.getMergeQueue().put(entity);
@@ -1110,6 +1226,82 @@ public abstract class DaoJpa implements Dao, java.io.Serializable {
 
   }
 
+  /**
+   * Inserts entities in a single transaction, which Hibernate sends as JDBC batches. If the transaction fails, each entity is persisted on its
+   * own by persistEntities, so it is retried or reported as before.
+   */
+  @Override
+  public void persistBatch(EntityBase... entities) {
+    if (entities.length > 1)
+      try {
+        insertAll(entities);
+        for (EntityBase entity : entities)
+          entity.setAttempt(0);
+        return;
+      } catch (Exception | Error ex) {
+        log.debug(this.getClass().getSimpleName() + ":persistBatch - batch of " + entities.length + " " + entities[0].getClass().getSimpleName()
+            + " rolled back, persisting individually: " + ex);
+      }
+    for (EntityBase entity : entities)
+      try {
+        persistEntities(entity);
+      } catch (Throwable ex) {
+        log.error(" " + this.getClass().getSimpleName() + ":persistBatch, " + entity + " full stack trace follows:", ex);
+      }
+  }
+
+  /**
+   * Merges entities newer than their persisted revision in a single transaction, reading the persisted revisions with one query. If the
+   * transaction fails, each entity is merged on its own by mergeEntities, so it is retried or reported as before.
+   */
+  @Override
+  public void mergeBatch(EntityBase... entities) {
+    if (entities.length > 1)
+      try {
+        updateAll(entities);
+        for (EntityBase entity : entities)
+          entity.setAttempt(0);
+        return;
+      } catch (Exception | Error ex) {
+        log.debug(this.getClass().getSimpleName() + ":mergeBatch - batch of " + entities.length + " " + entities[0].getClass().getSimpleName()
+            + " rolled back, merging individually: " + ex);
+      }
+    for (EntityBase entity : entities)
+      try {
+        mergeEntities(entity);
+      } catch (Throwable ex) {
+        log.error(" " + this.getClass().getSimpleName() + ":mergeBatch, " + entity + " full stack trace follows:", ex);
+      }
+  }
+
+  @Transactional
+  public void insertAll(EntityBase... entities) {
+    for (EntityBase entity : entities)
+      entityManager.get().persist(entity);
+  }
+
+  /** all entities must be of the same class */
+  @Transactional
+  public void updateAll(EntityBase... entities) {
+    List<UUID> ids = new ArrayList<UUID>(entities.length);
+    for (EntityBase entity : entities)
+      ids.add(entity.getId());
+    Map<UUID, Integer> revisions = new HashMap<UUID, Integer>();
+    for (Object[] row : queryList(Object[].class, "select x.id, x.revision from " + entities[0].getClass().getSimpleName() + " x where x.id in ?1",
+        ids))
+      revisions.put((UUID) row[0], (Integer) row[1]);
+    for (EntityBase entity : entities) {
+      Integer revision = revisions.get(entity.getId());
+      if (revision == null)
+        throw new EntityNotFoundException(entity.getClass().getSimpleName() + " " + entity.getId() + " not found in database");
+      if (entity.getRevision() > revision)
+        entityManager.get().merge(entity);
+      else
+        log.trace("DapJpa - updateAll: " + entity.getClass().getSimpleName() + " not peristed as entity revision " + entity.getRevision()
+            + " is not greater than peristed revision " + revision + ". Entity " + entity.getId());
+    }
+  }
+
   @Override
   public void mergeEntities(EntityBase... entities) {
     int attempt = 0;
@@ -1152,7 +1344,7 @@ public abstract class DaoJpa implements Dao, java.io.Serializable {
           // }
           entity.prePersist();
           entity.setPeristanceAction(PersistanceAction.MERGE);
-          application.getMergeQueue().add(entity);
+          application.requeue(entity);
           //   persist(false, entity);
           //  EntityBase dbEntity = null;
           /*
@@ -1202,7 +1394,7 @@ public abstract class DaoJpa implements Dao, java.io.Serializable {
             if (dbEntity != null)
               entity.setVersion(dbEntity.getVersion());
             entity.setPeristanceAction(PersistanceAction.MERGE);
-            application.getMergeQueue().add(entity);
+            application.requeue(entity);
 
             //   merge(false, entity);
 
@@ -1210,7 +1402,7 @@ public abstract class DaoJpa implements Dao, java.io.Serializable {
 
             //
             entity.setPeristanceAction(PersistanceAction.MERGE);
-            application.getMergeQueue().add(entity);
+            application.requeue(entity);
             //    merge(false, entity);
           }
           //     return;
@@ -1288,7 +1480,7 @@ public abstract class DaoJpa implements Dao, java.io.Serializable {
             entity.prePersist();
             entity.setPeristanceAction(PersistanceAction.MERGE);
 
-            application.getMergeQueue().add(entity);
+            application.requeue(entity);
             //     merge(false, entities);
 
           }
@@ -1313,7 +1505,7 @@ public abstract class DaoJpa implements Dao, java.io.Serializable {
             //      entity.setRevision(0);
             entity.setPeristanceAction(PersistanceAction.MERGE);
 
-            application.getMergeQueue().add(entity);
+            application.requeue(entity);
             //    merge(false, entities);
           }
         }
@@ -1337,7 +1529,7 @@ public abstract class DaoJpa implements Dao, java.io.Serializable {
             //     entity.setRevision(0);
             entity.setPeristanceAction(PersistanceAction.MERGE);
 
-            application.getMergeQueue().add(entity);
+            application.requeue(entity);
             //  merge(false, entities);
           }
         }
@@ -1357,7 +1549,7 @@ public abstract class DaoJpa implements Dao, java.io.Serializable {
               dbEntity = restore(entity);
             } catch (Exception | Error ex1) {
               entity.setPeristanceAction(PersistanceAction.MERGE);
-              application.getMergeQueue().add(entity);
+              application.requeue(entity);
               //   merge(false, entity);
               return;
 
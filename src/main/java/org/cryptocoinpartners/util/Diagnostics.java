@@ -0,0 +1,61 @@
+package org.cryptocoinpartners.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ Call sites for diagnostic log messages, captured only when a message is actually written. Pass caller() as an argument of a parameterised
+ message instead of concatenating Thread.currentThread().getStackTrace()[2]:
+
+ <pre>
+ log.trace("{} : setOpenVolumeCount to {} called from {}", getClass().getSimpleName(), openVolumeCount, Diagnostics.caller());
+ </pre>
+
+ caller() returns a shared constant, so when the level is off the message costs a call to isTraceEnabled() and nothing else. When the message is
+ written, the logger formats the constant on the logging thread, and only then is the stack walked, to the frame which called the method that
+ logged, as getStackTrace()[2] gave. Walking the stack is still the dearest part of such a message, so with log.callsite.sample=n only every nth
+ call site formatted is walked; the others are written as "(not sampled)", and 0 walks none.
+ */
+public class Diagnostics {
+
+    /** @return a placeholder whose toString() is the caller of the method which logged it */
+    public static Object caller() {
+        return CALLER;
+    }
+
+    private static final Object CALLER = new Object() {
+        @Override
+        public String toString() {
+            int sample = sampleEvery();
+            if (sample <= 0 || (sample > 1 && formatted.incrementAndGet() % sample != 0))
+                return "(not sampled)";
+            StackTraceElement[] frames = new Throwable().getStackTrace();
+            // skip this class and the logging framework, to the method which logged, then one more to its caller
+            for (int i = 1; i < frames.length - 1; i++)
+                if (!isInternal(frames[i].getClassName()))
+                    return frames[i + 1].toString();
+            return "(unknown)";
+        }
+    };
+
+    private static boolean isInternal(String className) {
+        return className.startsWith(Diagnostics.class.getName()) || className.startsWith("org.slf4j.") || className.startsWith("ch.qos.logback.")
+                || className.startsWith("org.apache.log4j.") || className.startsWith("java.") || className.startsWith("sun.")
+                || className.startsWith("jdk.");
+    }
+
+    private static int sampleEvery() {
+        int sample = sampleEvery;
+        if (sample == UNREAD) {
+            // read on first use, as messages may be logged before the configuration is loaded
+            sample = ConfigUtil.combined() == null ? 1 : ConfigUtil.combined().getInt("log.callsite.sample", 1);
+            if (ConfigUtil.combined() != null)
+                sampleEvery = sample;
+        }
+        return sample;
+    }
+
+    private static final int UNREAD = Integer.MIN_VALUE;
+    private static volatile int sampleEvery = UNREAD;
+    private static final AtomicLong formatted = new AtomicLong();
+
+}
@@ -15,6 +15,9 @@ import javax.persistence.Query;
 import javax.persistence.TypedQuery;
 
 import org.cryptocoinpartners.schema.EntityBase;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
 import org.hibernate.TransientObjectException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -37,7 +40,9 @@ public class EM {
     @Inject
     // @PersistenceContext
     static Provider<EntityManager> entityManagerProvider;
-    private static final int defaultBatchSize = 20;
+    private static final int defaultBatchSize = ConfigUtil.combined().getInt("db.query.batch.size", 20);
+    private static final int defaultFetchSize = ConfigUtil.combined().getInt("db.query.fetch.size", 1000);
+    private static final boolean scrollQueries = ConfigUtil.combined().getBoolean("db.query.scroll", false);
     protected static Logger log = LoggerFactory.getLogger("org.cryptocoinpartners.staticEntityManager");
     @Inject
     protected static UnitOfWork unitOfWork;
@@ -61,7 +66,10 @@ public class EM {
 
     @SuppressWarnings("ConstantConditions")
     public static void queryEach(Visitor<Object[]> handler, int batchSize, String queryStr, Object... params) {
-        EntityManager em = null;
+        if (scrollQueries) {
+            scrollEach(handler, batchSize, queryStr, params);
+            return;
+        }
         try {
             beginUnitOfWork();
             log.trace("namedQueryZeroOne unit of work ended for thread: " + Thread.currentThread());
@@ -468,6 +476,29 @@ public class EM {
         }
     }
 
+    /** returns at most maxResults rows of the query, starting at row firstResult */
+    public static <T> List<T> queryPage(Class<T> resultType, int firstResult, int maxResults, String queryStr, Object... params) {
+        try {
+            beginUnitOfWork();
+            final TypedQuery<T> query = em().createQuery(queryStr, resultType);
+
+            if (params != null) {
+                for (int i = 0; i < params.length; i++) {
+                    Object param = params[i];
+                    query.setParameter(i + 1, param); // JPA uses 1-based indexes
+                }
+            }
+            query.setFirstResult(firstResult);
+            query.setMaxResults(maxResults);
+            return query.getResultList();
+        } catch (TransientObjectException toe) {
+            log.debug("what happened");
+            return null;
+        } finally {
+            unitOfWork.end();
+        }
+    }
+
     public static <T> List<T> queryList(Class<T> resultType, String queryStr, Map<String, String> properties, Object... params) {
         //  EntityManager em = em();
         try {
@@ -676,6 +707,10 @@ public class EM {
 
     //  @Transactional
     public static <T> void queryEach(Class<T> resultType, Visitor<T> handler, int batchSize, String queryStr, Object... params) {
+        if (scrollQueries) {
+            scrollEach(resultType, handler, batchSize, queryStr, params);
+            return;
+        }
         try {
             beginUnitOfWork();
 
@@ -704,4 +739,83 @@ public class EM {
 
         }
     }
+
+    public static <T extends EntityBase> void queryEachByTime(Class<T> resultType, Visitor<T> handler, String queryStr, Object... params) {
+        queryEachByTime(resultType, handler, defaultBatchSize, queryStr, params);
+    }
+
+    /**
+     * Visits the results of an entity query in (time, id) order, reading batchSize rows at a time with a KeysetQuery. Each page is read in its
+     * own unit of work, so a scan of any length holds at most one page of entities.
+     */
+    public static <T extends EntityBase> void queryEachByTime(Class<T> resultType, Visitor<T> handler, int batchSize, String queryStr,
+            Object... params) {
+        KeysetQuery keyset = new KeysetQuery(queryStr, "time");
+        for (T last = null;;) {
+            List<T> list = queryPageAfter(resultType, keyset, last, batchSize, params);
+            if (list == null || list.isEmpty())
+                return;
+            for (T row : list) {
+                if (!handler.handleItem(row))
+                    return;
+            }
+            if (list.size() < batchSize)
+                return;
+            last = list.get(list.size() - 1);
+        }
+    }
+
+    /** returns at most maxResults rows of the keyset query following the row after, or the first rows if after is null */
+    public static <T> List<T> queryPageAfter(Class<T> resultType, KeysetQuery keyset, EntityBase after, int maxResults, Object... params) {
+        if (after == null)
+            return queryPage(resultType, 0, maxResults, keyset.getFirstQuery(), params);
+        return queryPage(resultType, 0, maxResults, keyset.getNextQuery(params == null ? 0 : params.length), keyset.getNextParams(params, after));
+    }
+
+    public static <T> void scrollEach(Class<T> resultType, Visitor<T> handler, String queryStr, Object... params) {
+        scrollEach(resultType, handler, defaultFetchSize, queryStr, params);
+    }
+
+    /**
+     * Visits the results of a query through a forward only Hibernate ScrollableResults, so the rows are read in a single pass with fetchSize
+     * rows buffered by the driver. The session is cleared every fetchSize rows, so visited entities are detached and memory use stays
+     * constant. MySQL Connector/J only honours the fetch size when db.url sets useCursorFetch=true.
+     */
+    public static <T> void scrollEach(final Class<T> resultType, final Visitor<T> handler, int fetchSize, String queryStr, Object... params) {
+        scrollEach(new Visitor<Object[]>() {
+            @Override
+            public boolean handleItem(Object[] row) {
+                return handler.handleItem(resultType.cast(row[0]));
+            }
+        }, fetchSize, queryStr, params);
+    }
+
+    public static void scrollEach(Visitor<Object[]> handler, int fetchSize, String queryStr, Object... params) {
+        try {
+            beginUnitOfWork();
+            Session session = em().unwrap(Session.class);
+            org.hibernate.Query query = session.createQuery(queryStr);
+            if (params != null) {
+                for (int i = 0; i < params.length; i++) {
+                    Object param = params[i];
+                    query.setParameter(String.valueOf(i + 1), param); // JPA style ?1 parameters are named by their index
+                }
+            }
+            query.setReadOnly(true);
+            query.setFetchSize(fetchSize);
+            ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY);
+            try {
+                for (int count = 1; results.next(); count++) {
+                    if (!handler.handleItem(results.get()))
+                        return;
+                    if (count % fetchSize == 0)
+                        session.clear();
+                }
+            } finally {
+                results.close();
+            }
+        } finally {
+            unitOfWork.end();
+        }
+    }
 }
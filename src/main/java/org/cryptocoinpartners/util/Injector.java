@@ -120,9 +120,11 @@ public class Injector {
         properties.put("hibernate.connection.autocommit", "false");
         properties.put("hibernate.flushMode", "COMMIT");
         properties.put("hibernate.connection.release_mode", "auto");
-        // properties.put("hibernate.jdbc.batch_size", "30");
-        // properties.put("hibernate.order_inserts", "true");
-        // properties.put("hibernate.order_updates", "true");
+        // the write behind queue writes each batch in one transaction, so let Hibernate send its statements as JDBC batches
+        properties.put("hibernate.jdbc.batch_size", ConfigUtil.combined().getString("db.jdbc.batch.size", "50"));
+        properties.put("hibernate.jdbc.batch_versioned_data", "true");
+        properties.put("hibernate.order_inserts", "true");
+        properties.put("hibernate.order_updates", "true");
 
         properties.put("hibernate.connection.provider_class", "org.hibernate.connection.C3P0ConnectionProvider");
         properties.put("hibernate.cache.region.factory_class", "org.hibernate.cache.ehcache.EhCacheRegionFactory");
@@ -0,0 +1,92 @@
+package org.cryptocoinpartners.util;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.cryptocoinpartners.schema.EntityBase;
+
+/**
+ * KeysetQuery pages through the results of an entity query in (time, id) order by seeking past the last row of the previous page, instead of
+ * skipping an offset. With an index on the time column every page costs the same, where an offset page has to read and discard every row
+ * before it, which makes a full scan quadratic.
+ *
+ * The query must select a single aliased entity, as in "select t from Trade t where market = ?1", and must not have an order by clause. Pages
+ * after the first add two positional parameters after the query's own, holding the time and id of the last row seen.
+ */
+public class KeysetQuery {
+
+    private static final Pattern ENTITY_QUERY = Pattern.compile("^\\s*select\\s+(\\w+)\\s+from\\s+\\w+(?:\\s+as)?\\s+(\\w+)(.*)$",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern WHERE = Pattern.compile("\\bwhere\\b", Pattern.CASE_INSENSITIVE);
+    private static final Pattern ORDER_BY = Pattern.compile("\\border\\s+by\\b", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * @param queryStr an entity query without an order by clause
+     * @param timeField the property holding the time to page on, usually "time" or "timeReceived"
+     */
+    public KeysetQuery(String queryStr, String timeField) {
+        this.queryStr = queryStr.trim();
+        Matcher matcher = ENTITY_QUERY.matcher(this.queryStr);
+        if (!matcher.matches() || !matcher.group(1).equals(matcher.group(2)))
+            throw new IllegalArgumentException("keyset paging needs a query selecting one aliased entity: " + queryStr);
+        if (ORDER_BY.matcher(queryStr).find())
+            throw new IllegalArgumentException("keyset paging supplies its own ordering: " + queryStr);
+        this.timeField = timeField;
+        alias = matcher.group(2);
+        Matcher whereMatcher = WHERE.matcher(this.queryStr);
+        where = whereMatcher.find(matcher.start(3)) ? whereMatcher.start() : -1;
+        getterName = "get" + Character.toUpperCase(timeField.charAt(0)) + timeField.substring(1);
+    }
+
+    /** @return the query for the first page */
+    public String getFirstQuery() {
+        return queryStr + orderBy();
+    }
+
+    /** @return the query for the pages after the first, where the query itself takes paramCount parameters */
+    public String getNextQuery(int paramCount) {
+        String time = alias + "." + timeField;
+        String seek = "(" + time + " > ?" + (paramCount + 1) + " or (" + time + " = ?" + (paramCount + 1) + " and " + alias + ".id > ?"
+                + (paramCount + 2) + "))";
+        if (where < 0)
+            return queryStr + " where " + seek + orderBy();
+        // parenthesize the original condition so an "or" in it cannot swallow the seek condition
+        int condition = where + "where".length();
+        return queryStr.substring(0, condition) + " (" + queryStr.substring(condition).trim() + ") and " + seek + orderBy();
+    }
+
+    /** @return the parameters for the page following the one ending with last */
+    public Object[] getNextParams(Object[] params, EntityBase last) {
+        int count = params == null ? 0 : params.length;
+        Object[] result = params == null ? new Object[2] : Arrays.copyOf(params, count + 2);
+        result[count] = getTime(last);
+        result[count + 1] = last.getId();
+        return result;
+    }
+
+    public String getTimeField() {
+        return timeField;
+    }
+
+    private Object getTime(EntityBase row) {
+        try {
+            Method getter = row.getClass().getMethod(getterName);
+            return getter.invoke(row);
+        } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+            throw new Error("unable to read " + timeField + " of " + row.getClass().getSimpleName(), e);
+        }
+    }
+
+    private String orderBy() {
+        return " order by " + alias + "." + timeField + ", " + alias + ".id";
+    }
+
+    private final String queryStr;
+    private final String timeField;
+    private final String alias;
+    private final String getterName;
+    private final int where;
+}
@@ -31,6 +31,7 @@ import org.cryptocoinpartners.schema.Listing;
 import org.cryptocoinpartners.schema.Market;
 import org.cryptocoinpartners.schema.Prompt;
 import org.cryptocoinpartners.schema.Prompts;
+import org.cryptocoinpartners.schema.ReferenceData;
 import org.hibernate.TransientObjectException;
 import org.hibernate.TransientPropertyValueException;
 import org.slf4j.Logger;
@@ -821,11 +822,13 @@ public class PersistUtil {
         Currencies.BTC.getSymbol(); // this should load all the singletons in Currencies
         Exchanges.BITFINEX.getSymbol(); // this should load all the singletons in Exchanges
         Prompts.THIS_WEEK.getSymbol();
-        EM.queryList(Currency.class, "select c from Currency c");
-        EM.queryList(Prompt.class, "select p from Prompt p");
-        EM.queryList(Listing.class, "select l from Listing l");
+        List<Currency> currencies = EM.queryList(Currency.class, "select c from Currency c");
+        List<Prompt> prompts = EM.queryList(Prompt.class, "select p from Prompt p");
+        List<Listing> listings = EM.queryList(Listing.class, "select l from Listing l");
         EM.queryList(Exchange.class, "select e from Exchange e");
-        EM.queryList(Market.class, "select m from Market m");
+        List<Market> markets = EM.queryList(Market.class, "select m from Market m");
+        // so lookups of reference data no longer go to the db
+        ReferenceData.preload(currencies, prompts, listings, markets);
 
     }
 
@@ -1,34 +1,73 @@
 package org.cryptocoinpartners.util;
 
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Queue;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
-import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import javax.annotation.Nullable;
+
+import org.apache.commons.configuration.Configuration;
+import org.cryptocoinpartners.schema.Exchange;
 import org.joda.time.Duration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.util.concurrent.SimpleTimeLimiter;
-import com.google.common.util.concurrent.TimeLimiter;
-import com.google.common.util.concurrent.UncheckedTimeoutException;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * Implements an Executor which delays execution until a rate limit is fulfilled.
- * 
+ * <p>
+ * Each class of exchange endpoint has its own token bucket, which holds up to its number of invocations and refills at that many per time
+ * window. Runnables waiting for an endpoint are served in priority order, so placing and cancelling orders goes ahead of the polls waiting for
+ * the same endpoint, and polls are served first come first served. The limiter has no threads of its own: a scheduler shared by all limiters
+ * hands out permits as the buckets refill, and the runnables are run by the given executor, or by a shared pool.
+ *
  * @author Tim Olson
  */
-@SuppressWarnings("NullableProblems")
 public class RateLimiter implements Executor {
 
+  /** the classes of exchange endpoint which are budgeted separately */
+  public enum Endpoint {
+    PUBLIC_DATA("data"), PRIVATE_TRADING("trading");
+
+    Endpoint(String configKey) {
+      this.configKey = configKey;
+    }
+
+    /** @return the name of the endpoint in the rate configuration, e.g. xchange.bitstamp.rate.trading.queries */
+    public String getConfigKey() {
+      return configKey;
+    }
+
+    private final String configKey;
+  }
+
+  /** in the order runnables waiting for the same endpoint are served */
+  public enum Priority {
+    ORDER, POLL
+  }
+
+  public static final int DEFAULT_MAX_WAITING = 1000;
+
   /**
-   * Constructs a RateLimiter with a single-threaded executor
-   * 
+   * Constructs a RateLimiter which runs on a shared pool
+   *
    * @see #RateLimiter(java.util.concurrent.Executor, int, org.joda.time.Duration)
    */
   public RateLimiter(final int invocations, final Duration per) {
@@ -36,158 +75,349 @@ public class RateLimiter implements Executor {
   }
 
   /**
-   * Implements the Token Bucket algorithm to provide a maximum number of invocations within each fixed time window. Useful for rate-limiting. If
-   * given a non-null executor, the scheduled runnables are passed to that executor for execution at the rate limit. If executor is null, a
-   * single-threaded executor is used
-   * 
+   * Implements the Token Bucket algorithm to provide a maximum number of invocations within each time window, for each endpoint. If given a
+   * non-null executor, the scheduled runnables are passed to that executor for execution at the rate limit. If executor is null, a pool shared by
+   * all limiters is used
+   *
    * @param executor the Executor which executes the Runnables. the executor is not called with the runnable until the rate limit has been fulfilled
    * @param invocations number of queries allowed during each time window
    * @param per the duration of each time window
    */
   public RateLimiter(Executor executor, final int invocations, final Duration per) {
-    this.per = per;
-    if (executor != null) {
-      this.executor = executor;
+    this(RateLimiter.class.getSimpleName(), executor, uniformBuckets(invocations, per));
+  }
 
-      this.limiter = new SimpleTimeLimiter();
-    } else {
-      this.executor = Executors.newSingleThreadExecutor();
-      this.limiter = new SimpleTimeLimiter();
-    }
+  private RateLimiter(String name, @Nullable Executor executor, Bucket[] buckets) {
+    this.name = name;
+    this.executor = executor == null ? sharedExecutor : executor;
+    this.buckets = buckets;
+  }
 
-    // This thread fills the TokenBucket with available requests every time window
-    ScheduledThreadPoolExecutor replenisher = new ScheduledThreadPoolExecutor(1);
-    replenisher.scheduleAtFixedRate(new Runnable() {
-      @Override
-      public void run() {
-        int permitsToCreate = invocations - requestsAvailable.availablePermits();
-        if (permitsToCreate > 0) {
-          synchronized (requestsAvailable) {
-            // bring the number of requests up to the maximum size per time window
-            requestsAvailable.release(permitsToCreate);
-          }
+  /**
+   * The limiter shared by every module which calls the exchange, so that its order placement and polling draw on the same budgets. It is made on
+   * first use from the exchange's configuration:<br/>
+   * .rate.queries, .rate.period the number of queries per period in seconds for each endpoint (default: 1 per second). The private trading
+   * endpoint defaults to twice the period<br/>
+   * .rate.data.queries, .rate.trading.queries and the matching .period the budget of one endpoint<br/>
+   * .rate.queue the most runnables which may wait for each endpoint (default: 1000)
+   *
+   * @param prefix the configuration prefix of the exchange, e.g. "xchange.bitstamp."
+   */
+  public static RateLimiter forExchange(Exchange exchange, Configuration config, String prefix) {
+    synchronized (limiters) {
+      RateLimiter limiter = limiters.get(exchange.getSymbol());
+      if (limiter == null) {
+        int queries = config.getInt(prefix + "rate.queries", 1);
+        double period = config.getDouble(prefix + "rate.period", 1);
+        int maxWaiting = config.getInt(prefix + "rate.queue", DEFAULT_MAX_WAITING);
+        Bucket[] buckets = new Bucket[Endpoint.values().length];
+        for (Endpoint endpoint : Endpoint.values()) {
+          String key = prefix + "rate." + endpoint.getConfigKey() + '.';
+          double defaultPeriod = endpoint == Endpoint.PUBLIC_DATA ? period : 2 * period;
+          buckets[endpoint.ordinal()] = new Bucket(config.getInt(key + "queries", queries), Duration.millis((long) (1000 * config.getDouble(key
+              + "period", defaultPeriod))), maxWaiting);
         }
+        limiter = new RateLimiter(exchange.getSymbol(), null, buckets);
+        limiters.put(exchange.getSymbol(), limiter);
       }
-    }, 0, per.getMillis(), TimeUnit.MILLISECONDS);
+      return limiter;
+    }
+  }
 
-    pump = new RunnablePump();
-    pump.start();
+  /** @return the limiter of the exchange, or null if no module calling it has been configured */
+  @Nullable
+  public static RateLimiter forExchange(Exchange exchange) {
+    synchronized (limiters) {
+      return limiters.get(exchange.getSymbol());
+    }
   }
 
+  public static Collection<RateLimiter> getLimiters() {
+    synchronized (limiters) {
+      return new ArrayList<RateLimiter>(limiters.values());
+    }
+  }
+
+  /** queues the runnable as a poll of the public data endpoints */
   @Override
   public void execute(Runnable runnable) {
-    waitingRunnables.add(runnable);
-    runnableCount.release();
+    submit(Endpoint.PUBLIC_DATA, Priority.POLL, runnable);
   }
 
-  public void execute(final Callable callable) {
-    waitingCallables.add(callable);
-    callableCount.release();
+  /**
+   * queues the runnable until the endpoint has a permit for it
+   *
+   * @return false if the endpoint already has as many runnables waiting as it allows, in which case the runnable is dropped and counted as rejected
+   */
+  public boolean submit(Endpoint endpoint, Priority priority, Runnable runnable) {
+    Bucket bucket = buckets[endpoint.ordinal()];
+    synchronized (bucket) {
+      if (bucket.waiting.size() >= bucket.maxWaiting) {
+        bucket.rejected++;
+        log.warn(this.getClass().getSimpleName() + ":submit - " + name + " " + endpoint + " already has " + bucket.waiting.size()
+            + " runnables waiting, dropping " + runnable);
+        return false;
+      }
+      bucket.waiting.add(new Waiting(runnable, priority, false));
+    }
+    drain(bucket);
+    return true;
+  }
 
+  public void execute(final Callable callable) {
     Runnable run = new Runnable() {
       @Override
       public void run() {
         try {
           Object o = callable.call();
           log.info(this.getClass().getSimpleName() + "execute - " + callable.getClass().getSimpleName() + " returned " + o);
-
         } catch (Exception e) {
           log.error(this.getClass().getSimpleName() + "execute - " + callable.getClass().getSimpleName() + " returned " + e);
-          try {
-            throw e;
-          } catch (Exception e1) {
-            // TODO Auto-generated catch block
-            log.error(this.getClass().getSimpleName() + "execute - " + callable.getClass().getSimpleName() + " returned " + e1);
-
-          }
-
         }
       }
     };
     execute(run);
   }
 
-  public boolean remove(Runnable runnable) throws Throwable {
-    if (waitingRunnables.remove(runnable)) {
-      finalize();
-      // runnableCount.release();
-      // requestsAvailable.release();
-      return true;
+  /**
+   * Waits on the caller's thread for a permit, for calls which must have the exchange's answer before they return, such as placing an order. The
+   * caller waits in priority order with the queued runnables.
+   *
+   * @return false if no permit was given within the timeout, which is counted as rejected
+   */
+  public boolean tryAcquire(Endpoint endpoint, Priority priority, long timeout, TimeUnit unit) throws InterruptedException {
+    Bucket bucket = buckets[endpoint.ordinal()];
+    final CountDownLatch granted = new CountDownLatch(1);
+    Waiting waiting = new Waiting(new Runnable() {
+      @Override
+      public void run() {
+        granted.countDown();
+      }
+    }, priority, true);
+    synchronized (bucket) {
+      bucket.waiting.add(waiting);
     }
+    drain(bucket);
+    boolean acquired = false;
+    try {
+      acquired = granted.await(timeout, unit);
+    } finally {
+      if (!acquired)
+        synchronized (bucket) {
+          // unless the permit was given just as we gave up
+          if (bucket.waiting.remove(waiting))
+            bucket.rejected++;
+          else
+            acquired = true;
+        }
+    }
+    if (!acquired)
+      log.warn(this.getClass().getSimpleName() + ":tryAcquire - no permit for " + name + " " + endpoint + " within " + unit.toMillis(timeout) + " "
+          + TimeUnit.MILLISECONDS);
+    return acquired;
+  }
+
+  public boolean remove(Runnable runnable) {
+    for (Bucket bucket : buckets)
+      synchronized (bucket) {
+        for (Iterator<Waiting> it = bucket.waiting.iterator(); it.hasNext();)
+          if (it.next().runnable.equals(runnable)) {
+            it.remove();
+            return true;
+          }
+      }
     return false;
   }
 
   public Collection<Runnable> getRunnables() {
-    return waitingRunnables;
+    List<Runnable> runnables = new ArrayList<Runnable>();
+    for (Bucket bucket : buckets)
+      synchronized (bucket) {
+        for (Waiting waiting : bucket.waiting)
+          if (!waiting.caller)
+            runnables.add(waiting.runnable);
+      }
+    return runnables;
   }
 
-  public void stopRunnablePump() {
-    pump.interrupt();
+  public String getName() {
+    return name;
   }
 
-  //}
-  // This thread waits for a Runnable to be put on the waitingRunnables queue, then waits for the rate limit
-  // to be available, then pushes the Runnable to the executor for execution.
-  private class RunnablePump extends Thread {
-    private RunnablePump() {
-      setDaemon(true);
+  /** @return the number of permits the endpoint has given */
+  public long getGranted(Endpoint endpoint) {
+    Bucket bucket = buckets[endpoint.ordinal()];
+    synchronized (bucket) {
+      return bucket.granted;
     }
+  }
 
-    @Override
-    public void run() {
-      boolean running = true;
-      while (running && !isInterrupted()) {
-        try {
-          runnableCount.acquire(); // wait until there are any scheduled runnables available
-          Runnable runnable;
-          Callable callable;
-          runnable = waitingRunnables.poll();
-          callable = waitingCallables.poll();
-          //TODO we need to override this somehow for when we rate quering the latest trade time.
-          if (callable != null)
-            try {
-              limiter.callWithTimeout(callable, 3000, TimeUnit.MILLISECONDS, false);
-            } catch (UncheckedTimeoutException ute) {
-              log.error(this.getClass().getSimpleName() + ":run - unable to complete " + callable.getClass().getSimpleName() + " within "
-                  + per.getMillis() + " " + TimeUnit.MILLISECONDS);
-
-            } catch (Exception e) {
-              log.error(
-                  this.getClass().getSimpleName() + ":run - unable to complete " + callable.getClass().getSimpleName() + " within  "
-                      + per.getMillis() + " " + TimeUnit.MILLISECONDS + "  stack trace", e);
-              // TODO Auto-generated catch block
+  /** @return the number of runnables dropped and callers turned away by the endpoint */
+  public long getRejected(Endpoint endpoint) {
+    Bucket bucket = buckets[endpoint.ordinal()];
+    synchronized (bucket) {
+      return bucket.rejected;
+    }
+  }
 
-            }
-          else
-            executor.execute(runnable);
+  public int getWaiting(Endpoint endpoint) {
+    Bucket bucket = buckets[endpoint.ordinal()];
+    synchronized (bucket) {
+      return bucket.waiting.size();
+    }
+  }
 
-          requestsAvailable.acquire(); // wait until there is request limit available, issue here with acquring the lock
-        } catch (InterruptedException e) {
+  /** @return the total time the endpoint's permits were waited for */
+  public long getWaitNanos(Endpoint endpoint) {
+    Bucket bucket = buckets[endpoint.ordinal()];
+    synchronized (bucket) {
+      return bucket.waitNanos;
+    }
+  }
 
-          running = false;
-          break;
-        }
-      }
+  public long getMaxWaitNanos(Endpoint endpoint) {
+    Bucket bucket = buckets[endpoint.ordinal()];
+    synchronized (bucket) {
+      return bucket.maxWaitNanos;
     }
   }
 
+  /** @return a line for each endpoint with its permits given, their mean and longest wait, the rejections and the runnables still waiting */
   @Override
-  public void finalize() throws Throwable {
-    pump.interrupt();
-    super.finalize();
+  public String toString() {
+    StringBuilder stats = new StringBuilder();
+    for (Endpoint endpoint : Endpoint.values()) {
+      Bucket bucket = buckets[endpoint.ordinal()];
+      synchronized (bucket) {
+        stats.append(String.format(Locale.ENGLISH, "%s %s: %d granted, mean wait %.3f ms, max wait %.3f ms, %d rejected, %d waiting%n", name,
+            endpoint, bucket.granted, bucket.granted == 0 ? 0d : bucket.waitNanos / 1e6 / bucket.granted, bucket.maxWaitNanos / 1e6, bucket.rejected,
+            bucket.waiting.size()));
+      }
+    }
+    return stats.toString();
   }
 
-  private final RunnablePump pump;
-  private final Semaphore runnableCount = new Semaphore(0);
-  private final Semaphore callableCount = new Semaphore(0);
+  /** hands out the permits the bucket has to its waiting runnables, and schedules another pass for when its next permit is due */
+  private void drain(final Bucket bucket) {
+    List<Waiting> ready = null;
+    synchronized (bucket) {
+      long now = System.nanoTime();
+      bucket.refill(now);
+      while (bucket.tokens >= 1 && !bucket.waiting.isEmpty()) {
+        Waiting waiting = bucket.waiting.poll();
+        bucket.tokens--;
+        bucket.granted++;
+        long waited = now - waiting.since;
+        bucket.waitNanos += waited;
+        bucket.maxWaitNanos = Math.max(bucket.maxWaitNanos, waited);
+        if (ready == null)
+          ready = new ArrayList<Waiting>();
+        ready.add(waiting);
+      }
+      if (!bucket.waiting.isEmpty() && bucket.wakeup == null)
+        bucket.wakeup = scheduler.schedule(new Runnable() {
+          @Override
+          public void run() {
+            synchronized (bucket) {
+              bucket.wakeup = null;
+            }
+            drain(bucket);
+          }
+        }, bucket.nanosUntilToken(), TimeUnit.NANOSECONDS);
+    }
+    if (ready == null)
+      return;
+    for (Waiting waiting : ready)
+      if (waiting.caller)
+        waiting.runnable.run();
+      else
+        try {
+          executor.execute(waiting.runnable);
+        } catch (RejectedExecutionException e) {
+          log.error(this.getClass().getSimpleName() + ":drain - unable to run " + waiting.runnable + " for " + name, e);
+        }
+  }
+
+  private static Bucket[] uniformBuckets(int invocations, Duration per) {
+    Bucket[] buckets = new Bucket[Endpoint.values().length];
+    for (int i = 0; i < buckets.length; i++)
+      buckets[i] = new Bucket(invocations, per, DEFAULT_MAX_WAITING);
+    return buckets;
+  }
+
+  /** the permits of one endpoint and the runnables waiting for them; guarded by itself */
+  private static class Bucket {
+
+    Bucket(int capacity, Duration per, int maxWaiting) {
+      if (capacity <= 0 || per.getMillis() <= 0)
+        throw new IllegalArgumentException("rate limit must be a positive number of queries per positive period, not " + capacity + " per " + per);
+      this.capacity = capacity;
+      this.periodNanos = TimeUnit.MILLISECONDS.toNanos(per.getMillis());
+      this.maxWaiting = maxWaiting;
+      // a new bucket starts full, as the window's permits are all available
+      this.tokens = capacity;
+      this.refilledAt = System.nanoTime();
+    }
+
+    void refill(long now) {
+      tokens = Math.min(capacity, tokens + (now - refilledAt) * (double) capacity / periodNanos);
+      refilledAt = now;
+    }
+
+    long nanosUntilToken() {
+      return Math.max(0, (long) Math.ceil((1 - tokens) * periodNanos / capacity));
+    }
+
+    final int capacity;
+    final long periodNanos;
+    final int maxWaiting;
+    final PriorityQueue<Waiting> waiting = new PriorityQueue<Waiting>(11, servingOrder);
+    double tokens;
+    long refilledAt;
+    ScheduledFuture<?> wakeup;
+    long granted;
+    long rejected;
+    long waitNanos;
+    long maxWaitNanos;
+  }
+
+  private static class Waiting {
+
+    Waiting(Runnable runnable, Priority priority, boolean caller) {
+      this.runnable = runnable;
+      this.priority = priority;
+      this.caller = caller;
+      this.sequence = sequences.incrementAndGet();
+      this.since = System.nanoTime();
+    }
+
+    final Runnable runnable;
+    final Priority priority;
+    // a thread blocked in tryAcquire, which is released on the scheduler's thread rather than the executor
+    final boolean caller;
+    final long sequence;
+    final long since;
+  }
+
+  private static final Comparator<Waiting> servingOrder = new Comparator<Waiting>() {
+    @Override
+    public int compare(Waiting waiting, Waiting waiting2) {
+      int byPriority = waiting.priority.compareTo(waiting2.priority);
+      return byPriority != 0 ? byPriority : Long.compare(waiting.sequence, waiting2.sequence);
+    }
+  };
 
-  private final Semaphore requestsAvailable = new Semaphore(0);
-  private final Queue<Runnable> waitingRunnables = new ConcurrentLinkedQueue<>();
-  private final Queue<Callable> waitingCallables = new ConcurrentLinkedQueue<>();
   protected static Logger log = LoggerFactory.getLogger("org.cryptocoinpartners.util.ratelimiter");
+  private static final AtomicLong sequences = new AtomicLong();
+  private static final Map<String, RateLimiter> limiters = new HashMap<String, RateLimiter>();
+  private static final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactoryBuilder().setDaemon(true)
+      .setNameFormat("rate-limiter-scheduler").build());
+  private static final ExecutorService sharedExecutor = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setDaemon(true)
+      .setNameFormat("rate-limited-%d").build());
 
+  private final String name;
   private final Executor executor;
-  private final TimeLimiter limiter;
-  private final Duration per;
+  // by Endpoint ordinal
+  private final Bucket[] buckets;
 
 }
@@ -1,18 +1,23 @@
 package org.cryptocoinpartners.util;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Future;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.cryptocoinpartners.module.BasicQuoteService;
 import org.cryptocoinpartners.module.Context;
@@ -20,18 +25,18 @@ import org.cryptocoinpartners.module.MockTicker;
 import org.cryptocoinpartners.schema.Book;
 import org.cryptocoinpartners.schema.BookFactory;
 import org.cryptocoinpartners.schema.Event;
+import org.cryptocoinpartners.schema.MarketData;
 import org.cryptocoinpartners.schema.Portfolio;
 import org.cryptocoinpartners.schema.RemoteEvent;
+import org.cryptocoinpartners.schema.ResolvedBookCache;
 import org.cryptocoinpartners.schema.Trade;
 import org.cryptocoinpartners.schema.Tradeable;
 import org.cryptocoinpartners.service.PortfolioService;
-import org.joda.time.Duration;
 import org.joda.time.Instant;
 import org.joda.time.Interval;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.espertech.esper.client.EPRuntime;
 import com.google.inject.assistedinject.Assisted;
 import com.google.inject.assistedinject.AssistedInject;
 
@@ -136,9 +141,40 @@ public class Replay implements Runnable {
         return context;
     }
 
+    /** Sets up the Context of one market in a partitioned replay, e.g. by attaching the strategies which trade only that market */
+    public interface PartitionSetup {
+        void setUp(Context partition, Tradeable market);
+    }
+
+    /**
+     Also replays each market into a Context of its own, with its own Esper engine, set up by the given setup when the market's first event
+     is replayed. The markets' Contexts are worked on in parallel by replay.partition.threads threads, and see the same events at the same
+     times whatever the thread count; see ReplayPartitions. This Replay's Context still receives every event in time order, for the
+     statements which look across markets.
+     */
+    public void partition(PartitionSetup setup) {
+        this.partitionSetup = setup;
+    }
+
+    /** @return the number of events published into this Replay's Context so far */
+    public long getEventsPublished() {
+        return eventsPublished;
+    }
+
+    /** @return the CPU time and allocations of the threads this Replay reads and partitions its events on, not counting the thread running it */
+    public ThreadUsage getThreadUsage() {
+        return threadUsage;
+    }
+
+    /** @return the Contexts of the markets replayed so far in a partitioned replay, by market */
+    public Map<Tradeable, Context> getPartitions() {
+        synchronized (partitions) {
+            return new LinkedHashMap<>(partitions);
+        }
+    }
+
     /**
-     queries the database for all Books and Trades which have start <= time <= stop, then publishes those
-     Events in order of time to this Replay's Context
+     streams all Books and Trades which have start <= time <= stop into this Replay's Context, in order of time
      */
 
     @Override
@@ -147,47 +183,21 @@ public class Replay implements Runnable {
         final Instant start = replayTimeInterval.getStart().toInstant();
         final Instant end = replayTimeInterval.getEnd().toInstant();
         if (!useRandomData) {
-            int threadCount = 0;
-            CountDownLatch startLatch = null;
-            CountDownLatch stopLatch = null;
-            service = Executors.newFixedThreadPool(dbReaderThreads);
-            //   engines = Executors.newFixedThreadPool(1);
-            //    replayTimeInterval.toDuration().
-            // engines.submit(new PublisherRunnable());
-            /*       if (replayTimeInterval.toDuration().isLongerThan(timeStep)) {
-                       // Start two threads, but ensure the first thread publish first, then reuse it
-
-                       for (Instant now = start; !now.isAfter(end);) {
-                           final Instant stepEnd = now.plus(timeStep);
-                           threadCount++;
-                           now = stepEnd;
-                       }
-                   }
-                   endLatch = new CountDownLatch(threadCount);
-              *///  semaphore.release(threadCount);
-
-            if (replayTimeInterval.toDuration().isLongerThan(timeStep)) {
-                // Start two threads, but ensure the first thread publish first, then reuse it
-
-                for (Instant now = start; !now.isAfter(end);) {
-                    final Instant stepEnd = now.plus(timeStep);
-                    log.debug("Replay: Run replaying from " + now + " to " + stepEnd);
-                    stopLatch = new CountDownLatch(1);
-                    log.debug("Replay: ReplayStepRunnable created with: " + now + ", " + context.getRunTime() + ", " + semaphore + ", " + startLatch + ", "
-                            + stopLatch + ", " + threadCount);
-
-                    ReplayStepRunnable replayStep = new ReplayStepRunnable(now, stepEnd, context.getRunTime(), semaphore, startLatch, stopLatch, threadCount);
-                    startLatch = stopLatch;
-                    service.submit(replayStep);
-                    // if (threadCount != 0)
-                    threadCount++;
-                    now = stepEnd;
-
-                }
-                semaphore.release(threadCount);
-
-            } else
+            // callers wait until the semaphore has no permits left
+            if (semaphore != null)
+                semaphore.release();
+            try {
                 replayStep(start, end);
+            } finally {
+                if (semaphore != null) {
+                    try {
+                        semaphore.acquire();
+                    } catch (InterruptedException e) {
+                        log.debug("Replay: unable to remove permit from to pool for semaphore avaiable permits " + semaphore.availablePermits(), e);
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
         } else {
             new MockTicker(context, ConfigUtil.combined(), start, end, context.getInjector().getInstance(BookFactory.class), context.getInjector().getInstance(
                     BasicQuoteService.class));
@@ -196,174 +206,202 @@ public class Replay implements Runnable {
 
     }
 
-    private class PublisherRunnable implements Runnable {
-
-        public PublisherRunnable() {
-
-        }
-
-        @Override
-        // @Inject
-        public void run() {
-            while (true)
+    /**
+     Publishes the events between start and stop. A reader thread merges per-market cursors over the Trade and Book tables into time order and
+     hands batches of events over through a bounded queue, so the database reads overlap with publishing and at most replay.prefetch.size
+     events, plus two pages per cursor (the one being merged and the next, read ahead in the background), are held in memory regardless of
+     how busy the interval was.
+     */
+    private void replayStep(final Instant start, final Instant stop) {
+        final BlockingQueue<List<MarketData>> prefetch = new ArrayBlockingQueue<>(Math.max(1, prefetchSize / BATCH_SIZE));
+        ExecutorService service = Executors.newFixedThreadPool(dbReaderThreads + 1, threadUsage.wrap(Executors.defaultThreadFactory()));
+        final ExecutorService pageReaders = service;
+        Future<?> reader = service.submit(new Runnable() {
+            @Override
+            public void run() {
                 try {
-
-                    RemoteEvent event = queue.take();
-                    //runtime.sendEvent(event);
+                    readEvents(start, stop, pageReaders, prefetch);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (Error | Exception e) {
+                    log.error("Replay: Unable to query events between " + start + " and stop " + stop + ", full stack trace follows:", e);
+                } finally {
+                    try {
+                        prefetch.put(END_OF_EVENTS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        });
+        ReplayPartitions marketPipelines = partitionSetup == null ? null : createPartitions();
+        try {
+            for (List<MarketData> batch = prefetch.take(); batch != END_OF_EVENTS; batch = prefetch.take()) {
+                for (RemoteEvent event : batch) {
                     context.publish(event);
-
-                } catch (Exception | Error e) {
-                    e.printStackTrace();
+                    event.detach();
                 }
-
+                eventsPublished += batch.size();
+                if (marketPipelines != null)
+                    marketPipelines.publish(batch, eventTime.nextTime(batch.get(batch.size() - 1)));
+            }
+            log.debug("Replay: Published events from " + start + " to " + stop);
+            context.advanceTime(stop); // advance to the end of the time window to trigger any timer events
+            if (marketPipelines != null)
+                marketPipelines.finish(stop);
+        } catch (InterruptedException e) {
+            reader.cancel(true);
+            Thread.currentThread().interrupt();
+        } finally {
+            service.shutdownNow();
         }
-
     }
 
-    private class ReplayStepRunnable implements Runnable {
-
-        private final Instant start;
-        private final Instant stop;
-        private final EPRuntime runtime;
-        private final Semaphore semaphore;
-        //  private final CountDownLatch startLatch;
-        private final CountDownLatch stopLatch;
-        private final int threadCount;
-        private final CountDownLatch startLatch;
-
-        public ReplayStepRunnable(Instant start, Instant stop, EPRuntime runtime, Semaphore semaphore, final CountDownLatch startLatch,
-                CountDownLatch stopLatch, int threadCount) {
-            this.semaphore = semaphore;
-            this.start = start;
-            this.stop = stop;
-            this.runtime = runtime;
-            this.startLatch = startLatch;
-            this.stopLatch = stopLatch;
-            this.threadCount = threadCount;
-
-        }
-
-        @Override
-        // @Inject
-        public void run() {
-
-            try {
-                // perform interesting task
-                log.debug("ReplayStepRunnable: Run querying events from " + start + " to " + stop + " with latch " + startLatch);
-                List<RemoteEvent> events = queryEvents(start, stop);
-
-                // Log.debug(context.getInjector().toString());
-                //PortfolioService port = context.getInjector().getInstance(PortfolioService.class);
-                //   Iterator<RemoteEvent> ite = queryEvents(start, stop).iterator();
-                // thread 1 starts, thread 2 finishes, want to wait till thread 1 is complete before processing 
-
-                // we need to wait for current thread to finish.
-                //  try {
-                if (startLatch != null) {
-                    log.debug("ReplayStepRunnable: Run Waiting for start latch " + startLatch);
-
-                    startLatch.await();
-                }
-                log.debug("ReplayStepRunnable: Run publishing events from " + start + " to " + stop);
-
-                for (RemoteEvent event : events) {
-                    context.publish(event);
-                    EM.detach(event);
+    /** makes a Context for each market as its first event is replayed, with an engine of its own */
+    private ReplayPartitions createPartitions() {
+        final int replayId = replays.incrementAndGet();
+        return new ReplayPartitions(partitionThreads, Math.max(1, prefetchSize / BATCH_SIZE), new ReplayPartitions.PipelineFactory() {
+            @Override
+            public ReplayPartitions.Pipeline create(Tradeable market) {
+                final Context partition = Context.create(new EventTimeManager(), "replay-" + replayId + "-" + market.getSymbol());
+                partitionSetup.setUp(partition, market);
+                synchronized (partitions) {
+                    partitions.put(market, partition);
                 }
-                log.debug("ReplayStepRunnable: Published events from " + start + " to " + stop);
-
-                //  } catch (Error | Exception e) {
-                // TODO Auto-generated catch block
-                //     log.debug("ReplayStepRunnable: Unable to query events between " + start + " and stop " + stop + ", full stack trace follows:", e);
-
-                // }
-
-                // context.advanceTime(stop);
-
-            } catch (Error | Exception e) {
-                log.debug("ReplayStepRunnable: Unable to query events between " + start + " and stop " + stop + ", full stack trace follows:", e);
-
-                // TODO Auto-generated catch block
-                //  e.printStackTrace();
-            } finally {
-                if (startLatch != null) {
-                    log.debug("ReplayStepRunnable: Run Waiting for start latch " + startLatch);
-
-                    try {
-                        startLatch.await();
-                    } catch (InterruptedException e) {
-                        // TODO Auto-generated catch block
-                        log.debug("ReplayStepRunnable: Unable to query events between " + start + " and stop " + stop + ", full stack trace follows:", e);
-
+                return new ReplayPartitions.Pipeline() {
+                    @Override
+                    public void publish(Event event) {
+                        partition.publish(event);
                     }
-                }
-
-                log.debug("ReplayStepRunnable: Run Counting down stop latch " + stopLatch);
-
-                stopLatch.countDown();
-                if (semaphore != null) {
-
-                    try {
-                        log.debug("ReplayStepRunnable: removing permit from to pool for semaphore avaiable permits " + semaphore.availablePermits());
-
-                        semaphore.acquire();
-                    } catch (InterruptedException e) {
-                        log.debug("ReplayStepRunnable: unable to remove permit from to pool for semaphore avaiable permits " + semaphore.availablePermits(), e);
 
+                    @Override
+                    public void advanceTime(Instant time) {
+                        partition.advanceTime(time);
                     }
-                }
-
+                };
             }
+        }, threadUsage);
+    }
 
+    /** k-way merges the cursors of every market by the head event of each, handing the merged events to prefetch in batches */
+    private void readEvents(Instant start, Instant stop, ExecutorService pageReaders, BlockingQueue<List<MarketData>> prefetch)
+            throws InterruptedException, ExecutionException {
+        final Comparator<RemoteEvent> order = orderByTimeReceived ? timeReceivedComparator : timeHappenedComparator;
+        PriorityQueue<EventCursor> cursors = new PriorityQueue<>(16, new Comparator<EventCursor>() {
+            @Override
+            public int compare(EventCursor cursor, EventCursor cursor2) {
+                return order.compare(cursor.peek(), cursor2.peek());
+            }
+        });
+        final String timeField = timeFieldForOrdering(orderByTimeReceived);
+        final KeysetQuery tradeQuery = new KeysetQuery("select t from Trade t where market = ?1 and " + timeField + " >= ?2 and " + timeField
+                + " <= ?3", timeField);
+        final KeysetQuery bookQuery = new KeysetQuery("select b from Book b where market = ?1 and " + timeField + " >= ?2 and " + timeField
+                + " <= ?3", timeField);
+        for (Tradeable market : getMarkets()) {
+            EventCursor trades = new EventCursor(Trade.class, tradeQuery, market, start, stop, pageReaders);
+            if (trades.hasNext())
+                cursors.add(trades);
+            EventCursor books = new EventCursor(Book.class, bookQuery, market, start, stop, pageReaders);
+            if (books.hasNext())
+                cursors.add(books);
         }
-
+        List<MarketData> batch = new ArrayList<>(BATCH_SIZE);
+        while (!cursors.isEmpty()) {
+            EventCursor cursor = cursors.poll();
+            MarketData event = cursor.next();
+            // resolve diff Books in replay order, so each one finds its parent already materialized in the cache
+            if (event instanceof Book)
+                bookCache.resolve((Book) event);
+            batch.add(event);
+            if (batch.size() == BATCH_SIZE) {
+                prefetch.put(batch);
+                batch = new ArrayList<>(BATCH_SIZE);
+            }
+            if (cursor.hasNext())
+                cursors.add(cursor);
+        }
+        if (!batch.isEmpty())
+            prefetch.put(batch);
     }
 
-    private void replayStep(Instant start, Instant stop) {
-        Iterator<RemoteEvent> ite = queryEvents(start, stop).iterator();
-        while (ite.hasNext()) {
-            RemoteEvent event = ite.next();
-            context.publish(event);
-            event.detach();
+    private Collection<Tradeable> getMarkets() {
+        Map<String, Tradeable> markets = new HashMap<String, Tradeable>();
+        PortfolioService portfolioService = context.getInjector().getInstance(PortfolioService.class);
+        for (Portfolio portfolio : portfolioService.getPortfolios()) {
+            for (Tradeable tradeable : portfolio.getMarkets())
+                markets.put(tradeable.getSymbol(), tradeable);
         }
-        context.advanceTime(stop); // advance to the end of the time window to trigger any timer events
+        return markets.values();
     }
 
-    private List<RemoteEvent> queryEvents(Instant start, Instant stop) {
-        //  final Market market = 
-        Map<String, Tradeable> markets = new HashMap<String, Tradeable>();
+    /**
+     Pages through the events of one type for one market in time order. The next page is read in the background while the current one is
+     consumed.
+     */
+    private class EventCursor {
+
+        EventCursor(Class<? extends MarketData> type, KeysetQuery query, Tradeable market, Instant start, Instant stop,
+                ExecutorService pageReaders) throws InterruptedException, ExecutionException {
+            this.type = type;
+            this.query = query;
+            this.market = market;
+            this.start = start;
+            this.stop = stop;
+            this.pageReaders = pageReaders;
+            page = readPage(null);
+            nextPage = readNextPage();
+        }
 
-        // markets.add(Market.forSymbol("OKCOIN_THISWEEK:BTC.USD.THISWEEK"));
+        boolean hasNext() {
+            return index < page.size();
+        }
 
-        //Portfolio portfolio = context.getInjector().getInstance(Portfolio.class);
+        MarketData peek() {
+            return page.get(index);
+        }
 
-        PortfolioService portfolioService = context.getInjector().getInstance(PortfolioService.class);
-        for (Portfolio portfolio : portfolioService.getPortfolios()) {
-            for (Tradeable tradeable : portfolio.getMarkets())
+        MarketData next() throws InterruptedException, ExecutionException {
+            MarketData event = page.get(index++);
+            if (index == page.size() && nextPage != null) {
+                page = nextPage.get();
+                index = 0;
+                nextPage = readNextPage();
+            }
+            return event;
+        }
 
-                markets.put(tradeable.getSymbol(), tradeable);
+        /** starts reading the page after the current one, seeking past its last event, unless the current page is the last */
+        private Future<List<? extends MarketData>> readNextPage() {
+            if (page.size() < pageSize)
+                return null;
+            final MarketData last = page.get(page.size() - 1);
+            return pageReaders.submit(new Callable<List<? extends MarketData>>() {
+                @Override
+                public List<? extends MarketData> call() {
+                    return readPage(last);
+                }
+            });
+        }
 
+        private List<? extends MarketData> readPage(MarketData after) {
+            List<? extends MarketData> events = EM.queryPageAfter(type, query, after, pageSize, market, start, stop);
+            if (events == null)
+                return Collections.emptyList();
+            for (MarketData event : events)
+                event.setMarket(market);
+            return events;
         }
-        //.getMarkets();
 
-        final String timeField = timeFieldForOrdering(orderByTimeReceived);
-        //  order in (?1)
-        final String tradeQuery = "select t from Trade t where market in (?1) and " + timeField + " >= ?2 and " + timeField + " <= ?3";
-        final String bookQuery = "select b from Book b where market in (?1) and " + timeField + " >= ?2 and " + timeField + " <= ?3";
-        final List<RemoteEvent> events = new ArrayList<>();
-        final List<Book> books = new ArrayList<>();
-        final List<Trade> trades = new ArrayList<>();
-        //   ArrayList marketsArray = new ArrayList(markets.values());
-        trades.addAll(EM.queryList(Trade.class, tradeQuery, new ArrayList(markets.values()), start, stop));
-        for (Trade trade : trades)
-            trade.setMarket(markets.get(trade.getMarket().getSymbol()));
-        books.addAll(EM.queryList(Book.class, bookQuery, new ArrayList(markets.values()), start, stop));
-        for (Book book : books)
-            book.setMarket(markets.get(book.getMarket().getSymbol()));
-        events.addAll(trades);
-        events.addAll(books);
-        Collections.sort(events, orderByTimeReceived ? timeReceivedComparator : timeHappenedComparator);
-        return events;
+        private final Class<? extends MarketData> type;
+        private final KeysetQuery query;
+        private final Tradeable market;
+        private final Instant start;
+        private final Instant stop;
+        private final ExecutorService pageReaders;
+        private List<? extends MarketData> page;
+        private Future<List<? extends MarketData>> nextPage;
+        private int index;
     }
 
     private static Instant getEventsStart(boolean orderByRemoteTime) {
@@ -447,16 +485,25 @@ public class Replay implements Runnable {
     }
 
     protected static Logger log = LoggerFactory.getLogger("org.cryptocoinpartners.replay");
-    private final BlockingQueue<RemoteEvent> queue = new LinkedBlockingQueue<RemoteEvent>();
+    private static final int BATCH_SIZE = 256;
+    private static final List<MarketData> END_OF_EVENTS = Collections.emptyList();
+    private static final AtomicInteger replays = new AtomicInteger();
     private final Interval replayTimeInterval;
     private final Integer dbReaderThreads = ConfigUtil.combined().getInt("db.replay.reader.threads");
+    private final int prefetchSize = ConfigUtil.combined().getInt("replay.prefetch.size", 20000);
+    private final int pageSize = ConfigUtil.combined().getInt("replay.page.size", 5000);
+    private final ResolvedBookCache bookCache = new ResolvedBookCache(ConfigUtil.combined().getInt("replay.book.cache.size", 1000), 1024L * 1024L
+            * ConfigUtil.combined().getLong("replay.book.cache.megabytes", 64));
+    private final int partitionThreads = ConfigUtil.combined().getInt("replay.partition.threads", Runtime.getRuntime().availableProcessors());
     private final Semaphore semaphore;
-    private static ExecutorService service;
-    private static ExecutorService engines;
-    private static CountDownLatch endLatch;
+    private final EventTimeManager eventTime = new EventTimeManager();
+    private final Map<Tradeable, Context> partitions = new LinkedHashMap<>();
+    private final ThreadUsage threadUsage = new ThreadUsage();
+    private PartitionSetup partitionSetup;
+    // only written by the publishing thread
+    private volatile long eventsPublished;
 
     private final Context context;
-    private static final Duration timeStep = Duration.standardDays(1); // how many rows from the DB to gather in one batch
     private final boolean orderByTimeReceived;
     private final boolean useRandomData;
 
@@ -0,0 +1,178 @@
+package org.cryptocoinpartners.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Nullable;
+
+import org.cryptocoinpartners.schema.Event;
+import org.cryptocoinpartners.schema.MarketData;
+import org.cryptocoinpartners.schema.Tradeable;
+import org.joda.time.Instant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ Splits a replayed stream by market into one pipeline per market, so strategies which only look at their own market are worked on in
+ parallel. Each pipeline is run by at most one thread of a shared pool at a time, and receives its market's events in the order of the merged
+ stream; after every batch its clock is advanced to the time of the batch's last event, so its timers fire as they would in a single Context.
+ What a pipeline sees depends only on the stream and its batches, never on the number of threads or how they were scheduled, so a replay
+ gives the same results whatever the thread count.
+ */
+public class ReplayPartitions {
+
+    /** receives the events of one market; in a replay, a Context of its own */
+    public interface Pipeline {
+        void publish(Event event);
+
+        void advanceTime(Instant time);
+    }
+
+    public interface PipelineFactory {
+        /** called on the publishing thread when the market's first event arrives */
+        Pipeline create(Tradeable market);
+    }
+
+    /**
+     @param threads the number of pipelines worked on at once
+     @param queueSize the most batches a pipeline may fall behind the publisher before the publisher waits for it
+     */
+    public ReplayPartitions(int threads, int queueSize, PipelineFactory factory) {
+        this(threads, queueSize, factory, null);
+    }
+
+    /** @param usage counts the CPU time and allocations of the pool's threads, or null */
+    public ReplayPartitions(int threads, int queueSize, PipelineFactory factory, @Nullable ThreadUsage usage) {
+        this.queueSize = queueSize;
+        this.factory = factory;
+        ThreadFactory threadFactory = new ThreadFactoryBuilder().setDaemon(true).setNameFormat("replay-partition-%d").build();
+        this.workers = Executors.newFixedThreadPool(threads, usage == null ? threadFactory : usage.wrap(threadFactory));
+    }
+
+    /**
+     hands each pipeline its events from the batch, followed by the time of the batch's last event
+
+     @param time the time of the last event in the batch
+     */
+    public void publish(List<? extends MarketData> batch, Instant time) throws InterruptedException {
+        Map<Tradeable, List<Event>> byMarket = new HashMap<>();
+        for (MarketData event : batch) {
+            Tradeable market = event.getMarket();
+            List<Event> events = byMarket.get(market);
+            if (events == null) {
+                if (!partitions.containsKey(market))
+                    partitions.put(market, new Partition(market, factory.create(market)));
+                events = new ArrayList<>();
+                byMarket.put(market, events);
+            }
+            events.add(event);
+        }
+        for (Partition partition : partitions.values()) {
+            List<Event> events = byMarket.get(partition.market);
+            partition.offer(new Slice(events == null ? Collections.<Event> emptyList() : events, time, null));
+        }
+    }
+
+    /** advances every pipeline to the time, and waits until they have all worked through their events */
+    public void finish(Instant time) throws InterruptedException {
+        CountDownLatch finished = new CountDownLatch(partitions.size());
+        for (Partition partition : partitions.values())
+            partition.offer(new Slice(Collections.<Event> emptyList(), time, finished));
+        try {
+            finished.await();
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    /** @return the markets' pipelines, in the order their first events were published */
+    public Map<Tradeable, Pipeline> getPipelines() {
+        Map<Tradeable, Pipeline> pipelines = new LinkedHashMap<>();
+        for (Partition partition : partitions.values())
+            pipelines.put(partition.market, partition.pipeline);
+        return pipelines;
+    }
+
+    private static class Slice {
+
+        Slice(List<Event> events, Instant time, CountDownLatch finished) {
+            this.events = events;
+            this.time = time;
+            this.finished = finished;
+        }
+
+        private final List<Event> events;
+        private final Instant time;
+        private final CountDownLatch finished;
+    }
+
+    /** queues the slices of one market, and runs them on the pool one at a time */
+    private class Partition implements Runnable {
+
+        Partition(Tradeable market, Pipeline pipeline) {
+            this.market = market;
+            this.pipeline = pipeline;
+            this.slices = new ArrayBlockingQueue<>(queueSize);
+        }
+
+        void offer(Slice slice) throws InterruptedException {
+            slices.put(slice);
+            if (scheduled.compareAndSet(false, true))
+                workers.execute(this);
+        }
+
+        @Override
+        public void run() {
+            // at most a queue's worth before giving the thread up, so one busy market does not hold up the others
+            for (int i = 0; i < queueSize; i++) {
+                Slice slice = slices.poll();
+                if (slice == null)
+                    break;
+                process(slice);
+            }
+            scheduled.set(false);
+            if (!slices.isEmpty() && scheduled.compareAndSet(false, true))
+                workers.execute(this);
+        }
+
+        private void process(Slice slice) {
+            try {
+                for (Event event : slice.events)
+                    pipeline.publish(event);
+                pipeline.advanceTime(slice.time);
+            } catch (Error | Exception e) {
+                log.error("ReplayPartitions: Unable to replay events of " + market + " up to " + slice.time + ", full stack trace follows:", e);
+            } finally {
+                if (slice.finished != null)
+                    slice.finished.countDown();
+            }
+        }
+
+        private final Tradeable market;
+        private final Pipeline pipeline;
+        private final BlockingQueue<Slice> slices;
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+    }
+
+    protected static Logger log = LoggerFactory.getLogger("org.cryptocoinpartners.replay");
+    private final int queueSize;
+    private final PipelineFactory factory;
+    private final ExecutorService workers;
+    // only touched by the publishing thread
+    private final Map<Tradeable, Partition> partitions = new LinkedHashMap<>();
+
+}
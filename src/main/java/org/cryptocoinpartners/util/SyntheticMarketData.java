@@ -0,0 +1,185 @@
+package org.cryptocoinpartners.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ Generates correlated random prices for a number of markets, as a jump diffusion whose drift, volatility and jumps switch between regimes.
+ Ticks arrive as a Poisson process: next() advances the clock by an exponentially distributed interval, and moves every market's log price by
+ its drift and a normal shock, each shock the correlation's share of one shared by all markets plus a share of its own. Jumps hit every market
+ at once, and the regime lasts an exponentially distributed time before switching to another chosen at random.
+
+ Everything is drawn from a generator seeded at construction, so the same seed and parameters give the same prices and times on any machine.
+ Nothing is allocated after construction, so a generator can produce millions of ticks a second.
+ */
+public class SyntheticMarketData {
+
+    /** the dynamics of the market between two regime switches; rates and volatilities are annualised */
+    public static class Regime {
+
+        /**
+         @param drift the expected log return per year
+         @param volatility the standard deviation of log returns per year
+         @param jumpsPerYear the mean number of jumps a year
+         @param jumpSize the standard deviation of the log return of a jump
+         @param meanDurationSeconds the mean time before the market switches to another regime
+         */
+        public Regime(double drift, double volatility, double jumpsPerYear, double jumpSize, double meanDurationSeconds) {
+            this.drift = drift;
+            this.volatility = volatility;
+            this.jumpsPerYear = jumpsPerYear;
+            this.jumpSize = jumpSize;
+            this.meanDurationSeconds = meanDurationSeconds;
+        }
+
+        @Override
+        public String toString() {
+            return "Regime{drift=" + drift + " volatility=" + volatility + " jumpsPerYear=" + jumpsPerYear + " jumpSize=" + jumpSize
+                    + " meanDurationSeconds=" + meanDurationSeconds + "}";
+        }
+
+        private final double drift;
+        private final double volatility;
+        private final double jumpsPerYear;
+        private final double jumpSize;
+        private final double meanDurationSeconds;
+    }
+
+    /**
+     @param startPrices the first price of each market
+     @param correlation the correlation of the markets' normal shocks, from 0 to 1
+     @param regimes the regimes to switch between, starting with the first
+     @param meanIntervalSeconds the mean time between ticks
+     */
+    public SyntheticMarketData(long seed, double[] startPrices, double correlation, List<Regime> regimes, double meanIntervalSeconds) {
+        if (regimes.isEmpty())
+            throw new IllegalArgumentException("at least one regime is needed");
+        if (correlation < 0 || correlation > 1)
+            throw new IllegalArgumentException("correlation must be from 0 to 1, not " + correlation);
+        this.logPrices = new double[startPrices.length];
+        for (int i = 0; i < startPrices.length; i++)
+            logPrices[i] = Math.log(startPrices[i]);
+        this.common = Math.sqrt(correlation);
+        this.own = Math.sqrt(1 - correlation);
+        this.regimes = Collections.unmodifiableList(new ArrayList<>(regimes));
+        this.meanIntervalSeconds = meanIntervalSeconds;
+        // seed the generator's state with splitmix64, as a state of zero would only ever give zero
+        long z = seed;
+        s0 = mix(z += 0x9E3779B97F4A7C15L);
+        s1 = mix(z + 0x9E3779B97F4A7C15L);
+    }
+
+    /** advances the clock to the next tick, and moves every market's price */
+    public void next() {
+        double seconds = nextExponential(meanIntervalSeconds);
+        elapsedMillis += Math.max(1, Math.round(seconds * 1000));
+        double years = seconds / SECONDS_PER_YEAR;
+
+        Regime current = regimes.get(regime);
+        double drift = (current.drift - current.volatility * current.volatility / 2) * years;
+        double scale = current.volatility * Math.sqrt(years);
+        double jump = 0;
+        if (current.jumpsPerYear > 0)
+            for (int jumps = nextPoisson(current.jumpsPerYear * years); jumps > 0; jumps--)
+                jump += nextGaussian() * current.jumpSize;
+        double shared = nextGaussian();
+        for (int i = 0; i < logPrices.length; i++)
+            logPrices[i] += drift + scale * (common * shared + own * nextGaussian()) + jump;
+
+        if (regimes.size() > 1 && nextDouble() < 1 - Math.exp(-seconds / current.meanDurationSeconds)) {
+            int other = (int) (nextDouble() * (regimes.size() - 1));
+            regime = other >= regime ? other + 1 : other;
+        }
+    }
+
+    public double getPrice(int market) {
+        return Math.exp(logPrices[market]);
+    }
+
+    /** @return the time of the current tick, since the first */
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /** @return the index of the current regime */
+    public int getRegime() {
+        return regime;
+    }
+
+    public int getMarkets() {
+        return logPrices.length;
+    }
+
+    /** @return a uniform random number at least 0 and less than 1, from the same seeded sequence as the prices */
+    public double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    /** @return an exponentially distributed random number, e.g. a volume */
+    public double nextExponential(double mean) {
+        return -mean * Math.log(1 - nextDouble());
+    }
+
+    /** @return a standard normal random number */
+    public double nextGaussian() {
+        if (haveSpare) {
+            haveSpare = false;
+            return spare;
+        }
+        // Marsaglia's polar method, which gives two at a time
+        double u, v, s;
+        do {
+            u = 2 * nextDouble() - 1;
+            v = 2 * nextDouble() - 1;
+            s = u * u + v * v;
+        } while (s >= 1 || s == 0);
+        double multiplier = Math.sqrt(-2 * Math.log(s) / s);
+        spare = v * multiplier;
+        haveSpare = true;
+        return u * multiplier;
+    }
+
+    private int nextPoisson(double mean) {
+        // Knuth's method, fine for the small means of jumps between two ticks
+        double limit = Math.exp(-mean);
+        int k = 0;
+        double p = nextDouble();
+        while (p > limit) {
+            k++;
+            p *= nextDouble();
+        }
+        return k;
+    }
+
+    // xorshift128+
+    private long nextLong() {
+        long x = s0;
+        long y = s1;
+        s0 = y;
+        x ^= x << 23;
+        s1 = x ^ y ^ (x >>> 17) ^ (y >>> 26);
+        return s1 + y;
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private static final double SECONDS_PER_YEAR = 365 * 24 * 60 * 60;
+
+    private final double[] logPrices;
+    private final double common;
+    private final double own;
+    private final List<Regime> regimes;
+    private final double meanIntervalSeconds;
+    private long s0;
+    private long s1;
+    private double spare;
+    private boolean haveSpare;
+    private long elapsedMillis;
+    private int regime;
+
+}
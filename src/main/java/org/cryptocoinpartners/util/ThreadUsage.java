@@ -0,0 +1,85 @@
+package org.cryptocoinpartners.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ Adds up the CPU time and the memory allocated by the threads made through its factories, whether they are still running or have finished.
+ A thread's usage is read from the JVM while it runs and added to the totals as it exits, so pools which are shut down before the totals are
+ read are still counted. Threads not made through wrap() are not counted.
+ */
+public class ThreadUsage {
+
+    /** @return a factory making the same threads as the given one, whose usage is counted by this ThreadUsage */
+    public ThreadFactory wrap(final ThreadFactory factory) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread[] thread = new Thread[1];
+                thread[0] = factory.newThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            runnable.run();
+                        } finally {
+                            exited(thread[0]);
+                        }
+                    }
+                });
+                synchronized (ThreadUsage.this) {
+                    live.add(thread[0]);
+                }
+                return thread[0];
+            }
+        };
+    }
+
+    /** @return the CPU time of the counted threads, or -1 if the JVM does not measure it */
+    public synchronized long getCpuNanos() {
+        if (!measuresCpu())
+            return -1;
+        long cpu = finishedCpuNanos;
+        for (Thread thread : live)
+            cpu += Math.max(0, threadBean.getThreadCpuTime(thread.getId()));
+        return cpu;
+    }
+
+    /** @return the bytes allocated by the counted threads, or -1 if the JVM does not measure them */
+    public synchronized long getAllocatedBytes() {
+        if (!measuresAllocation())
+            return -1;
+        long allocated = finishedAllocatedBytes;
+        for (Thread thread : live)
+            allocated += Math.max(0, threadBean.getThreadAllocatedBytes(thread.getId()));
+        return allocated;
+    }
+
+    public static boolean measuresCpu() {
+        return threadBean.isThreadCpuTimeSupported() && threadBean.isThreadCpuTimeEnabled();
+    }
+
+    public static boolean measuresAllocation() {
+        return threadBean.isThreadAllocatedMemorySupported() && threadBean.isThreadAllocatedMemoryEnabled();
+    }
+
+    // read on the exiting thread itself, as the JVM forgets a thread's usage once it has terminated
+    private void exited(Thread thread) {
+        long cpu = measuresCpu() ? Math.max(0, threadBean.getThreadCpuTime(thread.getId())) : 0;
+        long allocated = measuresAllocation() ? Math.max(0, threadBean.getThreadAllocatedBytes(thread.getId())) : 0;
+        synchronized (this) {
+            if (live.remove(thread)) {
+                finishedCpuNanos += cpu;
+                finishedAllocatedBytes += allocated;
+            }
+        }
+    }
+
+    private static final com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final Set<Thread> live = new HashSet<>();
+    private long finishedCpuNanos;
+    private long finishedAllocatedBytes;
+
+}
@@ -0,0 +1,301 @@
+package org.cryptocoinpartners.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ A TickFile holds the ticks of one market as fixed size records in time order: the time, the last trade's price and volume, and the best bid
+ and ask, each as a count of the market's price or volume basis. A header records the market, its bases and the number of records written.
+ Because every record is the same size the file is its own time index: seek() finds the first record at or after a time by a binary search
+ of the mapped file, without reading the records before it.
+
+ Files are written by appending through a memory mapping, so a record costs a few stores into the page cache and no system call; the count in
+ the header is updated after each record, so a reader, or a writer reopening the file after a crash, sees only whole records. Files are read
+ through a read-only mapping, a window of at most 1GB at a time, so files larger than a ByteBuffer can address are read the same way.
+ */
+public class TickFile {
+
+    public static final String SUFFIX = ".ticks";
+    /** the price count of a side of the book which had no level */
+    public static final long NONE = Long.MIN_VALUE;
+
+    static final int MAGIC = 0x43545431; // CTT1
+    static final int HEADER_SIZE = 256;
+    static final int RECORD_SIZE = 7 * 8;
+    static final int COUNT_OFFSET = 8;
+    private static final int MAX_SYMBOL_BYTES = HEADER_SIZE - 40;
+
+    /** the file a market's ticks are kept in under the directory, named for the market with characters unsafe in file names replaced */
+    public static File fileFor(File dir, String exchange, String listing) {
+        return new File(dir, (exchange + '_' + listing).replaceAll("[^A-Za-z0-9._-]", "_") + SUFFIX);
+    }
+
+    /** appends records to a TickFile, creating it if it does not exist */
+    public static class Writer implements Closeable {
+
+        /**
+         @param chunkRecords the number of records mapped, and so the file grown, at a time
+         @throws IOException if the file exists but is not a TickFile of the same market and bases
+         */
+        public Writer(File file, String exchange, String listing, double priceBasis, double volumeBasis, int chunkRecords) throws IOException {
+            this.chunkRecords = chunkRecords;
+            this.raf = new RandomAccessFile(file, "rw");
+            this.channel = raf.getChannel();
+            try {
+                this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+                if (header.getInt(0) == 0) {
+                    writeHeader(header, exchange, listing, priceBasis, volumeBasis);
+                } else {
+                    Header existing = readHeader(header, file);
+                    if (!existing.exchange.equals(exchange) || !existing.listing.equals(listing) || existing.priceBasis != priceBasis
+                            || existing.volumeBasis != volumeBasis)
+                        throw new IOException(file + " holds ticks of " + existing.exchange + ':' + existing.listing + " with bases "
+                                + existing.priceBasis + '/' + existing.volumeBasis + ", not " + exchange + ':' + listing + " with " + priceBasis
+                                + '/' + volumeBasis);
+                }
+            } catch (IOException | RuntimeException e) {
+                // not close(), which would truncate the file to the records this writer has counted, none yet
+                raf.close();
+                throw e;
+            }
+            count = header.getLong(COUNT_OFFSET);
+        }
+
+        /** appends a record; times should not decrease, or seek() will not find the records out of order */
+        public void append(long time, long priceCount, long volumeCount, long bidPriceCount, long bidVolumeCount, long askPriceCount,
+                long askVolumeCount) throws IOException {
+            if (chunk == null || !chunk.hasRemaining()) {
+                long position = HEADER_SIZE + count * RECORD_SIZE;
+                chunk = channel.map(FileChannel.MapMode.READ_WRITE, position, (long) chunkRecords * RECORD_SIZE);
+            }
+            chunk.putLong(time).putLong(priceCount).putLong(volumeCount).putLong(bidPriceCount).putLong(bidVolumeCount).putLong(askPriceCount)
+                    .putLong(askVolumeCount);
+            header.putLong(COUNT_OFFSET, ++count);
+        }
+
+        public long size() {
+            return count;
+        }
+
+        /** forces the records to disk, and trims the file to the records written */
+        @Override
+        public void close() throws IOException {
+            if (!channel.isOpen())
+                return;
+            if (chunk != null)
+                chunk.force();
+            header.force();
+            chunk = null;
+            channel.truncate(HEADER_SIZE + count * RECORD_SIZE);
+            raf.close();
+        }
+
+        private final int chunkRecords;
+        private final RandomAccessFile raf;
+        private final FileChannel channel;
+        private final MappedByteBuffer header;
+        private MappedByteBuffer chunk;
+        private long count;
+    }
+
+    /**
+     reads the records of a TickFile through a mapping, without copying them. A Reader is not thread safe; it has a cursor, and get methods
+     read the record under it.
+     */
+    public static class Reader implements Closeable {
+
+        public Reader(File file) throws IOException {
+            this(file, (1 << 30) / RECORD_SIZE);
+        }
+
+        Reader(File file, int windowRecords) throws IOException {
+            this.file = file;
+            this.windowRecords = windowRecords;
+            this.raf = new RandomAccessFile(file, "r");
+            this.channel = raf.getChannel();
+            if (channel.size() < HEADER_SIZE) {
+                close();
+                throw new IOException(file + " is not a tick file");
+            }
+            Header header = readHeader(channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE), file);
+            this.exchange = header.exchange;
+            this.listing = header.listing;
+            this.priceBasis = header.priceBasis;
+            this.volumeBasis = header.volumeBasis;
+            // the header may count records a writer had not yet forced when it was killed; trust only those the file holds
+            this.count = Math.min(header.count, (channel.size() - HEADER_SIZE) / RECORD_SIZE);
+        }
+
+        public String getExchange() {
+            return exchange;
+        }
+
+        public String getListing() {
+            return listing;
+        }
+
+        public double getPriceBasis() {
+            return priceBasis;
+        }
+
+        public double getVolumeBasis() {
+            return volumeBasis;
+        }
+
+        public long size() {
+            return count;
+        }
+
+        /** moves the cursor to the next record, returning false at the end of the file */
+        public boolean next() throws IOException {
+            if (index + 1 >= count)
+                return false;
+            moveTo(index + 1);
+            return true;
+        }
+
+        /**
+         positions the cursor before the first record at or after the time, so next() reads it
+
+         @return the index of that record, or size() if every record is earlier
+         */
+        public long seek(long time) throws IOException {
+            long low = 0;
+            long high = count;
+            while (low < high) {
+                long mid = (low + high) >>> 1;
+                moveTo(mid);
+                if (getTime() < time)
+                    low = mid + 1;
+                else
+                    high = mid;
+            }
+            index = low - 1;
+            return low;
+        }
+
+        public long getTime() {
+            return field(0);
+        }
+
+        public long getPriceCount() {
+            return field(1);
+        }
+
+        public long getVolumeCount() {
+            return field(2);
+        }
+
+        /** @return the best bid's price count, or NONE if the book had no bids */
+        public long getBidPriceCount() {
+            return field(3);
+        }
+
+        public long getBidVolumeCount() {
+            return field(4);
+        }
+
+        /** @return the best ask's price count, or NONE if the book had no asks */
+        public long getAskPriceCount() {
+            return field(5);
+        }
+
+        public long getAskVolumeCount() {
+            return field(6);
+        }
+
+        @Override
+        public void close() throws IOException {
+            window = null;
+            raf.close();
+        }
+
+        private long field(int field) {
+            return window.getLong(offset + field * 8);
+        }
+
+        private void moveTo(long record) throws IOException {
+            if (window == null || record < windowStart || record >= windowStart + windowRecords) {
+                windowStart = record - record % windowRecords;
+                long records = Math.min(windowRecords, count - windowStart);
+                window = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + windowStart * RECORD_SIZE, records * RECORD_SIZE);
+            }
+            index = record;
+            offset = (int) (record - windowStart) * RECORD_SIZE;
+        }
+
+        @Override
+        public String toString() {
+            return file.toString();
+        }
+
+        private final File file;
+        private final int windowRecords;
+        private final RandomAccessFile raf;
+        private final FileChannel channel;
+        private final String exchange;
+        private final String listing;
+        private final double priceBasis;
+        private final double volumeBasis;
+        private final long count;
+        private ByteBuffer window;
+        private long windowStart;
+        private long index = -1;
+        private int offset;
+    }
+
+    private static class Header {
+
+        Header(String exchange, String listing, double priceBasis, double volumeBasis, long count) {
+            this.exchange = exchange;
+            this.listing = listing;
+            this.priceBasis = priceBasis;
+            this.volumeBasis = volumeBasis;
+            this.count = count;
+        }
+
+        private final String exchange;
+        private final String listing;
+        private final double priceBasis;
+        private final double volumeBasis;
+        private final long count;
+    }
+
+    // magic, record size, count, price basis, volume basis, then the exchange and listing symbols, each as a short length and UTF-8 bytes
+    private static void writeHeader(ByteBuffer header, String exchange, String listing, double priceBasis, double volumeBasis) throws IOException {
+        byte[] exchangeBytes = exchange.getBytes(StandardCharsets.UTF_8);
+        byte[] listingBytes = listing.getBytes(StandardCharsets.UTF_8);
+        if (exchangeBytes.length + listingBytes.length + 4 > MAX_SYMBOL_BYTES)
+            throw new IOException("Market symbol " + exchange + ':' + listing + " is too long for a tick file header");
+        header.putInt(4, RECORD_SIZE);
+        header.putLong(COUNT_OFFSET, 0);
+        header.putDouble(16, priceBasis);
+        header.putDouble(24, volumeBasis);
+        header.position(32);
+        header.putShort((short) exchangeBytes.length).put(exchangeBytes);
+        header.putShort((short) listingBytes.length).put(listingBytes);
+        header.position(0);
+        // the magic number last, so a file is not taken for a tick file until its header is complete
+        header.putInt(0, MAGIC);
+    }
+
+    private static Header readHeader(ByteBuffer header, File file) throws IOException {
+        if (header.getInt(0) != MAGIC || header.getInt(4) != RECORD_SIZE)
+            throw new IOException(file + " is not a tick file");
+        ByteBuffer symbols = header.duplicate();
+        symbols.position(32);
+        byte[] exchange = new byte[symbols.getShort()];
+        symbols.get(exchange);
+        byte[] listing = new byte[symbols.getShort()];
+        symbols.get(listing);
+        return new Header(new String(exchange, StandardCharsets.UTF_8), new String(listing, StandardCharsets.UTF_8), header.getDouble(16),
+                header.getDouble(24), header.getLong(COUNT_OFFSET));
+    }
+
+}
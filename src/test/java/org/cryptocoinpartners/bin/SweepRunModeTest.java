@@ -0,0 +1,89 @@
+package org.cryptocoinpartners.bin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.configuration.ConfigurationException;
+
+import org.cryptocoinpartners.module.BasicPortfolioService;
+import org.cryptocoinpartners.module.MatchingEngine;
+import org.cryptocoinpartners.module.MockOrderService;
+import org.cryptocoinpartners.schema.Amount;
+import org.cryptocoinpartners.schema.Asset;
+import org.cryptocoinpartners.schema.Currency;
+import org.cryptocoinpartners.schema.DecimalAmount;
+import org.cryptocoinpartners.schema.Exchange;
+import org.cryptocoinpartners.schema.Listing;
+import org.cryptocoinpartners.schema.Market;
+import org.cryptocoinpartners.schema.Portfolio;
+import org.cryptocoinpartners.schema.SpecificOrder;
+import org.cryptocoinpartners.schema.Trade;
+import org.cryptocoinpartners.util.ConfigUtil;
+import org.joda.time.Instant;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class SweepRunModeTest {
+
+    @BeforeClass
+    public static void init() throws ConfigurationException {
+        // the order and portfolio services read their defaults when they are loaded
+        if (ConfigUtil.combined() == null)
+            ConfigUtil.init("cointrader.properties", Collections.<String, String> emptyMap());
+    }
+
+    @Test
+    public final void sweepsEveryCombination() {
+        List<Map<String, String>> runs = SweepRunMode.combinations(Arrays.asList("fast=5,10", "slow = 50, 100 ,200"));
+        assertEquals(6, runs.size());
+        assertEquals("{fast=5, slow=50}", runs.get(0).toString());
+        assertEquals("{fast=5, slow=100}", runs.get(1).toString());
+        assertEquals("{fast=10, slow=200}", runs.get(5).toString());
+    }
+
+    @Test
+    public final void noParametersIsOneRun() {
+        assertEquals(Collections.singletonList(Collections.<String, String> emptyMap()), SweepRunMode.combinations(Collections.<String> emptyList()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public final void parameterNeedsAKey() {
+        SweepRunMode.combinations(Arrays.asList("=5,10"));
+    }
+
+    @Test
+    public final void runsOnTheSameMarketStayIndependent() {
+        Currency usd = new Currency(false, "USD", 0.01);
+        Exchange exchange = new Exchange("BITSTAMP");
+        Market market = new Market(exchange, new Listing(new Currency(false, "BTC", 0.01), usd), 0.01, 0.01);
+
+        // each run attaches its own order service, whose simulated exchange holds only that run's orders
+        MatchingEngine first = new MockOrderService().getMatchingEngine(market);
+        MatchingEngine second = new MockOrderService().getMatchingEngine(market);
+        assertNotSame(first, second);
+        SpecificOrder buy = new SpecificOrder(new Instant(1000), new Portfolio(), market, 100, (String) null);
+        buy.withLimitPrice(new BigDecimal("99.00"));
+        first.add(buy);
+        assertEquals(0, second.size());
+        assertTrue(second.onTrade(new Trade(market, new Instant(1001), null, 9800, -500)).isEmpty());
+        assertTrue(first.contains(buy));
+        assertEquals(1, first.onTrade(new Trade(market, new Instant(1002), null, 9800, -500)).size());
+
+        // and its own portfolio service, whose balances are not overwritten by the other run's
+        Portfolio firstPortfolio = new Portfolio();
+        Portfolio secondPortfolio = new Portfolio();
+        firstPortfolio.getCashLedger().addRealised(usd, exchange, new DecimalAmount(new BigDecimal("100")));
+        secondPortfolio.getCashLedger().addRealised(usd, exchange, new DecimalAmount(new BigDecimal("5")));
+        Map<Asset, Amount> firstBalances = new BasicPortfolioService(firstPortfolio).getCashBalances();
+        Map<Asset, Amount> secondBalances = new BasicPortfolioService(secondPortfolio).getCashBalances();
+        assertEquals(0, new BigDecimal("100").compareTo(firstBalances.get(usd).asBigDecimal()));
+        assertEquals(0, new BigDecimal("5").compareTo(secondBalances.get(usd).asBigDecimal()));
+    }
+}
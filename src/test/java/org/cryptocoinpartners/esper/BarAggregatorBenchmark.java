@@ -0,0 +1,117 @@
+package org.cryptocoinpartners.esper;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.cryptocoinpartners.schema.Bar;
+import org.cryptocoinpartners.schema.Currency;
+import org.cryptocoinpartners.schema.Exchange;
+import org.cryptocoinpartners.schema.Listing;
+import org.cryptocoinpartners.schema.Market;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the time to aggregate a whole trade file into bars, for one minute bar and for seven bars from one second to one day plus volume
+ * and tick bars. The file has a line of timestamp millis, price and volume per trade, separated by commas; without one, a seeded random walk of
+ * a million trades is used. Not run by the unit tests; run with
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.openjdk.jmh.Main -Dexec.args="BarAggregatorBenchmark -p tradeFile=trades.csv"
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class BarAggregatorBenchmark {
+
+    @Param({ "" })
+    public String tradeFile;
+
+    @Param({ "60", "1,60,300,900,3600,14400,86400,volume:100,ticks:1000" })
+    public String specs;
+
+    private final Market market = new Market(new Exchange("BITSTAMP"), new Listing(new Currency(false, "BTC", 0.01), new Currency(false, "USD",
+            0.01)), 0.01, 0.01);
+    private long[] timestamps;
+    private double[] prices;
+    private double[] volumes;
+    private BarAggregator.Spec[] barSpecs;
+
+    @Setup
+    public void setup() throws IOException {
+        if (tradeFile.isEmpty())
+            generate(1000000);
+        else
+            read(tradeFile);
+        String[] parts = specs.split(",");
+        barSpecs = new BarAggregator.Spec[parts.length];
+        for (int i = 0; i < parts.length; i++)
+            barSpecs[i] = BarAggregator.Spec.parse(parts[i]);
+    }
+
+    @Benchmark
+    public void aggregate(final Blackhole blackhole) {
+        BarAggregator aggregator = new BarAggregator(barSpecs);
+        BarAggregator.Sink sink = new BarAggregator.Sink() {
+            @Override
+            public void onBar(Bar bar, int spec) {
+                blackhole.consume(bar);
+            }
+        };
+        for (int i = 0; i < timestamps.length; i++)
+            aggregator.update(market, timestamps[i], prices[i], volumes[i], sink);
+        aggregator.flush(Long.MAX_VALUE, sink);
+    }
+
+    private void generate(int trades) {
+        Random random = new Random(42);
+        timestamps = new long[trades];
+        prices = new double[trades];
+        volumes = new double[trades];
+        long time = 1500000000000L;
+        double price = 500;
+        for (int i = 0; i < trades; i++) {
+            time += random.nextInt(2000);
+            price = Math.max(0.01, price + random.nextGaussian() * 0.1);
+            timestamps[i] = time;
+            prices[i] = price;
+            volumes[i] = random.nextDouble() * (random.nextBoolean() ? 1 : -1);
+        }
+    }
+
+    private void read(String file) throws IOException {
+        int trades = 0;
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            while (reader.readLine() != null)
+                trades++;
+        }
+        timestamps = new long[trades];
+        prices = new double[trades];
+        volumes = new double[trades];
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            for (int i = 0; i < trades; i++) {
+                String[] fields = reader.readLine().split(",");
+                timestamps[i] = Long.parseLong(fields[0].trim());
+                prices[i] = Double.parseDouble(fields[1].trim());
+                volumes[i] = Double.parseDouble(fields[2].trim());
+            }
+        }
+    }
+}
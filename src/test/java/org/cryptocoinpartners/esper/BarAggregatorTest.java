@@ -0,0 +1,75 @@
+package org.cryptocoinpartners.esper;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.cryptocoinpartners.schema.Bar;
+import org.cryptocoinpartners.schema.Currency;
+import org.cryptocoinpartners.schema.Exchange;
+import org.cryptocoinpartners.schema.Listing;
+import org.cryptocoinpartners.schema.Market;
+import org.junit.Test;
+
+public class BarAggregatorTest {
+
+    private final Market market = new Market(new Exchange("BITSTAMP"), new Listing(new Currency(false, "BTC", 0.01), new Currency(false, "USD",
+            0.01)), 0.01, 0.01);
+
+    private final List<Bar> bars = new ArrayList<Bar>();
+    private final List<Integer> specs = new ArrayList<Integer>();
+    private final BarAggregator.Sink sink = new BarAggregator.Sink() {
+        @Override
+        public void onBar(Bar bar, int spec) {
+            bars.add(bar);
+            specs.add(spec);
+        }
+    };
+
+    @Test
+    public final void buildsSeveralIntervalsInOnePass() {
+        BarAggregator aggregator = new BarAggregator(BarAggregator.Spec.parse(1d), BarAggregator.Spec.parse(60d), BarAggregator.Spec
+                .parse("ticks:3"));
+        long minute = 1500000000000L - 1500000000000L % 60000;
+        aggregator.update(market, minute + 100, 10, 1, sink);
+        aggregator.update(market, minute + 900, 12, 2, sink);
+        aggregator.update(market, minute + 1500, 9, 1, sink);
+
+        // the trade in the next second closes the first one second bar, and the third trade closes the tick bar
+        assertEquals(2, bars.size());
+        assertBar(bars.get(0), minute, 1, 10, 12, 10, 12, 3);
+        assertBar(bars.get(1), minute + 100, 0, 10, 12, 9, 9, 4);
+        assertEquals(2, (int) specs.get(1));
+
+        // a late trade for the closed second is dropped from it, but still counted by the minute
+        aggregator.update(market, minute + 500, 20, 1, sink);
+        assertEquals(minute + 2000, aggregator.getNextEnd());
+        aggregator.update(market, minute + 61000, 11, 1, sink);
+        assertEquals(4, bars.size());
+        assertBar(bars.get(2), minute + 1000, 1, 9, 9, 9, 9, 1);
+        assertBar(bars.get(3), minute, 60, 10, 20, 9, 20, 5);
+
+        aggregator.flush(minute + 62000, sink);
+        assertBar(bars.get(4), minute + 61000, 1, 11, 11, 11, 11, 1);
+        assertEquals(minute + 120000, aggregator.getNextEnd());
+    }
+
+    @Test
+    public final void parsesSpecs() {
+        assertEquals(BarAggregator.Kind.TIME, BarAggregator.Spec.parse("3600").getKind());
+        assertEquals(BarAggregator.Kind.VOLUME, BarAggregator.Spec.parse("Volume:100").getKind());
+        assertEquals(1e6, BarAggregator.Spec.parse("dollars:1e6").getSize(), 0);
+        assertEquals(0, BarAggregator.Spec.parse("ticks:500").getInterval(), 0);
+    }
+
+    private void assertBar(Bar bar, long timestamp, double interval, double open, double high, double low, double close, double volume) {
+        assertEquals(timestamp, bar.getTime().getMillis());
+        assertEquals(interval, bar.getInterval(), 0);
+        assertEquals(open, bar.getOpen(), 0);
+        assertEquals(high, bar.getHigh(), 0);
+        assertEquals(low, bar.getLow(), 0);
+        assertEquals(close, bar.getClose(), 0);
+        assertEquals(volume, bar.getVolume(), 0);
+    }
+}
@@ -0,0 +1,73 @@
+package org.cryptocoinpartners.esper;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares entering an event and reading the value of talib(), which recomputes the TA-Lib function over its lookback window, against
+ * indicator(), which updates a streaming indicator. Not run by the unit tests; run with
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.openjdk.jmh.Main -Dexec.args=IndicatorFunctionBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class IndicatorFunctionBenchmark {
+
+    @Param({ "sma", "rsi" })
+    public String function;
+
+    @Param({ "14", "200" })
+    public int period;
+
+    private final Object[][] events = new Object[1024][];
+    private GenericTALibFunction talib;
+    private IndicatorFunction indicator;
+    private int tick;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        double price = 500;
+        for (int i = 0; i < events.length; i++) {
+            price += random.nextGaussian();
+            events[i] = new Object[] { function, price, period };
+        }
+        talib = new GenericTALibFunction();
+        indicator = new IndicatorFunction();
+        // fill both windows
+        for (int i = 0; i < period * 2; i++) {
+            talib.enter(events[i & (events.length - 1)]);
+            indicator.enter(events[i & (events.length - 1)]);
+        }
+    }
+
+    @Benchmark
+    public Object talib() {
+        talib.enter(events[tick++ & (events.length - 1)]);
+        return talib.getValue();
+    }
+
+    @Benchmark
+    public Object indicator() {
+        indicator.enter(events[tick++ & (events.length - 1)]);
+        return indicator.getValue();
+    }
+}
@@ -0,0 +1,160 @@
+package org.cryptocoinpartners.esper.indicator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.tictactec.ta.lib.Core;
+import com.tictactec.ta.lib.MAType;
+import com.tictactec.ta.lib.MInteger;
+
+/**
+ * Checks each streaming indicator against the TA-Lib function of the same name run over the whole series.
+ */
+public class IndicatorTest {
+
+    private static final int LENGTH = 5000;
+    private static final double TOLERANCE = 1e-8;
+
+    private final Core core = new Core();
+    private final double[] high = new double[LENGTH];
+    private final double[] low = new double[LENGTH];
+    private final double[] close = new double[LENGTH];
+
+    public IndicatorTest() {
+        Random random = new Random(42);
+        double price = 500;
+        for (int i = 0; i < LENGTH; i++) {
+            price = Math.max(1, price + random.nextGaussian() * 2);
+            close[i] = price;
+            high[i] = price + random.nextDouble() * 3;
+            low[i] = price - random.nextDouble() * 3;
+        }
+    }
+
+    @Test
+    public final void simpleMovingAverage() {
+        double[] expected = new double[LENGTH];
+        MInteger begin = new MInteger();
+        core.sma(0, LENGTH - 1, close, 30, begin, new MInteger(), expected);
+        assertSame(new SimpleMovingAverage(30), begin.value, expected);
+    }
+
+    @Test
+    public final void exponentialMovingAverage() {
+        double[] expected = new double[LENGTH];
+        MInteger begin = new MInteger();
+        core.ema(0, LENGTH - 1, close, 12, begin, new MInteger(), expected);
+        assertSame(new ExponentialMovingAverage(12), begin.value, expected);
+    }
+
+    @Test
+    public final void standardDeviation() {
+        double[] expected = new double[LENGTH];
+        MInteger begin = new MInteger();
+        core.stdDev(0, LENGTH - 1, close, 20, 1.5, begin, new MInteger(), expected);
+        assertSame(new StandardDeviation(20, 1.5), begin.value, expected);
+    }
+
+    @Test
+    public final void relativeStrengthIndex() {
+        double[] expected = new double[LENGTH];
+        MInteger begin = new MInteger();
+        core.rsi(0, LENGTH - 1, close, 14, begin, new MInteger(), expected);
+        assertSame(new RelativeStrengthIndex(14), begin.value, expected);
+    }
+
+    @Test
+    public final void linearRegression() {
+        double[] expected = new double[LENGTH];
+        MInteger begin = new MInteger();
+        core.linearReg(0, LENGTH - 1, close, 4, begin, new MInteger(), expected);
+        assertSame(new LinearRegression(4), begin.value, expected);
+    }
+
+    @Test
+    public final void averageTrueRange() {
+        double[] expected = new double[LENGTH];
+        MInteger begin = new MInteger();
+        core.atr(0, LENGTH - 1, high, low, close, 14, begin, new MInteger(), expected);
+        AverageTrueRange atr = new AverageTrueRange(14);
+        for (int i = 0; i < LENGTH; i++) {
+            atr.update(high[i], low[i], close[i]);
+            assertEquals(i >= begin.value, atr.isReady());
+            if (i >= begin.value)
+                assertEquals(expected[i - begin.value], atr.getValue(), TOLERANCE);
+        }
+    }
+
+    @Test
+    public final void bollingerBands() {
+        double[] upper = new double[LENGTH];
+        double[] middle = new double[LENGTH];
+        double[] lower = new double[LENGTH];
+        MInteger begin = new MInteger();
+        core.bbands(0, LENGTH - 1, close, 20, 2, 1.5, MAType.Sma, begin, new MInteger(), upper, middle, lower);
+        BollingerBands bands = new BollingerBands(20, 2, 1.5);
+        for (int i = 0; i < LENGTH; i++) {
+            bands.update(close[i]);
+            assertEquals(i >= begin.value, bands.isReady());
+            if (i >= begin.value) {
+                BollingerBands.Bands output = (BollingerBands.Bands) bands.getOutput();
+                assertEquals(upper[i - begin.value], output.getUpper(), TOLERANCE);
+                assertEquals(middle[i - begin.value], output.getMiddle(), TOLERANCE);
+                assertEquals(lower[i - begin.value], output.getLower(), TOLERANCE);
+            }
+        }
+    }
+
+    @Test
+    public final void movingAverageConvergenceDivergence() {
+        double[] macd = new double[LENGTH];
+        double[] signal = new double[LENGTH];
+        double[] histogram = new double[LENGTH];
+        MInteger begin = new MInteger();
+        core.macd(0, LENGTH - 1, close, 12, 26, 9, begin, new MInteger(), macd, signal, histogram);
+        MovingAverageConvergenceDivergence lines = new MovingAverageConvergenceDivergence(12, 26, 9);
+        for (int i = 0; i < LENGTH; i++) {
+            lines.update(close[i]);
+            assertEquals(i >= begin.value, lines.isReady());
+            if (i >= begin.value) {
+                MovingAverageConvergenceDivergence.Lines output = (MovingAverageConvergenceDivergence.Lines) lines.getOutput();
+                assertEquals(macd[i - begin.value], output.getMacd(), TOLERANCE);
+                assertEquals(signal[i - begin.value], output.getSignal(), TOLERANCE);
+                assertEquals(histogram[i - begin.value], output.getHistogram(), TOLERANCE);
+            }
+        }
+    }
+
+    @Test
+    public final void ringEvictsTheOldestValue() {
+        DoubleRing ring = new DoubleRing(3);
+        assertTrue(Double.isNaN(ring.add(1)));
+        ring.add(2);
+        ring.add(3);
+        assertEquals(1, ring.add(4), 0);
+        assertEquals(2, ring.get(0), 0);
+        assertEquals(4, ring.last(), 0);
+        ring.clear();
+        assertFalse(ring.isFull());
+        assertEquals(0, ring.size());
+    }
+
+    private void assertSame(SingleInputIndicator indicator, int begin, double[] expected) {
+        for (int i = 0; i < LENGTH; i++) {
+            indicator.update(close[i]);
+            assertEquals(i >= begin, indicator.isReady());
+            if (i >= begin)
+                assertEquals(expected[i - begin], indicator.getValue(), TOLERANCE);
+            else
+                assertNull(indicator.getOutput());
+        }
+        indicator.clear();
+        assertFalse(indicator.isReady());
+    }
+}
@@ -0,0 +1,93 @@
+package org.cryptocoinpartners.module;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import org.cryptocoinpartners.schema.Book;
+import org.cryptocoinpartners.schema.Currency;
+import org.cryptocoinpartners.schema.Exchange;
+import org.cryptocoinpartners.schema.Listing;
+import org.cryptocoinpartners.schema.Market;
+import org.cryptocoinpartners.schema.Portfolio;
+import org.cryptocoinpartners.schema.SpecificOrder;
+import org.cryptocoinpartners.schema.Trade;
+import org.joda.time.Instant;
+import org.junit.Test;
+
+public class MatchingEngineTest {
+
+    private final Market market = new Market(new Exchange("BITSTAMP"), new Listing(new Currency(false, "BTC", 0.01), new Currency(false, "USD",
+            0.01)), 0.01, 0.01);
+
+    @Test
+    public final void restingOrderWaitsForTheQueueAheadOfIt() {
+        MatchingEngine engine = new MatchingEngine(market, 0, 0, 0);
+        SpecificOrder buy = order(1000, 200, "99.00");
+        engine.add(buy);
+        assertTrue(engine.onBook(book(1001)).isEmpty());
+        assertEquals(500, engine.getQueueAhead(buy));
+
+        // a sell trade at our price first uses up the volume ahead of us
+        assertTrue(engine.onTrade(new Trade(market, new Instant(1002), null, 9900, -300)).isEmpty());
+        assertEquals(200, engine.getQueueAhead(buy));
+        List<MatchingEngine.Match> matches = engine.onTrade(new Trade(market, new Instant(1003), null, 9900, -300));
+        assertEquals(1, matches.size());
+        assertEquals(100, matches.get(0).getVolumeCount());
+        assertEquals(9900, matches.get(0).getPriceCount());
+        assertTrue(matches.get(0).isMaker());
+
+        // a trade through our price fills the rest
+        matches = engine.onTrade(new Trade(market, new Instant(1004), null, 9800, -500));
+        assertEquals(100, matches.get(0).getVolumeCount());
+        assertFalse(engine.contains(buy));
+    }
+
+    @Test
+    public final void marketableOrderDoesNotTakeTheSameLiquidityTwice() {
+        MatchingEngine engine = new MatchingEngine(market, 0, 0, 0);
+        Book book = book(1001);
+        engine.add(order(1000, 500, "102.00"));
+        List<MatchingEngine.Match> matches = engine.onBook(book);
+        assertEquals(2, matches.size());
+        assertEquals(300, matches.get(0).getVolumeCount());
+        assertEquals(10100, matches.get(0).getPriceCount());
+        assertEquals(200, matches.get(1).getVolumeCount());
+        assertEquals(10200, matches.get(1).getPriceCount());
+        // the published book is left as it was
+        assertEquals(-300, book.getAskSide().getVolumeCount(0));
+
+        engine.add(order(1000, 500, "102.00"));
+        matches = engine.onBook(book);
+        assertEquals(1, matches.size());
+        assertEquals(200, matches.get(0).getVolumeCount());
+        assertEquals(400, engine.getImpact(true, 10200));
+    }
+
+    @Test
+    public final void orderIsNotMatchedBeforeItReachesTheExchange() {
+        MatchingEngine engine = new MatchingEngine(market, 40, 10, 0);
+        engine.add(order(1000, 100, "101.00"));
+        assertTrue(engine.onBook(book(1049)).isEmpty());
+        assertEquals(1, engine.onBook(book(1050)).size());
+    }
+
+    private SpecificOrder order(long time, long volumeCount, String limitPrice) {
+        SpecificOrder order = new SpecificOrder(new Instant(time), new Portfolio(), market, volumeCount, (String) null);
+        order.withLimitPrice(new BigDecimal(limitPrice));
+        return order;
+    }
+
+    private Book book(long time) {
+        Book.Builder builder = new Book.Builder();
+        builder.start(new Instant(time), null, market);
+        builder.addBid(new BigDecimal("99.00"), new BigDecimal("5"));
+        builder.addBid(new BigDecimal("98.00"), new BigDecimal("5"));
+        builder.addAsk(new BigDecimal("101.00"), new BigDecimal("3"));
+        builder.addAsk(new BigDecimal("102.00"), new BigDecimal("4"));
+        return builder.build();
+    }
+}
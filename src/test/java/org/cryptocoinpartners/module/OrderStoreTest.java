@@ -0,0 +1,92 @@
+package org.cryptocoinpartners.module;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import org.cryptocoinpartners.enumeration.FillType;
+import org.cryptocoinpartners.enumeration.OrderState;
+import org.cryptocoinpartners.schema.Currency;
+import org.cryptocoinpartners.schema.Exchange;
+import org.cryptocoinpartners.schema.GeneralOrder;
+import org.cryptocoinpartners.schema.Listing;
+import org.cryptocoinpartners.schema.Market;
+import org.cryptocoinpartners.schema.Order;
+import org.cryptocoinpartners.schema.Portfolio;
+import org.joda.time.Instant;
+import org.junit.Test;
+
+public class OrderStoreTest {
+
+    private final Currency usd = new Currency(false, "USD", 0.01);
+    private final Market btc = new Market(new Exchange("BITSTAMP"), new Listing(new Currency(false, "BTC", 0.01), usd), 0.01, 0.01);
+    private final Market ltc = new Market(new Exchange("BITSTAMP"), new Listing(new Currency(false, "LTC", 0.01), usd), 0.01, 0.01);
+    private final Portfolio portfolio = new Portfolio();
+
+    @Test
+    public final void indexesOrdersByStateMarketAndPortfolio() {
+        OrderStore store = new OrderStore(10);
+        Order placed = order(btc, portfolio);
+        Order triggered = order(btc, portfolio);
+        Order other = order(ltc, portfolio);
+        Order otherPortfolio = order(btc, new Portfolio());
+
+        assertNull(store.setState(placed, OrderState.NEW));
+        assertEquals(OrderState.NEW, store.setState(placed, OrderState.PLACED));
+        store.setState(triggered, OrderState.TRIGGER);
+        store.setState(other, OrderState.PLACED);
+        store.setState(otherPortfolio, OrderState.ERROR);
+
+        assertEquals(OrderState.PLACED, store.getState(placed));
+        assertSame(placed, store.getOrder(placed.getId()));
+        assertTrue(store.getOrders(OrderState.NEW).isEmpty());
+        assertEquals(new HashSet<>(Arrays.asList(placed, other)), store.getOrders(OrderState.PLACED));
+        assertEquals(new HashSet<>(Arrays.asList(placed, triggered, other)), new HashSet<>(store.getPendingOrders()));
+        assertEquals(new HashSet<>(Arrays.asList(placed, triggered)), new HashSet<>(store.getPendingOrders(btc, portfolio)));
+        assertEquals(4, store.getStates().size());
+    }
+
+    @Test
+    public final void archivesTerminalOrdersUpToItsSize() {
+        OrderStore store = new OrderStore(2);
+        Order first = order(btc, portfolio);
+        Order second = order(btc, portfolio);
+        Order third = order(btc, portfolio);
+        for (Order order : Arrays.asList(first, second, third))
+            store.setState(order, OrderState.PLACED);
+
+        store.setState(first, OrderState.FILLED);
+        store.setState(second, OrderState.CANCELLED);
+        // finished orders leave the indexes but are still found
+        assertEquals(Collections.singletonList(third), store.getPendingOrders(btc, portfolio));
+        assertEquals(1, store.getStates().size());
+        assertEquals(OrderState.FILLED, store.getState(first));
+        assertSame(second, store.getOrder(second.getId()));
+        assertEquals(Arrays.asList(third, first, second), store.getOrders());
+
+        // a later terminal state replaces the archived one
+        assertEquals(OrderState.CANCELLED, store.setState(second, OrderState.EXPIRED));
+        assertEquals(OrderState.EXPIRED, store.getState(second));
+        assertFalse(store.hasEvicted());
+
+        // the order finished longest ago is dropped once the archive is full
+        store.setState(third, OrderState.REJECTED);
+        assertNull(store.getState(first));
+        assertNull(store.getOrder(first.getId()));
+        assertTrue(store.hasEvicted());
+        assertEquals(OrderState.REJECTED, store.getState(third));
+        assertTrue(store.getPendingOrders().isEmpty());
+        assertTrue(store.getOrders(portfolio).isEmpty());
+    }
+
+    private GeneralOrder order(Market market, Portfolio portfolio) {
+        return new GeneralOrder(new Instant(0), portfolio, market, BigDecimal.ONE, FillType.LIMIT);
+    }
+}
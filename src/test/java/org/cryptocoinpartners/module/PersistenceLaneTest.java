@@ -0,0 +1,30 @@
+package org.cryptocoinpartners.module;
+
+import static org.junit.Assert.assertEquals;
+
+import org.cryptocoinpartners.enumeration.OrderState;
+import org.cryptocoinpartners.schema.Currency;
+import org.cryptocoinpartners.schema.Exchange;
+import org.cryptocoinpartners.schema.Listing;
+import org.cryptocoinpartners.schema.Market;
+import org.cryptocoinpartners.schema.OrderUpdate;
+import org.cryptocoinpartners.schema.Portfolio;
+import org.cryptocoinpartners.schema.SpecificOrder;
+import org.joda.time.Instant;
+import org.junit.Test;
+
+public class PersistenceLaneTest {
+
+    private final Market market = new Market(new Exchange("BITSTAMP"), new Listing(new Currency(false, "BTC", 0.01), new Currency(false, "USD",
+            0.01)), 0.01, 0.01);
+
+    @Test
+    public final void orderUpdateIsKeyedWithItsOrder() {
+        Portfolio portfolio = new Portfolio();
+        SpecificOrder order = new SpecificOrder(new Instant(1000), portfolio, market, 100, (String) null);
+        OrderUpdate update = new OrderUpdate(new Instant(1001), order, OrderState.NEW, OrderState.PLACED);
+        assertEquals(portfolio.getId(), PersistenceLane.AggregateKey.PORTFOLIO.of(order));
+        assertEquals(PersistenceLane.AggregateKey.PORTFOLIO.of(order), PersistenceLane.AggregateKey.PORTFOLIO.of(update));
+        assertEquals(PersistenceLane.AggregateKey.ORDER.of(order), PersistenceLane.AggregateKey.ORDER.of(update));
+    }
+}
@@ -0,0 +1,97 @@
+package org.cryptocoinpartners.module;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.cryptocoinpartners.enumeration.FillType;
+import org.cryptocoinpartners.schema.Amount;
+import org.cryptocoinpartners.schema.Currency;
+import org.cryptocoinpartners.schema.DecimalAmount;
+import org.cryptocoinpartners.schema.Exchange;
+import org.cryptocoinpartners.schema.GeneralOrder;
+import org.cryptocoinpartners.schema.Listing;
+import org.cryptocoinpartners.schema.Market;
+import org.cryptocoinpartners.schema.Order;
+import org.cryptocoinpartners.schema.Portfolio;
+import org.joda.time.Instant;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares finding the resting buy stops crossed by a new ask by checking every order, as updateRestingOrders did, against asking a
+ * TriggerOrderList for the crossed orders, and measures re-keying one trailing stop. The asks sit below all but a few of the stops, as they
+ * do on most ticks. Not run by the unit tests; run with
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.openjdk.jmh.Main -Dexec.args=TriggerOrderListBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class TriggerOrderListBenchmark {
+
+    @Param({ "1000", "10000" })
+    public int stops;
+
+    private final Market market = new Market(new Exchange("BITSTAMP"), new Listing(new Currency(false, "BTC", 0.01), new Currency(false, "USD",
+            0.01)), 0.01, 0.01);
+    private final List<Order> orders = new ArrayList<Order>();
+    private final TriggerOrderList index = new TriggerOrderList();
+    private final Amount[] asks = new Amount[1024];
+    private Order trailing;
+    private int tick;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        for (int i = 0; i < stops; i++) {
+            Order order = new GeneralOrder(new Instant(0), new Portfolio(), market, BigDecimal.ONE, FillType.STOP_LIMIT).withStopPrice(BigDecimal
+                    .valueOf(60000 + random.nextInt(40000), 2));
+            orders.add(order);
+            index.add(order);
+        }
+        // the asks cross at most the lowest one percent of the stops
+        for (int i = 0; i < asks.length; i++)
+            asks[i] = DecimalAmount.of(BigDecimal.valueOf(50000 + random.nextInt(10400), 2));
+        trailing = orders.get(0);
+    }
+
+    @Benchmark
+    public int scanAll() {
+        Amount ask = asks[tick++ & (asks.length - 1)];
+        int crossed = 0;
+        for (Order order : orders)
+            if (order.getStopPrice() != null && ask.compareTo(order.getStopPrice()) >= 0)
+                crossed++;
+        return crossed;
+    }
+
+    @Benchmark
+    public int crossedOnly() {
+        Amount ask = asks[tick++ & (asks.length - 1)];
+        return index.getBuysCrossedBy(ask).size();
+    }
+
+    @Benchmark
+    public TriggerOrderList rekeyTrailingStop() {
+        trailing.setStopPrice(DecimalAmount.of(BigDecimal.valueOf(60000 + (tick++ & 1023), 2)));
+        index.rekey(trailing);
+        return index;
+    }
+}
@@ -0,0 +1,64 @@
+package org.cryptocoinpartners.module;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+import org.cryptocoinpartners.enumeration.FillType;
+import org.cryptocoinpartners.schema.Currency;
+import org.cryptocoinpartners.schema.DecimalAmount;
+import org.cryptocoinpartners.schema.Exchange;
+import org.cryptocoinpartners.schema.GeneralOrder;
+import org.cryptocoinpartners.schema.Listing;
+import org.cryptocoinpartners.schema.Market;
+import org.cryptocoinpartners.schema.Order;
+import org.cryptocoinpartners.schema.Portfolio;
+import org.joda.time.Instant;
+import org.junit.Test;
+
+public class TriggerOrderListTest {
+
+    private final Market market = new Market(new Exchange("BITSTAMP"), new Listing(new Currency(false, "BTC", 0.01), new Currency(false, "USD",
+            0.01)), 0.01, 0.01);
+
+    @Test
+    public final void visitsOnlyCrossedOrders() {
+        Order stop100 = order().withStopPrice(BigDecimal.valueOf(100));
+        Order stop110 = order().withStopPrice(BigDecimal.valueOf(110));
+        Order target90 = order().withTargetPrice(BigDecimal.valueOf(90));
+        Order both = order().withStopPrice(BigDecimal.valueOf(105)).withTargetPrice(BigDecimal.valueOf(120));
+
+        TriggerOrderList orders = new TriggerOrderList();
+        orders.addAll(Arrays.asList(stop110, target90, stop100, both));
+        assertFalse(orders.add(stop100));
+        assertEquals(4, orders.size());
+
+        // a buy is triggered by an ask at or above its stop, or at or below its target
+        assertEquals(Arrays.asList(stop100, both), orders.getBuysCrossedBy(DecimalAmount.of(BigDecimal.valueOf(106))));
+        assertEquals(Arrays.asList(target90, both), orders.getBuysCrossedBy(DecimalAmount.of(BigDecimal.valueOf(80))));
+        // a sell is triggered by a bid at or below its stop, or at or above its target
+        assertEquals(Arrays.asList(stop110, both, target90), orders.getSellsCrossedBy(DecimalAmount.of(BigDecimal.valueOf(104))));
+
+        // a trailing stop which moved is found under its new price once re-keyed
+        stop110.setStopPrice(DecimalAmount.of(BigDecimal.valueOf(95)));
+        assertEquals(Arrays.asList(stop100, both), orders.getBuysCrossedBy(DecimalAmount.of(BigDecimal.valueOf(106))));
+        orders.rekey(stop110);
+        assertEquals(Arrays.asList(stop110, stop100, both), orders.getBuysCrossedBy(DecimalAmount.of(BigDecimal.valueOf(106))));
+
+        orders.removeAll(Arrays.asList(stop100, target90));
+        assertFalse(orders.contains(stop100));
+        assertEquals(Arrays.asList(stop110, both), orders.getBuysCrossedBy(DecimalAmount.of(BigDecimal.valueOf(106))));
+
+        Order expiring = order().withStopPrice(BigDecimal.valueOf(1000)).withTimeToLive(1000);
+        orders.add(expiring);
+        assertTrue(orders.getExpiredBy(expiring.getTime().plus(1000)).isEmpty());
+        assertEquals(Arrays.asList(expiring), orders.getExpiredBy(expiring.getTime().plus(1001)));
+    }
+
+    private GeneralOrder order() {
+        return new GeneralOrder(new Instant(0), new Portfolio(), market, BigDecimal.ONE, FillType.STOP_LIMIT);
+    }
+}
@@ -0,0 +1,136 @@
+package org.cryptocoinpartners.module.xchange;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.cryptocoinpartners.schema.BookSide;
+import org.cryptocoinpartners.schema.BookUpdate;
+import org.cryptocoinpartners.schema.Currency;
+import org.cryptocoinpartners.schema.Event;
+import org.cryptocoinpartners.schema.Exchange;
+import org.cryptocoinpartners.schema.Listing;
+import org.cryptocoinpartners.schema.LiveBook;
+import org.cryptocoinpartners.schema.Market;
+import org.cryptocoinpartners.schema.MarketDataGapError;
+import org.cryptocoinpartners.schema.Side;
+import org.cryptocoinpartners.schema.Trade;
+import org.cryptocoinpartners.schema.TradeFactory;
+import org.cryptocoinpartners.schema.Tradeable;
+import org.joda.time.Duration;
+import org.joda.time.Instant;
+import org.junit.Test;
+
+public class StreamingFeedTest {
+
+    private final Market market = new Market(new Exchange("BITSTAMP"), new Listing(new Currency(false, "BTC", 0.01), new Currency(false, "USD",
+            0.01)), 0.01, 0.01);
+    private final Map<Market, LiveBook> liveBooks = new HashMap<Market, LiveBook>();
+    private final List<Event> published = new ArrayList<Event>();
+    private final List<Market> polled = new ArrayList<Market>();
+    private final StubStreamingServer server = new StubStreamingServer(market);
+
+    @Test
+    public final void resyncsTheBookAfterALostDelta() {
+        server.delta(1000, Side.BUY, "99.00", "2").delta(1001, Side.SELL, "101.00", "3").trade(1002, "101.00", "1");
+        server.lose().delta(2000, Side.BUY, "99.00", "5").delta(2500, Side.BUY, "98.00", "1").delta(2600, Side.SELL, "101.00", "0");
+        server.trade(2700, "99.00", "-1");
+
+        StreamingFeed feed = start();
+        server.replay();
+
+        assertEquals(1, count(MarketDataGapError.class));
+        MarketDataGapError gap = first(MarketDataGapError.class);
+        assertEquals(Duration.millis(1499), gap.getGapInterval().toDuration());
+        assertEquals(1, server.getSnapshotRequests());
+        assertEquals(2, count(Trade.class));
+        assertTrue(count(BookUpdate.class) > 0);
+        assertTrue(feed.isLive(market));
+        assertTrue(polled.isEmpty());
+
+        // the book caught up with the exchange's, including the lost change
+        LiveBook book = liveBooks.get(market);
+        assertSameSide(server.getBook().getBidSide(), book.getBidSide());
+        assertSameSide(server.getBook().getAskSide(), book.getAskSide());
+        assertEquals(2, book.getBidSide().size());
+        assertEquals(0, book.getAskSide().size());
+    }
+
+    @Test
+    public final void fallsBackToPollingWhenTheStreamDisconnects() {
+        server.delta(1000, Side.BUY, "99.00", "2").disconnect().delta(2000, Side.BUY, "98.00", "1");
+        StreamingFeed feed = start();
+        server.replay();
+
+        assertFalse(feed.isLive(market));
+        assertEquals(Collections.singletonList(market), polled);
+        // messages after the disconnect are ignored, the poller owns the book now
+        assertEquals(1, liveBooks.get(market).getBidSide().size());
+    }
+
+    private StreamingFeed start() {
+        liveBooks.put(market, new LiveBook(market, Long.MAX_VALUE));
+        StreamingFeed feed = new StreamingFeed(null, null, new StubTradeFactory(), liveBooks, server, new StreamingFeed.Fallback() {
+            @Override
+            public void poll(Market market) {
+                polled.add(market);
+            }
+        }) {
+            @Override
+            protected void publish(Event event) {
+                published.add(event);
+            }
+        };
+        feed.subscribe(market);
+        server.start(market.getExchange(), Collections.singletonList(market), null, "xchange.bitstamp.", feed);
+        return feed;
+    }
+
+    private int count(Class<?> type) {
+        int count = 0;
+        for (Event event : published)
+            if (type.isInstance(event))
+                count++;
+        return count;
+    }
+
+    private <T> T first(Class<T> type) {
+        for (Event event : published)
+            if (type.isInstance(event))
+                return type.cast(event);
+        return null;
+    }
+
+    private static void assertSameSide(BookSide expected, BookSide actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.getPriceCount(i), actual.getPriceCount(i));
+            assertEquals(expected.getVolumeCount(i), actual.getVolumeCount(i));
+        }
+    }
+
+    private static class StubTradeFactory implements TradeFactory {
+
+        @Override
+        public Trade create(Tradeable market, Instant time, String remoteKey, long priceCount, long volumeCount) {
+            return new Trade(market, time, remoteKey, priceCount, volumeCount);
+        }
+
+        @Override
+        public Trade create(Tradeable market, Instant time, Instant timeRecieved, String remoteKey, long priceCount, long volumeCount) {
+            return new Trade(market, time, timeRecieved, remoteKey, priceCount, volumeCount);
+        }
+
+        @Override
+        public Trade create(Tradeable market, Instant time, String remoteKey, BigDecimal price, BigDecimal volume) {
+            return new Trade(market, time, remoteKey, price, volume);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package org.cryptocoinpartners.module.xchange;
+
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.commons.configuration.Configuration;
+import org.cryptocoinpartners.schema.BookSide;
+import org.cryptocoinpartners.schema.Exchange;
+import org.cryptocoinpartners.schema.LiveBook;
+import org.cryptocoinpartners.schema.Market;
+import org.cryptocoinpartners.schema.Side;
+import org.joda.time.Instant;
+
+/**
+ * A scripted exchange feed for one market. It keeps the exchange's side of the book, numbers its messages as an exchange would, and can lose
+ * messages in transit, so the script can be replayed against a StreamingFeed as often as needed. A requested snapshot is sent after the
+ * message being delivered, like a real feed answering on its own connection.
+ */
+public class StubStreamingServer implements StreamingDataSource {
+
+    public StubStreamingServer(Market market) {
+        this.market = market;
+    }
+
+    public StubStreamingServer trade(long time, String price, String volume) {
+        final long sequence = ++tradeSequence;
+        final Instant instant = new Instant(time);
+        final BigDecimal tradePrice = new BigDecimal(price);
+        final BigDecimal tradeVolume = new BigDecimal(volume);
+        script.add(new Message() {
+            @Override
+            public void send(Listener listener, boolean lost) {
+                if (!lost)
+                    listener.onTrade(market, sequence, instant, String.valueOf(sequence), tradePrice, tradeVolume);
+            }
+        });
+        return this;
+    }
+
+    public StubStreamingServer delta(long time, final Side side, String price, String volume) {
+        final Instant instant = new Instant(time);
+        final BigDecimal levelPrice = new BigDecimal(price);
+        final BigDecimal levelVolume = new BigDecimal(volume);
+        script.add(new Message() {
+            @Override
+            public void send(Listener listener, boolean lost) {
+                // the exchange's book changes whether or not we hear about it
+                book.applyDelta(side, levelPrice, levelVolume, instant);
+                long sequence = ++bookSequence;
+                if (!lost)
+                    listener.onBookDelta(market, sequence, instant, side, levelPrice, levelVolume);
+            }
+        });
+        return this;
+    }
+
+    /** the next scripted message is lost in transit */
+    public StubStreamingServer lose() {
+        lost.add(script.size());
+        return this;
+    }
+
+    public StubStreamingServer disconnect() {
+        script.add(new Message() {
+            @Override
+            public void send(Listener listener, boolean lost) {
+                listener.onDisconnected(market, new Exception("stub disconnected"));
+            }
+        });
+        return this;
+    }
+
+    /** sends a snapshot of an empty book, then the script, from the start */
+    public void replay() {
+        book = new LiveBook(market, 0);
+        bookSequence = 0;
+        pending.clear();
+        sendSnapshot();
+        for (int i = 0; i < script.size(); i++) {
+            script.get(i).send(listener, lost.contains(i));
+            while (!pending.isEmpty())
+                pending.poll().send(listener, false);
+        }
+    }
+
+    public LiveBook getBook() {
+        return book;
+    }
+
+    public int getSnapshotRequests() {
+        return snapshotRequests;
+    }
+
+    @Override
+    public void start(Exchange exchange, Collection<Market> markets, Configuration config, String prefix, Listener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void requestSnapshot(Market market) {
+        snapshotRequests++;
+        pending.add(new Message() {
+            @Override
+            public void send(Listener listener, boolean lost) {
+                sendSnapshot();
+            }
+        });
+    }
+
+    @Override
+    public void stop() {
+        listener = null;
+    }
+
+    private void sendSnapshot() {
+        BookSide bids = BookSide.bids();
+        bids.copyFrom(book.getBidSide());
+        BookSide asks = BookSide.asks();
+        asks.copyFrom(book.getAskSide());
+        listener.onBookSnapshot(market, bookSequence, book.getTime() == null ? new Instant(0) : book.getTime(), bids, asks);
+    }
+
+    private interface Message {
+        void send(Listener listener, boolean lost);
+    }
+
+    private final Market market;
+    private final List<Message> script = new ArrayList<Message>();
+    private final List<Integer> lost = new ArrayList<Integer>();
+    private final ArrayDeque<Message> pending = new ArrayDeque<Message>();
+    private Listener listener;
+    private LiveBook book;
+    private long bookSequence;
+    private long tradeSequence;
+    private int snapshotRequests;
+}
@@ -0,0 +1,181 @@
+package org.cryptocoinpartners.schema;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.Instant;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares building and querying a Book on the primitive BookSide core against the List&lt;Offer&gt; plus Collections.sort approach Book used
+ * before, and the BookCodec blob format against the ObjectOutputStream one. Not run by the unit tests; run with
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.openjdk.jmh.Main -Dexec.args=BookBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class BookBenchmark {
+
+    @Param({ "10", "100", "500" })
+    public int depth;
+
+    private final Market market = new Market(new Exchange("BITSTAMP"), new Listing(new Currency(false, "BTC", 0.01), new Currency(false, "USD",
+            0.01)), 0.01, 0.01);
+    private BigDecimal[] prices;
+    private BigDecimal[] volumes;
+    private Book book;
+    private List<Offer> legacyBids;
+    private List<Offer> legacyAsks;
+    private byte[] bidBlob;
+    private byte[] legacyBidBlob;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        prices = new BigDecimal[depth];
+        volumes = new BigDecimal[depth];
+        for (int i = 0; i < depth; i++) {
+            prices[i] = BigDecimal.valueOf(50000 + random.nextInt(depth * 10), 2);
+            volumes[i] = BigDecimal.valueOf(1 + random.nextInt(1000), 2);
+        }
+        book = buildBook();
+        legacyBids = buildLegacyBids();
+        legacyAsks = buildLegacyAsks();
+        bidBlob = BookCodec.encodeLevels(book.getBidSide());
+        legacyBidBlob = encodeLegacy(book.getBidSide());
+    }
+
+    @Benchmark
+    public Book build() {
+        return buildBook();
+    }
+
+    @Benchmark
+    public void buildLegacy(Blackhole blackhole) {
+        blackhole.consume(buildLegacyBids());
+        blackhole.consume(buildLegacyAsks());
+    }
+
+    @Benchmark
+    public void query(Blackhole blackhole) {
+        blackhole.consume(book.getBestBidPriceCount());
+        blackhole.consume(book.getBestAskPriceCount());
+        blackhole.consume(book.getBidVolumeCountToDepth(5));
+    }
+
+    @Benchmark
+    public void queryLegacy(Blackhole blackhole) {
+        // the old accessors went through an Offer for every read
+        blackhole.consume(legacyBids.isEmpty() ? 0L : legacyBids.get(0).getPriceCount());
+        blackhole.consume(legacyAsks.isEmpty() ? Long.MAX_VALUE : legacyAsks.get(0).getPriceCount());
+        long depthVolume = 0;
+        for (int i = 0; i < Math.min(5, legacyBids.size()); i++)
+            depthVolume += legacyBids.get(i).getVolumeCount();
+        blackhole.consume(depthVolume);
+    }
+
+    @Benchmark
+    public double volumeWeightedPrice() {
+        return book.getBidVolumeWeightedPriceCount(5000);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return BookCodec.encodeLevels(book.getBidSide());
+    }
+
+    @Benchmark
+    public byte[] encodeLegacy() {
+        return encodeLegacy(book.getBidSide());
+    }
+
+    @Benchmark
+    public BookSide decode() {
+        return BookCodec.decodeLevels(bidBlob, BookSide.bids());
+    }
+
+    @Benchmark
+    public BookSide decodeLegacy() {
+        return BookCodec.decodeLevels(legacyBidBlob, BookSide.bids());
+    }
+
+    /** the ObjectOutputStream format Book wrote before BookCodec */
+    private static byte[] encodeLegacy(BookSide side) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bos)) {
+            out.writeInt(side.size());
+            for (int i = 0; i < side.size(); i++) {
+                out.writeLong(side.getPriceCount(i));
+                out.writeLong(side.getVolumeCount(i));
+            }
+        } catch (IOException e) {
+            throw new Error(e);
+        }
+        return bos.toByteArray();
+    }
+
+    private Book buildBook() {
+        Book.Builder builder = new Book.Builder();
+        builder.start(Instant.now(), null, market);
+        for (int i = 0; i < depth; i++) {
+            builder.addBid(prices[i], volumes[i]);
+            builder.addAsk(prices[i].add(BigDecimal.TEN), volumes[i]);
+        }
+        return builder.build();
+    }
+
+    private List<Offer> buildLegacyBids() {
+        Instant now = Instant.now();
+        List<Offer> bids = new ArrayList<>();
+        for (int i = 0; i < depth; i++)
+            bids.add(Offer.bid(market, now, now, DiscreteAmount.roundedCountForBasis(prices[i], market.getPriceBasis()),
+                    DiscreteAmount.roundedCountForBasis(volumes[i], market.getVolumeBasis())));
+        Collections.sort(bids, new Comparator<Offer>() {
+            @Override
+            public int compare(Offer bid, Offer bid2) {
+                return -bid.getPriceCount().compareTo(bid2.getPriceCount()); // high to low
+            }
+        });
+        return bids;
+    }
+
+    private List<Offer> buildLegacyAsks() {
+        Instant now = Instant.now();
+        List<Offer> asks = new ArrayList<>();
+        for (int i = 0; i < depth; i++)
+            asks.add(Offer.ask(market, now, now, DiscreteAmount.roundedCountForBasis(prices[i].add(BigDecimal.TEN), market.getPriceBasis()),
+                    DiscreteAmount.roundedCountForBasis(volumes[i], market.getVolumeBasis())));
+        Collections.sort(asks, new Comparator<Offer>() {
+            @Override
+            public int compare(Offer ask, Offer ask2) {
+                return ask.getPriceCount().compareTo(ask2.getPriceCount()); // low to high
+            }
+        });
+        return asks;
+    }
+}
@@ -0,0 +1,136 @@
+package org.cryptocoinpartners.schema;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+
+import org.joda.time.Instant;
+import org.junit.Test;
+
+public class BookCodecTest {
+
+    @Test
+    public final void levelsRoundTrip() {
+        BookSide bids = BookSide.bids();
+        bids.add(5000012, 300);
+        bids.add(5000011, 1);
+        bids.add(4999000, Long.MAX_VALUE / 3);
+        bids.add(1, 7);
+        byte[] blob = BookCodec.encodeLevels(bids);
+        assertEquals(BookCodec.VERSION_1, blob[0]);
+        BookSide decoded = BookCodec.decodeLevels(blob, BookSide.bids());
+        assertEquals(bids.toString(), decoded.toString());
+
+        BookSide asks = BookSide.asks();
+        asks.add(101, -5);
+        asks.add(102, -6);
+        blob = BookCodec.encodeLevels(asks);
+        // version, count, three bytes for the best level and two for the next, instead of sixteen per level
+        assertEquals(1 + 1 + 3 + 2, blob.length);
+        assertEquals(asks.toString(), BookCodec.decodeLevels(blob, BookSide.asks()).toString());
+        assertTrue(BookCodec.decodeLevels(null, BookSide.asks()).isEmpty());
+    }
+
+    @Test
+    public final void indexesRoundTrip() {
+        int[] runs = { 0, 1, 2, 3, 10, 11, 500 };
+        assertArrayEquals(runs, BookCodec.decodeIndexes(BookCodec.encodeIndexes(runs, runs.length)));
+        int[] scattered = { 1, 3, 5, 8, 13, 21, 34 };
+        byte[] blob = BookCodec.encodeIndexes(scattered, scattered.length);
+        assertArrayEquals(scattered, BookCodec.decodeIndexes(blob));
+        assertEquals(0, BookCodec.decodeIndexes(BookCodec.encodeIndexes(new int[0], 0)).length);
+        assertEquals(0, BookCodec.decodeIndexes(null).length);
+    }
+
+    @Test
+    public final void readsLegacyBlobs() throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bos);
+        out.writeInt(2);
+        out.writeLong(250);
+        out.writeLong(-3);
+        out.writeLong(260);
+        out.writeLong(-4);
+        out.close();
+        BookSide asks = BookCodec.decodeLevels(bos.toByteArray(), BookSide.asks());
+        assertEquals(2, asks.size());
+        assertEquals(260, asks.getPriceCount(1));
+        assertEquals(-4, asks.getVolumeCount(1));
+
+        bos = new ByteArrayOutputStream();
+        out = new ObjectOutputStream(bos);
+        out.writeInt(3);
+        out.writeInt(0);
+        out.writeInt(4);
+        out.writeInt(9);
+        out.close();
+        assertArrayEquals(new int[] { 0, 4, 9 }, BookCodec.decodeIndexes(bos.toByteArray()));
+    }
+
+    @Test
+    public final void diffRoundTrip() throws Exception {
+        Market market = new Market(new Exchange("BITSTAMP"), new Listing(new Currency(false, "BTC", 0.01), new Currency(false, "USD", 0.01)),
+                0.01, 0.01);
+        Book.Builder builder = new Book.Builder();
+        builder.start(Instant.now(), null, market);
+        for (int i = 0; i < 50; i++) {
+            builder.addBid(BigDecimal.valueOf(10000 - i * 3, 2), BigDecimal.valueOf(i + 1, 2));
+            builder.addAsk(BigDecimal.valueOf(10100 + i * 3, 2), BigDecimal.valueOf(i + 1, 2));
+        }
+        Book parent = builder.build();
+        builder.start(Instant.now(), null, market);
+        for (int i = 0; i < 50; i++) {
+            // every other bid level moves or changes volume, the asks shift by a level
+            builder.addBid(BigDecimal.valueOf(10000 - i * 3 - (i % 2), 2), BigDecimal.valueOf(i + 1 + (i % 4 == 0 ? 1 : 0), 2));
+            builder.addAsk(BigDecimal.valueOf(10103 + i * 3, 2), BigDecimal.valueOf(i + 2, 2));
+        }
+        builder.addBid(BigDecimal.valueOf(10000, 2), BigDecimal.valueOf(7, 2));
+        Book child = builder.build();
+        assertSame(parent, child.getParent());
+
+        child.prePersist();
+        Book loaded = load(child, parent, market);
+        assertEquals(child.getBidSide().toString(), loaded.getBidSide().toString());
+        assertEquals(child.getAskSide().toString(), loaded.getAskSide().toString());
+
+        // resolving through the cache uses the cached parent and releases the loaded one
+        ResolvedBookCache cache = new ResolvedBookCache(1, Long.MAX_VALUE);
+        cache.resolve(parent);
+        Book reloadedParent = load(parent, null, market);
+        Book cached = cache.resolve(load(child, reloadedParent, market));
+        assertEquals(1, cache.getHits());
+        assertNull(cached.getParent());
+        assertEquals(child.getBidSide().toString(), cached.getBidSide().toString());
+        assertEquals(1, cache.size());
+
+        Book.DiffResult diff = child.diff(parent);
+        // 25 moved bids, 13 bid volume changes and one extra bid; the asks shifted by a level, so one was added and one removed
+        assertEquals(25 + 13 + 1 + 1, diff.newOffers.size());
+        assertEquals(25 + 13 + 1, diff.removedOffers.size());
+    }
+
+    /** simulates the Book JPA would load for a persisted book */
+    private static Book load(Book persisted, Book parent, Market market) throws Exception {
+        Book.Builder loader = new Book.Builder();
+        loader.start(persisted.getTime(), null, market);
+        Book loaded = loader.build();
+        loaded.setId(persisted.getId());
+        loaded.setParent(parent);
+        loaded.setBidInsertionsBlob(persisted.getBidInsertionsBlob());
+        loaded.setBidDeletionsBlob(persisted.getBidDeletionsBlob());
+        loaded.setAskInsertionsBlob(persisted.getAskInsertionsBlob());
+        loaded.setAskDeletionsBlob(persisted.getAskDeletionsBlob());
+        Method postLoad = Book.class.getDeclaredMethod("postLoad");
+        postLoad.setAccessible(true);
+        postLoad.invoke(loaded);
+        return loaded;
+    }
+}
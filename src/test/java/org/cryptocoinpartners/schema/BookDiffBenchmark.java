@@ -0,0 +1,109 @@
+package org.cryptocoinpartners.schema;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.Instant;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the merge diff Book uses for persistence and diff(Book) against the hasQuote scan it replaced, on a child book where roughly one
+ * level in ten has changed since its parent. Not run by the unit tests; run with
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.openjdk.jmh.Main -Dexec.args=BookDiffBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class BookDiffBenchmark {
+
+    @Param({ "10", "100", "500", "1000", "5000" })
+    public int depth;
+
+    private final Market market = new Market(new Exchange("BITSTAMP"), new Listing(new Currency(false, "BTC", 0.01), new Currency(false, "USD",
+            0.01)), 0.01, 0.01);
+    private Book parent;
+    private Book child;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        Book.Builder builder = new Book.Builder();
+        long[] volumes = new long[depth];
+        builder.start(Instant.now(), null, market);
+        for (int i = 0; i < depth; i++) {
+            volumes[i] = 1 + random.nextInt(1000);
+            builder.addBid(BigDecimal.valueOf(5000000 - i, 2), BigDecimal.valueOf(volumes[i], 2));
+            builder.addAsk(BigDecimal.valueOf(5000100 + i, 2), BigDecimal.valueOf(volumes[i], 2));
+        }
+        parent = builder.build();
+        builder.start(Instant.now(), null, market);
+        for (int i = 0; i < depth; i++) {
+            long volume = random.nextInt(10) == 0 ? volumes[i] + 1 : volumes[i];
+            builder.addBid(BigDecimal.valueOf(5000000 - i, 2), BigDecimal.valueOf(volume, 2));
+            builder.addAsk(BigDecimal.valueOf(5000100 + i, 2), BigDecimal.valueOf(volume, 2));
+        }
+        child = builder.build();
+    }
+
+    @Benchmark
+    public Book.DiffResult diff() {
+        return child.diff(parent);
+    }
+
+    @Benchmark
+    public Book.DiffResult diffLegacy() {
+        Book.DiffResult result = new Book.DiffResult();
+        diffLegacy(result, child.getBids(), parent.getBids());
+        diffLegacy(result, child.getAsks(), parent.getAsks());
+        return result;
+    }
+
+    /** encodes the diff blobs the way a Book with a parent is persisted */
+    @Benchmark
+    public Book persistDiff() {
+        child.prePersist();
+        return child;
+    }
+
+    private static void diffLegacy(Book.DiffResult result, List<Offer> childQuotes, List<Offer> parentQuotes) {
+        for (Offer childOffer : childQuotes) {
+            if (!hasQuote(parentQuotes, childOffer))
+                result.newOffers.add(childOffer);
+        }
+        List<Integer> deletionIndexes = new ArrayList<>();
+        for (int i = 0; i < parentQuotes.size(); i++) {
+            Offer parentOffer = parentQuotes.get(i);
+            if (!hasQuote(childQuotes, parentOffer)) {
+                result.removedOffers.add(parentOffer);
+                deletionIndexes.add(i);
+            }
+        }
+    }
+
+    private static boolean hasQuote(List<Offer> list, Offer offer) {
+        for (Offer item : list) {
+            if (Long.compare(item.getPriceCount(), offer.getPriceCount()) == 0 && Long.compare(item.getVolumeCount(), offer.getVolumeCount()) == 0)
+                return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,127 @@
+package org.cryptocoinpartners.schema;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import org.joda.time.Instant;
+import org.junit.Test;
+
+public class BookSideTest {
+
+    private final Market market = new Market(new Exchange("BITSTAMP"), new Listing(new Currency(false, "BTC", 0.01), new Currency(false, "USD",
+            0.01)), 0.01, 0.01);
+
+    @Test
+    public final void sidesStaySorted() {
+        BookSide bids = BookSide.bids();
+        bids.add(210, 1);
+        bids.add(240, 2);
+        bids.add(220, 3);
+        bids.add(240, 4);
+        assertEquals(240, bids.getPriceCount(0));
+        assertEquals(2, bids.getVolumeCount(0));
+        assertEquals(240, bids.getPriceCount(1));
+        assertEquals(4, bids.getVolumeCount(1));
+        assertEquals(210, bids.getPriceCount(3));
+        assertEquals(0, bids.indexOf(240));
+        assertEquals(-1, bids.indexOf(230));
+
+        BookSide asks = BookSide.asks();
+        asks.add(260, -1);
+        asks.add(250, -2);
+        asks.add(280, -3);
+        assertEquals(250, asks.getBestPriceCount(Long.MAX_VALUE));
+        assertEquals(-2, asks.getBestVolumeCount());
+        asks.remove(0);
+        assertEquals(260, asks.getBestPriceCount(Long.MAX_VALUE));
+        assertEquals(-4, asks.getVolumeCountToDepth(5));
+    }
+
+    @Test
+    public final void volumeWeightedPrice() {
+        BookSide asks = BookSide.asks();
+        asks.add(100, -2);
+        asks.add(110, -2);
+        assertEquals(100d, asks.getVolumeWeightedPriceCount(1), 0d);
+        assertEquals(105d, asks.getVolumeWeightedPriceCount(4), 0d);
+        assertEquals(105d, asks.getVolumeWeightedPriceCount(10), 0d);
+        assertEquals(1, asks.getLevelForVolumeCount(3));
+        assertTrue(Double.isNaN(BookSide.bids().getVolumeWeightedPriceCount(1)));
+    }
+
+    @Test
+    public final void bookViews() {
+        Book.Builder builder = new Book.Builder();
+        builder.start(Instant.now(), null, market);
+        builder.addBid(new BigDecimal("2.1"), new BigDecimal("1.04"));
+        builder.addBid(new BigDecimal("2.4"), new BigDecimal("1.01"));
+        builder.addAsk(new BigDecimal("2.8"), new BigDecimal("1.04"));
+        builder.addAsk(new BigDecimal("2.5"), new BigDecimal("1.01"));
+        Book book = builder.build();
+
+        assertEquals(240, book.getBestBidPriceCount());
+        assertEquals(250, book.getBestAskPriceCount());
+        assertEquals(-101, book.getBestAskVolumeCount());
+        assertEquals(205, book.getBidVolumeCountToDepth(2));
+
+        List<Offer> bids = book.getBids();
+        assertEquals(2, bids.size());
+        assertSame(bids.get(0), book.getBestBid());
+        assertEquals(Long.valueOf(210), bids.get(1).getPriceCount());
+
+        // a volume replaced in place is seen by the view
+        book.getBidSide().setVolumeCount(0, 7);
+        assertEquals(Long.valueOf(7), book.getBestBid().getVolumeCount());
+
+        // offers added through the view land at their sorted position
+        book.getAsks().add(new Offer(market, book.getTime(), book.getTimeReceived(), 240L, -5L));
+        assertEquals(240, book.getBestAskPriceCount());
+        assertEquals(Long.valueOf(-5), book.getBestAsk().getVolumeCount());
+        book.getAsks().remove(0);
+        assertEquals(250, book.getBestAskPriceCount());
+
+        // an empty side gives a new offer at the time of its own book
+        builder.start(new Instant(1000), null, market);
+        Book empty = builder.build();
+        assertEquals(0, empty.getBestBidPriceCount());
+        assertEquals(Long.MAX_VALUE, empty.getBestAskPriceCount());
+        assertNotSame(empty.getBestBid(), empty.getBestBid());
+        builder.start(new Instant(2000), null, market);
+        assertEquals(new Instant(2000), builder.build().getBestAsk().getTime());
+    }
+
+    @Test
+    public final void liveBookDeltas() {
+        LiveBook liveBook = new LiveBook(market, 0);
+        Instant now = Instant.now();
+        BookUpdate update = liveBook.applyDelta(Side.BUY, 240, 5, now, now);
+        assertEquals(0, update.getLevel());
+        assertEquals(1, update.getSequence());
+        assertNull(liveBook.applyDelta(Side.BUY, 240, 5, now, now));
+        liveBook.applyDelta(Side.BUY, 230, 2, now, now);
+        update = liveBook.applyDelta(Side.BUY, 240, 0, now, now);
+        assertTrue(update.isRemoved());
+        assertEquals(5, update.getPreviousVolumeCount());
+        assertEquals(230, liveBook.getBestBidPriceCount());
+
+        // a refreshed book only produces updates for the levels that differ
+        BookSide bids = BookSide.bids();
+        bids.add(230, 2);
+        bids.add(220, 4);
+        BookSide asks = BookSide.asks();
+        asks.add(250, -1);
+        List<BookUpdate> updates = liveBook.applySnapshot(bids, asks, now, now);
+        assertEquals(2, updates.size());
+        assertEquals(220, updates.get(0).getPriceCount());
+        assertEquals(1, updates.get(0).getLevel());
+        assertEquals(Side.SELL, updates.get(1).getSide());
+        assertEquals(5, updates.get(1).getSequence());
+        assertTrue(liveBook.applySnapshot(bids, asks, now, now).isEmpty());
+    }
+}
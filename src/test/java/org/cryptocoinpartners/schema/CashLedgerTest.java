@@ -0,0 +1,49 @@
+package org.cryptocoinpartners.schema;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.math.BigDecimal;
+
+import org.cryptocoinpartners.enumeration.TransactionType;
+import org.junit.Test;
+
+public class CashLedgerTest {
+
+    @Test
+    public final void tracksTransactionsIncrementally() {
+        Currency usd = new Currency(false, "USD", 0.01);
+        Currency btc = new Currency(false, "BTC", 0.00000001);
+        Exchange bitstamp = new Exchange("BITSTAMP");
+        Exchange okcoin = new Exchange("OKCOIN");
+        Portfolio portfolio = new Portfolio();
+        portfolio.setBaseAsset(usd);
+
+        Transaction deposit = new Transaction(portfolio, bitstamp, usd, TransactionType.CREDIT, amount("1000.00"));
+        portfolio.addTransaction(deposit);
+        portfolio.addTransaction(new Transaction(portfolio, okcoin, usd, TransactionType.CREDIT, amount("250.50")));
+        portfolio.addTransaction(new Transaction(portfolio, okcoin, btc, TransactionType.CREDIT, amount("2")));
+        portfolio.addTransaction(new Transaction(portfolio, bitstamp, usd, TransactionType.FEES, amount("-0.50")));
+        // adding a transaction twice must not count it twice
+        portfolio.addTransaction(deposit);
+
+        CashLedger ledger = portfolio.getCashLedger();
+        assertEquals(0, ledger.getBalance(usd).compareTo(amount("1250.00")));
+        assertEquals(0, ledger.getBalances(okcoin).get(usd).compareTo(amount("250.50")));
+        assertEquals(0, ledger.getBalances().get(btc).compareTo(amount("2")));
+        assertNull(ledger.compare(CashLedger.recompute(portfolio.getTransactions(), portfolio.getRealisedPnL())));
+
+        portfolio.removeTransaction(deposit);
+        assertEquals(0, ledger.getBalance(usd).compareTo(amount("250.00")));
+        assertNull(ledger.compare(CashLedger.recompute(portfolio.getTransactions(), portfolio.getRealisedPnL())));
+
+        assertEquals(0, ledger.getBalances(bitstamp).get(usd).compareTo(amount("-0.50")));
+
+        portfolio.resetTransactions();
+        assertEquals(0, ledger.getBalance(usd).compareTo(DecimalAmount.ZERO));
+    }
+
+    private static Amount amount(String value) {
+        return new DecimalAmount(new BigDecimal(value));
+    }
+}
@@ -0,0 +1,101 @@
+package org.cryptocoinpartners.schema;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.cryptocoinpartners.enumeration.PositionEffect;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares reading the net open volume of a market by walking every fill of every position, as Portfolio.getNetPosition did, against
+ * summing the running counters of the positions and against a single PositionIndex slot. Not run by the unit tests; run with
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.openjdk.jmh.Main -Dexec.args=PositionBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class PositionBenchmark {
+
+    @Param({ "10000", "50000" })
+    public int fills;
+
+    @Param({ "100" })
+    public int fillsPerPosition;
+
+    private final Market market = new Market(new Exchange("BITSTAMP"), new Listing(new Currency(false, "BTC", 0.01), new Currency(false, "USD",
+            0.01)), 0.01, 0.01);
+    private final List<Position> positions = new ArrayList<Position>();
+    private final PositionIndex index = new PositionIndex();
+    private int slot;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        Position position = null;
+        for (int i = 0; i < fills; i++) {
+            if (i % fillsPerPosition == 0) {
+                position = new Position();
+                position.setMarket(market);
+                position.setFills(new ArrayList<Fill>());
+                positions.add(position);
+            }
+            Fill fill = new Fill();
+            fill.setMarket(market);
+            fill.setPriceCount(500000 + random.nextInt(10000));
+            long volume = (1 + random.nextInt(100)) * (random.nextBoolean() ? 1 : -1);
+            fill.setVolumeCount(volume);
+            fill.setOpenVolumeCount(volume);
+            fill.setPositionEffect(PositionEffect.OPEN);
+            position.addFill(fill);
+            index.track(fill);
+        }
+        slot = index.slotOf(market);
+        // sum once so the counters are built before measuring
+        positionCounters();
+    }
+
+    @Benchmark
+    public long nestedTraversal() {
+        long netVolumeCount = 0;
+        for (Position position : positions)
+            for (Fill fill : position.getFills())
+                netVolumeCount += fill.getOpenVolumeCount();
+        return netVolumeCount;
+    }
+
+    @Benchmark
+    public long positionCounters() {
+        long netVolumeCount = 0;
+        for (Position position : positions)
+            netVolumeCount += position.getOpenVolumeCount();
+        return netVolumeCount;
+    }
+
+    @Benchmark
+    public long indexSlot() {
+        return index.getNetVolumeCount(slot);
+    }
+
+    @Benchmark
+    public Amount longAvgPrice() {
+        return positions.get(0).getLongAvgPrice();
+    }
+}
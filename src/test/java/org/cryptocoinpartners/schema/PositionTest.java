@@ -0,0 +1,87 @@
+package org.cryptocoinpartners.schema;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+
+import org.cryptocoinpartners.enumeration.PositionEffect;
+import org.junit.Test;
+
+public class PositionTest {
+
+    private final Market market = new Market(new Exchange("BITSTAMP"), new Listing(new Currency(false, "BTC", 0.01), new Currency(false, "USD",
+            0.01)), 0.01, 0.01);
+
+    @Test
+    public final void countersFollowFills() {
+        Position position = new Position();
+        position.setMarket(market);
+        position.setFills(new ArrayList<Fill>());
+        PositionIndex index = new PositionIndex();
+        Fill first = fill(10000, 300, PositionEffect.OPEN);
+        Fill second = fill(12000, 100, PositionEffect.OPEN);
+        Fill sell = fill(13000, -50, PositionEffect.OPEN);
+        position.addFill(first);
+        position.addFill(second);
+        position.addFill(sell);
+        for (Fill fill : position.getFills()) {
+            fill.setPosition(position);
+            index.track(fill);
+        }
+
+        assertEquals(400, position.getLongVolumeCount());
+        assertEquals(-50, position.getShortVolumeCount());
+        assertEquals(350, position.getOpenVolumeCount());
+        // (300 * 100.00 + 100 * 120.00) / 400
+        assertEquals(0, position.getLongAvgPrice().compareTo(new DecimalAmount(new BigDecimal("105.00"))));
+        assertEquals(0, position.getShortAvgPrice().compareTo(new DecimalAmount(new BigDecimal("130.00"))));
+        assertEquals(350, index.getNetVolumeCount(market));
+
+        // closing out part of the first fill moves the counters, the average and the index by the difference
+        first.setOpenVolumeCount(100);
+        assertEquals(200, position.getLongVolumeCount());
+        assertEquals(0, position.getLongAvgPrice().compareTo(new DecimalAmount(new BigDecimal("110.00"))));
+        assertEquals(200, index.getLongVolumeCount(market));
+        assertEquals(-50, index.getShortVolumeCount(market));
+
+        position.removeFill(second);
+        assertEquals(100, position.getLongVolumeCount());
+        assertEquals(50, position.getVolumeCount());
+        // a removed fill is closed out, so it leaves the index too
+        assertEquals(50, index.getNetVolumeCount(market));
+
+        index.reset();
+        first.setOpenVolumeCount(0);
+        assertEquals(0, index.getLongVolumeCount(market));
+        assertEquals(-50, position.getOpenVolumeCount());
+    }
+
+    @Test
+    public final void restoredPositionsAreIndexed() {
+        // as a Portfolio is loaded: its positions come with their fills, which are not merged again
+        Portfolio portfolio = new Portfolio();
+        Position position = new Position();
+        position.setMarket(market);
+        position.setFills(new ArrayList<Fill>());
+        position.addFill(fill(10000, 300, PositionEffect.OPEN));
+        position.addFill(fill(11000, -100, PositionEffect.OPEN));
+        portfolio.addPosition(position);
+
+        assertEquals(300, portfolio.getPositionIndex().getLongVolumeCount(market));
+        assertEquals(200, portfolio.getPositionIndex().getNetVolumeCount(market.getBase(), market.getExchange()));
+        assertEquals(200, portfolio.getNetPosition(market.getBase(), market.getExchange()).getCount());
+        position.getFills().get(0).setOpenVolumeCount(0);
+        assertEquals(-100, portfolio.getNetPosition(market.getBase(), market.getExchange()).getCount());
+    }
+
+    private Fill fill(long priceCount, long volumeCount, PositionEffect positionEffect) {
+        Fill fill = new Fill();
+        fill.setMarket(market);
+        fill.setPriceCount(priceCount);
+        fill.setVolumeCount(volumeCount);
+        fill.setOpenVolumeCount(volumeCount);
+        fill.setPositionEffect(positionEffect);
+        return fill;
+    }
+}
@@ -0,0 +1,45 @@
+package org.cryptocoinpartners.schema;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class ReferenceDataTest {
+
+    // symbols no other test uses, as the registry is shared by the JVM
+    private final Currency base = new Currency(false, "RDTB", 1e-8);
+    private final Currency quote = new Currency(true, "RDTQ", 0.01);
+    private final Exchange exchange = new Exchange("RDTX");
+    private final Listing listing = new Listing(base, quote);
+    private final Market market = new Market(exchange, listing, 0.01, 1e-8);
+
+    @Test
+    public final void preloadedEntitiesAreFoundWithoutTheDatabase() {
+        ReferenceData.preload(Arrays.asList(base, quote), Collections.<Prompt> emptyList(), Arrays.asList(listing), Arrays.asList(market));
+
+        // EM and the market factory are not set up in tests, so these would fail if they missed the registry
+        assertSame(base, Currency.forSymbol("RDTB"));
+        assertSame(base, Asset.forSymbol("RDTB"));
+        assertSame(listing, Listing.forPair(base, quote));
+        assertSame(listing, Listing.forSymbol("RDTB.RDTQ"));
+        assertSame(market, Market.findOrCreate(exchange, listing));
+
+        // copies loaded apart from the interned ones resolve to them by symbol
+        Currency baseCopy = new Currency(false, "RDTB", 1e-8);
+        Listing listingCopy = new Listing(baseCopy, new Currency(true, "RDTQ", 0.01));
+        assertSame(listing, Listing.forPair(baseCopy, quote));
+        assertSame(market, Market.findOrCreate(new Exchange("RDTX"), listingCopy));
+        assertEquals(ReferenceData.idOf(base), ReferenceData.idOf(baseCopy));
+        assertEquals(ReferenceData.idOf(listing), ReferenceData.idOf(listingCopy));
+        assertSame(market, ReferenceData.getMarket(ReferenceData.idOf(market)));
+        assertSame(listing, ReferenceData.getListing(listingCopy.getReferenceId()));
+
+        assertSame(listing, ReferenceData.intern(listingCopy));
+        assertNull(ReferenceData.getListing(quote, base, null));
+    }
+}
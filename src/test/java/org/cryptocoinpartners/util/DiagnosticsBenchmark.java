@@ -0,0 +1,61 @@
+package org.cryptocoinpartners.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Measures what a debug message of the kind DaoJpa.persist and EntityBase.getUpdateLock write costs per event when debug is off, built as
+ * they were, by concatenating the entity and Thread.currentThread().getStackTrace()[2], against passing Diagnostics.caller() as an argument
+ * of a parameterised message. callerWalked measures the walk which is left when the message is written. The logger is outside
+ * org.cryptocoinpartners, so logback.xml leaves its debug off. Not run by the unit tests; run with
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.openjdk.jmh.Main -Dexec.args=DiagnosticsBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class DiagnosticsBenchmark {
+
+    private static final Logger log = LoggerFactory.getLogger("benchmark.diagnostics");
+
+    private final Map<String, Integer> entity = new HashMap<>();
+
+    {
+        for (int i = 0; i < 8; i++)
+            entity.put("order-" + i, i);
+    }
+
+    @Benchmark
+    public void eagerStackTrace() {
+        log.debug("persist " + entity + " called from class " + Thread.currentThread().getStackTrace()[2]);
+    }
+
+    @Benchmark
+    public void parameterised() {
+        log.debug("persist {} called from class {}", entity, Diagnostics.caller());
+    }
+
+    @Benchmark
+    public String callerWalked() {
+        return Diagnostics.caller().toString();
+    }
+
+}
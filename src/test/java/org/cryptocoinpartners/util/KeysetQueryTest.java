@@ -0,0 +1,39 @@
+package org.cryptocoinpartners.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+
+import org.cryptocoinpartners.schema.Currency;
+import org.cryptocoinpartners.schema.Exchange;
+import org.cryptocoinpartners.schema.Listing;
+import org.cryptocoinpartners.schema.Market;
+import org.cryptocoinpartners.schema.Trade;
+import org.joda.time.Instant;
+import org.junit.Test;
+
+public class KeysetQueryTest {
+
+    @Test
+    public final void seeksPastLastRow() {
+        KeysetQuery keyset = new KeysetQuery("select t from Trade t where market = ?1 or market = ?2", "timeReceived");
+        assertEquals("select t from Trade t where market = ?1 or market = ?2 order by t.timeReceived, t.id", keyset.getFirstQuery());
+        assertEquals("select t from Trade t where (market = ?1 or market = ?2) and (t.timeReceived > ?3 or (t.timeReceived = ?3 and t.id > ?4))"
+                + " order by t.timeReceived, t.id", keyset.getNextQuery(2));
+
+        keyset = new KeysetQuery("select b from Book b", "time");
+        assertEquals("select b from Book b where (b.time > ?1 or (b.time = ?1 and b.id > ?2)) order by b.time, b.id", keyset.getNextQuery(0));
+
+        Market market = new Market(new Exchange("BITSTAMP"), new Listing(new Currency(false, "BTC", 0.01), new Currency(false, "USD", 0.01)),
+                0.01, 0.01);
+        Instant time = new Instant(1000);
+        Trade last = new Trade(market, time, "1", BigDecimal.ONE, BigDecimal.ONE);
+        assertArrayEquals(new Object[] { "x", time, last.getId() }, keyset.getNextParams(new Object[] { "x" }, last));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public final void rejectsOrderedQueries() {
+        new KeysetQuery("select t from Trade t order by t.time", "time");
+    }
+}
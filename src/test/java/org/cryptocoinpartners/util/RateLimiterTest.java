@@ -0,0 +1,70 @@
+package org.cryptocoinpartners.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.cryptocoinpartners.util.RateLimiter.Endpoint;
+import org.cryptocoinpartners.util.RateLimiter.Priority;
+import org.joda.time.Duration;
+import org.junit.Test;
+
+public class RateLimiterTest {
+
+    private final List<String> ran = new ArrayList<>();
+    private final CountDownLatch done = new CountDownLatch(5);
+    // runs each runnable on the thread which gives it its permit, so they run in the order they were given permits
+    private final RateLimiter limiter = new RateLimiter(new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    }, 1, Duration.millis(50));
+
+    @Test
+    public final void ordersGoAheadOfWaitingPolls() throws InterruptedException {
+        limiter.submit(Endpoint.PRIVATE_TRADING, Priority.POLL, record("poll1"));
+        limiter.submit(Endpoint.PRIVATE_TRADING, Priority.POLL, record("poll2"));
+        limiter.submit(Endpoint.PRIVATE_TRADING, Priority.POLL, record("poll3"));
+        limiter.submit(Endpoint.PRIVATE_TRADING, Priority.ORDER, record("order"));
+        // another endpoint has its own budget
+        limiter.submit(Endpoint.PUBLIC_DATA, Priority.POLL, record("data"));
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        synchronized (ran) {
+            assertEquals(Arrays.asList("poll1", "data", "order", "poll2", "poll3"), ran);
+        }
+        assertEquals(4, limiter.getGranted(Endpoint.PRIVATE_TRADING));
+        assertEquals(0, limiter.getWaiting(Endpoint.PRIVATE_TRADING));
+        // poll3 waited for three windows
+        assertTrue(limiter.getMaxWaitNanos(Endpoint.PRIVATE_TRADING) >= TimeUnit.MILLISECONDS.toNanos(100));
+    }
+
+    @Test
+    public final void callerIsRejectedWhenNoPermitComesInTime() throws InterruptedException {
+        assertTrue(limiter.tryAcquire(Endpoint.PRIVATE_TRADING, Priority.ORDER, 0, TimeUnit.MILLISECONDS));
+        assertFalse(limiter.tryAcquire(Endpoint.PRIVATE_TRADING, Priority.ORDER, 10, TimeUnit.MILLISECONDS));
+        assertEquals(1, limiter.getRejected(Endpoint.PRIVATE_TRADING));
+        assertEquals(0, limiter.getWaiting(Endpoint.PRIVATE_TRADING));
+        assertTrue(limiter.tryAcquire(Endpoint.PRIVATE_TRADING, Priority.ORDER, 1, TimeUnit.SECONDS));
+    }
+
+    private Runnable record(final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                synchronized (ran) {
+                    ran.add(name);
+                }
+                done.countDown();
+            }
+        };
+    }
+}
@@ -0,0 +1,96 @@
+package org.cryptocoinpartners.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.cryptocoinpartners.schema.Currency;
+import org.cryptocoinpartners.schema.Event;
+import org.cryptocoinpartners.schema.Exchange;
+import org.cryptocoinpartners.schema.Listing;
+import org.cryptocoinpartners.schema.Market;
+import org.cryptocoinpartners.schema.MarketData;
+import org.cryptocoinpartners.schema.Trade;
+import org.cryptocoinpartners.schema.Tradeable;
+import org.joda.time.Instant;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures a partitioned replay of 200,000 trades spread over 20 markets, where each market's pipeline does a fixed amount of work per trade
+ * in place of a strategy, for a range of thread counts. Not run by the unit tests; run with
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.openjdk.jmh.Main -Dexec.args=ReplayPartitionsBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ReplayPartitionsBenchmark {
+
+    private static final int MARKETS = 20;
+    private static final int BATCH_SIZE = 256;
+
+    @Param({ "1", "2", "4", "8" })
+    public int threads;
+
+    @Param({ "2000" })
+    public int workPerTrade;
+
+    private final List<List<MarketData>> batches = new ArrayList<>();
+
+    @Setup
+    public void setup() {
+        List<Market> markets = new ArrayList<>();
+        for (int i = 0; i < MARKETS; i++)
+            markets.add(new Market(new Exchange("BITSTAMP"), new Listing(new Currency(false, "C" + i, 0.01), new Currency(false, "USD", 0.01)),
+                    0.01, 0.01));
+        List<MarketData> batch = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < 200000; i++) {
+            batch.add(new Trade(markets.get(i % MARKETS), new Instant(i), null, 10000 + i % 100, 1));
+            if (batch.size() == BATCH_SIZE) {
+                batches.add(batch);
+                batch = new ArrayList<>(BATCH_SIZE);
+            }
+        }
+        batches.add(batch);
+    }
+
+    @Benchmark
+    public void replay(final Blackhole blackhole) throws InterruptedException {
+        ReplayPartitions partitions = new ReplayPartitions(threads, 80, new ReplayPartitions.PipelineFactory() {
+            @Override
+            public ReplayPartitions.Pipeline create(Tradeable market) {
+                return new ReplayPartitions.Pipeline() {
+                    @Override
+                    public void publish(Event event) {
+                        Blackhole.consumeCPU(workPerTrade);
+                        blackhole.consume(event);
+                    }
+
+                    @Override
+                    public void advanceTime(Instant time) {
+                        blackhole.consume(time);
+                    }
+                };
+            }
+        });
+        for (List<MarketData> batch : batches)
+            partitions.publish(batch, batch.get(batch.size() - 1).getTime());
+        partitions.finish(new Instant(200000));
+    }
+}
@@ -0,0 +1,83 @@
+package org.cryptocoinpartners.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.cryptocoinpartners.schema.Currency;
+import org.cryptocoinpartners.schema.Event;
+import org.cryptocoinpartners.schema.Exchange;
+import org.cryptocoinpartners.schema.Listing;
+import org.cryptocoinpartners.schema.Market;
+import org.cryptocoinpartners.schema.MarketData;
+import org.cryptocoinpartners.schema.Trade;
+import org.cryptocoinpartners.schema.Tradeable;
+import org.joda.time.Instant;
+import org.junit.Test;
+
+public class ReplayPartitionsTest {
+
+    private final List<Market> markets = new ArrayList<>();
+
+    public ReplayPartitionsTest() {
+        for (String base : new String[] { "BTC", "LTC", "ETH" })
+            markets.add(new Market(new Exchange("BITSTAMP"), new Listing(new Currency(false, base, 0.01), new Currency(false, "USD", 0.01)), 0.01,
+                    0.01));
+    }
+
+    @Test
+    public final void pipelinesSeeTheSameStreamWhateverTheThreadCount() throws InterruptedException {
+        Map<Tradeable, List<String>> single = replay(1);
+        Map<Tradeable, List<String>> parallel = replay(4);
+        assertEquals(single, parallel);
+
+        List<String> btc = single.get(markets.get(0));
+        // only its own market's trades, in order, with the clock moved on after each batch
+        assertEquals("trade 0 at 0", btc.get(0));
+        assertEquals("trade 3 at 3", btc.get(1));
+        assertEquals("trade 6 at 6", btc.get(2));
+        assertEquals("time 6", btc.get(3));
+        assertEquals("time 2000", btc.get(btc.size() - 1));
+        for (String entry : btc)
+            assertTrue(!entry.startsWith("trade") || Integer.parseInt(entry.split(" ")[1]) % 3 == 0);
+    }
+
+    private Map<Tradeable, List<String>> replay(int threads) throws InterruptedException {
+        final Map<Tradeable, List<String>> seen = new LinkedHashMap<>();
+        ReplayPartitions partitions = new ReplayPartitions(threads, 2, new ReplayPartitions.PipelineFactory() {
+            @Override
+            public ReplayPartitions.Pipeline create(Tradeable market) {
+                final List<String> log = new ArrayList<>();
+                seen.put(market, log);
+                return new ReplayPartitions.Pipeline() {
+                    @Override
+                    public void publish(Event event) {
+                        Trade trade = (Trade) event;
+                        log.add("trade " + trade.getRemoteKey() + " at " + trade.getTime().getMillis());
+                    }
+
+                    @Override
+                    public void advanceTime(Instant time) {
+                        log.add("time " + time.getMillis());
+                    }
+                };
+            }
+        });
+        List<MarketData> batch = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            batch.add(new Trade(markets.get(i % markets.size()), new Instant(i), String.valueOf(i), 100 + i, 1));
+            if (batch.size() == 7) {
+                partitions.publish(batch, batch.get(batch.size() - 1).getTime());
+                batch = new ArrayList<>();
+            }
+        }
+        partitions.publish(batch, batch.get(batch.size() - 1).getTime());
+        partitions.finish(new Instant(2000));
+        assertEquals(seen.keySet(), partitions.getPipelines().keySet());
+        return seen;
+    }
+}
@@ -0,0 +1,40 @@
+package org.cryptocoinpartners.util;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of a tick of SyntheticMarketData for four correlated markets switching between two regimes, one of them with jumps,
+ * which bounds the rate MockTicker can publish at before the Context's own costs. Not run by the unit tests; run with
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.openjdk.jmh.Main -Dexec.args=SyntheticMarketDataBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class SyntheticMarketDataBenchmark {
+
+    private final SyntheticMarketData data = new SyntheticMarketData(1, new double[] { 500, 500, 30, 0.5 }, 0.5, Arrays.asList(
+            new SyntheticMarketData.Regime(0, 0.5, 0, 0, 3600), new SyntheticMarketData.Regime(0.2, 2, 50, 0.05, 600)), 1);
+
+    @Benchmark
+    public double next() {
+        data.next();
+        return data.getPrice(0);
+    }
+}
@@ -0,0 +1,71 @@
+package org.cryptocoinpartners.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SyntheticMarketDataTest {
+
+    private static final List<SyntheticMarketData.Regime> regimes = Arrays.asList(new SyntheticMarketData.Regime(0, 0.5, 0, 0, 3600),
+            new SyntheticMarketData.Regime(0.2, 2, 50, 0.05, 600));
+
+    @Test
+    public final void sameSeedGivesSameTicks() {
+        SyntheticMarketData data = new SyntheticMarketData(42, new double[] { 500, 30 }, 0.5, regimes, 1);
+        SyntheticMarketData again = new SyntheticMarketData(42, new double[] { 500, 30 }, 0.5, regimes, 1);
+        SyntheticMarketData other = new SyntheticMarketData(43, new double[] { 500, 30 }, 0.5, regimes, 1);
+        boolean switched = false;
+        for (int i = 0; i < 100000; i++) {
+            data.next();
+            again.next();
+            other.next();
+            assertEquals(data.getElapsedMillis(), again.getElapsedMillis());
+            assertEquals(data.getPrice(0), again.getPrice(0), 0);
+            assertEquals(data.getPrice(1), again.getPrice(1), 0);
+            assertEquals(data.getRegime(), again.getRegime());
+            switched |= data.getRegime() != 0;
+        }
+        assertTrue("never left the first regime", switched);
+        assertNotEquals(data.getPrice(0), other.getPrice(0), 0);
+        // a mean interval of a second over 100000 ticks
+        assertEquals(100000, data.getElapsedMillis() / 1000.0, 1500);
+    }
+
+    @Test
+    public final void returnsAreCorrelated() {
+        SyntheticMarketData data = new SyntheticMarketData(7, new double[] { 100, 100 }, 0.8, regimes.subList(0, 1), 60);
+        int n = 50000;
+        double[] a = new double[n];
+        double[] b = new double[n];
+        double lastA = Math.log(data.getPrice(0));
+        double lastB = Math.log(data.getPrice(1));
+        for (int i = 0; i < n; i++) {
+            data.next();
+            a[i] = Math.log(data.getPrice(0)) - lastA;
+            b[i] = Math.log(data.getPrice(1)) - lastB;
+            lastA += a[i];
+            lastB += b[i];
+        }
+        assertEquals(0.8, correlation(a, b), 0.03);
+    }
+
+    private static double correlation(double[] a, double[] b) {
+        double meanA = 0, meanB = 0;
+        for (int i = 0; i < a.length; i++) {
+            meanA += a[i] / a.length;
+            meanB += b[i] / b.length;
+        }
+        double ab = 0, aa = 0, bb = 0;
+        for (int i = 0; i < a.length; i++) {
+            ab += (a[i] - meanA) * (b[i] - meanB);
+            aa += (a[i] - meanA) * (a[i] - meanA);
+            bb += (b[i] - meanB) * (b[i] - meanB);
+        }
+        return ab / Math.sqrt(aa * bb);
+    }
+}
@@ -0,0 +1,41 @@
+package org.cryptocoinpartners.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ThreadUsageTest {
+
+    @Test
+    public final void countsThreadsAfterTheyFinish() throws InterruptedException {
+        assumeTrue(ThreadUsage.measuresCpu() && ThreadUsage.measuresAllocation());
+        ThreadUsage usage = new ThreadUsage();
+        assertEquals(0, usage.getCpuNanos());
+        assertEquals(0, usage.getAllocatedBytes());
+
+        ExecutorService pool = Executors.newFixedThreadPool(2, usage.wrap(Executors.defaultThreadFactory()));
+        for (int i = 0; i < 2; i++)
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    List<long[]> garbage = new ArrayList<>();
+                    for (int j = 0; j < 1000; j++)
+                        garbage.add(new long[1024]);
+                }
+            });
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+
+        // both threads have exited, so only the totals they left behind are counted
+        assertTrue(usage.getCpuNanos() > 0);
+        assertTrue(usage.getAllocatedBytes() >= 2 * 1000 * 1024 * 8L);
+    }
+}
@@ -0,0 +1,86 @@
+package org.cryptocoinpartners.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TickFileTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public final void appendsAcrossReopensAndSeeksByTime() throws IOException {
+        File file = TickFile.fileFor(folder.getRoot(), "BITSTAMP", "BTC.USD");
+        // a chunk of 3 records, so the file is grown several times
+        TickFile.Writer writer = new TickFile.Writer(file, "BITSTAMP", "BTC.USD", 0.01, 0.00000001, 3);
+        for (int i = 0; i < 5; i++)
+            writer.append(1000 + i * 10, 40000 + i, 5, 39999 + i, 7, TickFile.NONE, 0);
+        writer.close();
+        writer = new TickFile.Writer(file, "BITSTAMP", "BTC.USD", 0.01, 0.00000001, 3);
+        assertEquals(5, writer.size());
+        for (int i = 5; i < 10; i++)
+            writer.append(1000 + i * 10, 40000 + i, 5, 39999 + i, 7, 40001 + i, -9);
+        // not closed, as when the writer is killed: the header counts only whole records
+        TickFile.Reader reader = new TickFile.Reader(file, 4);
+        assertEquals("BITSTAMP", reader.getExchange());
+        assertEquals("BTC.USD", reader.getListing());
+        assertEquals(0.01, reader.getPriceBasis(), 0);
+        assertEquals(10, reader.size());
+        for (int i = 0; i < 10; i++) {
+            assertTrue(reader.next());
+            assertEquals(1000 + i * 10, reader.getTime());
+            assertEquals(40000 + i, reader.getPriceCount());
+            assertEquals(39999 + i, reader.getBidPriceCount());
+            assertEquals(i < 5 ? TickFile.NONE : 40001 + i, reader.getAskPriceCount());
+        }
+        assertFalse(reader.next());
+
+        assertEquals(3, reader.seek(1025));
+        assertTrue(reader.next());
+        assertEquals(1030, reader.getTime());
+        assertEquals(7, reader.seek(1070));
+        assertTrue(reader.next());
+        assertEquals(1070, reader.getTime());
+        assertEquals(0, reader.seek(0));
+        assertEquals(10, reader.seek(2000));
+        assertFalse(reader.next());
+        reader.close();
+        writer.close();
+        assertEquals(TickFile.HEADER_SIZE + 10 * TickFile.RECORD_SIZE, file.length());
+    }
+
+    @Test
+    public final void refusesAnotherMarketsFile() throws IOException {
+        File file = TickFile.fileFor(folder.getRoot(), "BITSTAMP", "BTC.USD");
+        TickFile.Writer writer = new TickFile.Writer(file, "BITSTAMP", "BTC.USD", 0.01, 0.00000001, 16);
+        for (int i = 0; i < 3; i++)
+            writer.append(1000 + i, 40000 + i, 5, 39999 + i, 7, 40001 + i, -9);
+        writer.close();
+        long length = file.length();
+        try {
+            new TickFile.Writer(file, "BITSTAMP", "BTC.USD", 0.001, 0.00000001, 16);
+            fail("a writer appended with another price basis");
+        } catch (IOException e) {
+            // expected
+        }
+        // the refused writer leaves the records it did not count in place
+        assertEquals(length, file.length());
+        TickFile.Reader reader = new TickFile.Reader(file);
+        assertEquals(3, reader.size());
+        for (int i = 0; i < 3; i++) {
+            assertTrue(reader.next());
+            assertEquals(1000 + i, reader.getTime());
+            assertEquals(40000 + i, reader.getPriceCount());
+        }
+        reader.close();
+    }
+}